@@ -74,6 +74,7 @@ public boolean isTransactional() {
         case SetTypes.TIME_ZONE:
         case SetTypes.VARIABLE_BINARY:
         case SetTypes.TRUNCATE_LARGE_LENGTH:
+        case SetTypes.PARALLEL_SCAN_THREADS:
         case SetTypes.WRITE_DELAY:
             return true;
         default:
@@ -555,6 +556,14 @@ public long update() {
         case SetTypes.TRUNCATE_LARGE_LENGTH:
             session.setTruncateLargeLength(expression.getBooleanValue(session));
             break;
+        case SetTypes.PARALLEL_SCAN_THREADS: {
+            int value = getIntValue();
+            if (value < 1) {
+                throw DbException.getInvalidValueException("PARALLEL_SCAN_THREADS", value);
+            }
+            session.setParallelScanThreads(value);
+            break;
+        }
         default:
             throw DbException.getInternalError("type="+type);
         }
@@ -242,7 +242,12 @@ public class SetTypes {
      */
     public static final int TRUNCATE_LARGE_LENGTH = DEFAULT_NULL_ORDERING + 1;
 
-    private static final int COUNT = TRUNCATE_LARGE_LENGTH + 1;
+    /**
+     * The type of a SET PARALLEL_SCAN_THREADS statement.
+     */
+    public static final int PARALLEL_SCAN_THREADS = TRUNCATE_LARGE_LENGTH + 1;
+
+    private static final int COUNT = PARALLEL_SCAN_THREADS + 1;
 
     private static final List<String> TYPES;
 
@@ -297,7 +302,8 @@ private SetTypes() {
                 "TIME ZONE", //
                 "VARIABLE_BINARY", //
                 "DEFAULT_NULL_ORDERING", //
-                "TRUNCATE_LARGE_LENGTH");
+                "TRUNCATE_LARGE_LENGTH", //
+                "PARALLEL_SCAN_THREADS");
         assert TYPES.size() == COUNT;
     }
 
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.h2.engine.Database;
+import org.h2.engine.SessionLocal;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ValueExpression;
+import org.h2.result.LocalResult;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.table.Column;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueBigint;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueRow;
+
+/**
+ * Source rows of a group query whose groups didn't fit into memory. The rows
+ * are distributed among partitions by hash codes of their group keys, so all
+ * rows of a group are in the same partition and each partition can be grouped
+ * separately. Partitions are stored in temporary results and use temporary
+ * files when they have too many rows.
+ * <p>
+ * For each row the current rows of all table filters of the query are stored,
+ * they are restored when the rows of a partition are read back.
+ * </p>
+ * <p>
+ * The number of groups is limited when a partition is grouped too. Rows of
+ * groups that still don't fit into memory are distributed among partitions of
+ * the next level, which use other bits of the hash codes.
+ * </p>
+ */
+final class GroupPartitions {
+
+    /**
+     * The minimum number of partitions.
+     */
+    private static final int MIN_PARTITIONS = 8;
+
+    /**
+     * The maximum number of partitions; each partition may use an own
+     * temporary file.
+     */
+    private static final int MAX_PARTITIONS = 64;
+
+    /**
+     * The number of bits of hash codes used to choose a partition on each
+     * level.
+     */
+    private static final int PARTITION_BITS = 6;
+
+    private final TableFilter[] filters;
+
+    /**
+     * The offsets of the values of the table filters in the stored rows.
+     */
+    private final int[] offsets;
+
+    /**
+     * The number of columns in the stored rows; the last column contains the
+     * row number.
+     */
+    private final int degree;
+
+    private final SessionLocal session;
+
+    private final SelectGroups.Grouped groupData;
+
+    private final int maxMemoryRows;
+
+    private final Expression[] expressions;
+
+    /**
+     * The level of these partitions, partitions of the source rows have
+     * level 0.
+     */
+    private final int level;
+
+    /**
+     * The expected number of rows.
+     */
+    private final long expectedRows;
+
+    /**
+     * The partitions, or {@code null} if no rows were added.
+     */
+    private LocalResult[] partitions;
+
+    private int currentPartition = -1;
+
+    private long rowNumber;
+
+    /**
+     * Creates new partitions.
+     *
+     * @param session
+     *            the session
+     * @param groupData
+     *            the group data
+     * @param topTableFilter
+     *            the top table filter of the query
+     * @param maxMemoryRows
+     *            the maximum number of groups kept in memory
+     */
+    GroupPartitions(SessionLocal session, SelectGroups.Grouped groupData, TableFilter topTableFilter,
+            int maxMemoryRows) {
+        this.session = session;
+        this.groupData = groupData;
+        this.maxMemoryRows = maxMemoryRows;
+        level = 0;
+        expectedRows = topTableFilter.getTable().getRowCountApproximation(session);
+        ArrayList<TableFilter> list = new ArrayList<>();
+        topTableFilter.visit(list::add);
+        int count = list.size();
+        filters = list.toArray(new TableFilter[0]);
+        offsets = new int[count];
+        Database database = session.getDatabase();
+        ArrayList<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            offsets[i] = expressions.size();
+            Table table = filters[i].getTable();
+            for (Column column : table.getColumns()) {
+                expressions.add(new ExpressionColumn(database, column));
+            }
+            // row key, or NULL if there is no current row
+            expressions.add(new ExpressionColumn(database, null, table.getName()));
+        }
+        expressions.add(ValueExpression.get(ValueBigint.get(0L)));
+        degree = expressions.size();
+        this.expressions = expressions.toArray(new Expression[0]);
+    }
+
+    private GroupPartitions(GroupPartitions parent, long expectedRows) {
+        session = parent.session;
+        groupData = parent.groupData;
+        maxMemoryRows = parent.maxMemoryRows;
+        filters = parent.filters;
+        offsets = parent.offsets;
+        degree = parent.degree;
+        expressions = parent.expressions;
+        level = parent.level + 1;
+        this.expectedRows = expectedRows;
+    }
+
+    /**
+     * Creates partitions of the next level for rows of the current partition
+     * whose groups don't fit into memory. Temporary results are created only
+     * when rows are added.
+     *
+     * @return the partitions of the next level
+     */
+    GroupPartitions nextLevel() {
+        return new GroupPartitions(this, partitions[currentPartition].getRowCount());
+    }
+
+    private LocalResult[] createPartitions() {
+        long expectedRows = Math.max(this.expectedRows, maxMemoryRows);
+        int partitionCount = (int) Math.max(MIN_PARTITIONS,
+                Math.min(MAX_PARTITIONS, 2 * expectedRows / maxMemoryRows + 1));
+        LocalResult[] partitions = new LocalResult[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            LocalResult partition = new LocalResult(session, expressions, degree, degree);
+            partition.setMaxMemoryRows(Math.max(maxMemoryRows / partitionCount, 1));
+            partitions[i] = partition;
+        }
+        return partitions;
+    }
+
+    /**
+     * Adds the current source row to the partition of its group.
+     *
+     * @param rowNumber
+     *            the row number
+     */
+    void add(long rowNumber) {
+        Value[] values = new Value[degree];
+        for (int i = 0, count = filters.length; i < count; i++) {
+            TableFilter f = filters[i];
+            int offset = offsets[i];
+            Column[] columns = f.getTable().getColumns();
+            int length = columns.length;
+            Row row = f.get();
+            if (row == null) {
+                Arrays.fill(values, offset, offset + length + 1, ValueNull.INSTANCE);
+            } else {
+                for (int j = 0; j < length; j++) {
+                    values[offset + j] = f.getValue(columns[j]);
+                }
+                values[offset + length] = ValueBigint.get(row.getKey());
+            }
+        }
+        values[degree - 1] = ValueBigint.get(rowNumber);
+        LocalResult[] partitions = this.partitions;
+        if (partitions == null) {
+            this.partitions = partitions = createPartitions();
+        }
+        ValueRow key = groupData.getCurrentGroupsKey();
+        // use the high bits, hash maps use the low bits of hash codes; all
+        // rows of a partition have the same high bits, the next level uses
+        // the following bits
+        int h = Integer.rotateLeft(key.hashCode() * 0x9e37_79b9, level * PARTITION_BITS);
+        partitions[(int) ((h & 0xffff_ffffL) * partitions.length >>> 32)].addRow(values);
+    }
+
+    /**
+     * Moves to the next partition.
+     *
+     * @return {@code false} if there are no more partitions
+     */
+    boolean nextPartition() {
+        if (partitions == null) {
+            return false;
+        }
+        if (currentPartition >= 0) {
+            partitions[currentPartition].close();
+            partitions[currentPartition] = null;
+        }
+        int length = partitions.length;
+        while (++currentPartition < length) {
+            LocalResult partition = partitions[currentPartition];
+            partition.done();
+            if (partition.getRowCount() > 0) {
+                return true;
+            }
+            partition.close();
+            partitions[currentPartition] = null;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next row of the current partition and restores the current
+     * rows of the table filters.
+     *
+     * @return {@code false} if there are no more rows in this partition
+     */
+    boolean next() {
+        LocalResult partition = partitions[currentPartition];
+        if (!partition.next()) {
+            return false;
+        }
+        Value[] values = partition.currentRow();
+        for (int i = 0, count = filters.length; i < count; i++) {
+            TableFilter f = filters[i];
+            Table table = f.getTable();
+            int offset = offsets[i];
+            int length = table.getColumns().length;
+            Value key = values[offset + length];
+            Row row;
+            if (key == ValueNull.INSTANCE) {
+                row = null;
+            } else {
+                row = table.createRow(Arrays.copyOfRange(values, offset, offset + length),
+                        SearchRow.MEMORY_CALCULATE);
+                row.setKey(key.getLong());
+            }
+            f.set(row);
+        }
+        rowNumber = values[degree - 1].getLong();
+        return true;
+    }
+
+    /**
+     * Returns the row number of the current row.
+     *
+     * @return the row number of the current row
+     */
+    long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Closes all partitions.
+     */
+    void close() {
+        if (partitions == null) {
+            return;
+        }
+        for (LocalResult partition : partitions) {
+            if (partition != null) {
+                partition.close();
+            }
+        }
+    }
+
+}
@@ -39,11 +39,15 @@
 import org.h2.expression.function.CoalesceFunction;
 import org.h2.index.Cursor;
 import org.h2.index.Index;
+import org.h2.index.IndexCondition;
 import org.h2.index.IndexSort;
 import org.h2.index.IndexType;
+import org.h2.index.MergeJoinIndex;
 import org.h2.index.QueryExpressionIndex;
 import org.h2.message.DbException;
 import org.h2.mode.DefaultNullOrdering;
+import org.h2.mvstore.db.MVPrimaryIndex;
+import org.h2.mvstore.db.ParallelScanIndex;
 import org.h2.result.LazyResult;
 import org.h2.result.LocalResult;
 import org.h2.result.ResultInterface;
@@ -154,6 +158,12 @@ private enum QuickOffset { NO, YES, PARTIAL }
     private ForUpdate forUpdate;
     private double cost;
     private boolean isQuickAggregateQuery, isDistinctQuery;
+
+    /**
+     * Whether the condition is evaluated for batches of rows of the top table
+     * before its regular evaluation.
+     */
+    private boolean isBatchConditionQuery;
     private int indexSortedColumns;
 
     private boolean isGroupWindowStage2;
@@ -435,7 +445,7 @@ boolean isConditionMetForUpdate() {
     }
 
     boolean isConditionMet() {
-        return condition == null || condition.getBooleanValue(session);
+        return condition == null || topTableFilter.isBatchConditionTrue() || condition.getBooleanValue(session);
     }
 
     private void queryWindow(int columnCount, LocalResult result, long offset, boolean quickOffset) {
@@ -473,14 +483,69 @@ private void queryGroupWindow(int columnCount, LocalResult result, long offset,
 
     private void queryGroup(int columnCount, LocalResult result, long offset, boolean quickOffset) {
         initGroupData(columnCount);
+        GroupPartitions partitions = null;
         try {
-            gatherGroup(columnCount, DataAnalysisOperation.STAGE_GROUP);
-            processGroupResult(columnCount, result, offset, quickOffset, true);
+            Database db = getDatabase();
+            int maxMemoryRows = db.getMaxMemoryRows();
+            SelectGroups.Grouped grouped = groupData instanceof SelectGroups.Grouped
+                    ? (SelectGroups.Grouped) groupData : null;
+            if (grouped != null && grouped.isHashed() && db.isPersistent() && !db.isReadOnly()
+                    && maxMemoryRows > 0) {
+                grouped.setMaxGroups(maxMemoryRows);
+                partitions = new GroupPartitions(session, grouped, topTableFilter, maxMemoryRows);
+            }
+            gatherGroup(columnCount, DataAnalysisOperation.STAGE_GROUP, partitions);
+            offset = processGroupResult(columnCount, result, offset, quickOffset, true);
+            if (partitions != null) {
+                queryGroupPartitions(columnCount, grouped, result, offset, quickOffset, partitions);
+            }
         } finally {
             groupData.reset();
+            if (partitions != null) {
+                partitions.close();
+            }
         }
     }
 
+    /**
+     * Groups source rows that didn't fit into memory partition by partition.
+     * The number of groups is limited in each pass too, rows rejected again
+     * are distributed among partitions of the next level.
+     *
+     * @param columnCount number of columns
+     * @param grouped the group data
+     * @param result the result
+     * @param offset the remaining offset
+     * @param quickOffset whether offset is applied here
+     * @param partitions the partitions
+     * @return the remaining offset
+     */
+    private long queryGroupPartitions(int columnCount, SelectGroups.Grouped grouped, LocalResult result,
+            long offset, boolean quickOffset, GroupPartitions partitions) {
+        while (partitions.nextPartition()) {
+            updateAgg(columnCount, DataAnalysisOperation.STAGE_RESET);
+            grouped.resetGroups();
+            GroupPartitions next = partitions.nextLevel();
+            try {
+                while (partitions.next()) {
+                    long rowNumber = partitions.getRowNumber();
+                    setCurrentRowNumber(rowNumber);
+                    if (grouped.nextSource()) {
+                        updateAgg(columnCount, DataAnalysisOperation.STAGE_GROUP);
+                    } else {
+                        next.add(rowNumber);
+                    }
+                }
+                grouped.done();
+                offset = processGroupResult(columnCount, result, offset, quickOffset, true);
+                offset = queryGroupPartitions(columnCount, grouped, result, offset, quickOffset, next);
+            } finally {
+                next.close();
+            }
+        }
+        return offset;
+    }
+
     private void initGroupData(int columnCount) {
         if (groupData == null) {
             setGroupData(SelectGroups.getInstance(session, expressions, isGroupQuery, groupIndex));
@@ -501,14 +566,29 @@ void setGroupData(final SelectGroups groupData) {
     }
 
     private void gatherGroup(int columnCount, int stage) {
+        gatherGroup(columnCount, stage, null);
+    }
+
+    /**
+     * Gather source rows into groups.
+     *
+     * @param columnCount number of columns
+     * @param stage see STAGE_RESET/STAGE_GROUP/STAGE_WINDOW in DataAnalysisOperation
+     * @param partitions partitions for source rows rejected by the group
+     *            data, or {@code null} if the number of groups isn't limited
+     */
+    private void gatherGroup(int columnCount, int stage, GroupPartitions partitions) {
         long rowNumber = 0;
         setCurrentRowNumber(0);
         while (topTableFilter.next()) {
             setCurrentRowNumber(rowNumber + 1);
             if (forUpdate != null ? isConditionMetForUpdate() : isConditionMet()) {
                 rowNumber++;
-                groupData.nextSource();
-                updateAgg(columnCount, stage);
+                if (groupData.nextSource()) {
+                    updateAgg(columnCount, stage);
+                } else {
+                    partitions.add(rowNumber);
+                }
             }
         }
         groupData.done();
@@ -530,7 +610,7 @@ void updateAgg(int columnCount, int stage) {
         }
     }
 
-    private void processGroupResult(int columnCount, LocalResult result, long offset, boolean quickOffset,
+    private long processGroupResult(int columnCount, LocalResult result, long offset, boolean quickOffset,
             boolean withHaving) {
         for (ValueRow currentGroupsKey; (currentGroupsKey = groupData.next()) != null;) {
             Value[] row = constructGroupResultRow(currentGroupsKey.getList(), columnCount);
@@ -546,6 +626,7 @@ private void processGroupResult(int columnCount, LocalResult result, long offset
             }
             result.addRow(rowForResult(row, columnCount));
         }
+        return offset;
     }
 
     private Value[] constructGroupResultRow(Value[] keyValues, int columnCount) {
@@ -846,34 +927,42 @@ protected ResultInterface queryWithoutCache(long maxRows, ResultTarget target) {
         }
         topTableFilter.startQuery(session);
         topTableFilter.reset();
+        topTableFilter.setBatchCondition(isBatchConditionQuery ? condition.getBatchExpression(session, topTableFilter)
+                : null);
         topTableFilter.lock(session);
         ResultTarget to = result != null ? result : target;
         lazy &= to == null;
         LazyResult lazyResult = null;
-        if (fetch != 0) {
-            // Cannot apply limit now if percent is specified
-            long limit = fetchPercent ? -1 : fetch;
-            if (isQuickAggregateQuery) {
-                queryQuick(columnCount, to, quickOffset == QuickOffset.YES && offset > 0);
-            } else if (isWindowQuery) {
-                if (isGroupQuery) {
-                    queryGroupWindow(columnCount, result, offset, quickOffset == QuickOffset.YES);
+        try {
+            if (fetch != 0) {
+                // Cannot apply limit now if percent is specified
+                long limit = fetchPercent ? -1 : fetch;
+                if (isQuickAggregateQuery) {
+                    queryQuick(columnCount, to, quickOffset == QuickOffset.YES && offset > 0);
+                } else if (isWindowQuery) {
+                    if (isGroupQuery) {
+                        queryGroupWindow(columnCount, result, offset, quickOffset == QuickOffset.YES);
+                    } else {
+                        queryWindow(columnCount, result, offset, quickOffset == QuickOffset.YES);
+                    }
+                } else if (isGroupQuery) {
+                    if (isGroupSortedQuery) {
+                        lazyResult = queryGroupSorted(columnCount, to, offset, quickOffset == QuickOffset.YES);
+                    } else {
+                        queryGroup(columnCount, result, offset, quickOffset == QuickOffset.YES);
+                    }
+                } else if (isDistinctQuery) {
+                    queryDistinct(to, offset, limit, withTies, quickOffset == QuickOffset.YES);
                 } else {
-                    queryWindow(columnCount, result, offset, quickOffset == QuickOffset.YES);
+                    lazyResult = queryFlat(columnCount, to, offset, limit, withTies, quickOffset);
                 }
-            } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
-                    lazyResult = queryGroupSorted(columnCount, to, offset, quickOffset == QuickOffset.YES);
-                } else {
-                    queryGroup(columnCount, result, offset, quickOffset == QuickOffset.YES);
+                if (quickOffset == QuickOffset.YES) {
+                    offset = 0;
                 }
-            } else if (isDistinctQuery) {
-                queryDistinct(to, offset, limit, withTies, quickOffset == QuickOffset.YES);
-            } else {
-                lazyResult = queryFlat(columnCount, to, offset, limit, withTies, quickOffset);
             }
-            if (quickOffset == QuickOffset.YES) {
-                offset = 0;
+        } finally {
+            if (lazyResult == null) {
+                topTableFilter.endQuery();
             }
         }
         assert lazy == (lazyResult != null) : lazy;
@@ -896,9 +985,10 @@ protected ResultInterface queryWithoutCache(long maxRows, ResultTarget target) {
     private void disableLazyForJoinSubqueries(final TableFilter top) {
         if (session.isLazyQueryExecution()) {
             top.visit(f -> {
-                if (f != top && f.getTable().getTableType() == TableType.VIEW) {
+                if (f != top && f.getTable().getTableType() == TableType.VIEW
+                        && f.getIndex() instanceof QueryExpressionIndex) {
                     QueryExpressionIndex idx = (QueryExpressionIndex) f.getIndex();
-                    if (idx != null && idx.getQuery() != null) {
+                    if (idx.getQuery() != null) {
                         idx.getQuery().setNeverLazy(true);
                     }
                 }
@@ -1303,9 +1393,122 @@ public void preparePlan() {
                 }
             }
         }
+        if (topTableFilter.getJoin() != null) {
+            setMergeJoinIndexes();
+        }
+        if (session.getParallelScanThreads() > 1 && !session.isLazyQueryExecution() && forUpdate == null) {
+            setParallelScanIndex();
+        }
+        topTableFilter.setUnordered(indexSortedColumns == 0 && !isGroupSortedQuery && !hasMergeJoin());
+        isBatchConditionQuery = isBatchConditionQuery();
         isPrepared = true;
     }
 
+    /**
+     * Read the top table with multiple threads if all its rows are read from
+     * its scan index and the table is large enough.
+     */
+    private void setParallelScanIndex() {
+        Index index = topTableFilter.getIndex();
+        if (!(index instanceof MVPrimaryIndex) || topTableFilter.isReverse()
+                || index.getRowCountApproximation(session) < ParallelScanIndex.MIN_ROWS) {
+            return;
+        }
+        for (IndexCondition condition : topTableFilter.getIndexConditions()) {
+            if (condition.isCompoundColumns() || index.isFirstColumn(condition.getColumn())) {
+                // the condition may limit the range of keys
+                return;
+            }
+        }
+        topTableFilter.setIndex(new ParallelScanIndex((MVPrimaryIndex) index), false);
+    }
+
+    private boolean hasMergeJoin() {
+        for (TableFilter f = topTableFilter.getJoin(); f != null; f = f.getJoin()) {
+            if (f.getIndex() instanceof MergeJoinIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Use merge joins for the joined tables that are looked up by the column
+     * the rows of the top table are ordered by.
+     */
+    private void setMergeJoinIndexes() {
+        Table table = topTableFilter.getTable();
+        Index index = topTableFilter.getIndex();
+        if (!isSortedIndex(table, index)) {
+            return;
+        }
+        Column column;
+        boolean descending;
+        if (index.getIndexType().isScan()) {
+            int main = table.getMainIndexColumn();
+            if (main == SearchRow.ROWID_INDEX) {
+                return;
+            }
+            column = table.getColumn(main);
+            descending = false;
+        } else {
+            IndexColumn indexColumn = index.getIndexColumns()[0];
+            column = indexColumn.column;
+            descending = (indexColumn.sortType & SortOrder.DESCENDING) != 0;
+        }
+        descending ^= topTableFilter.isReverse();
+        ArrayList<IndexCondition> topConditions = topTableFilter.getIndexConditions();
+        for (IndexCondition condition : topConditions) {
+            if (!condition.isCompoundColumns() && condition.getColumn() == column
+                    && (condition.getMask(topConditions) & IndexCondition.EQUALITY) != 0) {
+                // all rows have the same key
+                return;
+            }
+        }
+        for (TableFilter f = topTableFilter.getJoin(); f != null; f = f.getJoin()) {
+            Index joinIndex = f.getIndex();
+            ArrayList<IndexCondition> conditions = f.getIndexConditions();
+            if (f.getNestedJoin() != null || conditions.size() != 1 || !isSortedIndex(f.getTable(), joinIndex)
+                    || joinIndex.getIndexType().isScan() || joinIndex instanceof MergeJoinIndex) {
+                continue;
+            }
+            IndexCondition condition = conditions.get(0);
+            IndexColumn first = joinIndex.getIndexColumns()[0];
+            if (condition.getCompareType() != Comparison.EQUAL || condition.isCompoundColumns()
+                    || condition.getColumn() != first.column
+                    || ((first.sortType & SortOrder.DESCENDING) != 0) != descending) {
+                continue;
+            }
+            Expression expr = condition.getExpression();
+            if (expr instanceof ExpressionColumn && ((ExpressionColumn) expr).getTableFilter() == topTableFilter
+                    && ((ExpressionColumn) expr).getColumn() == column) {
+                f.setIndex(new MergeJoinIndex(joinIndex), false);
+            }
+        }
+    }
+
+    /**
+     * Check whether the condition may be evaluated for batches of rows of the
+     * top table.
+     */
+    private boolean isBatchConditionQuery() {
+        if (condition == null || forUpdate != null || isQuickAggregateQuery || topTableFilter.getJoin() != null
+                || topTableFilter.getNestedJoin() != null || !getDatabase().getSettings().optimizeBatchConditions) {
+            return false;
+        }
+        Index index = topTableFilter.getIndex();
+        return topTableFilter.getTable().getTableType() == TableType.TABLE && index != null
+                && index.getIndexType().isScan() && condition.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR);
+    }
+
+    private static boolean isSortedIndex(Table table, Index index) {
+        if (index == null || table.getTableType() != TableType.TABLE || !table.isDeterministic()) {
+            return false;
+        }
+        IndexType type = index.getIndexType();
+        return !type.isHash() && !type.isSpatial();
+    }
+
     private void optimizeExpressionsAndPreserveAliases() {
         for (int i = 0; i < expressions.size(); i++) {
             Expression original = expressions.get(i);
@@ -1846,6 +2049,12 @@ public void reset() {
             setCurrentRowNumber(0);
             rowNumber = 0;
         }
+
+        @Override
+        public void close() {
+            super.close();
+            topTableFilter.endQuery();
+        }
     }
 
     /**
@@ -17,6 +17,8 @@
 import org.h2.expression.Expression;
 import org.h2.expression.analysis.DataAnalysisOperation;
 import org.h2.expression.analysis.PartitionData;
+import org.h2.value.CompareMode;
+import org.h2.value.DataType;
 import org.h2.value.Value;
 import org.h2.value.ValueRow;
 
@@ -33,6 +35,12 @@
  * <li>{@link #next()} is invoked inside a loop until it returns null.</li>
  * </ul>
  * <p>
+ * If a maximum number of groups was set with
+ * {@link Grouped#setMaxGroups(int)}, source rows rejected by
+ * {@link #nextSource()} can be processed in additional passes started with
+ * {@link Grouped#resetGroups()}.
+ * </p>
+ * <p>
  * Call sequence for lazy group sorted result:
  * </p>
  * <ul>
@@ -44,14 +52,30 @@
  */
 public abstract class SelectGroups {
 
-    private static final class Grouped extends SelectGroups {
+    /**
+     * Grouped data of a query with aggregates. If groups are found by hash
+     * codes of their keys, the number of groups may be limited.
+     */
+    static final class Grouped extends SelectGroups {
 
         private final int[] groupIndex;
 
+        /**
+         * Whether group-by keys can be compared by their hash codes and
+         * equality instead of ordered comparison.
+         */
+        private final boolean hashed;
+
         /**
          * Map of group-by key to group-by expression data e.g. AggregateData
          */
-        private TreeMap<ValueRow, Object[]> groupByData;
+        private Map<ValueRow, Object[]> groupByData;
+
+        /**
+         * The maximum number of groups, when this number is reached source
+         * rows of new groups are rejected by {@link #nextSource()}.
+         */
+        private int maxGroups;
 
         /**
          * Key into groupByData that produces currentGroupByExprData. Not used
@@ -67,18 +91,74 @@ private static final class Grouped extends SelectGroups {
         Grouped(SessionLocal session, ArrayList<Expression> expressions, int[] groupIndex) {
             super(session, expressions);
             this.groupIndex = groupIndex;
+            hashed = groupIndex != null && isHashable(session, expressions, groupIndex);
+        }
+
+        private static boolean isHashable(SessionLocal session, ArrayList<Expression> expressions,
+                int[] groupIndex) {
+            boolean binaryCollation = CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+            for (int idx : groupIndex) {
+                int valueType = expressions.get(idx).getType().getValueType();
+                if (!DataType.hasTotalOrdering(valueType) && (valueType != Value.VARCHAR || !binaryCollation)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         @Override
         public void reset() {
             super.reset();
-            groupByData = new TreeMap<>(session);
+            resetGroups();
+            maxGroups = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Removes all groups, but keeps the registered expressions. Used to
+         * process source rows rejected by {@link #nextSource()} in the next
+         * pass.
+         */
+        void resetGroups() {
+            groupByData = hashed ? new HashMap<>() : new TreeMap<>(session);
             currentGroupsKey = null;
+            currentGroupByExprData = null;
+            currentGroupRowId = 0;
             cursor = null;
         }
 
+        /**
+         * Returns whether groups are found by hash codes of their keys. Only
+         * such group data may reject source rows of new groups.
+         *
+         * @return whether groups are found by hash codes of their keys
+         */
+        boolean isHashed() {
+            return hashed;
+        }
+
+        /**
+         * Sets the maximum number of groups. Source rows of new groups are
+         * rejected by {@link #nextSource()} when this number is reached.
+         *
+         * @param maxGroups
+         *            the maximum number of groups
+         * @see #isHashed()
+         */
+        void setMaxGroups(int maxGroups) {
+            this.maxGroups = maxGroups;
+        }
+
+        /**
+         * Returns the key of the group of the current source row.
+         *
+         * @return the key of the group of the current source row
+         */
+        ValueRow getCurrentGroupsKey() {
+            return currentGroupsKey;
+        }
+
         @Override
-        public void nextSource() {
+        public boolean nextSource() {
             if (groupIndex == null) {
                 currentGroupsKey = ValueRow.EMPTY;
             } else {
@@ -93,11 +173,16 @@ public void nextSource() {
             }
             Object[] values = groupByData.get(currentGroupsKey);
             if (values == null) {
+                if (groupByData.size() >= maxGroups) {
+                    currentGroupByExprData = null;
+                    return false;
+                }
                 values = createRow();
                 groupByData.put(currentGroupsKey, values);
             }
             currentGroupByExprData = values;
             currentGroupRowId++;
+            return true;
         }
 
         @Override
@@ -165,11 +250,12 @@ public void reset() {
         }
 
         @Override
-        public void nextSource() {
+        public boolean nextSource() {
             Object[] values = createRow();
             rows.add(values);
             currentGroupByExprData = values;
             currentGroupRowId++;
+            return true;
         }
 
         @Override
@@ -382,8 +468,12 @@ public void reset() {
     /**
      * Invoked for each source row to evaluate group key and setup all necessary
      * data for aggregates.
+     *
+     * @return {@code true} if the row was added to its group, {@code false}
+     *         if the row belongs to a new group and the maximum number of
+     *         groups is reached
      */
-    public abstract void nextSource();
+    public abstract boolean nextSource();
 
     /**
      * Invoked after all source rows are evaluated.
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import static org.h2.util.Bits.INT_VH_LE;
+
+import org.h2.api.ErrorCode;
+import org.h2.mvstore.DataUtils;
+
+/**
+ * <p>
+ * This class implements the LZ4 block format. LZ4 is a Lempel-Ziv variant
+ * with byte-aligned output, which is very fast to expand. Compressed blocks are
+ * compatible with the reference implementation (lz4 block format, without
+ * frame headers).
+ * </p>
+ * <p>
+ * A block is a sequence of sequences. Each sequence starts with a token byte:
+ * the high four bits are the number of literals, the low four bits are the
+ * match length minus 4. The value 15 in either field means the length
+ * continues in the following bytes (each 255 adds 255, the first other byte
+ * terminates the length). The literals follow, then the match offset (two
+ * bytes, little endian), then the match length continuation, if any. The last
+ * sequence contains only literals.
+ * </p>
+ * <ul>
+ * <li>Each instance should be used by a single thread only for compression.
+ * Expansion does not use any state and may be done concurrently.</li>
+ * <li>The output buffer for compression should be at least
+ * inLen + inLen / 255 + 16 bytes long.</li>
+ * </ul>
+ */
+public final class CompressLZ4 implements Compressor {
+
+    /**
+     * The minimum match length.
+     */
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The maximum offset of a match.
+     */
+    private static final int MAX_OFFSET = 65_535;
+
+    /**
+     * The last bytes of a block are always literals.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * The last match must start at least this number of bytes before the end
+     * of a block.
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * The mask of the length fields within a token.
+     */
+    private static final int LENGTH_MASK = 15;
+
+    /**
+     * The number of bits of the hash table index.
+     */
+    private static final int HASH_LOG = 14;
+
+    /**
+     * Positions of 4-byte sequences (reused for performance).
+     */
+    private int[] cachedHashTable;
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.LZ4;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        // nothing to do
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1_640_531_535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        int[] hashTab = cachedHashTable;
+        if (hashTab == null) {
+            hashTab = cachedHashTable = new int[1 << HASH_LOG];
+        }
+        int end = inPos + inLen;
+        int anchor = inPos;
+        int op = outPos;
+        if (inLen > MF_LIMIT) {
+            int matchLimit = end - MF_LIMIT;
+            int lengthLimit = end - LAST_LITERALS;
+            int ip = inPos;
+            int searchMisses = 0;
+            while (ip < matchLimit) {
+                int sequence = (int) INT_VH_LE.get(in, ip);
+                int h = hash(sequence);
+                int ref = hashTab[h];
+                hashTab[h] = ip;
+                // the hash table is not cleared between calls,
+                // so each candidate has to be verified
+                if (ref < inPos || ref >= ip || ip - ref > MAX_OFFSET || (int) INT_VH_LE.get(in, ref) != sequence) {
+                    // skip faster over data that does not compress
+                    ip += 1 + (searchMisses++ >>> 6);
+                    continue;
+                }
+                searchMisses = 0;
+                while (ip > anchor && ref > inPos && in[ip - 1] == in[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < lengthLimit && in[ip + matchLength] == in[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(in, anchor, ip - anchor, out, op, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+                if (ip < matchLimit) {
+                    int p = ip - 2;
+                    hashTab[hash((int) INT_VH_LE.get(in, p))] = p;
+                }
+            }
+        }
+        int literals = end - anchor;
+        int token = op++;
+        if (literals >= LENGTH_MASK) {
+            out[token] = (byte) (LENGTH_MASK << 4);
+            op = writeLength(out, op, literals - LENGTH_MASK);
+        } else {
+            out[token] = (byte) (literals << 4);
+        }
+        System.arraycopy(in, anchor, out, op, literals);
+        return op + literals;
+    }
+
+    private static int writeSequence(byte[] in, int literalStart, int literals, byte[] out, int op, int offset,
+            int matchLength) {
+        int token = op++;
+        int t;
+        if (literals >= LENGTH_MASK) {
+            t = LENGTH_MASK << 4;
+            op = writeLength(out, op, literals - LENGTH_MASK);
+        } else {
+            t = literals << 4;
+        }
+        System.arraycopy(in, literalStart, out, op, literals);
+        op += literals;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        matchLength -= MIN_MATCH;
+        if (matchLength >= LENGTH_MASK) {
+            t |= LENGTH_MASK;
+            op = writeLength(out, op, matchLength - LENGTH_MASK);
+        } else {
+            t |= matchLength;
+        }
+        out[token] = (byte) t;
+        return op;
+    }
+
+    private static int writeLength(byte[] out, int op, int length) {
+        while (length >= 255) {
+            out[op++] = (byte) 255;
+            length -= 255;
+        }
+        out[op++] = (byte) length;
+        return op;
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        try {
+            int op = expandBlock(in, inPos, inLen, out, outPos, outLen);
+            if (op != outPos + outLen) {
+                throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR,
+                        "Expected {0} bytes, got {1}", outLen, op - outPos);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR, "Corrupt LZ4 block", e);
+        }
+    }
+
+    private static int expandBlock(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        int ip = inPos;
+        int end = inPos + inLen;
+        int op = outPos;
+        int outEnd = outPos + outLen;
+        while (true) {
+            int token = in[ip++] & 255;
+            int literals = token >>> 4;
+            if (literals == LENGTH_MASK) {
+                int b;
+                do {
+                    b = in[ip++] & 255;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(in, ip, out, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= end) {
+                return op;
+            }
+            int offset = (in[ip++] & 255) | (in[ip++] & 255) << 8;
+            int matchLength = token & LENGTH_MASK;
+            if (matchLength == LENGTH_MASK) {
+                int b;
+                do {
+                    b = in[ip++] & 255;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = op - offset;
+            if (offset == 0 || ref < outPos || op + matchLength > outEnd) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            if (offset >= matchLength) {
+                System.arraycopy(out, ref, out, op, matchLength);
+                op += matchLength;
+            } else {
+                // overlapping copy, repeats the last offset bytes
+                for (int stop = op + matchLength; op < stop;) {
+                    out[op++] = out[ref++];
+                }
+            }
+        }
+    }
+
+}
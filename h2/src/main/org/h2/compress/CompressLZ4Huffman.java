@@ -0,0 +1,290 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import static org.h2.util.Bits.INT_VH_BE;
+
+import org.h2.api.ErrorCode;
+import org.h2.mvstore.DataUtils;
+
+/**
+ * <p>
+ * This class implements a two-stage compression algorithm in the spirit of
+ * Zstandard: the data is first parsed into literals and matches using the LZ4
+ * block format (see {@link CompressLZ4}), and the result is then entropy coded
+ * with a canonical Huffman code. This typically saves another 15% compared to
+ * LZ4, at the cost of slower compression and expansion.
+ * </p>
+ * <p>
+ * Compressed format: mode byte; for mode 0 an LZ4 block follows. For mode 1:
+ * the length of the LZ4 block (4 bytes), code lengths of all 256
+ * byte values (two per byte, 0 for unused values), and the bit stream (most
+ * significant bit first, zero padded).
+ * </p>
+ * <ul>
+ * <li>Each instance should be used by a single thread only for compression.
+ * Expansion does not use any state and may be done concurrently.</li>
+ * <li>The output buffer for compression should be at least
+ * inLen + inLen / 255 + 32 bytes long.</li>
+ * </ul>
+ */
+public final class CompressLZ4Huffman implements Compressor {
+
+    /**
+     * The maximum length of a code, in bits. It is also the size of the index
+     * of the decoding table.
+     */
+    private static final int MAX_CODE_LENGTH = 11;
+
+    private static final int MODE_LZ4 = 0;
+
+    private static final int MODE_HUFFMAN = 1;
+
+    private final CompressLZ4 lz4 = new CompressLZ4();
+
+    /**
+     * Output of the first stage (reused for performance).
+     */
+    private byte[] cachedBuffer;
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.LZ4_HUFFMAN;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        // nothing to do
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        int maxLen = inLen + inLen / 255 + 16;
+        byte[] buff = cachedBuffer;
+        if (buff == null || buff.length < maxLen) {
+            buff = new byte[maxLen];
+            if (maxLen <= 1024 * 1024) {
+                cachedBuffer = buff;
+            }
+        }
+        int len = lz4.compress(in, inPos, inLen, buff, 0);
+        int[] frequencies = new int[256];
+        for (int i = 0; i < len; i++) {
+            frequencies[buff[i] & 255]++;
+        }
+        int[] lengths = buildCodeLengths(frequencies);
+        long bits = 0;
+        for (int i = 0; i < 256; i++) {
+            bits += (long) frequencies[i] * lengths[i];
+        }
+        int op = outPos;
+        if (5 + 128 + (bits + 7) / 8 >= len) {
+            out[op++] = MODE_LZ4;
+            System.arraycopy(buff, 0, out, op, len);
+            return op + len;
+        }
+        out[op++] = MODE_HUFFMAN;
+        INT_VH_BE.set(out, op, len);
+        op += 4;
+        for (int i = 0; i < 256; i += 2) {
+            out[op++] = (byte) (lengths[i] << 4 | lengths[i + 1]);
+        }
+        int[] codes = buildCanonicalCodes(lengths);
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < len; i++) {
+            int symbol = buff[i] & 255;
+            int codeLength = lengths[symbol];
+            acc = acc << codeLength | codes[symbol];
+            accBits += codeLength;
+            while (accBits >= 8) {
+                accBits -= 8;
+                out[op++] = (byte) (acc >>> accBits);
+            }
+        }
+        if (accBits > 0) {
+            out[op++] = (byte) (acc << (8 - accBits));
+        }
+        return op;
+    }
+
+    /**
+     * Calculate Huffman code lengths, limited to MAX_CODE_LENGTH bits.
+     *
+     * @param frequencies the number of occurrences of each byte value
+     * @return code lengths, 0 for unused values
+     */
+    private static int[] buildCodeLengths(int[] frequencies) {
+        int[] lengths = new int[256];
+        int[] weights = frequencies.clone();
+        while (true) {
+            // nodes 0..255 are leaves, 256.. are internal nodes
+            int[] weight = new int[512];
+            int[] parent = new int[512];
+            int[] heap = new int[256];
+            int size = 0;
+            for (int i = 0; i < 256; i++) {
+                if (weights[i] > 0) {
+                    weight[i] = weights[i];
+                    size = heapAdd(heap, size, weight, i);
+                }
+            }
+            if (size == 0) {
+                return lengths;
+            } else if (size == 1) {
+                lengths[heap[0]] = 1;
+                return lengths;
+            }
+            int next = 256;
+            while (size > 1) {
+                int a = heap[0];
+                size = heapRemoveFirst(heap, size, weight);
+                int b = heap[0];
+                size = heapRemoveFirst(heap, size, weight);
+                weight[next] = weight[a] + weight[b];
+                parent[a] = next;
+                parent[b] = next;
+                size = heapAdd(heap, size, weight, next++);
+            }
+            int root = next - 1;
+            int maxLength = 0;
+            for (int i = 0; i < 256; i++) {
+                if (weights[i] > 0) {
+                    int length = 0;
+                    for (int n = i; n != root; n = parent[n]) {
+                        length++;
+                    }
+                    lengths[i] = length;
+                    maxLength = Math.max(maxLength, length);
+                }
+            }
+            if (maxLength <= MAX_CODE_LENGTH) {
+                return lengths;
+            }
+            // flatten the distribution and try again
+            for (int i = 0; i < 256; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = (weights[i] >>> 1) | 1;
+                }
+            }
+        }
+    }
+
+    private static int heapAdd(int[] heap, int size, int[] weight, int node) {
+        int i = size++;
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (weight[heap[p]] <= weight[node]) {
+                break;
+            }
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = node;
+        return size;
+    }
+
+    private static int heapRemoveFirst(int[] heap, int size, int[] weight) {
+        int node = heap[--size];
+        int i = 0;
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= size) {
+                break;
+            }
+            if (c + 1 < size && weight[heap[c + 1]] < weight[heap[c]]) {
+                c++;
+            }
+            if (weight[node] <= weight[heap[c]]) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = node;
+        return size;
+    }
+
+    /**
+     * Assign canonical codes: shorter codes first, and within the same length
+     * in the order of byte values.
+     *
+     * @param lengths the code lengths
+     * @return the codes
+     */
+    private static int[] buildCanonicalCodes(int[] lengths) {
+        int[] codes = new int[256];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int i = 0; i < 256; i++) {
+                if (lengths[i] == length) {
+                    codes[i] = code++;
+                }
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        int ip = inPos;
+        int mode = in[ip++];
+        if (mode == MODE_LZ4) {
+            lz4.expand(in, ip, inLen - 1, out, outPos, outLen);
+            return;
+        } else if (mode != MODE_HUFFMAN) {
+            throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR, "Unknown mode {0}", mode);
+        }
+        try {
+            int len = (int) INT_VH_BE.get(in, ip);
+            ip += 4;
+            int[] lengths = new int[256];
+            for (int i = 0; i < 256; i += 2) {
+                int b = in[ip++] & 255;
+                lengths[i] = b >>> 4;
+                lengths[i + 1] = b & 15;
+            }
+            int[] codes = buildCanonicalCodes(lengths);
+            // each entry is the byte value (high bits) and the code length (low 4 bits)
+            short[] table = new short[1 << MAX_CODE_LENGTH];
+            for (int i = 0; i < 256; i++) {
+                int length = lengths[i];
+                if (length > MAX_CODE_LENGTH) {
+                    throw new ArrayIndexOutOfBoundsException();
+                } else if (length > 0) {
+                    int shift = MAX_CODE_LENGTH - length;
+                    int start = codes[i] << shift;
+                    short entry = (short) (i << 4 | length);
+                    for (int j = start, end = start + (1 << shift); j < end; j++) {
+                        table[j] = entry;
+                    }
+                }
+            }
+            byte[] buff = new byte[len];
+            int end = inPos + inLen;
+            long acc = 0;
+            int accBits = 0;
+            for (int i = 0; i < len; i++) {
+                while (accBits < MAX_CODE_LENGTH) {
+                    acc = acc << 8 | (ip < end ? in[ip++] & 255 : 0);
+                    accBits += 8;
+                }
+                int entry = table[(int) (acc >>> (accBits - MAX_CODE_LENGTH)) & ((1 << MAX_CODE_LENGTH) - 1)];
+                int length = entry & 15;
+                if (length == 0) {
+                    throw new ArrayIndexOutOfBoundsException();
+                }
+                buff[i] = (byte) (entry >>> 4);
+                accBits -= length;
+            }
+            lz4.expand(buff, 0, len, out, outPos, outLen);
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR, "Corrupt LZ4 Huffman block", e);
+        }
+    }
+
+}
@@ -26,6 +26,16 @@ public interface Compressor {
      */
     int DEFLATE = 2;
 
+    /**
+     * The LZ4 compression algorithm is used.
+     */
+    int LZ4 = 3;
+
+    /**
+     * The LZ4 compression algorithm followed by Huffman coding is used.
+     */
+    int LZ4_HUFFMAN = 4;
+
     /**
      * Get the compression algorithm type.
      *
@@ -422,6 +422,11 @@ public class Constants {
      */
     public static final String SUFFIX_MV_FILE = ".mv.db";
 
+    /**
+     * The file name suffix of the redo log of a database.
+     */
+    public static final String SUFFIX_REDO_LOG_FILE = ".redo.db";
+
     /**
      * The file name suffix of a new MVStore file, used when compacting a store.
      */
@@ -65,6 +65,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int autoCompactFillRate = get("AUTO_COMPACT_FILL_RATE", 90);
 
+    /**
+     * Database setting <code>AUTO_COMPACT_RATE</code>
+     * (default: 0, which means no limit).
+     * The maximum number of megabytes per second background compaction may
+     * rewrite or move. Background compaction yields to waiting commits.
+     * This setting only affects MVStore engine.
+     */
+    public final int autoCompactRate = get("AUTO_COMPACT_RATE", 0);
+
     /**
      * Database setting <code>DATABASE_TO_LOWER</code> (default: false).
      * When set to true unquoted identifiers and short name of database are
@@ -152,6 +161,13 @@ public class DbSettings extends SettingsBase {
      */
     public final int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>OPTIMIZE_BATCH_CONDITIONS</code> (default: true).
+     * Evaluate simple conditions on numeric and boolean columns of a table
+     * read by a single-table query for batches of rows at once.
+     */
+    public final boolean optimizeBatchConditions = get("OPTIMIZE_BATCH_CONDITIONS", true);
+
     /**
      * Database setting <code>OPTIMIZE_DISTINCT</code> (default: true).
      * Improve the performance of simple DISTINCT queries if an index is
@@ -174,6 +190,14 @@ public class DbSettings extends SettingsBase {
     public final boolean optimizeEvaluatableSubqueries = get(
             "OPTIMIZE_EVALUATABLE_SUBQUERIES", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_HASH_JOIN</code> (default: true).
+     * Join tables without a usable index for equality join conditions, views,
+     * and derived tables by reading their rows only once and grouping them by
+     * the values of the join columns.
+     */
+    public final boolean optimizeHashJoin = get("OPTIMIZE_HASH_JOIN", true);
+
     /**
      * Database setting <code>OPTIMIZE_INSERT_FROM_SELECT</code>
      * (default: true).
@@ -216,6 +240,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeSimpleSingleRowSubqueries = get("OPTIMIZE_SIMPLE_SINGLE_ROW_SUBQUERIES", true);
 
+    /**
+     * Database setting <code>PRIMARY_INDEX_SHARDS</code> (default: 1).
+     * The number of shards of the primary index of new tables. If set to a
+     * larger value, the rows are distributed by the hash of the row key, so
+     * concurrent inserts into a table with increasing keys don't contend on
+     * the same page. Existing tables are not affected.
+     */
+    public final int primaryIndexShards = get("PRIMARY_INDEX_SHARDS", 1);
+
     /**
      * Database setting <code>QUERY_CACHE_SIZE</code> (default: 8).
      * The size of the query cache, in number of cached statements. Each session
@@ -274,6 +307,32 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean compressData = get("COMPRESS", false);
 
+    /**
+     * Database setting <code>PAGE_CHECKSUM</code>
+     * (default: false).
+     * Append a checksum to each page when storing. Checksums are always
+     * verified when reading.
+     */
+    public final boolean pageChecksum = get("PAGE_CHECKSUM", false);
+
+    /**
+     * Database setting <code>SCRUB_RATE</code>
+     * (default: 0, which means disabled).
+     * The maximum number of megabytes per second the background scrubber
+     * reads to verify stored pages. The results are available through JMX.
+     */
+    public final int scrubRate = get("SCRUB_RATE", 0);
+
+    /**
+     * Database setting <code>REDO_LOG</code>
+     * (default: false).
+     * Log the changes of each commit to a redo log file, so that committed
+     * transactions are durable without storing all changed pages. Commits of
+     * concurrent transactions are synced together. Not used for encrypted
+     * databases.
+     */
+    public final boolean redoLog = get("REDO_LOG", false);
+
     /**
      * Database setting <code>IGNORE_CATALOGS</code>
      * (default: false).
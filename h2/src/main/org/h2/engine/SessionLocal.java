@@ -247,6 +247,11 @@ static Session getThreadLocalSession() {
      */
     private boolean truncateLargeLength;
 
+    /**
+     * The maximum number of threads used to read the pages of a large table.
+     */
+    private int parallelScanThreads = 1;
+
     /**
      * Whether BINARY is parsed as VARBINARY.
      */
@@ -2050,6 +2055,28 @@ public boolean isTruncateLargeLength() {
         return truncateLargeLength;
     }
 
+    /**
+     * Sets the maximum number of threads used to read the pages of a large
+     * table.
+     *
+     * @param parallelScanThreads
+     *            the maximum number of threads, {@code 1} to read tables only
+     *            by the thread executing the query
+     */
+    public void setParallelScanThreads(int parallelScanThreads) {
+        this.parallelScanThreads = parallelScanThreads;
+    }
+
+    /**
+     * Returns the maximum number of threads used to read the pages of a large
+     * table.
+     *
+     * @return the maximum number of threads
+     */
+    public int getParallelScanThreads() {
+        return parallelScanThreads;
+    }
+
     /**
      * Changes parsing of a BINARY data type.
      *
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.expression;
+
+import java.util.Arrays;
+
+import org.h2.result.SearchRow;
+import org.h2.value.Value;
+
+/**
+ * A form of an expression that evaluates it for a batch of rows at once.
+ * <p>
+ * Values of numeric expressions are stored in primitive arrays and each
+ * operation processes all rows of a batch in a simple loop. Each row has a
+ * state: the boolean result or the presence of a numeric value, {@link #NULL},
+ * or {@link #UNKNOWN} if the value can't be computed without the regular
+ * evaluation of the expression, for example, because of a numeric overflow or
+ * an unsupported part of the expression.
+ * </p>
+ */
+public abstract class BatchExpression {
+
+    /**
+     * The maximum number of rows in a batch.
+     */
+    public static final int BATCH_SIZE = 1_024;
+
+    /**
+     * The state of a row with the FALSE boolean result.
+     */
+    public static final byte FALSE = 0;
+
+    /**
+     * The state of a row with the TRUE boolean result or with a numeric value.
+     */
+    public static final byte TRUE = 1;
+
+    /**
+     * The state of a row with the NULL result.
+     */
+    public static final byte NULL = 2;
+
+    /**
+     * The state of a row whose result can only be computed by the regular
+     * evaluation of the expression.
+     */
+    public static final byte UNKNOWN = 3;
+
+    /**
+     * The kind of expressions with boolean results.
+     */
+    public static final int BOOLEAN = 0;
+
+    /**
+     * The kind of expressions with exact numeric results stored in
+     * {@link #longs}.
+     */
+    public static final int LONG = 1;
+
+    /**
+     * The kind of expressions with approximate numeric results stored in
+     * {@link #doubles}.
+     */
+    public static final int DOUBLE = 2;
+
+    /**
+     * The kind of this expression.
+     */
+    public final int kind;
+
+    /**
+     * The states of rows of the last evaluated batch.
+     */
+    public final byte[] states = new byte[BATCH_SIZE];
+
+    /**
+     * The values of rows of the last evaluated batch for expressions of
+     * {@link #LONG} kind, or {@code null}.
+     */
+    public final long[] longs;
+
+    /**
+     * The values of rows of the last evaluated batch for expressions of
+     * {@link #DOUBLE} kind, or {@code null}.
+     */
+    public final double[] doubles;
+
+    protected BatchExpression(int kind) {
+        this.kind = kind;
+        longs = kind == LONG ? new long[BATCH_SIZE] : null;
+        doubles = kind == DOUBLE ? new double[BATCH_SIZE] : null;
+    }
+
+    /**
+     * Evaluate this expression for the specified rows.
+     *
+     * @param rows the rows
+     * @param size the number of rows
+     */
+    public abstract void evaluate(SearchRow[] rows, int size);
+
+    /**
+     * Returns the kind of batch expressions for values of the specified data
+     * type.
+     *
+     * @param valueType the data type
+     * @return the kind, or {@code -1} if values of this data type aren't
+     *         supported
+     */
+    public static int getKind(int valueType) {
+        switch (valueType) {
+        case Value.BOOLEAN:
+            return BOOLEAN;
+        case Value.TINYINT:
+        case Value.SMALLINT:
+        case Value.INTEGER:
+        case Value.BIGINT:
+            return LONG;
+        case Value.REAL:
+        case Value.DOUBLE:
+            return DOUBLE;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a batch expression with the same value for all rows.
+     *
+     * @param value the value
+     * @return the batch expression, or {@code null} if the value isn't
+     *         supported
+     */
+    public static BatchExpression constant(Value value) {
+        int kind = getKind(value.getValueType());
+        if (kind < 0) {
+            return null;
+        }
+        BatchExpression e = new Constant(kind);
+        switch (kind) {
+        case BOOLEAN:
+            Arrays.fill(e.states, value.getBoolean() ? TRUE : FALSE);
+            break;
+        case LONG:
+            Arrays.fill(e.states, TRUE);
+            Arrays.fill(e.longs, value.getLong());
+            break;
+        default:
+            Arrays.fill(e.states, TRUE);
+            Arrays.fill(e.doubles, value.getDouble());
+        }
+        return e;
+    }
+
+    /**
+     * Returns a boolean batch expression whose result is {@link #UNKNOWN} for
+     * all rows. It is used for parts of conditions that can't be evaluated in
+     * batches.
+     *
+     * @return the batch expression
+     */
+    public static BatchExpression unknown() {
+        BatchExpression e = new Constant(BOOLEAN);
+        Arrays.fill(e.states, UNKNOWN);
+        return e;
+    }
+
+    /**
+     * Compares non-NULL values of two numeric batch expressions of the same
+     * kind.
+     *
+     * @param l the first expression
+     * @param r the second expression
+     * @param i the index of the row
+     * @return 0 if both values are equal, a negative value if the first value
+     *         is smaller, and a positive value otherwise
+     */
+    public static int compare(BatchExpression l, BatchExpression r, int i) {
+        return l.kind == LONG ? Long.compare(l.longs[i], r.longs[i]) : Double.compare(l.doubles[i], r.doubles[i]);
+    }
+
+    /**
+     * A batch expression with the same value for all rows.
+     */
+    private static final class Constant extends BatchExpression {
+
+        Constant(int kind) {
+            super(kind);
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            // the values are already set
+        }
+
+    }
+
+}
@@ -10,6 +10,8 @@
 import org.h2.expression.IntervalOperation.IntervalOpType;
 import org.h2.expression.function.DateTimeFunction;
 import org.h2.message.DbException;
+import org.h2.result.SearchRow;
+import org.h2.table.TableFilter;
 import org.h2.value.DataType;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
@@ -126,6 +128,27 @@ public Value getValue(SessionLocal session) {
         }
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        int valueType = type.getValueType();
+        if (opType == OpType.DIVIDE || !convertRight || valueType == Value.REAL) {
+            return null;
+        }
+        int kind = BatchExpression.getKind(valueType);
+        if (kind != BatchExpression.LONG && kind != BatchExpression.DOUBLE) {
+            return null;
+        }
+        BatchExpression l = left.getBatchExpression(session, filter);
+        if (l == null || l.kind == BatchExpression.BOOLEAN || kind == BatchExpression.LONG && l.kind != kind) {
+            return null;
+        }
+        BatchExpression r = right.getBatchExpression(session, filter);
+        if (r == null || r.kind == BatchExpression.BOOLEAN || kind == BatchExpression.LONG && r.kind != kind) {
+            return null;
+        }
+        return new BatchOperation(opType, valueType, kind, l, r);
+    }
+
     @Override
     public Expression optimize(SessionLocal session) {
         left = left.optimize(session);
@@ -451,4 +474,114 @@ public OpType getOperationType() {
         return opType;
     }
 
+    /**
+     * An addition, subtraction, or multiplication of numeric values of a batch
+     * of rows. Rows with values out of range of the data type have the
+     * {@link BatchExpression#UNKNOWN} state, their regular evaluation throws
+     * an exception.
+     */
+    private static final class BatchOperation extends BatchExpression {
+
+        private final OpType opType;
+
+        private final long min, max;
+
+        private final BatchExpression left, right;
+
+        BatchOperation(OpType opType, int valueType, int kind, BatchExpression left, BatchExpression right) {
+            super(kind);
+            this.opType = opType;
+            switch (valueType) {
+            case Value.TINYINT:
+                min = Byte.MIN_VALUE;
+                max = Byte.MAX_VALUE;
+                break;
+            case Value.SMALLINT:
+                min = Short.MIN_VALUE;
+                max = Short.MAX_VALUE;
+                break;
+            case Value.INTEGER:
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+                break;
+            default:
+                min = Long.MIN_VALUE;
+                max = Long.MAX_VALUE;
+            }
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            BatchExpression left = this.left, right = this.right;
+            left.evaluate(rows, size);
+            right.evaluate(rows, size);
+            byte[] states = this.states, ls = left.states, rs = right.states;
+            for (int i = 0; i < size; i++) {
+                byte l = ls[i], r = rs[i];
+                states[i] = l == UNKNOWN || r == UNKNOWN ? UNKNOWN : l == NULL || r == NULL ? NULL : TRUE;
+            }
+            if (kind == LONG) {
+                evaluateLong(size);
+            } else {
+                evaluateDouble(size);
+            }
+        }
+
+        private void evaluateLong(int size) {
+            byte[] states = this.states;
+            long[] a = left.longs, b = right.longs, result = longs;
+            long min = this.min, max = this.max;
+            switch (opType) {
+            case PLUS:
+                for (int i = 0; i < size; i++) {
+                    long x = a[i], y = b[i], z = x + y;
+                    result[i] = z;
+                    if (((x ^ z) & (y ^ z)) < 0 || z < min || z > max) {
+                        setUnknown(i);
+                    }
+                }
+                break;
+            case MINUS:
+                for (int i = 0; i < size; i++) {
+                    long x = a[i], y = b[i], z = x - y;
+                    result[i] = z;
+                    if (((x ^ y) & (x ^ z)) < 0 || z < min || z > max) {
+                        setUnknown(i);
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < size; i++) {
+                    long x = a[i], y = b[i], z = x * y;
+                    result[i] = z;
+                    if (Math.multiplyHigh(x, y) != z >> 63 || z < min || z > max) {
+                        setUnknown(i);
+                    }
+                }
+            }
+        }
+
+        private void setUnknown(int i) {
+            if (states[i] == TRUE) {
+                states[i] = UNKNOWN;
+            }
+        }
+
+        private void evaluateDouble(int size) {
+            BatchExpression left = this.left, right = this.right;
+            OpType opType = this.opType;
+            double[] result = doubles;
+            for (int i = 0; i < size; i++) {
+                double x = left.kind == LONG ? left.longs[i] : left.doubles[i];
+                double y = right.kind == LONG ? right.longs[i] : right.doubles[i];
+                double z = opType == OpType.PLUS ? x + y : opType == OpType.MINUS ? x - y : x * y;
+                // -0.0 is normalized to 0.0 by ValueDouble
+                result[i] = z == 0d ? 0d : z;
+            }
+        }
+
+    }
+
 }
@@ -355,6 +355,21 @@ public void createIndexConditions(SessionLocal session, TableFilter filter) {
         // default is do nothing
     }
 
+    /**
+     * Returns the form of this expression that evaluates it for batches of
+     * rows of the specified table filter. All other values referenced by this
+     * expression must be constant during the execution of the query.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @return the batch expression, or {@code null} if this expression can't
+     *         be evaluated in batches
+     */
+    @SuppressWarnings("unused")
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        return null;
+    }
+
     /**
      * Get the column name or alias name of this expression.
      *
@@ -16,6 +16,7 @@
 import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
 import org.h2.mode.ModeFunction;
+import org.h2.result.SearchRow;
 import org.h2.schema.Constant;
 import org.h2.schema.Schema;
 import org.h2.table.Column;
@@ -31,6 +32,7 @@
 import org.h2.value.ValueDecfloat;
 import org.h2.value.ValueDouble;
 import org.h2.value.ValueInteger;
+import org.h2.value.ValueNull;
 import org.h2.value.ValueNumeric;
 import org.h2.value.ValueReal;
 import org.h2.value.ValueSmallint;
@@ -294,6 +296,15 @@ public Value getValue(SessionLocal session) {
         return value;
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        if (column == null || rowId || getTableFilter() != filter) {
+            return null;
+        }
+        int kind = BatchExpression.getKind(column.getType().getValueType());
+        return kind >= 0 ? new BatchColumn(kind, column.getColumnId()) : null;
+    }
+
     @Override
     public TypeInfo getType() {
         return column != null ? column.getType() : rowId ? TypeInfo.TYPE_BIGINT : TypeInfo.TYPE_UNKNOWN;
@@ -487,4 +498,56 @@ public Expression getNotIfPossible(SessionLocal session) {
         return new Comparison(Comparison.EQUAL, this, ValueExpression.get(v), false);
     }
 
+    /**
+     * Reads values of a column from a batch of rows.
+     */
+    private static final class BatchColumn extends BatchExpression {
+
+        private final int columnId;
+
+        BatchColumn(int kind, int columnId) {
+            super(kind);
+            this.columnId = columnId;
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            byte[] states = this.states;
+            switch (kind) {
+            case BOOLEAN:
+                for (int i = 0; i < size; i++) {
+                    Value v = rows[i].getValue(columnId);
+                    states[i] = v == ValueNull.INSTANCE ? NULL : v.getBoolean() ? TRUE : FALSE;
+                }
+                break;
+            case LONG: {
+                long[] longs = this.longs;
+                for (int i = 0; i < size; i++) {
+                    Value v = rows[i].getValue(columnId);
+                    if (v == ValueNull.INSTANCE) {
+                        states[i] = NULL;
+                    } else {
+                        states[i] = TRUE;
+                        longs[i] = v.getLong();
+                    }
+                }
+                break;
+            }
+            default: {
+                double[] doubles = this.doubles;
+                for (int i = 0; i < size; i++) {
+                    Value v = rows[i].getValue(columnId);
+                    if (v == ValueNull.INSTANCE) {
+                        states[i] = NULL;
+                    } else {
+                        states[i] = TRUE;
+                        doubles[i] = v.getDouble();
+                    }
+                }
+            }
+            }
+        }
+
+    }
+
 }
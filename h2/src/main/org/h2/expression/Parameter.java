@@ -12,6 +12,7 @@
 import org.h2.expression.condition.Comparison;
 import org.h2.message.DbException;
 import org.h2.table.Column;
+import org.h2.table.TableFilter;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
 import org.h2.value.ValueNull;
@@ -80,6 +81,11 @@ public Value getValue(SessionLocal session) {
         return getParamValue();
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        return value == null || value == ValueNull.INSTANCE ? null : BatchExpression.constant(value);
+    }
+
     @Override
     public TypeInfo getType() {
         if (value != null) {
@@ -94,6 +94,11 @@ public Value getValue(SessionLocal session) {
         return value;
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        return value == ValueNull.INSTANCE ? null : BatchExpression.constant(value);
+    }
+
     @Override
     public TypeInfo getType() {
         return value.getType();
@@ -6,10 +6,12 @@
 package org.h2.expression.condition;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.BatchExpression;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.TypedValueExpression;
 import org.h2.expression.ValueExpression;
+import org.h2.result.SearchRow;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
 import org.h2.value.TypeInfo;
@@ -133,6 +135,26 @@ private Value getValue(SessionLocal session, Value value, Value aValue, Value bV
         }
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        if (whenOperand) {
+            return null;
+        }
+        BatchExpression value = left.getBatchExpression(session, filter);
+        if (value == null || value.kind == BatchExpression.BOOLEAN) {
+            return null;
+        }
+        BatchExpression aBatch = a.getBatchExpression(session, filter);
+        if (aBatch == null || aBatch.kind != value.kind) {
+            return null;
+        }
+        BatchExpression bBatch = b.getBatchExpression(session, filter);
+        if (bBatch == null || bBatch.kind != value.kind) {
+            return null;
+        }
+        return new BatchBetween(not, symmetric, value, aBatch, bBatch);
+    }
+
     @Override
     public boolean isWhenConditionOperand() {
         return whenOperand;
@@ -204,4 +226,55 @@ public Expression getSubexpression(int index) {
         }
     }
 
+    /**
+     * A BETWEEN predicate for numeric values of a batch of rows.
+     */
+    private static final class BatchBetween extends BatchExpression {
+
+        private final boolean not, symmetric;
+
+        private final BatchExpression value, a, b;
+
+        BatchBetween(boolean not, boolean symmetric, BatchExpression value, BatchExpression a, BatchExpression b) {
+            super(BOOLEAN);
+            this.not = not;
+            this.symmetric = symmetric;
+            this.value = value;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            BatchExpression value = this.value, a = this.a, b = this.b;
+            value.evaluate(rows, size);
+            a.evaluate(rows, size);
+            b.evaluate(rows, size);
+            byte[] states = this.states, vs = value.states, as = a.states, bs = b.states;
+            boolean not = this.not, symmetric = this.symmetric;
+            for (int i = 0; i < size; i++) {
+                byte v = vs[i], s;
+                if (v != TRUE) {
+                    // the bounds aren't evaluated for NULL
+                    s = v;
+                } else if (as[i] == UNKNOWN || bs[i] == UNKNOWN) {
+                    s = UNKNOWN;
+                } else {
+                    int cmp1 = as[i] == NULL ? Integer.MIN_VALUE : compare(a, value, i);
+                    int cmp2 = bs[i] == NULL ? Integer.MIN_VALUE : compare(value, b, i);
+                    if (cmp1 == Integer.MIN_VALUE) {
+                        s = symmetric || cmp2 <= 0 ? NULL : not ? TRUE : FALSE;
+                    } else if (cmp2 == Integer.MIN_VALUE) {
+                        s = symmetric || cmp1 <= 0 ? NULL : not ? TRUE : FALSE;
+                    } else {
+                        s = not ^ (symmetric ? cmp1 <= 0 && cmp2 <= 0 || cmp1 >= 0 && cmp2 >= 0
+                                : cmp1 <= 0 && cmp2 <= 0) ? TRUE : FALSE;
+                    }
+                }
+                states[i] = s;
+            }
+        }
+
+    }
+
 }
@@ -8,6 +8,7 @@
 import java.util.ArrayList;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.BatchExpression;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionColumn;
 import org.h2.expression.ExpressionList;
@@ -19,6 +20,7 @@
 import org.h2.expression.aggregate.AggregateType;
 import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
+import org.h2.result.SearchRow;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
@@ -394,6 +396,58 @@ static int getNotCompareType(int type) {
         }
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        if (whenOperand || compareType > NOT_EQUAL_NULL_SAFE) {
+            return null;
+        }
+        BatchExpression l = left.getBatchExpression(session, filter);
+        if (l == null || l.kind == BatchExpression.BOOLEAN) {
+            return null;
+        }
+        BatchExpression r = right.getBatchExpression(session, filter);
+        if (r == null || r.kind != l.kind) {
+            return null;
+        }
+        return new BatchComparison(compareType, l, r);
+    }
+
+    /**
+     * Returns the result of comparison of two non-NULL values.
+     *
+     * @param compareType the compare type
+     * @param cmp the result of comparison of values
+     * @return the result of comparison
+     */
+    static byte getBatchResult(int compareType, int cmp) {
+        boolean result;
+        switch (compareType) {
+        case EQUAL:
+        case EQUAL_NULL_SAFE:
+            result = cmp == 0;
+            break;
+        case NOT_EQUAL:
+        case NOT_EQUAL_NULL_SAFE:
+            result = cmp != 0;
+            break;
+        case BIGGER_EQUAL:
+            result = cmp >= 0;
+            break;
+        case BIGGER:
+            result = cmp > 0;
+            break;
+        case SMALLER_EQUAL:
+            result = cmp <= 0;
+            break;
+        case SMALLER:
+            result = cmp < 0;
+            break;
+        default:
+            throw DbException.getInternalError("type=" + compareType);
+        }
+        return result ? BatchExpression.TRUE : BatchExpression.FALSE;
+    }
+
     @Override
     public void createIndexConditions(SessionLocal session, TableFilter filter) {
         if (!whenOperand) {
@@ -669,4 +723,48 @@ public Expression getSubexpression(int index) {
         }
     }
 
+    /**
+     * A comparison of numeric values of a batch of rows.
+     */
+    private static final class BatchComparison extends BatchExpression {
+
+        private final int compareType;
+
+        private final BatchExpression left, right;
+
+        BatchComparison(int compareType, BatchExpression left, BatchExpression right) {
+            super(BOOLEAN);
+            this.compareType = compareType;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            BatchExpression left = this.left, right = this.right;
+            left.evaluate(rows, size);
+            right.evaluate(rows, size);
+            byte[] states = this.states, ls = left.states, rs = right.states;
+            int compareType = this.compareType;
+            boolean nullSafe = (compareType & ~1) == EQUAL_NULL_SAFE;
+            for (int i = 0; i < size; i++) {
+                byte l = ls[i], r = rs[i], s;
+                if (l == UNKNOWN) {
+                    s = UNKNOWN;
+                } else if (l == NULL && !nullSafe) {
+                    // the right operand isn't evaluated
+                    s = NULL;
+                } else if (r == UNKNOWN) {
+                    s = UNKNOWN;
+                } else if (l == NULL || r == NULL) {
+                    s = nullSafe ? getBatchResult(compareType, l == r ? 0 : 1) : NULL;
+                } else {
+                    s = getBatchResult(compareType, compare(left, right, i));
+                }
+                states[i] = s;
+            }
+        }
+
+    }
+
 }
@@ -6,6 +6,7 @@
 package org.h2.expression.condition;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.BatchExpression;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.TypedValueExpression;
@@ -74,6 +75,19 @@ public StringBuilder getUnenclosedSQL(StringBuilder builder, int sqlFlags) {
         return right.getSQL(builder, sqlFlags, AUTO_PARENTHESES);
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        BatchExpression l = left.getBatchExpression(session, filter);
+        if (l == null || l.kind != BatchExpression.BOOLEAN) {
+            return null;
+        }
+        BatchExpression r = right.getBatchExpression(session, filter);
+        if (r == null || r.kind != BatchExpression.BOOLEAN) {
+            r = BatchExpression.unknown();
+        }
+        return new ConditionAndOrN.BatchAndOr(andOrType == AND, l, r);
+    }
+
     @Override
     public void createIndexConditions(SessionLocal session, TableFilter filter) {
         if (andOrType == AND) {
@@ -6,15 +6,18 @@
 package org.h2.expression.condition;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.BatchExpression;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionVisitor;
 import org.h2.message.DbException;
+import org.h2.result.SearchRow;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
 import org.h2.value.Value;
@@ -151,6 +154,25 @@ public Value getValue(SessionLocal session) {
         }
     }
 
+    @Override
+    public BatchExpression getBatchExpression(SessionLocal session, TableFilter filter) {
+        int size = expressions.size();
+        BatchExpression[] operands = new BatchExpression[size];
+        for (int i = 0; i < size; i++) {
+            BatchExpression e = expressions.get(i).getBatchExpression(session, filter);
+            if (e == null || e.kind != BatchExpression.BOOLEAN) {
+                if (i == 0) {
+                    return null;
+                }
+                // the following operands are never used
+                operands[i] = BatchExpression.unknown();
+                return new BatchAndOr(andOrType == ConditionAndOr.AND, Arrays.copyOf(operands, i + 1));
+            }
+            operands[i] = e;
+        }
+        return new BatchAndOr(andOrType == ConditionAndOr.AND, operands);
+    }
+
     private static final Comparator<Expression> COMPARE_BY_COST = new Comparator<>() {
         @Override
         public int compare(Expression lhs, Expression rhs) {
@@ -339,4 +361,42 @@ public Expression getSubexpression(int index) {
         return expressions.get(index);
     }
 
+    /**
+     * An AND or OR condition for a batch of rows.
+     */
+    static final class BatchAndOr extends BatchExpression {
+
+        private final boolean and;
+
+        private final BatchExpression[] operands;
+
+        BatchAndOr(boolean and, BatchExpression... operands) {
+            super(BOOLEAN);
+            this.and = and;
+            this.operands = operands;
+        }
+
+        @Override
+        public void evaluate(SearchRow[] rows, int size) {
+            byte[] states = this.states;
+            // the value that determines the result
+            byte result = and ? FALSE : TRUE;
+            Arrays.fill(states, 0, size, and ? TRUE : FALSE);
+            for (BatchExpression operand : operands) {
+                operand.evaluate(rows, size);
+                byte[] operandStates = operand.states;
+                for (int i = 0; i < size; i++) {
+                    byte s = states[i];
+                    if (s != result && s != UNKNOWN) {
+                        byte o = operandStates[i];
+                        if (o == result || o == UNKNOWN || o == NULL) {
+                            states[i] = o;
+                        }
+                    }
+                }
+            }
+        }
+
+    }
+
 }
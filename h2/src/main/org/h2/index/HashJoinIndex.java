@@ -0,0 +1,446 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.h2.command.query.AllColumnsForPlan;
+import org.h2.engine.Database;
+import org.h2.engine.SessionLocal;
+import org.h2.expression.condition.Comparison;
+import org.h2.message.DbException;
+import org.h2.result.LocalResult;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueRow;
+
+/**
+ * A transient hash index used to join a table on equality conditions when the
+ * table has no usable index for them.
+ * <p>
+ * On the first lookup of each query execution (the build phase) all rows of
+ * the table are read once with its scan index and grouped by the values of the
+ * join columns. Each lookup (the probe phase) then returns only the rows with
+ * the same key instead of scanning the whole table again. If the table has more
+ * rows than {@link Database#getMaxMemoryRows()}, the rows are distributed
+ * among partitions stored in temporary results, and only the partition of the
+ * current key is kept in memory. If the order of the rows of the outer table
+ * doesn't matter, its rows are then distributed among partitions in the same
+ * way, see {@link TableFilter#setUnordered(boolean)}, so that each partition
+ * of this table needs to be loaded only once.
+ * </p>
+ */
+public final class HashJoinIndex extends Index {
+
+    /**
+     * The minimum number of partitions used when the rows don't fit into
+     * memory.
+     */
+    private static final int MIN_PARTITIONS = 8;
+
+    /**
+     * The maximum number of partitions; each partition may use an own
+     * temporary file.
+     */
+    private static final int MAX_PARTITIONS = 64;
+
+    /**
+     * The index used to read the rows of the table in the build phase.
+     */
+    private final Index scanIndex;
+
+    /**
+     * The rows of the table (or of the loaded partition) grouped by their
+     * keys, or {@code null} if the build phase wasn't performed yet.
+     */
+    private HashMap<Value, ArrayList<Row>> rows;
+
+    /**
+     * The partitions, or {@code null} if all rows are kept in memory.
+     */
+    private LocalResult[] partitions;
+
+    /**
+     * The partition loaded into {@link #rows}.
+     */
+    private int loadedPartition;
+
+    private HashJoinIndex(Table table, Index scanIndex, IndexColumn[] columns) {
+        super(table, 0, null, columns, 0, IndexType.createNonUnique(false, true, false));
+        this.scanIndex = scanIndex;
+    }
+
+    /**
+     * Create a hash join index for the specified table filter if it has
+     * equality join conditions usable for hashing.
+     *
+     * @param session the session
+     * @param table the table
+     * @param indexConditions the index conditions of the table filter
+     * @return the hash join index, or {@code null} if it cannot be used
+     */
+    public static HashJoinIndex create(SessionLocal session, Table table, ArrayList<IndexCondition> indexConditions) {
+        if (!table.isDeterministic()) {
+            return null;
+        }
+        boolean binaryCollation = CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+        ArrayList<Column> columns = new ArrayList<>();
+        for (IndexCondition condition : indexConditions) {
+            // conditions with constant values are checked for each row, only
+            // join conditions are used for hashing
+            if (condition.getCompareType() != Comparison.EQUAL || condition.isCompoundColumns()
+                    || !condition.isEvaluatable() || condition.getExpression().isConstant()) {
+                continue;
+            }
+            Column column = condition.getColumn();
+            if (column.getColumnId() >= 0
+                    && isHashable(column, condition.getExpression().getType().getValueType(), binaryCollation)
+                    && !columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        if (columns.isEmpty()) {
+            return null;
+        }
+        return new HashJoinIndex(table, table.getScanIndex(session),
+                IndexColumn.wrap(columns.toArray(new Column[0])));
+    }
+
+    /**
+     * Check whether values of the specified column can be grouped by their
+     * hash codes. This is only the case for data types where equal values of
+     * the same type are also equal in the sense of {@link Object#equals(Object)}.
+     * Strings of other data types, such as {@code CHAR} and {@code VARCHAR},
+     * may be equal after conversion to the data type of the column even if
+     * their converted values are different, so strings are only hashed when
+     * the joined expression has the same data type as the column.
+     *
+     * @param column the column
+     * @param expressionType the data type of the joined expression
+     * @param binaryCollation whether strings are compared without a collator
+     * @return whether hashing is possible
+     */
+    private static boolean isHashable(Column column, int expressionType, boolean binaryCollation) {
+        int valueType = column.getType().getValueType();
+        switch (valueType) {
+        case Value.CHAR:
+        case Value.VARCHAR:
+            return binaryCollation && expressionType == valueType;
+        case Value.BINARY:
+        case Value.VARBINARY:
+        case Value.BOOLEAN:
+        case Value.TINYINT:
+        case Value.SMALLINT:
+        case Value.INTEGER:
+        case Value.BIGINT:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Discard the rows read by the previous query execution. The build phase
+     * will be performed again on the next lookup.
+     */
+    public void reset() {
+        rows = null;
+        if (partitions != null) {
+            for (LocalResult partition : partitions) {
+                partition.close();
+            }
+            partitions = null;
+        }
+    }
+
+    @Override
+    public void close(SessionLocal session) {
+        reset();
+    }
+
+    @Override
+    public void add(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Hash join");
+    }
+
+    @Override
+    public void remove(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Hash join");
+    }
+
+    @Override
+    public void remove(SessionLocal session) {
+        throw DbException.getUnsupportedException("Hash join");
+    }
+
+    @Override
+    public void truncate(SessionLocal session) {
+        throw DbException.getUnsupportedException("Hash join");
+    }
+
+    @Override
+    public Cursor find(SessionLocal session, SearchRow first, SearchRow last, boolean reverse) {
+        assert !reverse;
+        if (first == null || last == null) {
+            return scanIndex.find(session, null, null, false);
+        }
+        int len = columns.length;
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            int id = columnIds[i];
+            Value v = first.getValue(id), w = last.getValue(id);
+            if (v == null || w == null) {
+                return scanIndex.find(session, null, null, false);
+            }
+            Value k = v == ValueNull.INSTANCE || session.compare(v, w) != 0 ? null : toKeyValue(session, i, v);
+            if (k == null) {
+                return new MetaCursor(new ArrayList<>(0));
+            }
+            values[i] = k;
+        }
+        ArrayList<Row> list = lookup(session, len == 1 ? values[0] : ValueRow.get(values));
+        return new MetaCursor(list != null ? list : new ArrayList<>(0));
+    }
+
+    /**
+     * Convert a search value to the data type of the column.
+     *
+     * @param session the session
+     * @param i the index of the column in this index
+     * @param v the search value
+     * @return the converted value, or {@code null} if no value of the column
+     *         can be equal to the search value
+     */
+    private Value toKeyValue(SessionLocal session, int i, Value v) {
+        Value k;
+        try {
+            k = v.convertTo(columns[i].getType(), session);
+        } catch (DbException e) {
+            return null;
+        }
+        // the conversion may round the value
+        return session.compare(k, v) == 0 ? k : null;
+    }
+
+    /**
+     * Check whether the rows of the table don't fit into memory and are
+     * distributed among partitions. The build phase is performed if it wasn't
+     * performed yet.
+     *
+     * @param session the session
+     * @return whether the rows are distributed among partitions
+     */
+    public boolean isPartitioned(SessionLocal session) {
+        if (rows == null) {
+            build(session);
+        }
+        return partitions != null;
+    }
+
+    /**
+     * Returns the number of partitions.
+     *
+     * @return the number of partitions
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Get the partition that contains the rows that may be returned for the
+     * current rows of the outer tables.
+     *
+     * @param session the session
+     * @param filter the table filter that uses this index
+     * @return the partition, or 0 if no rows can be returned
+     */
+    public int getProbePartition(SessionLocal session, TableFilter filter) {
+        int len = columns.length;
+        Value[] values = new Value[len];
+        for (IndexCondition condition : filter.getIndexConditions()) {
+            if (condition.getCompareType() != Comparison.EQUAL || condition.isCompoundColumns()
+                    || !condition.isEvaluatable() || condition.getExpression().isConstant()) {
+                continue;
+            }
+            int i = getColumnIndex(condition.getColumn());
+            if (i < 0 || values[i] != null) {
+                continue;
+            }
+            Value v = condition.getCurrentValue(session);
+            Value k = v == ValueNull.INSTANCE ? null : toKeyValue(session, i, v);
+            if (k == null) {
+                return 0;
+            }
+            values[i] = k;
+        }
+        for (Value v : values) {
+            if (v == null) {
+                return 0;
+            }
+        }
+        return getPartition(len == 1 ? values[0] : ValueRow.get(values));
+    }
+
+    private Value getKey(SessionLocal session, SearchRow row) {
+        int len = columns.length;
+        if (len == 1) {
+            Value v = row.getValue(columnIds[0]);
+            return v == ValueNull.INSTANCE ? null : v.convertTo(columns[0].getType(), session);
+        }
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            Value v = row.getValue(columnIds[i]);
+            if (v == ValueNull.INSTANCE) {
+                return null;
+            }
+            values[i] = v.convertTo(columns[i].getType(), session);
+        }
+        return ValueRow.get(values);
+    }
+
+    private ArrayList<Row> lookup(SessionLocal session, Value key) {
+        if (rows == null) {
+            build(session);
+        }
+        if (partitions != null) {
+            int p = getPartition(key);
+            if (p != loadedPartition) {
+                rows = load(session, partitions[p]);
+                loadedPartition = p;
+            }
+        }
+        return rows.get(key);
+    }
+
+    private void build(SessionLocal session) {
+        Database db = session.getDatabase();
+        int maxMemoryRows = db.isPersistent() && !db.isReadOnly() ? db.getMaxMemoryRows() : Integer.MAX_VALUE;
+        HashMap<Value, ArrayList<Row>> map = new HashMap<>();
+        int count = 0;
+        Cursor cursor = scanIndex.find(session, null, null, false);
+        while (cursor.next()) {
+            if ((++count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get();
+            Value key = getKey(session, row);
+            if (key == null) {
+                // NULL is never equal to anything
+                continue;
+            }
+            if (partitions != null) {
+                partitions[getPartition(key)].addRowForTable(row);
+            } else {
+                map.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+                if (count > maxMemoryRows) {
+                    spill(session, map, maxMemoryRows);
+                    map.clear();
+                }
+            }
+        }
+        if (partitions != null) {
+            for (LocalResult partition : partitions) {
+                partition.done();
+            }
+            loadedPartition = -1;
+        }
+        rows = map;
+    }
+
+    private void spill(SessionLocal session, HashMap<Value, ArrayList<Row>> map, int maxMemoryRows) {
+        long expectedRows = Math.max(table.getRowCountApproximation(session), maxMemoryRows);
+        int count = (int) Math.max(MIN_PARTITIONS, Math.min(MAX_PARTITIONS, 2 * expectedRows / maxMemoryRows + 1));
+        LocalResult[] partitions = new LocalResult[count];
+        for (int i = 0; i < count; i++) {
+            LocalResult partition = LocalResult.forTable(session, table);
+            partition.setMaxMemoryRows(maxMemoryRows / count);
+            partitions[i] = partition;
+        }
+        this.partitions = partitions;
+        for (ArrayList<Row> list : map.values()) {
+            LocalResult partition = partitions[getPartition(getKey(session, list.get(0)))];
+            for (Row row : list) {
+                partition.addRowForTable(row);
+            }
+        }
+    }
+
+    private HashMap<Value, ArrayList<Row>> load(SessionLocal session, LocalResult partition) {
+        HashMap<Value, ArrayList<Row>> map = new HashMap<>();
+        partition.reset();
+        while (partition.next()) {
+            Row row = partition.currentRowForTable();
+            map.computeIfAbsent(getKey(session, row), k -> new ArrayList<>(1)).add(row);
+        }
+        return map;
+    }
+
+    private int getPartition(Value key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    @Override
+    public double getCost(SessionLocal session, int[] masks, TableFilter[] filters, int filter, SortOrder sortOrder,
+            AllColumnsForPlan allColumnsSet, boolean isSelectCommand) {
+        // the build phase is performed once for all rows of the outer tables
+        double buildCost = scanIndex.getCost(session, null, filters, filter, null, allColumnsSet, isSelectCommand);
+        double probeCount = 1;
+        if (filters != null) {
+            for (int i = 0; i < filter; i++) {
+                probeCount *= Math.max(filters[i].getTable().getRowCountApproximation(session), 1);
+            }
+        }
+        // a probe costs as much as a lookup in the table by an index on the join
+        // columns, it doesn't need to read rows from another index
+        return buildCost / probeCount + 10 * getCostRangeIndex(masks, table.getRowCountApproximation(session),
+                filters, filter, null, true, allColumnsSet, isSelectCommand);
+    }
+
+    @Override
+    public String getPlanSQL() {
+        String scanPlan = scanIndex.getPlanSQL();
+        return scanPlan == null ? "hash join" : "hash join " + scanPlan;
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public void checkRename() {
+        throw DbException.getUnsupportedException("Hash join");
+    }
+
+    @Override
+    public long getRowCount(SessionLocal session) {
+        return table.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation(SessionLocal session) {
+        return table.getRowCountApproximation(session);
+    }
+
+    @Override
+    public boolean canScan() {
+        return false;
+    }
+
+}
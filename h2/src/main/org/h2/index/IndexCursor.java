@@ -70,6 +70,15 @@ public void setIndex(Index index, boolean reverse) {
         }
     }
 
+    /**
+     * Check whether the index is read in descending order.
+     *
+     * @return whether the index is read in descending order
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
     /**
      * Prepare this index cursor to make a lookup in index.
      *
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+
+import org.h2.command.query.AllColumnsForPlan;
+import org.h2.engine.SessionLocal;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * A wrapper around a sorted index used to join a table on an equality
+ * condition with a column of the outer table when the rows of the outer table
+ * are read in the order of this index.
+ * <p>
+ * Instead of a new index lookup for each outer row, the same cursor is moved
+ * forward while the join keys increase, and the rows with the same key are
+ * remembered for the following outer rows with this key. If the keys don't
+ * arrive in the order of the index, or the lookup uses other columns of the
+ * index, a regular lookup is performed.
+ * </p>
+ */
+public final class MergeJoinIndex extends Index {
+
+    /**
+     * The number of rows skipped by the cursor after which a new lookup is
+     * performed instead.
+     */
+    private static final int MAX_SKIPPED_ROWS = 32;
+
+    /**
+     * The wrapped index.
+     */
+    private final Index delegate;
+
+    /**
+     * The forward cursor over the wrapped index, or {@code null} if no lookup
+     * was performed yet.
+     */
+    private Cursor cursor;
+
+    /**
+     * The row read by the cursor after the rows with the current key, or
+     * {@code null} if there are no more rows.
+     */
+    private Row next;
+
+    /**
+     * The search row with the current key.
+     */
+    private SearchRow current;
+
+    /**
+     * The rows with the current key.
+     */
+    private ArrayList<Row> rows;
+
+    public MergeJoinIndex(Index delegate) {
+        super(delegate.getTable(), 0, null, delegate.getIndexColumns(), delegate.getUniqueColumnCount(),
+                IndexType.createNonUnique(false));
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the wrapped index.
+     *
+     * @return the wrapped index
+     */
+    public Index getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Discard the position of the cursor used by the previous query
+     * execution.
+     */
+    public void reset() {
+        cursor = null;
+        next = null;
+        current = null;
+        rows = null;
+    }
+
+    @Override
+    public void close(SessionLocal session) {
+        reset();
+    }
+
+    @Override
+    public void add(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Merge join");
+    }
+
+    @Override
+    public void remove(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Merge join");
+    }
+
+    @Override
+    public void remove(SessionLocal session) {
+        throw DbException.getUnsupportedException("Merge join");
+    }
+
+    @Override
+    public void truncate(SessionLocal session) {
+        throw DbException.getUnsupportedException("Merge join");
+    }
+
+    @Override
+    public Cursor find(SessionLocal session, SearchRow first, SearchRow last, boolean reverse) {
+        if (reverse || !isKeyLookup(session, first, last)) {
+            return delegate.find(session, first, last, reverse);
+        }
+        if (current != null) {
+            int c = compareRows(first, current);
+            if (c == 0) {
+                return new MetaCursor(rows);
+            } else if (c < 0 || !skip(first)) {
+                // the key is out of order or too far away
+                cursor = null;
+            }
+        }
+        if (cursor == null) {
+            cursor = delegate.find(session, first, null, false);
+            next = cursor.next() ? cursor.get() : null;
+        }
+        ArrayList<Row> list = new ArrayList<>(1);
+        while (next != null && compareRows(next, first) == 0) {
+            list.add(next);
+            next = cursor.next() ? cursor.get() : null;
+        }
+        current = first;
+        rows = list;
+        return new MetaCursor(list);
+    }
+
+    /**
+     * Check whether the lookup uses only a non-NULL value of the first column
+     * of the index.
+     */
+    private boolean isKeyLookup(SessionLocal session, SearchRow first, SearchRow last) {
+        if (first == null || last == null) {
+            return false;
+        }
+        Value v = first.getValue(columnIds[0]), w = last.getValue(columnIds[0]);
+        if (v == null || w == null || v == ValueNull.INSTANCE || session.compare(v, w) != 0) {
+            return false;
+        }
+        for (int i = 1, len = columnIds.length; i < len; i++) {
+            int id = columnIds[i];
+            if (first.getValue(id) != null || last.getValue(id) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move the cursor to the first row with the specified or a larger key.
+     *
+     * @param key the search row with the key
+     * @return {@code false} if too many rows need to be skipped
+     */
+    private boolean skip(SearchRow key) {
+        for (int i = 0; next != null && compareRows(next, key) < 0; i++) {
+            if (i == MAX_SKIPPED_ROWS) {
+                return false;
+            }
+            next = cursor.next() ? cursor.get() : null;
+        }
+        return true;
+    }
+
+    @Override
+    public double getCost(SessionLocal session, int[] masks, TableFilter[] filters, int filter, SortOrder sortOrder,
+            AllColumnsForPlan allColumnsSet, boolean isSelectCommand) {
+        return delegate.getCost(session, masks, filters, filter, sortOrder, allColumnsSet, isSelectCommand);
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return "merge join " + delegate.getPlanSQL();
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public void checkRename() {
+        throw DbException.getUnsupportedException("Merge join");
+    }
+
+    @Override
+    public long getRowCount(SessionLocal session) {
+        return delegate.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation(SessionLocal session) {
+        return delegate.getRowCountApproximation(session);
+    }
+
+    @Override
+    public boolean canScan() {
+        return false;
+    }
+
+}
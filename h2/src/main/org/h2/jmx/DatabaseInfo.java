@@ -144,6 +144,30 @@ public long getFileSize() {
         return size / 1024;
     }
 
+    @Override
+    public long getScrubbedPageCount() {
+        if (database.isPersistent()) {
+            return database.getStore().getMvStore().getFileStore().getScrubbedPageCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public long getScrubErrorCount() {
+        if (database.isPersistent()) {
+            return database.getStore().getMvStore().getFileStore().getScrubErrorCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public String getScrubLastError() {
+        if (database.isPersistent()) {
+            return database.getStore().getMvStore().getFileStore().getScrubLastError();
+        }
+        return null;
+    }
+
     @Override
     public int getCacheSizeMax() {
         if (database.isPersistent()) {
@@ -56,6 +56,29 @@ public interface DatabaseInfoMBean {
      */
     long getFileSize();
 
+    /**
+     * The number of pages verified by the background scrubber since the
+     * database was opened.
+     *
+     * @return the number of pages
+     */
+    long getScrubbedPageCount();
+
+    /**
+     * The number of corrupt pages found by the background scrubber since the
+     * database was opened.
+     *
+     * @return the number of corrupt pages
+     */
+    long getScrubErrorCount();
+
+    /**
+     * The last error found by the background scrubber.
+     *
+     * @return the error message, or null if no error was found
+     */
+    String getScrubLastError();
+
     /**
      * The maximum cache size in KB.
      *
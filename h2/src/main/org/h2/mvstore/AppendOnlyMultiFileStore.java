@@ -5,68 +5,137 @@
  */
 package org.h2.mvstore;
 
-import org.h2.mvstore.cache.FilePathCache;
-import org.h2.store.fs.FilePath;
-import org.h2.store.fs.encrypt.FileEncrypt;
-import org.h2.store.fs.encrypt.FilePathEncrypt;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import org.h2.mvstore.cache.FilePathCache;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FileUtils;
+import org.h2.store.fs.encrypt.FileEncrypt;
+import org.h2.store.fs.encrypt.FilePathEncrypt;
+import org.h2.util.IOUtils;
 
 /**
- * Class AppendOnlyMultiFileStore.
+ * A store that splits the data into multiple segment files. The main file
+ * only contains the store header. Chunks are appended to the current segment
+ * file, and a new segment is started once it reaches the configured size.
+ * Space is never reused within a segment; instead, a segment is deleted as
+ * soon as none of its chunks is in use any longer. Compaction rewrites the
+ * live pages of the sparsest segments, so that they become empty.
+ * <p>
+ * Segment files are named after the main file, with the segment id appended
+ * ("test.mv.db.1", "test.mv.db.2" and so on). Optionally, all but the most
+ * recent segments are moved to a second directory (for example on a slower
+ * disk), as they are not written to any more.
+ * <p>
+ * The following configuration parameters are supported:
+ * <ul>
+ * <li>segmentSize: the size of a segment file in KB (default 64 MB)</li>
+ * <li>coldDirectory: the directory for older segments (default: none)</li>
+ * <li>hotSegmentCount: the number of the most recent segments to keep in the
+ * directory of the main file, if there is a cold directory (default 4)</li>
+ * </ul>
  *
  * @author <a href="mailto:andrei.tokar@gmail.com">Andrei Tokar</a>
  */
-@SuppressWarnings("unused")
 public final class AppendOnlyMultiFileStore extends FileStore<MFChunk>
 {
     /**
-     * Limit for the number of files used by this store
+     * The number of blocks at the beginning of each segment file, which are
+     * occupied by the segment header.
      */
-    @SuppressWarnings("FieldCanBeLocal")
-    private final int maxFileCount;
+    private static final int SEGMENT_HEADER_BLOCKS = 2;
+
+    private static final String HDR_SEGMENT = "segment";
 
     /**
-     * The time the store was created, in milliseconds since 1970.
+     * The maximum size of a segment file in bytes.
      */
-    private long creationTime;
+    private final long segmentSize;
 
-    private int volumeId;
+    /**
+     * The directory for segments which are not written any more, or null.
+     */
+    private final String coldDirectory;
 
     /**
-     * Current number of files in use
+     * The number of the most recent segments to keep in the primary directory.
      */
-    private int fileCount;
+    private final int hotSegmentCount;
 
     /**
-     * The current file. This is writable channel in append mode
+     * The main file, containing the store header. Possibly encrypted.
      */
     private FileChannel fileChannel;
 
     /**
-     * The encrypted file (if encryption is used).
+     * The encrypted main file (if encryption is used).
      */
     private FileChannel originalFileChannel;
 
     /**
-     * All files currently used by this store. This includes current one at first position.
-     * Previous files are opened in read-only mode.
-     * Logical length of this array is defined by fileCount.
+     * The file lock.
      */
-    @SuppressWarnings("MismatchedReadAndWriteOfArray")
-    private final FileChannel[] fileChannels;
+    private FileLock fileLock;
 
     /**
-     * The file lock.
+     * Creates the channel to access a file, possibly encrypted, from the
+     * channel of the raw file and the file name.
      */
-    private FileLock fileLock;
+    private BiFunction<String, FileChannel, FileChannel> encryptionTransformer;
+
+    /**
+     * All segments of this store by id.
+     */
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * The segment new chunks are appended to, or null if there is none yet.
+     */
+    private Segment currentSegment;
+
+    /**
+     * The segment where chunks are looked for during recovery.
+     */
+    private Segment scanSegment;
+
+    /**
+     * Empty segments, to be deleted once the layout without their chunks is
+     * written.
+     */
+    private final ArrayList<Segment> segmentsToDelete = new ArrayList<>();
+
+    /**
+     * The number of backups in progress. Segments are not deleted or moved
+     * while this is not 0.
+     */
+    private int backupCount;
+
+    /**
+     * The chunks to rewrite during compaction of a segment, or null.
+     */
+    private volatile Collection<MFChunk> rewriteCandidates;
+
+    /**
+     * Held while a segment is moved to the cold directory.
+     */
+    private final ReentrantLock moveLock = new ReentrantLock();
 
     private final Map<String, Object> config;
 
@@ -74,8 +143,14 @@ public final class AppendOnlyMultiFileStore extends FileStore<MFChunk>
     public AppendOnlyMultiFileStore(Map<String, Object> config) {
         super(config);
         this.config = config;
-        maxFileCount = DataUtils.getConfigParam(config, "maxFileCount", 16);
-        fileChannels = new FileChannel[maxFileCount];
+        segmentSize = Math.max(DataUtils.getConfigParam(config, "segmentSize", 64 * 1024), 16) * 1024L;
+        coldDirectory = (String) config.get("coldDirectory");
+        hotSegmentCount = Math.max(DataUtils.getConfigParam(config, "hotSegmentCount", 4), 1);
+    }
+
+    @Override
+    public String toString() {
+        return getFileName();
     }
 
     @Override
@@ -102,19 +177,20 @@ public boolean shouldSaveNow(int unsavedMemory, int autoCommitMemory) {
     public void open(String fileName, boolean readOnly, char[] encryptionKey) {
         open(fileName, readOnly,
                 encryptionKey == null ? null
-                        : fileChannel -> new FileEncrypt(fileName, FilePathEncrypt.getPasswordBytes(encryptionKey),
-                                fileChannel));
+                        : (name, fileChannel) -> new FileEncrypt(name,
+                                FilePathEncrypt.getPasswordBytes(encryptionKey), fileChannel));
     }
 
     @Override
     public AppendOnlyMultiFileStore open(String fileName, boolean readOnly) {
         AppendOnlyMultiFileStore result = new AppendOnlyMultiFileStore(config);
         result.open(fileName, readOnly, originalFileChannel == null ? null :
-                fileChannel -> new FileEncrypt(fileName, (FileEncrypt)this.fileChannel, fileChannel));
+                (name, fileChannel) -> new FileEncrypt(name, (FileEncrypt) this.fileChannel, fileChannel));
         return result;
     }
 
-    private void open(String fileName, boolean readOnly, Function<FileChannel,FileChannel> encryptionTransformer) {
+    private void open(String fileName, boolean readOnly,
+            BiFunction<String, FileChannel, FileChannel> encryptionTransformer) {
         if (fileChannel != null && fileChannel.isOpen()) {
             return;
         }
@@ -126,6 +202,10 @@ private void open(String fileName, boolean readOnly, Function<FileChannel,FileCh
             throw DataUtils.newIllegalArgumentException(
                     "Directory does not exist: {0}", parent);
         }
+        if (coldDirectory != null && !FileUtils.exists(coldDirectory)) {
+            throw DataUtils.newIllegalArgumentException(
+                    "Directory does not exist: {0}", coldDirectory);
+        }
         if (f.exists() && !f.canWrite()) {
             readOnly = true;
         }
@@ -134,7 +214,10 @@ private void open(String fileName, boolean readOnly, Function<FileChannel,FileCh
             fileChannel = f.open(readOnly ? "r" : "rw");
             if (encryptionTransformer != null) {
                 originalFileChannel = fileChannel;
-                fileChannel = encryptionTransformer.apply(fileChannel);
+                fileChannel = encryptionTransformer.apply(fileName, fileChannel);
+                // segments share the key of the main file
+                FileEncrypt source = (FileEncrypt) fileChannel;
+                this.encryptionTransformer = (name, channel) -> new FileEncrypt(name, source, channel);
             }
             try {
                 fileLock = fileChannel.tryLock(0L, Long.MAX_VALUE, readOnly);
@@ -151,7 +234,8 @@ private void open(String fileName, boolean readOnly, Function<FileChannel,FileCh
             }
             saveChunkLock.lock();
             try {
-                setSize(fileChannel.size());
+                openSegments();
+                updateSize();
             } finally {
                 saveChunkLock.unlock();
             }
@@ -163,12 +247,92 @@ private void open(String fileName, boolean readOnly, Function<FileChannel,FileCh
         }
     }
 
+    /**
+     * Open all segment files of this store, in the directory of the main file
+     * and in the cold directory.
+     */
+    private void openSegments() throws IOException {
+        boolean leftOver = fileChannel.size() == 0 && !isReadOnly();
+        TreeMap<Integer, String> found = new TreeMap<>();
+        if (coldDirectory != null) {
+            findSegmentFiles(coldDirectory, found);
+        }
+        String parent = FileUtils.getParent(FileUtils.toRealPath(getFileName()));
+        // segment files in the primary directory take precedence, a copy in
+        // the cold directory may be left over from an interrupted move
+        HashMap<Integer, String> cold = new HashMap<>(found);
+        findSegmentFiles(parent, found);
+        for (Map.Entry<Integer, String> e : found.entrySet()) {
+            int id = e.getKey();
+            String name = e.getValue();
+            String coldName = cold.get(id);
+            if (coldName != null && !coldName.equals(name) && !isReadOnly()) {
+                FileUtils.delete(coldName);
+            }
+            if (leftOver) {
+                // the creation of the store was interrupted
+                FileUtils.delete(name);
+                continue;
+            }
+            Segment segment = new Segment(id, name, coldName != null && coldName.equals(name));
+            openSegmentFile(segment, isReadOnly() ? "r" : "rw");
+            segment.size = segment.file.size();
+            if (segment.size < SEGMENT_HEADER_BLOCKS * BLOCK_SIZE && !isReadOnly()) {
+                // the creation of this segment was interrupted
+                segment.close();
+                FileUtils.delete(name);
+            } else {
+                segments.put(id, segment);
+            }
+        }
+    }
+
+    private void findSegmentFiles(String directory, Map<Integer, String> found) {
+        String prefix = FileUtils.getName(getFileName()) + '.';
+        for (String name : FileUtils.newDirectoryStream(directory)) {
+            String n = FileUtils.getName(name);
+            if (n.startsWith(prefix)) {
+                String suffix = n.substring(prefix.length());
+                if (suffix.endsWith(".tmp")) {
+                    if (!isReadOnly()) {
+                        FileUtils.delete(name);
+                    }
+                } else if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    found.put(Integer.parseInt(suffix), name);
+                }
+            }
+        }
+    }
+
+    private void openSegmentFile(Segment segment, String mode) throws IOException {
+        FileChannel file = FileUtils.open(segment.fileName, mode);
+        segment.originalFile = file;
+        segment.file = encryptionTransformer == null ? file : encryptionTransformer.apply(segment.fileName, file);
+    }
+
+    /**
+     * Get the file name of a segment in the directory of the main file.
+     *
+     * @param id the segment id
+     * @return the file name
+     */
+    private String getSegmentFileName(int id) {
+        return getFileName() + '.' + id;
+    }
+
+    private String getColdSegmentFileName(int id) {
+        return coldDirectory + '/' + FileUtils.getName(getFileName()) + '.' + id;
+    }
+
     /**
      * Close this store.
      */
     @Override
     public void close() {
         try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
             if(fileChannel.isOpen()) {
                 if (fileLock != null) {
                     fileLock.release();
@@ -181,45 +345,125 @@ public void close() {
                     "Closing failed for file {0}", getFileName(), e);
         } finally {
             fileLock = null;
+            segments.clear();
+            currentSegment = null;
             super.close();
         }
     }
 
+    /**
+     * Flush all changes.
+     */
+    @Override
+    public void sync() {
+        try {
+            Segment segment = currentSegment;
+            if (segment != null && segment.file.isOpen()) {
+                segment.file.force(true);
+            }
+            if (fileChannel.isOpen()) {
+                fileChannel.force(true);
+            }
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not sync file {0}", getFileName(), e);
+        }
+    }
+
+    private Segment getSegment(MFChunk chunk) {
+        Segment segment = chunk == null ? scanSegment : segments.get(chunk.volumeId);
+        if (segment == null) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_FILE_CORRUPT,
+                    "Segment of chunk {0} not found in {1}", chunk, getFileName());
+        }
+        return segment;
+    }
+
     @Override
     protected void writeFully(MFChunk chunk, long pos, ByteBuffer src) {
-        assert chunk.volumeId == volumeId;
         int len = src.remaining();
-        setSize(Math.max(super.size(), pos + len));
-        DataUtils.writeFully(fileChannels[volumeId], pos, src);
+        DataUtils.writeFully(getSegment(chunk).file, pos, src);
         writeCount.incrementAndGet();
         writeBytes.addAndGet(len);
     }
 
     @Override
     public ByteBuffer readFully(MFChunk chunk, long pos, int len) {
-        int volumeId = chunk.volumeId;
-        return readFully(fileChannels[volumeId], pos, len);
+        Segment segment = getSegment(chunk);
+        while (true) {
+            FileChannel file = segment.file;
+            try {
+                return readFully(file, pos, len);
+            } catch (MVStoreException e) {
+                // the segment may have been moved to the cold directory
+                // concurrently, in this case read from the new file
+                if (segment.file == file) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected boolean isValidChunk(MFChunk chunk) {
+        Segment segment = segments.get(chunk.volumeId);
+        if (segment == null) {
+            return false;
+        }
+        saveChunkLock.lock();
+        try {
+            scanSegment = segment;
+            return super.isValidChunk(chunk);
+        } finally {
+            scanSegment = null;
+            saveChunkLock.unlock();
+        }
+    }
+
+    private void updateSize() {
+        try {
+            long size = fileChannel.size();
+            for (Segment segment : segments.values()) {
+                size += segment.size;
+            }
+            setSize(size);
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_READING_FAILED,
+                    "Could not read size of file {0}", getFileName(), e);
+        }
     }
 
     @Override
     protected void initializeStoreHeader(long time) {
+        initializeCommonHeaderAttributes(time);
+        writeStoreHeader();
     }
 
     @Override
     protected void readStoreHeader(boolean recoveryMode) {
-        ByteBuffer fileHeaderBlocks = readFully(new MFChunk(""), 0, FileStore.BLOCK_SIZE);
-        byte[] buff = new byte[FileStore.BLOCK_SIZE];
-        fileHeaderBlocks.get(buff);
-        // the following can fail for various reasons
-        try {
-            HashMap<String, String> m = DataUtils.parseChecksummedMap(buff);
-            if (m == null) {
-                throw DataUtils.newMVStoreException(
-                        DataUtils.ERROR_FILE_CORRUPT,
-                        "Store header is corrupt: {0}", this);
-            }
-            storeHeader.putAll(m);
-        } catch (Exception ignore) {
+        // read the two copies of the store header and use the newest one
+        ByteBuffer fileHeaderBlocks = readFully(fileChannel, 0, 2 * BLOCK_SIZE);
+        byte[] buff = new byte[BLOCK_SIZE];
+        long newestVersion = -1;
+        for (int i = 0; i < 2; i++) {
+            fileHeaderBlocks.get(buff);
+            // the following can fail for various reasons
+            try {
+                HashMap<String, String> m = DataUtils.parseChecksummedMap(buff);
+                if (m != null) {
+                    long version = DataUtils.readHexLong(m, HDR_VERSION, 0);
+                    if (version > newestVersion) {
+                        newestVersion = version;
+                        storeHeader.clear();
+                        storeHeader.putAll(m);
+                    }
+                }
+            } catch (Exception ignore) {/**/}
+        }
+        if (newestVersion < 0) {
             throw DataUtils.newMVStoreException(
                     DataUtils.ERROR_FILE_CORRUPT,
                     "Store header is corrupt: {0}", this);
@@ -227,73 +471,628 @@ protected void readStoreHeader(boolean recoveryMode) {
 
         processCommonHeaderAttributes();
 
-        long fileSize = size();
-        long blocksInVolume = fileSize / FileStore.BLOCK_SIZE;
-
-        MFChunk chunk = discoverChunk(blocksInVolume);
-        setLastChunk(chunk);
+        // chunks are only appended, so the newest chunk
+        // is the last complete one of the newest segment
+        MFChunk newest = null;
+        for (Segment segment : segments.descendingMap().values()) {
+            scanSegment = segment;
+            try {
+                newest = discoverChunk(segment.size / BLOCK_SIZE);
+            } finally {
+                scanSegment = null;
+            }
+            if (newest != null) {
+                newest.volumeId = segment.id;
+                break;
+            }
+        }
+        if (newest == null && storeHeader.containsKey(HDR_CHUNK)) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_FILE_CORRUPT,
+                    "File is corrupted - unable to find the last chunk of {0}", this);
+        }
+        setLastChunk(newest);
         // load the chunk metadata: although meta's root page resides in the lastChunk,
         // traversing meta map might recursively load another chunk(s)
         for (MFChunk c : getChunksFromLayoutMap()) {
-            // might be there already, due to meta traversal
-            // see readPage() ... getChunkIfFound()
+            if (c.isAllocated() && !segments.containsKey(c.volumeId)) {
+                if (c.isLive()) {
+                    throw DataUtils.newMVStoreException(
+                            DataUtils.ERROR_FILE_CORRUPT,
+                            "File is corrupted - segment {0} of chunk {1} is missing", c.volumeId, c);
+                }
+                // the segment was deleted after this chunk became unused,
+                // but before the layout without it was written
+                c.block = 0;
+                c.len = 0;
+            }
             if (!c.isLive()) {
                 registerDeadChunk(c);
             }
         }
+
+        segmentsToDelete.clear();
+        for (Segment segment : segments.values()) {
+            segment.chunkCount = 0;
+        }
+        for (MFChunk c : getChunks().values()) {
+            if (c.isAllocated()) {
+                segments.get(c.volumeId).chunkCount++;
+            }
+        }
+        currentSegment = newest == null ? null : segments.get(newest.volumeId);
+        if (!isReadOnly()) {
+            truncateAfterLastChunk();
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != currentSegment && segment.chunkCount == 0) {
+                    deleteSegment(segment);
+                }
+            }
+        }
+        updateSize();
+    }
+
+    /**
+     * Remove everything written after the last chunk: the end of its segment,
+     * and all newer segments.
+     */
+    private void truncateAfterLastChunk() {
+        MFChunk last = lastChunk;
+        int lastSegmentId = last == null ? 0 : last.volumeId;
+        for (Segment segment : new ArrayList<>(segments.tailMap(lastSegmentId, false).values())) {
+            deleteSegment(segment);
+        }
+        if (last != null) {
+            Segment segment = segments.get(lastSegmentId);
+            long end = (last.block + last.len) * BLOCK_SIZE;
+            if (segment.size > end) {
+                try {
+                    segment.file.truncate(end);
+                } catch (IOException e) {
+                    throw DataUtils.newMVStoreException(
+                            DataUtils.ERROR_WRITING_FAILED,
+                            "Could not truncate file {0} to size {1}", segment.fileName, end, e);
+                }
+                segment.size = end;
+            }
+            currentSegment = segment;
+        }
+    }
+
+    @Override
+    protected void writeStoreHeader() {
+        if (hasPersistentData()) {
+            storeHeader.put(HDR_BLOCK, lastChunk.block);
+            storeHeader.put(HDR_CHUNK, lastChunk.id);
+            storeHeader.put(HDR_VERSION, lastChunk.version);
+            storeHeader.put(HDR_SEGMENT, lastChunk.volumeId);
+        }
+        writeHeader(fileChannel, storeHeader, 2);
+        updateSize();
+    }
+
+    /**
+     * Write a checksummed header into the first blocks of a file.
+     *
+     * @param file the file
+     * @param header the header
+     * @param copies the number of copies, one per block
+     */
+    private void writeHeader(FileChannel file, HashMap<String, Object> header, int copies) {
+        StringBuilder buff = new StringBuilder(112);
+        DataUtils.appendMap(buff, header);
+        byte[] bytes = buff.toString().getBytes(StandardCharsets.ISO_8859_1);
+        int checksum = DataUtils.getFletcher32(bytes, 0, bytes.length);
+        DataUtils.appendMap(buff, HDR_FLETCHER, checksum);
+        buff.append('\n');
+        bytes = buff.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_HEADER_BLOCKS * BLOCK_SIZE);
+        for (int i = 0; i < copies; i++) {
+            buffer.position(i * BLOCK_SIZE);
+            buffer.put(bytes);
+        }
+        buffer.rewind();
+        DataUtils.writeFully(file, 0, buffer);
+        writeCount.incrementAndGet();
+        writeBytes.addAndGet(buffer.capacity());
     }
 
     @Override
     protected void allocateChunkSpace(MFChunk chunk, WriteBuffer buff) {
-        chunk.block = size() / BLOCK_SIZE;
-        setSize((chunk.block + chunk.len) * BLOCK_SIZE);
+        Segment segment = currentSegment;
+        int length = buff.limit();
+        if (segment == null || segment.size > SEGMENT_HEADER_BLOCKS * BLOCK_SIZE
+                && segment.size + length > segmentSize) {
+            segment = createSegment();
+        }
+        chunk.volumeId = segment.id;
+        chunk.block = segment.size / BLOCK_SIZE;
+        chunk.next = 0;
+        segment.size += length;
+        segment.chunkCount++;
+        updateSize();
+    }
+
+    /**
+     * Start a new segment, which becomes the current one.
+     *
+     * @return the new segment
+     */
+    private Segment createSegment() {
+        Segment previous = currentSegment;
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = new Segment(id, getSegmentFileName(id), false);
+        try {
+            if (previous != null) {
+                // the chunks of the new segment may refer to the chunks of
+                // the previous one, which therefore need to be written first
+                previous.file.force(true);
+            }
+            openSegmentFile(segment, "rw");
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not create file {0}", segment.fileName, e);
+        }
+        HashMap<String, Object> header = new HashMap<>();
+        header.put(HDR_SEGMENT, id);
+        header.put(HDR_CREATED, System.currentTimeMillis());
+        writeHeader(segment.file, header, 1);
+        segment.size = SEGMENT_HEADER_BLOCKS * BLOCK_SIZE;
+        segments.put(id, segment);
+        currentSegment = segment;
+        if (previous != null && previous.chunkCount == 0) {
+            scheduleDeletion(previous);
+        }
+        return segment;
     }
 
     @Override
     protected void writeChunk(MFChunk chunk, WriteBuffer buff) {
         long filePos = chunk.block * BLOCK_SIZE;
         writeFully(chunk, filePos, buff.getBuffer());
+        lastChunk = chunk;
+        if (storeHeader.remove(HDR_CLEAN) != null) {
+            writeStoreHeader();
+        }
+        deleteUnusedSegments(chunk.version);
+    }
+
+    /**
+     * Delete the empty segments whose chunks were removed from the layout
+     * before the given version was stored.
+     *
+     * @param version the version of the last written chunk
+     */
+    private void deleteUnusedSegments(long version) {
+        if (!segmentsToDelete.isEmpty() && backupCount == 0) {
+            boolean synced = false;
+            for (Iterator<Segment> it = segmentsToDelete.iterator(); it.hasNext();) {
+                Segment segment = it.next();
+                if (segment.deleteAfterVersion < version) {
+                    if (!synced) {
+                        // the layout without the chunks of this segment needs
+                        // to be persisted before
+                        sync();
+                        synced = true;
+                    }
+                    it.remove();
+                    deleteSegment(segment);
+                }
+            }
+            updateSize();
+        }
+    }
+
+    private void scheduleDeletion(Segment segment) {
+        segment.deleteAfterVersion = getMvStore().getCurrentVersion();
+        segmentsToDelete.add(segment);
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.id);
+        try {
+            segment.close();
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Closing failed for file {0}", segment.fileName, e);
+        }
+        FileUtils.delete(segment.fileName);
     }
 
     @Override
     protected void writeCleanShutdownMark() {
-
+        MFChunk last = lastChunk;
+        if (last != null) {
+            deleteUnusedSegments(last.version);
+        }
+        storeHeader.put(HDR_CLEAN, 1);
+        writeStoreHeader();
     }
 
     @Override
     protected void adjustStoreToLastChunk() {
-
+        segmentsToDelete.clear();
+        truncateAfterLastChunk();
+        storeHeader.put(HDR_CLEAN, 1);
+        writeStoreHeader();
+        readStoreHeader(false);
     }
 
+    /**
+     * Compact the store by rewriting the live pages of the segments with the
+     * lowest fill rate, so that these segments can be deleted. Each segment is
+     * compacted at most once per call. Afterwards, old segments are moved to
+     * the cold directory, if there is one.
+     *
+     * @param thresholdFillRate do not compact segments with a fill rate above
+     *            this value (0-100)
+     * @param maxCompactTime the maximum time in milliseconds to compact
+     * @param maxWriteSize the maximum amount of data to be written per segment
+     * @param mvStore that owns this FileStore
+     */
     @Override
     protected void compactStore(int thresholdFillRate, long maxCompactTime, int maxWriteSize, MVStore mvStore) {
+        setRetentionTime(0);
+        long stopAt = System.nanoTime() + maxCompactTime * 1_000_000L;
+        HashSet<Integer> compacted = new HashSet<>();
+        Segment segment;
+        while ((segment = findSegmentToCompact(thresholdFillRate, compacted)) != null) {
+            compacted.add(segment.id);
+            // segments with unused chunks only are deleted without rewriting
+            if (rewriteSegment(segment, maxWriteSize, false)) {
+                mvStore.commit();
+            }
+            if (System.nanoTime() - stopAt > 0L) {
+                break;
+            }
+        }
+        sync();
+        mvStore.executeFilestoreOperation(this::dropUnusedChunks);
+        mvStore.commit();
+        while (System.nanoTime() - stopAt <= 0L && moveColdSegment(true)) {
+            // continue with the next segment
+        }
+    }
+
+    /**
+     * Rewrite the live pages of the chunks of the given segment.
+     *
+     * @param segment the segment
+     * @param writeLimit the maximum number of bytes to rewrite
+     * @param background whether to stop as soon as commits are waiting
+     * @return whether any page was rewritten
+     */
+    private boolean rewriteSegment(Segment segment, int writeLimit, boolean background) {
+        ArrayList<MFChunk> candidates = new ArrayList<>();
+        for (MFChunk c : getChunks().values()) {
+            if (c.volumeId == segment.id && c.isAllocated()) {
+                candidates.add(c);
+            }
+        }
+        rewriteCandidates = candidates;
+        try {
+            return rewriteChunks(writeLimit, 100, background);
+        } finally {
+            rewriteCandidates = null;
+        }
+    }
 
+    /**
+     * Find the sealed segment with the lowest fill rate.
+     *
+     * @param thresholdFillRate the maximum fill rate (0-100)
+     * @param exclude the ids of segments to ignore
+     * @return the segment, or null if there is none below the threshold
+     */
+    private Segment findSegmentToCompact(int thresholdFillRate, Collection<Integer> exclude) {
+        HashMap<Integer, long[]> usage = getSegmentUsage();
+        Segment result = null;
+        int resultFillRate = thresholdFillRate;
+        Segment current = currentSegment;
+        for (Segment segment : segments.values()) {
+            if (segment != current && segment.deleteAfterVersion < 0 && !exclude.contains(segment.id)) {
+                long[] u = usage.get(segment.id);
+                int fillRate = u == null ? 0 : (int) (100 * u[0] / Math.max(1, u[1]));
+                if (fillRate < resultFillRate) {
+                    result = segment;
+                    resultFillRate = fillRate;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the estimated number of live bytes and the total number of bytes
+     * of the chunks of each segment.
+     *
+     * @return the live and total bytes by segment id
+     */
+    private HashMap<Integer, long[]> getSegmentUsage() {
+        HashMap<Integer, long[]> usage = new HashMap<>();
+        for (MFChunk c : getChunks().values()) {
+            if (c.isAllocated()) {
+                long length = (long) c.len * BLOCK_SIZE;
+                long[] u = usage.computeIfAbsent(c.volumeId, k -> new long[2]);
+                u[0] += c.isLive() ? length * c.getFillRate() / 100 : 0;
+                u[1] += length;
+            }
+        }
+        return usage;
     }
 
     @Override
-    protected void doHousekeeping(MVStore mvStore) throws InterruptedException {}
+    protected Collection<MFChunk> getRewriteCandidates() {
+        return rewriteCandidates;
+    }
+
+    @Override
+    protected void doHousekeeping(MVStore mvStore) throws InterruptedException {
+        int autoCompactFillRate = getAutoCompactFillRate();
+        if (getFillRate() < autoCompactFillRate) {
+            Segment segment = findSegmentToCompact(autoCompactFillRate, Collections.emptySet());
+            if (segment != null) {
+                int writeLimit = mvStore.getAutoCommitMemory();
+                if (!isIdle()) {
+                    writeLimit /= 4;
+                }
+                int budget = getCompactionBudget(writeLimit);
+                if (budget > 0) {
+                    mvStore.tryExecuteUnderStoreLock(() -> {
+                        if (rewriteSegment(segment, budget, true)) {
+                            dropUnusedChunks();
+                        }
+                        return true;
+                    });
+                }
+            }
+        }
+        moveColdSegment(false);
+    }
+
+    /**
+     * Move the oldest segment, which is not among the most recent ones, from
+     * the directory of the main file to the cold directory.
+     *
+     * @param wait whether to wait for a concurrent move to finish, instead
+     *            of leaving the work to it
+     * @return whether a segment was moved
+     */
+    private boolean moveColdSegment(boolean wait) {
+        Segment current = currentSegment;
+        if (coldDirectory == null || current == null) {
+            return false;
+        }
+        if (wait) {
+            moveLock.lock();
+        } else if (!moveLock.tryLock()) {
+            return false;
+        }
+        try {
+            return moveColdSegment(current);
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    private boolean moveColdSegment(Segment current) {
+        Segment segment = null;
+        for (Segment s : segments.headMap(current.id - hotSegmentCount, true).values()) {
+            if (!s.cold && s.deleteAfterVersion < 0) {
+                segment = s;
+                break;
+            }
+        }
+        if (segment == null) {
+            return false;
+        }
+        String target = getColdSegmentFileName(segment.id);
+        String temp = target + ".tmp";
+        try {
+            // sealed segments are not changed any more, so no lock is needed
+            // to copy them
+            try (FileChannel out = FileUtils.open(temp, "rw")) {
+                FileChannel in = segment.originalFile;
+                long size = in.size();
+                ByteBuffer buff = ByteBuffer.allocate(64 * 1024);
+                for (long pos = 0; pos < size;) {
+                    int len = (int) Math.min(buff.capacity(), size - pos);
+                    buff.clear().limit(len);
+                    DataUtils.readFully(in, pos, buff);
+                    DataUtils.writeFully(out, pos, buff);
+                    pos += len;
+                }
+                out.force(true);
+            }
+            FileUtils.move(temp, target);
+        } catch (IOException | RuntimeException e) {
+            FileUtils.tryDelete(temp);
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not move file {0} to {1}", segment.fileName, target, e);
+        }
+        saveChunkLock.lock();
+        try {
+            if (segments.get(segment.id) != segment || segment.deleteAfterVersion >= 0 || backupCount > 0) {
+                FileUtils.delete(target);
+                return false;
+            }
+            FileChannel oldFile = segment.file;
+            FileChannel oldOriginalFile = segment.originalFile;
+            String oldFileName = segment.fileName;
+            segment.fileName = target;
+            try {
+                openSegmentFile(segment, isReadOnly() ? "r" : "rw");
+                segment.cold = true;
+                oldFile.close();
+                oldOriginalFile.close();
+            } catch (IOException e) {
+                throw DataUtils.newMVStoreException(
+                        DataUtils.ERROR_WRITING_FAILED,
+                        "Could not open file {0}", target, e);
+            }
+            FileUtils.delete(oldFileName);
+            return true;
+        } finally {
+            saveChunkLock.unlock();
+        }
+    }
 
     @Override
     public int getFillRate() {
-        return 0;
+        long live = 0;
+        long total = 0;
+        for (long[] u : getSegmentUsage().values()) {
+            live += u[0];
+            total += u[1];
+        }
+        for (Segment segment : segments.values()) {
+            total += SEGMENT_HEADER_BLOCKS * BLOCK_SIZE;
+        }
+        return total == 0 ? 100 : (int) (100 * live / total);
+    }
+
+    /**
+     * Get the number of segment files of this store.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
     }
 
     @Override
-    protected void shrinkStoreIfPossible(int minPercent) {}
+    protected void shrinkStoreIfPossible(int minPercent) {
+        // empty segments are deleted as a whole
+    }
 
     @Override
-    public void markUsed(long pos, int length) {}
+    public void markUsed(long pos, int length) {
+        // space within a segment is never reused
+    }
 
     @Override
-    protected void freeChunkSpace(Iterable<MFChunk> chunks) {}
+    protected void freeChunkSpace(Iterable<MFChunk> chunks) {
+        Segment current = currentSegment;
+        for (MFChunk chunk : chunks) {
+            Segment segment = segments.get(chunk.volumeId);
+            if (segment != null && --segment.chunkCount == 0 && segment != current) {
+                scheduleDeletion(segment);
+            }
+        }
+    }
 
     @Override
     protected boolean validateFileLength(String msg) {
         return true;
     }
 
+    /**
+     * Write the main file and each segment file as separate entries into the
+     * zip file. Segments are not deleted or moved during the backup, and all
+     * but the current one are not changed any more.
+     *
+     * @param out the zip file
+     */
     @Override
     public void backup(ZipOutputStream out) throws IOException {
+        ArrayList<Segment> list;
+        saveChunkLock.lock();
+        try {
+            backupCount++;
+            list = new ArrayList<>(segments.values());
+        } finally {
+            saveChunkLock.unlock();
+        }
+        try {
+            backupFile(out, getFileName(), originalFileChannel != null ? originalFileChannel : fileChannel);
+            for (Segment segment : list) {
+                backupFile(out, segment.fileName, segment.originalFile);
+            }
+        } finally {
+            saveChunkLock.lock();
+            try {
+                backupCount--;
+            } finally {
+                saveChunkLock.unlock();
+            }
+        }
+    }
+
+    private static void backupFile(ZipOutputStream out, String fileName, FileChannel in) throws IOException {
+        out.putNextEntry(new ZipEntry(SingleFileStore.correctFileName(FileUtils.getName(fileName))));
+        IOUtils.copy(in, out);
+        out.closeEntry();
+    }
 
+    /**
+     * A segment file.
+     */
+    private static final class Segment {
+
+        /**
+         * The id of the segment, starting with 1.
+         */
+        final int id;
+
+        /**
+         * The current file name.
+         */
+        volatile String fileName;
+
+        /**
+         * The file, possibly encrypted.
+         */
+        volatile FileChannel file;
+
+        /**
+         * The raw file.
+         */
+        volatile FileChannel originalFile;
+
+        /**
+         * Whether the file is in the cold directory.
+         */
+        volatile boolean cold;
+
+        /**
+         * The allocated size in bytes.
+         */
+        long size;
+
+        /**
+         * The number of allocated chunks in this segment.
+         */
+        int chunkCount;
+
+        /**
+         * The version after which this empty segment may be deleted, or -1 if
+         * it is not scheduled for deletion.
+         */
+        long deleteAfterVersion = -1;
+
+        Segment(int id, String fileName, boolean cold) {
+            this.id = id;
+            this.fileName = fileName;
+            this.cold = cold;
+        }
+
+        void close() throws IOException {
+            FileChannel f = file;
+            if (f != null && f.isOpen()) {
+                f.close();
+            }
+            f = originalFile;
+            if (f != null && f.isOpen()) {
+                f.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return fileName;
+        }
     }
 }
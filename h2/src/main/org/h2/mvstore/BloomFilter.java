@@ -0,0 +1,118 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.h2.util.Bits;
+
+/**
+ * A bloom filter over the hash codes of keys. Adding a hash code is thread
+ * safe, and may be done concurrently with lookups.
+ */
+final class BloomFilter {
+
+    /**
+     * The number of bits per expected entry. With 7 hash functions, this
+     * results in a false positive rate of about 1%.
+     */
+    private static final int BITS_PER_ENTRY = 10;
+
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    /**
+     * Create a new empty filter.
+     *
+     * @param expectedEntries the expected number of entries
+     */
+    BloomFilter(long expectedEntries) {
+        this(new AtomicLongArray((int) Math.min(Math.max(expectedEntries * BITS_PER_ENTRY / 64, 1),
+                Integer.MAX_VALUE >> 4)));
+    }
+
+    private BloomFilter(AtomicLongArray bits) {
+        this.bits = bits;
+        this.bitCount = bits.length() * 64L;
+    }
+
+    private static long mix(int hash) {
+        long h = hash * 0x9e37_79b9_7f4a_7c15L;
+        h ^= h >>> 32;
+        h *= 0xd6e8_feb8_6659_fd93L;
+        return h ^ h >>> 32;
+    }
+
+    /**
+     * Add a hash code.
+     *
+     * @param hash the hash code of the key
+     */
+    void add(int hash) {
+        long h = mix(hash);
+        long h2 = h >>> 32 | 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++, h += h2) {
+            long bit = Long.remainderUnsigned(h, bitCount);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old;
+            while (((old = bits.get(index)) & mask) == 0 && !bits.compareAndSet(index, old, old | mask)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * Check whether a key with the given hash code may have been added.
+     *
+     * @param hash the hash code of the key
+     * @return false if the key was definitely not added
+     */
+    boolean mayContain(int hash) {
+        long h = mix(hash);
+        long h2 = h >>> 32 | 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++, h += h2) {
+            long bit = Long.remainderUnsigned(h, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the filter as a byte array.
+     *
+     * @return the byte array
+     */
+    byte[] toBytes() {
+        int length = bits.length();
+        byte[] bytes = new byte[length * 8];
+        for (int i = 0; i < length; i++) {
+            Bits.LONG_VH_BE.set(bytes, i * 8, bits.get(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Read a filter from a byte array.
+     *
+     * @param bytes the byte array
+     * @return the filter
+     */
+    static BloomFilter fromBytes(byte[] bytes) {
+        int length = bytes.length / 8;
+        AtomicLongArray bits = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            bits.set(i, (long) Bits.LONG_VH_BE.get(bytes, i * 8));
+        }
+        return new BloomFilter(bits);
+    }
+
+}
@@ -204,6 +204,39 @@
         }
     }
 
+    /**
+     * Read the chunk metadata in the binary form written by
+     * {@link #writeBinary(WriteBuffer)}.
+     *
+     * @param buff the source buffer
+     */
+    Chunk(ByteBuffer buff) {
+        this(DataUtils.readVarInt(buff));
+        block = DataUtils.readVarLong(buff);
+        len = DataUtils.readVarInt(buff);
+        version = DataUtils.readVarLong(buff);
+        pageCount = DataUtils.readVarInt(buff);
+        pageCountLive = DataUtils.readVarInt(buff);
+        mapId = DataUtils.readVarInt(buff);
+        maxLen = DataUtils.readVarLong(buff);
+        maxLenLive = DataUtils.readVarLong(buff);
+        layoutRootPos = DataUtils.readVarLong(buff);
+        time = DataUtils.readVarLong(buff);
+        unused = DataUtils.readVarLong(buff);
+        unusedAtVersion = DataUtils.readVarLong(buff);
+        next = DataUtils.readVarLong(buff);
+        pinCount = DataUtils.readVarInt(buff);
+        tocPos = DataUtils.readVarInt(buff);
+        byte[] bytes = new byte[DataUtils.readVarInt(buff)];
+        buff.get(bytes);
+        occupancy = BitSet.valueOf(bytes);
+        if (pageCount - pageCountLive != occupancy.cardinality()) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_FILE_CORRUPT, "Inconsistent occupancy info {0} - {1} != {2} {3}",
+                    pageCount, pageCountLive, occupancy.cardinality(), this);
+        }
+    }
+
     Chunk(int id) {
         this.id = id;
         if (id < 0 || id > MAX_ID) {
@@ -361,6 +394,34 @@ protected void dump(StringBuilder buff) {
         }
     }
 
+    /**
+     * Write the metadata of this chunk in a compact binary form. It contains
+     * the same information as {@link #asString()}.
+     *
+     * @param buff the target buffer
+     */
+    void writeBinary(WriteBuffer buff) {
+        byte[] bytes = occupancy == null ? new byte[0] : occupancy.toByteArray();
+        buff.putVarInt(id)
+            .putVarLong(block)
+            .putVarInt(len)
+            .putVarLong(version)
+            .putVarInt(pageCount)
+            .putVarInt(pageCountLive)
+            .putVarInt(mapId)
+            .putVarLong(maxLen)
+            .putVarLong(maxLenLive)
+            .putVarLong(layoutRootPos)
+            .putVarLong(time)
+            .putVarLong(unused)
+            .putVarLong(unusedAtVersion)
+            .putVarLong(next)
+            .putVarInt(pinCount)
+            .putVarInt(tocPos)
+            .putVarInt(bytes.length)
+            .put(bytes);
+    }
+
     public String getHeader() {
         return new String(getHeaderBytes(), StandardCharsets.ISO_8859_1);
     }
@@ -15,14 +15,44 @@
  * @param <V> the value type
  */
 public final class Cursor<K,V> implements Iterator<K> {
+    /**
+     * The number of leaf pages a cursor has to move to before the following
+     * pages are read in advance.
+     */
+    private static final int READ_AHEAD_MIN_LEAF_COUNT = 2;
+
     private final boolean reverse;
     private final K to;
+    /**
+     * The cursors of the maps of a composite snapshot root (see
+     * {@link MVMap#isCompositeRoot(Page)}), or null. If a key is found in
+     * more than one of them, the first one wins.
+     */
+    private final Cursor<K,V>[] shardCursors;
     private CursorPos<K,V> cursorPos;
     private CursorPos<K,V> keeper;
-    private K current;
+    /**
+     * Whether the next entry was fetched, but not returned yet.
+     */
+    private boolean fetched;
     private K last;
+    /**
+     * The index of the last key in the last page, if the key was not boxed
+     * yet, or -1.
+     */
+    private int lastIndex = -1;
     private V lastValue;
     private Page<K,V> lastPage;
+    /**
+     * The number of leaf pages this cursor moved to in sequence.
+     */
+    private int leafCount;
+    /**
+     * The parent page whose children are read in advance, and the index of
+     * the last child requested so far.
+     */
+    private Page<K,V> readAheadParent;
+    private int readAheadIndex;
 
 
     public Cursor(RootReference<K,V> rootReference, K from, K to) {
@@ -36,17 +66,35 @@ public Cursor(RootReference<K,V> rootReference, K from, K to) {
      * @param reverse true if tree should be iterated in key's descending order
      */
     public Cursor(RootReference<K,V> rootReference, K from, K to, boolean reverse) {
-        this.lastPage = rootReference.root;
-        this.cursorPos = traverseDown(lastPage, from, reverse);
+        this(rootReference.root, from, to, reverse);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cursor(Page<K,V> root, K from, K to, boolean reverse) {
+        this.lastPage = root;
         this.to = to;
         this.reverse = reverse;
+        if (root.map.isCompositeRoot(root)) {
+            // merge the entries of all maps of the snapshot
+            int shardCount = root.getRawChildPageCount();
+            shardCursors = (Cursor<K,V>[]) new Cursor<?,?>[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shardCursors[i] = new Cursor<>(root.getChildPage(i), from, to, reverse);
+            }
+        } else {
+            shardCursors = null;
+            cursorPos = traverseDown(root, from, reverse);
+        }
     }
 
     @Override
     public boolean hasNext() {
+        if (shardCursors != null) {
+            return fetched || fetchNextFromShards();
+        }
         if (cursorPos != null) {
             int increment = reverse ? -1 : 1;
-            while (current == null) {
+            while (!fetched) {
                 Page<K,V> page = cursorPos.page;
                 int index = cursorPos.index;
                 if (reverse ? index < 0 : index >= upperBound(page)) {
@@ -60,6 +108,7 @@ public boolean hasNext() {
                     keeper = tmp;
                 } else {
                     // traverse down to the leaf taking the leftmost path
+                    boolean descended = !page.isLeaf();
                     while (!page.isLeaf()) {
                         page = page.getChildPage(index);
                         index = reverse ? upperBound(page) - 1 : 0;
@@ -74,12 +123,17 @@ public boolean hasNext() {
                             cursorPos = tmp;
                         }
                     }
+                    if (descended && ++leafCount >= READ_AHEAD_MIN_LEAF_COUNT) {
+                        readAhead(cursorPos.parent);
+                    }
                     if (reverse ? index >= 0 : index < page.getKeyCount()) {
-                        K key = page.getKey(index);
-                        if (to != null && Integer.signum(page.map.getKeyType().compare(key, to)) == increment) {
+                        if (to != null && Integer.signum(page.compareKey(index, to)) == increment) {
                             return false;
                         }
-                        current = last = key;
+                        // the key is boxed only if requested
+                        fetched = true;
+                        last = null;
+                        lastIndex = index;
                         lastValue = page.getValue(index);
                         lastPage = page;
                     }
@@ -87,7 +141,77 @@ public boolean hasNext() {
                 cursorPos.index += increment;
             }
         }
-        return current != null;
+        return fetched;
+    }
+
+    /**
+     * Request the siblings following the current leaf page of a sequential
+     * scan to be read into the page cache in the background. The pages are
+     * requested in batches, once half of the previous batch is consumed.
+     *
+     * @param parent the position in the parent page
+     */
+    private void readAhead(CursorPos<K,V> parent) {
+        Page<K,V> page = parent.page;
+        FileStore<?> fileStore = page.map.store.getFileStore();
+        int count = fileStore == null ? 0 : fileStore.getReadAheadPages();
+        if (count <= 0) {
+            return;
+        }
+        int index = parent.index;
+        int increment = reverse ? -1 : 1;
+        if (page != readAheadParent || (readAheadIndex - index) * increment < 0) {
+            readAheadParent = page;
+            readAheadIndex = index;
+        } else if ((readAheadIndex - index) * increment > count / 2) {
+            return;
+        }
+        int limit = reverse ? Math.max(-1, index - count - 1) : Math.min(upperBound(page), index + count + 1);
+        long[] positions = new long[count];
+        int n = 0;
+        for (int i = readAheadIndex + increment; (limit - i) * increment > 0; i += increment) {
+            long pos = page.getChildPagePos(i);
+            if (DataUtils.isPageSaved(pos)) {
+                positions[n++] = pos;
+            }
+            readAheadIndex = i;
+        }
+        if (n > 0) {
+            fileStore.readAhead(page.map, positions, n);
+        }
+    }
+
+    private boolean fetchNextFromShards() {
+        while (true) {
+            Cursor<K,V> best = null;
+            for (Cursor<K,V> c : shardCursors) {
+                if (c.hasNext()) {
+                    if (best == null) {
+                        best = c;
+                        continue;
+                    }
+                    int comp = c.lastPage.map.getKeyType().compare(c.getKey(), best.getKey());
+                    if (comp == 0) {
+                        // shadowed by the entry of a newer map
+                        c.next();
+                    } else if (comp < 0 != reverse) {
+                        best = c;
+                    }
+                }
+            }
+            if (best == null) {
+                return false;
+            }
+            K key = best.next();
+            if (best.lastValue != LSMTreeMap.TOMBSTONE) {
+                fetched = true;
+                last = key;
+                lastIndex = -1;
+                lastValue = best.lastValue;
+                lastPage = best.lastPage;
+                return true;
+            }
+        }
     }
 
     @Override
@@ -95,8 +219,39 @@ public K next() {
         if(!hasNext()) {
             throw new NoSuchElementException();
         }
-        current = null;
-        return last;
+        fetched = false;
+        return getKey();
+    }
+
+    /**
+     * Get the next key of a map with Long keys. For maps with
+     * {@link org.h2.mvstore.type.LongDataType} keys the key is not boxed.
+     *
+     * @return the next key
+     * @throws NoSuchElementException if there are no more entries
+     */
+    public long nextLong() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        return getLongKey();
+    }
+
+    /**
+     * Move to the next entry without reading its key. The key is read only if
+     * it is requested with {@link #getKey()}, so for maps with
+     * {@link org.h2.mvstore.type.LongDataType} keys the keys of entries that
+     * are skipped are not boxed.
+     *
+     * @return whether there was a next entry
+     */
+    public boolean advance() {
+        if (!hasNext()) {
+            return false;
+        }
+        fetched = false;
+        return true;
     }
 
     /**
@@ -105,9 +260,25 @@ public K next() {
      * @return the key or null
      */
     public K getKey() {
+        int index = lastIndex;
+        if (index >= 0) {
+            last = lastPage.getKey(index);
+            lastIndex = -1;
+        }
         return last;
     }
 
+    /**
+     * Get the last read key of a map with Long keys. For maps with
+     * {@link org.h2.mvstore.type.LongDataType} keys the key is not boxed.
+     *
+     * @return the key
+     */
+    public long getLongKey() {
+        int index = lastIndex;
+        return index >= 0 ? lastPage.getLongKey(index) : (Long) last;
+    }
+
     /**
      * Get the last read value if there was one.
      *
@@ -122,11 +293,22 @@ public V getValue() {
      *
      * @return the page
      */
-    @SuppressWarnings("unused")
-    Page<K,V> getPage() {
+    public Page<K,V> getPage() {
         return lastPage;
     }
 
+    /**
+     * Skip the remaining entries of the page where the last retrieved key is
+     * located, so that the next entry is read from the following page. This
+     * method does nothing if the next entry was already fetched by
+     * {@link #hasNext()}, or if the entries of several maps are merged.
+     */
+    public void skipPage() {
+        if (!fetched && shardCursors == null && cursorPos != null && cursorPos.page == lastPage) {
+            cursorPos.index = reverse ? -1 : upperBound(lastPage);
+        }
+    }
+
     /**
      * Skip over that many entries. This method is relatively fast (for this map
      * implementation) even if many entries need to be skipped.
@@ -134,7 +316,7 @@ Page<K,V> getPage() {
      * @param n the number of entries to skip
      */
     public void skip(long n) {
-        if (n < 10) {
+        if (n < 10 || shardCursors != null) {
             while (n-- > 0 && hasNext()) {
                 next();
             }
@@ -147,6 +329,7 @@ public void skip(long n) {
             MVMap<K,V> map = root.map;
             long index = map.getKeyIndex(next());
             last = map.getKey(index + (reverse ? -n : n));
+            lastIndex = -1;
             this.cursorPos = traverseDown(root, last, reverse);
         }
     }
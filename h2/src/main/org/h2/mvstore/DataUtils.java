@@ -15,9 +15,11 @@
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.CRC32C;
 
 import org.h2.engine.Constants;
 import org.h2.jdbc.JdbcException;
+import org.h2.store.fs.FileBase;
 import org.h2.util.StringUtils;
 
 /**
@@ -134,6 +136,21 @@ public final class DataUtils {
      */
     public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
 
+    /**
+     * The bit mask for compressed pages (LZ4).
+     */
+    public static final int PAGE_COMPRESSED_LZ4 = 2 + 8;
+
+    /**
+     * The bit mask for compressed pages (LZ4 with Huffman coding).
+     */
+    public static final int PAGE_COMPRESSED_LZ4_HUFFMAN = 2 + 4 + 8;
+
+    /**
+     * The bit mask for pages that end with a checksum.
+     */
+    public static final int PAGE_HAS_CHECKSUM = 16;
+
     /**
      * The maximum integer that needs less space when using variable size
      * encoding (only 3 bytes instead of 4).
@@ -398,6 +415,19 @@ public static void writeVarLong(OutputStream out, long x)
      */
     public static <T> void copyWithGap(T[] src, T[] dst, int oldSize,
             int gapIndex) {
+        copyWithGap((Object) src, (Object) dst, oldSize, gapIndex);
+    }
+
+    /**
+     * Copy the elements of an array of any type, including arrays of
+     * primitive types, with a gap.
+     *
+     * @param src the source array
+     * @param dst the target array
+     * @param oldSize the size of the old array
+     * @param gapIndex the index of the gap
+     */
+    static void copyWithGap(Object src, Object dst, int oldSize, int gapIndex) {
         if (gapIndex > 0) {
             System.arraycopy(src, 0, dst, 0, gapIndex);
         }
@@ -417,6 +447,19 @@ public static <T> void copyWithGap(T[] src, T[] dst, int oldSize,
      */
     public static <T> void copyExcept(T[] src, T[] dst, int oldSize,
             int removeIndex) {
+        copyExcept((Object) src, (Object) dst, oldSize, removeIndex);
+    }
+
+    /**
+     * Copy the elements of an array of any type, including arrays of
+     * primitive types, and remove one element.
+     *
+     * @param src the source array
+     * @param dst the target array
+     * @param oldSize the size of the old array
+     * @param removeIndex the index of the entry to remove
+     */
+    static void copyExcept(Object src, Object dst, int oldSize, int removeIndex) {
         if (removeIndex > 0 && oldSize > 0) {
             System.arraycopy(src, 0, dst, 0, removeIndex);
         }
@@ -460,6 +503,37 @@ public static void readFully(FileChannel file, long pos, ByteBuffer dst) {
         }
     }
 
+    /**
+     * Read from a file channel without copying the data, if the file supports
+     * it (for example, memory mapped files).
+     *
+     * @param file the file channel
+     * @param pos the absolute position within the file
+     * @param len the number of bytes to read
+     * @return the read-only buffer sharing the file content, or null if not
+     *         supported
+     */
+    public static ByteBuffer readShared(FileChannel file, long pos, int len) {
+        if (!(file instanceof FileBase)) {
+            return null;
+        }
+        try {
+            return ((FileBase) file).readShared(pos, len);
+        } catch (IOException e) {
+            long size;
+            try {
+                size = file.size();
+            } catch (IOException e2) {
+                size = -1;
+            }
+            throw newMVStoreException(
+                    ERROR_READING_FAILED,
+                    "Reading from file {0} failed at {1} (length {2}), " +
+                    "read {3}, remaining {4}",
+                    file, pos, size, 0, len, e);
+        }
+    }
+
     /**
      * Write to a file channel.
      *
@@ -678,6 +752,23 @@ public static short getCheckValue(int x) {
         return (short) ((x >> 16) ^ x);
     }
 
+    /**
+     * Calculate the checksum (CRC-32C) of a page. It covers all bytes of the
+     * page before the checksum itself.
+     *
+     * @param buff the buffer
+     * @param start the position of the page
+     * @param end the position of the checksum
+     * @return the checksum
+     */
+    public static int getPageChecksum(ByteBuffer buff, int start, int end) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer b = buff.duplicate();
+        b.limit(end).position(start);
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+
     /**
      * Append a map to the string builder, sorted by key.
      *
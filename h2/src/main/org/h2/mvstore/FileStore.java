@@ -5,6 +5,7 @@
  */
 package org.h2.mvstore;
 
+import org.h2.compress.Compressor;
 import org.h2.engine.Constants;
 import static org.h2.mvstore.MVStore.INITIAL_VERSION;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
@@ -22,6 +23,7 @@
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +32,7 @@
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -81,12 +84,12 @@
     static final int BLOCK_SIZE = 4 * 1024;
 
     private static final int FORMAT_WRITE_MIN = 3;
-    private static final int FORMAT_WRITE_MAX = 3;
+    private static final int FORMAT_WRITE_MAX = 4;
     private static final int FORMAT_READ_MIN = 3;
-    private static final int FORMAT_READ_MAX = 3;
+    private static final int FORMAT_READ_MAX = 4;
 
     MVStore mvStore;
-    private boolean closed;
+    private volatile boolean closed;
 
     /**
      * The number of read operations.
@@ -137,6 +140,13 @@
      */
     private final ReentrantLock serializationLock = new ReentrantLock(true);
 
+    /**
+     * Ids of chunks with live pages of maps that are not open. These pages
+     * are copied as they are into the next chunk (guarded by
+     * serializationLock).
+     */
+    private final Set<Integer> pageCopyChunkIds = new HashSet<>();
+
     /**
      * Single-threaded executor for serialization of the store snapshot into ByteBuffer
      */
@@ -147,6 +157,29 @@
      */
     private ThreadPoolExecutor bufferSaveExecutor;
 
+    /**
+     * The number of threads used to serialize pages of a new chunk
+     */
+    private final int serializationThreads;
+
+    /**
+     * Pool of workers for parallel serialization of leaf pages,
+     * or null if pages are serialized by a single thread
+     */
+    private ThreadPoolExecutor serializationWorkers;
+
+    /**
+     * The number of sibling pages a sequential cursor reads in advance,
+     * or 0 if read-ahead is disabled
+     */
+    private final int readAheadPages;
+
+    /**
+     * Single-threaded executor reading pages into the cache in advance,
+     * created on first use
+     */
+    private ThreadPoolExecutor readAheadExecutor;
+
 
     /**
      * The page cache. The default size is 16 MB, and the average size is 2 KB.
@@ -203,6 +236,77 @@
 
     private final int autoCompactFillRate;
 
+    /**
+     * The maximum number of bytes per second to be rewritten or moved by
+     * background compaction, 0 for no limit.
+     */
+    private final long autoCompactRate;
+
+    /**
+     * The number of bytes background compaction may rewrite or move now (only
+     * used by the background thread).
+     */
+    private long compactBudget;
+
+    /**
+     * The time when the compaction budget was last refilled, in nanoseconds.
+     */
+    private long compactBudgetTime;
+
+    /**
+     * The number of bytes of live pages rewritten or moved by compaction.
+     */
+    private final AtomicLong compactWriteBytes = new AtomicLong();
+
+    /**
+     * Whether new pages end with a checksum.
+     */
+    private final boolean pageChecksum;
+
+    /**
+     * The maximum number of bytes per second read by the background scrubber,
+     * 0 if it is disabled.
+     */
+    private final long scrubRate;
+
+    /**
+     * The number of bytes the scrubber may read now (only used by the
+     * background thread).
+     */
+    private long scrubBudget;
+
+    /**
+     * The time when the scrub budget was last refilled, in nanoseconds.
+     */
+    private long scrubBudgetTime;
+
+    /**
+     * The ids of the chunks to verify in the current pass of the scrubber, in
+     * ascending order (only used by the background thread).
+     */
+    private int[] scrubChunkIds;
+
+    /**
+     * The index of the next chunk to verify in scrubChunkIds.
+     */
+    private int scrubIndex;
+
+    /**
+     * The number of pages verified by the scrubber.
+     */
+    private final AtomicLong scrubbedPageCount = new AtomicLong();
+
+    /**
+     * The positions of the corrupt pages found by the scrubber (negative for a
+     * corrupt table of contents of a chunk), so that each is counted once.
+     */
+    private final Set<Long> scrubErrors = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The last error found by the scrubber.
+     */
+    private volatile String scrubLastError;
+
     /**
      * The delay in milliseconds to automatically commit and write changes.
      */
@@ -216,12 +320,28 @@
 
     public static final int PIPE_LENGTH = 3;
 
+    /**
+     * The minimum number of changed leaf pages in a chunk
+     * to be serialized by a pool of workers
+     */
+    private static final int MIN_PARALLEL_LEAF_COUNT = 64;
+
+    /**
+     * The maximum number of pending read-ahead requests
+     */
+    private static final int READ_AHEAD_QUEUE_LENGTH = 16;
+
 
 
 
     protected FileStore(Map<String, Object> config) {
         recoveryMode = config.containsKey("recoveryMode");
         autoCompactFillRate = DataUtils.getConfigParam(config, "autoCompactFillRate", 90);
+        autoCompactRate = DataUtils.getConfigParam(config, "autoCompactRate", 0) * 1024L * 1024L;
+        pageChecksum = config.containsKey("pageChecksum");
+        scrubRate = DataUtils.getConfigParam(config, "scrubRate", 0) * 1024L * 1024L;
+        serializationThreads = Math.max(1, DataUtils.getConfigParam(config, "serializationThreads", 1));
+        readAheadPages = Math.max(0, DataUtils.getConfigParam(config, "readAhead", 0));
         CacheLongKeyLIRS.Config cc = null;
         int mb = DataUtils.getConfigParam(config, "cacheSize", 16);
         if (mb > 0) {
@@ -280,8 +400,14 @@ public final void stop(long allowedCompactionTime) {
     }
 
     public void close() {
-        layout.close();
         closed = true;
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = readAheadExecutor;
+            readAheadExecutor = null;
+        }
+        Utils.shutdownExecutor(executor);
+        layout.close();
         chunks.clear();
     }
 
@@ -430,6 +556,10 @@ public final void setAutoCommitDelay(int millis) {
                         t.start();
                         serializationExecutor = Utils.createSingleThreadExecutor("H2-serialization");
                         bufferSaveExecutor = Utils.createSingleThreadExecutor("H2-save");
+                        if (serializationThreads > 1) {
+                            serializationWorkers = Utils.createFixedThreadExecutor("H2-serialization-worker",
+                                    serializationThreads);
+                        }
                     }
                 }
             }
@@ -509,7 +639,7 @@ protected final void initializeCommonHeaderAttributes(long time) {
         creationTime = time;
         storeHeader.put(FileStore.HDR_H, 2);
         storeHeader.put(FileStore.HDR_BLOCK_SIZE, FileStore.BLOCK_SIZE);
-        storeHeader.put(FileStore.HDR_FORMAT, FORMAT_WRITE_MAX);
+        storeHeader.put(FileStore.HDR_FORMAT, getWriteFormat());
         storeHeader.put(FileStore.HDR_CREATED, creationTime);
     }
 
@@ -622,6 +752,18 @@ protected final boolean hasPersistentData() {
         return lastChunk != null;
     }
 
+    /**
+     * Whether the layout map was not changed since the last chunk was saved,
+     * so that the chunk metadata in memory matches the persisted one.
+     *
+     * @return true if the layout map is saved
+     */
+    protected final boolean isLayoutSaved() {
+        C chunk = lastChunk;
+        Page<String, String> root = layout.getRootPage();
+        return chunk != null && root.isSaved() && root.getPos() == chunk.layoutRootPos;
+    }
+
     protected final boolean isIdle() {
         return autoCompactLastFileOpCount >= getWriteCount() + getReadCount();
     }
@@ -718,8 +860,11 @@ private boolean isRewritable(C chunk, long time) {
     public abstract ByteBuffer readFully(C chunk, long pos, int len);
 
     protected final ByteBuffer readFully(FileChannel file, long pos, int len) {
-        ByteBuffer dst = ByteBuffer.allocate(len);
-        DataUtils.readFully(file, pos, dst);
+        ByteBuffer dst = DataUtils.readShared(file, pos, len);
+        if (dst == null) {
+            dst = ByteBuffer.allocate(len);
+            DataUtils.readFully(file, pos, dst);
+        }
         readCount.incrementAndGet();
         readBytes.addAndGet(len);
         return dst;
@@ -861,9 +1006,8 @@ public void saveChunkMetadataChanges(C chunk) {
      * Please note this method will not necessarily reduce the file size, as
      * empty chunks are not overwritten.
      * <p>
-     * Only data of open maps can be moved. For maps that are not open, the old
-     * chunk is still referenced. Therefore, it is recommended to open all maps
-     * before calling this method.
+     * Pages of maps that are not open are copied as they are into the next
+     * chunk, without opening these maps.
      *
      * @param targetFillRate the minimum percentage of live entries
      * @param write the minimum number of bytes to write
@@ -877,7 +1021,7 @@ public boolean compact(int targetFillRate, int write) {
                 // it might go into deadlock with concurrent database closure
                 // and attempt to stop this thread.
                 try {
-                    Boolean result = mvStore.tryExecuteUnderStoreLock(() -> rewriteChunks(write, 100));
+                    Boolean result = mvStore.tryExecuteUnderStoreLock(() -> rewriteChunks(write, 100, false));
                     return result != null && result;
                 } catch (InterruptedException e) {
                     throw new RuntimeException(e);
@@ -917,6 +1061,12 @@ public MVMap<String, String> start() {
             saveChunkLock.lock();
             try {
                 readStoreHeader(recoveryMode);
+                int format = getWriteFormat();
+                if (!isReadOnly() && DataUtils.readHexLong(storeHeader, HDR_FORMAT, 1) < format) {
+                    // before any page older versions can't read is written
+                    storeHeader.put(HDR_FORMAT, format);
+                    writeStoreHeader();
+                }
             } finally {
                 saveChunkLock.unlock();
             }
@@ -933,6 +1083,24 @@ public MVMap<String, String> start() {
 
     protected abstract void readStoreHeader(boolean recoveryMode);
 
+    /**
+     * Write the store header.
+     */
+    protected abstract void writeStoreHeader();
+
+    /**
+     * Get the format the store needs to be written in. Pages compressed with
+     * LZ4 and pages with checksums require the format 4, as older versions
+     * would decode them as pages compressed with LZF, or would not skip the
+     * checksum. Other stores are still written in the format 3, so that older
+     * versions can open them.
+     *
+     * @return the format
+     */
+    private int getWriteFormat() {
+        return mvStore.getCompressionLevel() >= 3 || pageChecksum ? FORMAT_WRITE_MAX : FORMAT_WRITE_MIN;
+    }
+
     private int lastMapId() {
         C chunk = lastChunk;
         return chunk == null ? 0 : chunk.mapId;
@@ -1125,7 +1293,7 @@ public C next() {
      * @param chunk to verify existence
      * @return true if Chunk exists in the file and is valid, false otherwise
      */
-    private boolean isValidChunk(C chunk) {
+    protected boolean isValidChunk(C chunk) {
         return readChunkHeaderAndFooter(chunk.block, chunk.id) != null;
     }
 
@@ -1233,6 +1401,74 @@ protected final int getAutoCompactFillRate() {
         return autoCompactFillRate;
     }
 
+    /**
+     * Get the maximum number of bytes per second to be rewritten or moved by
+     * background compaction.
+     *
+     * @return the number of bytes per second, 0 for no limit
+     */
+    public final long getAutoCompactRate() {
+        return autoCompactRate;
+    }
+
+    /**
+     * Get the number of bytes of live pages rewritten or moved by compaction
+     * since the store was opened.
+     *
+     * @return the number of bytes
+     */
+    public final long getCompactWriteBytes() {
+        return compactWriteBytes.get();
+    }
+
+    /**
+     * Get the number of bytes of live pages in chunks with a fill rate below
+     * the auto-compact fill rate, which background compaction would rewrite.
+     *
+     * @return the number of bytes
+     */
+    public final long getCompactBacklogBytes() {
+        long time = getTimeSinceCreation();
+        long backlog = 0;
+        for (C chunk : chunks.values()) {
+            if (chunk.getFillRate() < autoCompactFillRate && isRewritable(chunk, time)) {
+                backlog += chunk.maxLenLive;
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Get the number of bytes background compaction may rewrite or move now.
+     * The budget is refilled at the auto-compact rate, up to the amount of one
+     * second.
+     *
+     * @param writeLimit the number of bytes to use if there is no rate limit
+     * @return the number of bytes, 0 if the budget is used up
+     */
+    protected final int getCompactionBudget(int writeLimit) {
+        if (autoCompactRate <= 0) {
+            return writeLimit;
+        }
+        long now = System.nanoTime();
+        long elapsed = compactBudgetTime == 0 ? 1_000_000_000L : Math.min(now - compactBudgetTime, 1_000_000_000L);
+        compactBudgetTime = now;
+        compactBudget = Math.min(compactBudget + elapsed * autoCompactRate / 1_000_000_000L, autoCompactRate);
+        return (int) Math.max(0, Math.min(compactBudget, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Account for bytes of live pages rewritten or moved by compaction.
+     *
+     * @param bytes the number of bytes
+     */
+    protected final void consumeCompactionBudget(long bytes) {
+        compactWriteBytes.addAndGet(bytes);
+        if (autoCompactRate > 0 && isBackgroundThread()) {
+            compactBudget -= bytes;
+        }
+    }
+
 
     public void sync() {}
 
@@ -1457,6 +1693,7 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
 
         long version = c.version;
         PageSerializationManager pageSerializationManager = new PageSerializationManager(c, buff);
+        List<WriteBuffer> workerBuffers = serializeLeavesInParallel(changed, pageSerializationManager);
         for (Page<?,?> p : changed) {
             String key = MVMap.getMapRootKey(p.getMapId());
             if (p.getTotalCount() == 0) {
@@ -1467,6 +1704,13 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
                 layout.put(key, Long.toHexString(root));
             }
         }
+        copyPages(pageSerializationManager, version);
+        if (workerBuffers != null) {
+            pageSerializationManager.clearSerializedBodies();
+            for (WriteBuffer workerBuffer : workerBuffers) {
+                releaseWriteBuffer(workerBuffer);
+            }
+        }
 
         acceptChunkOccupancyChanges(c.time, version);
 
@@ -1509,6 +1753,206 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
         c.buffer = buff.getBuffer();
     }
 
+    /**
+     * Copy the live pages of maps that are not open from the chunks found by
+     * the last rewrite into the chunk being written. Pages are copied as they
+     * are, only the child positions of the non-leaf pages on the path to the
+     * root are patched. So these maps are not opened, and no keys or values
+     * are read.
+     *
+     * @param pageSerializationManager of the chunk being written
+     * @param version the version of the chunk
+     */
+    private void copyPages(PageSerializationManager pageSerializationManager, long version) {
+        // the root of a map must not change while the map is being opened
+        if (pageCopyChunkIds.isEmpty() || !mvStore.tryLockMapOpen()) {
+            return;
+        }
+        try {
+            Set<Integer> chunkIds = new HashSet<>();
+            Set<Integer> mapIds = new TreeSet<>();
+            for (int chunkId : pageCopyChunkIds) {
+                C chunk = chunks.get(chunkId);
+                if (chunk != null && chunk.isSaved()) {
+                    long[] toc = getToC(chunk);
+                    if (toc != null) {
+                        chunkIds.add(chunkId);
+                        for (int pageNo = 0; (pageNo = chunk.occupancy.nextClearBit(pageNo)) < chunk.pageCount;
+                                ++pageNo) {
+                            mapIds.add(DataUtils.getPageMapId(toc[pageNo]));
+                        }
+                    }
+                }
+            }
+            pageCopyChunkIds.clear();
+            int metaId = mvStore.getMetaMap().getId();
+            for (int mapId : mapIds) {
+                if (mapId != layout.getId() && mapId != metaId && mvStore.getMap(mapId) == null) {
+                    long root = getRootPos(mapId);
+                    if (root != 0) {
+                        long newRoot = copyPage(pageSerializationManager, root, chunkIds, version);
+                        if (newRoot != root) {
+                            layout.put(MVMap.getMapRootKey(mapId), Long.toHexString(newRoot));
+                        }
+                    }
+                }
+            }
+        } finally {
+            mvStore.unlockMapOpen();
+        }
+    }
+
+    /**
+     * Copy a page if it is stored in one of the given chunks, or if one of its
+     * descendants is copied.
+     *
+     * @param pageSerializationManager of the chunk being written
+     * @param pos the position of the page
+     * @param chunkIds the ids of the chunks to copy pages from
+     * @param version the version of the chunk being written
+     * @return the new position, or the old position if the page is not copied
+     */
+    private long copyPage(PageSerializationManager pageSerializationManager, long pos, Set<Integer> chunkIds,
+            long version) {
+        C chunk = getChunk(pos);
+        ByteBuffer buff = chunk.readBufferForPage(this, DataUtils.getPageOffset(pos), pos);
+        int start = buff.position();
+        int pageLength = buff.getInt(start);
+        buff.position(start + 6);
+        int pageNo = DataUtils.readVarInt(buff);
+        int bodyStart = buff.position();
+        int mapId = DataUtils.readVarInt(buff);
+        int keyCount = DataUtils.readVarInt(buff);
+        int type = buff.get();
+        int childrenPos = buff.position();
+        boolean copy = chunkIds.contains(chunk.id);
+        long[] children = null;
+        boolean leaf = DataUtils.isLeafPosition(pos);
+        if (!leaf) {
+            children = new long[keyCount + 1];
+            for (int i = 0; i <= keyCount; i++) {
+                long childPos = buff.getLong(childrenPos + i * 8);
+                // leaves are read only if they are copied
+                if (childPos != 0 && (!DataUtils.isLeafPosition(childPos)
+                        || chunkIds.contains(DataUtils.getPageChunkId(childPos)))) {
+                    long newPos = copyPage(pageSerializationManager, childPos, chunkIds, version);
+                    copy |= newPos != childPos;
+                    childPos = newPos;
+                }
+                children[i] = childPos;
+            }
+        }
+        if (!copy) {
+            return pos;
+        }
+        WriteBuffer target = pageSerializationManager.getBuffer();
+        int targetStart = target.position();
+        target.putInt(0)
+            .putShort((short) 0)
+            .putVarInt(pageSerializationManager.getPageNo());
+        int targetBodyStart = target.position();
+        ByteBuffer body = buff.duplicate();
+        body.limit(start + pageLength).position(bodyStart);
+        target.put(body);
+        int targetLength = target.position() - targetStart;
+        if (children != null) {
+            target.position(targetBodyStart + childrenPos - bodyStart);
+            for (long childPos : children) {
+                target.putLong(childPos);
+            }
+            target.position(targetStart + targetLength);
+        }
+        long newPos = pageSerializationManager.getPagePosition(mapId, targetStart, targetLength,
+                leaf ? DataUtils.PAGE_TYPE_LEAF : DataUtils.PAGE_TYPE_NODE);
+        pageSerializationManager.onPageCopied(newPos, targetLength);
+        if ((type & DataUtils.PAGE_HAS_CHECKSUM) != 0) {
+            // the checksum covers the page number and the child positions
+            pageSerializationManager.writeChecksum(newPos);
+        }
+        accountForRemovedPage(pos, version, false, pageNo);
+        return newPos;
+    }
+
+    /**
+     * Serialize bodies of all unsaved leaf pages of the changed maps by a pool
+     * of workers. Leaves are split into batches, which are contiguous in the
+     * order of pages within a chunk, and each batch is serialized into
+     * a separate buffer. Resulting page images are then copied into the chunk
+     * when pages are written in the usual order,
+     * so the chunk layout does not depend on the number of workers.
+     *
+     * @param changed the root pages of the changed maps
+     * @param pageSerializationManager to register serialized pages with
+     * @return the buffers to be released after the chunk is serialized, or null
+     *         if nothing was serialized in parallel
+     */
+    private List<WriteBuffer> serializeLeavesInParallel(ArrayList<Page<?, ?>> changed,
+            PageSerializationManager pageSerializationManager) {
+        ThreadPoolExecutor workers = serializationWorkers;
+        if (workers == null) {
+            return null;
+        }
+        List<Page<?,?>> leaves = new ArrayList<>();
+        for (Page<?,?> p : changed) {
+            if (p.getTotalCount() > 0) {
+                p.collectUnsavedLeaves(leaves);
+            }
+        }
+        int leafCount = leaves.size();
+        if (leafCount < MIN_PARALLEL_LEAF_COUNT) {
+            return null;
+        }
+        // few batches per worker, so that uneven page sizes do not stall all of them on the slowest one
+        int batchCount = Math.min(serializationThreads * 4, leafCount / (MIN_PARALLEL_LEAF_COUNT / 4));
+        List<Future<SerializedLeaves>> futures = new ArrayList<>(batchCount);
+        try {
+            for (int i = 0; i < batchCount; i++) {
+                List<Page<?,?>> batch = leaves.subList(
+                        (int) ((long) leafCount * i / batchCount), (int) ((long) leafCount * (i + 1) / batchCount));
+                futures.add(workers.submit(() -> serializeLeaves(batch)));
+            }
+        } catch (RejectedExecutionException ex) {
+            // store is being closed, serialize everything here
+            futures.clear();
+        }
+        if (futures.isEmpty()) {
+            return null;
+        }
+        List<WriteBuffer> buffers = new ArrayList<>(futures.size());
+        MVStoreException exception = null;
+        for (Future<SerializedLeaves> future : futures) {
+            try {
+                SerializedLeaves serializedLeaves = future.get();
+                buffers.add(serializedLeaves.buff);
+                pageSerializationManager.addSerializedBodies(serializedLeaves);
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (exception == null) {
+                    exception = cause instanceof MVStoreException ? (MVStoreException) cause
+                            : DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL, "{0}", e.toString(), e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return buffers;
+    }
+
+    private SerializedLeaves serializeLeaves(List<Page<?,?>> leaves) {
+        WriteBuffer buff = getWriteBuffer();
+        // compressors are not thread safe, so each batch gets its own
+        Compressor compressor = mvStore.createCompressor();
+        int compressionLevel = mvStore.getCompressionLevel();
+        int count = leaves.size();
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            leaves.get(i).writeBody(buff, compressor, compressionLevel);
+            ends[i] = buff.position();
+        }
+        return new SerializedLeaves(leaves, ends, buff);
+    }
+
     private void storeBuffer(C c, WriteBuffer buff) {
         saveChunkLock.lock();
         try {
@@ -1649,7 +2093,7 @@ private int getLivePageCount() {
      * @param page the page
      */
     void cachePage(Page<?,?> page) {
-        if (cache != null) {
+        if (cache != null && page.map.isCached()) {
             cache.put(page.getPos(), page, page.getMemory());
         }
     }
@@ -1720,6 +2164,11 @@ public void populateInfo(BiConsumer<String, String> consumer) {
         consumer.accept("info.CACHE_SIZE", Integer.toString(getCacheSizeUsed()));
         consumer.accept("info.CACHE_HIT_RATIO", Integer.toString(getCacheHitRatio()));
         consumer.accept("info.TOC_CACHE_HIT_RATIO", Integer.toString(getTocCacheHitRatio()));
+        consumer.accept("info.COMPACT_RATE", Long.toString(autoCompactRate));
+        consumer.accept("info.COMPACT_WRITE_BYTES", Long.toString(getCompactWriteBytes()));
+        consumer.accept("info.COMPACT_BACKLOG_BYTES", Long.toString(getCompactBacklogBytes()));
+        consumer.accept("info.SCRUBBED_PAGE_COUNT", Long.toString(getScrubbedPageCount()));
+        consumer.accept("info.SCRUB_ERROR_COUNT", Long.toString(getScrubErrorCount()));
     }
 
 
@@ -1776,6 +2225,8 @@ private void shutdownExecutors() {
         serializationExecutor = null;
         Utils.shutdownExecutor(bufferSaveExecutor);
         bufferSaveExecutor = null;
+        Utils.shutdownExecutor(serializationWorkers);
+        serializationWorkers = null;
     }
 
     private Iterable<C> findOldChunks(int writeLimit, int targetFillRate) {
@@ -1835,11 +2286,14 @@ void writeInBackground() {
             if (mvStore.isOpen() && !isReadOnly()) {
                 // could also commit when there are many unsaved pages,
                 // but according to a test it doesn't really help
+                mvStore.runBackgroundTask();
                 long time = getTimeSinceCreation();
                 if (time > lastCommitTime + autoCommitDelay) {
                     mvStore.tryCommit();
                 }
                 doHousekeeping(mvStore);
+                mvStore.mergeLSMTrees();
+                scrub();
                 // less than 10 I/O operations will still count as "idle"
                 autoCompactLastFileOpCount = getWriteCount() + getReadCount() + 10;
             }
@@ -1851,7 +2305,110 @@ void writeInBackground() {
         }
     }
 
-    protected boolean rewriteChunks(int writeLimit, int targetFillRate) {
+    /**
+     * Get the number of pages verified by the background scrubber since the
+     * store was opened.
+     *
+     * @return the number of pages
+     */
+    public final long getScrubbedPageCount() {
+        return scrubbedPageCount.get();
+    }
+
+    /**
+     * Get the number of corrupt pages found by the background scrubber since
+     * the store was opened.
+     *
+     * @return the number of corrupt pages
+     */
+    public final long getScrubErrorCount() {
+        return scrubErrors.size();
+    }
+
+    /**
+     * Get the last error found by the background scrubber.
+     *
+     * @return the error message, or null if no error was found
+     */
+    public final String getScrubLastError() {
+        return scrubLastError;
+    }
+
+    /**
+     * Verify the live pages of the next chunks, as far as the scrub rate
+     * allows. Pages are read directly from the file (not from the cache), and
+     * only their check values and checksums are verified. All chunks are
+     * verified in turn, then the scrubber starts over.
+     */
+    private void scrub() {
+        if (scrubRate <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = scrubBudgetTime == 0 ? 1_000_000_000L : Math.min(now - scrubBudgetTime, 1_000_000_000L);
+        scrubBudgetTime = now;
+        scrubBudget = Math.min(scrubBudget + elapsed * scrubRate / 1_000_000_000L, scrubRate);
+        while (scrubBudget > 0 && !mvStore.hasWaitingStoreOperations()) {
+            if (scrubChunkIds == null || scrubIndex >= scrubChunkIds.length) {
+                scrubChunkIds = chunks.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                scrubIndex = 0;
+                if (scrubChunkIds.length == 0) {
+                    break;
+                }
+            }
+            C chunk = chunks.get(scrubChunkIds[scrubIndex++]);
+            if (chunk != null && chunk.isSaved() && chunk.isLive()) {
+                scrubBudget -= scrubChunk(chunk);
+            }
+        }
+    }
+
+    /**
+     * Verify the live pages of a chunk.
+     *
+     * @param chunk the chunk
+     * @return the number of bytes read
+     */
+    private long scrubChunk(C chunk) {
+        long bytes = 0;
+        long[] toc;
+        try {
+            toc = chunk.readToC(this);
+        } catch (MVStoreException e) {
+            onScrubError(chunk, -1L - chunk.id, e);
+            return chunk.pageCount * 8L;
+        }
+        for (int pageNo = 0; (pageNo = chunk.occupancy.nextClearBit(pageNo)) < chunk.pageCount; ++pageNo) {
+            long pagePos = DataUtils.composePagePos(chunk.id, toc[pageNo]);
+            try {
+                ByteBuffer buff = chunk.readBufferForPage(this, DataUtils.getPageOffset(pagePos), pagePos);
+                bytes += buff.remaining();
+                Page.verify(buff, pagePos);
+            } catch (MVStoreException e) {
+                onScrubError(chunk, pagePos, e);
+            }
+            scrubbedPageCount.incrementAndGet();
+        }
+        return bytes;
+    }
+
+    private void onScrubError(C chunk, long pos, MVStoreException e) {
+        // the chunk may have been freed concurrently, and its space reused
+        if (chunks.get(chunk.id) == chunk && chunk.isLive() && scrubErrors.add(pos)) {
+            scrubLastError = e.getMessage();
+        }
+    }
+
+    /**
+     * Rewrite the live pages of chunks with a low fill rate.
+     *
+     * @param writeLimit the maximum number of bytes of live pages to rewrite
+     * @param targetFillRate the maximum fill rate of chunks to rewrite
+     * @param background whether to stop as soon as other store operations
+     *            (commits) are waiting
+     * @return whether any page was rewritten
+     */
+    protected boolean rewriteChunks(int writeLimit, int targetFillRate, boolean background) {
         serializationLock.lock();
         try {
             MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
@@ -1860,7 +2417,7 @@ protected boolean rewriteChunks(int writeLimit, int targetFillRate) {
                 Iterable<C> old = findOldChunks(writeLimit, targetFillRate);
                 if (old != null) {
                     HashSet<Integer> idSet = createIdSet(old);
-                    return !idSet.isEmpty() && compactRewrite(idSet) > 0;
+                    return !idSet.isEmpty() && compactRewrite(idSet, background) > 0;
                 }
             } finally {
                 mvStore.deregisterVersionUsage(txCounter);
@@ -1897,17 +2454,25 @@ public void executeFileStoreOperation(Runnable operation) {
         }
     }
 
-    private int compactRewrite(Set<Integer> set) {
+    private int compactRewrite(Set<Integer> set, boolean background) {
         acceptChunkOccupancyChanges(getTimeSinceCreation(), mvStore.getCurrentVersion());
-        int rewrittenPageCount = rewriteChunks(set, false);
+        int rewrittenPageCount = rewriteChunks(set, false, background);
+        if (background && mvStore.hasWaitingStoreOperations()) {
+            // the remaining pages are rewritten later
+            return rewrittenPageCount;
+        }
         acceptChunkOccupancyChanges(getTimeSinceCreation(), mvStore.getCurrentVersion());
-        rewrittenPageCount += rewriteChunks(set, true);
+        rewrittenPageCount += rewriteChunks(set, true, background);
         return rewrittenPageCount;
     }
 
-    private int rewriteChunks(Set<Integer> set, boolean secondPass) {
+    private int rewriteChunks(Set<Integer> set, boolean secondPass, boolean background) {
         int rewrittenPageCount = 0;
         for (int chunkId : set) {
+            if (background && mvStore.hasWaitingStoreOperations()) {
+                // commits go first
+                break;
+            }
             C chunk = chunks.get(chunkId);
             // there is a chance for a chunk to be dropped after set of chunks to be rewritten has been determined
             if (chunk != null) {
@@ -1919,7 +2484,16 @@ private int rewriteChunks(Set<Integer> set, boolean secondPass) {
                         MVMap<String, String> metaMap = mvStore.getMetaMap();
                         MVMap<?, ?> map = mapId == layout.getId() ? layout
                                 : mapId == metaMap.getId() ? metaMap : mvStore.getMap(mapId);
-                        if (map != null && !map.isClosed()) {
+                        if (map == null) {
+                            if (secondPass || DataUtils.isLeafPosition(tocElement)) {
+                                // copied with the next chunk, see copyPages()
+                                ++rewrittenPageCount;
+                                consumeCompactionBudget(DataUtils.getPageMaxLength(tocElement));
+                                if (pageCopyChunkIds.add(chunkId)) {
+                                    mvStore.markMetaChanged();
+                                }
+                            }
+                        } else if (!map.isClosed()) {
                             assert !map.isSingleWriter();
                             if (secondPass || DataUtils.isLeafPosition(tocElement)) {
                                 long pagePos = DataUtils.composePagePos(chunkId, tocElement);
@@ -1927,6 +2501,7 @@ private int rewriteChunks(Set<Integer> set, boolean secondPass) {
                                 try {
                                     if (map.rewritePage(pagePos)) {
                                         ++rewrittenPageCount;
+                                        consumeCompactionBudget(DataUtils.getPageMaxLength(pagePos));
                                         if (mapId == metaMap.getId()) {
                                             mvStore.markMetaChanged();
                                         }
@@ -2000,6 +2575,58 @@ <K,V> Page<K,V> readPage(MVMap<K,V> map, long pos) {
         }
     }
 
+    /**
+     * Get the number of sibling pages a sequential cursor should read in
+     * advance.
+     *
+     * @return the number of pages, 0 if read-ahead is disabled
+     */
+    public int getReadAheadPages() {
+        return cache == null ? 0 : readAheadPages;
+    }
+
+    /**
+     * Read the given pages into the cache in the background. Pages that are
+     * already cached are skipped. If the read-ahead queue is full, the request
+     * is ignored.
+     *
+     * @param map the map
+     * @param positions the page positions
+     * @param count the number of positions to use
+     */
+    <K,V> void readAhead(MVMap<K,V> map, long[] positions, int count) {
+        ThreadPoolExecutor executor = getReadAheadExecutor();
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                for (int i = 0; i < count && !closed && !map.isClosed(); i++) {
+                    long pos = positions[i];
+                    if (!cache.containsKey(pos)) {
+                        try {
+                            readPage(map, pos);
+                        } catch (MVStoreException e) {
+                            // the page was removed in the meantime, or the store is closing
+                            break;
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ignore) {
+            // the queue is full, or the store is closed
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getReadAheadExecutor() {
+        ThreadPoolExecutor executor = readAheadExecutor;
+        if (executor == null && !closed && getReadAheadPages() > 0) {
+            readAheadExecutor = executor = Utils.createSingleThreadExecutor("H2-read-ahead",
+                    new ArrayBlockingQueue<>(READ_AHEAD_QUEUE_LENGTH));
+        }
+        return executor;
+    }
+
     /**
      * Get the chunk for the given position.
      *
@@ -2103,12 +2730,42 @@ public void accountForRemovedPage(long pos, long version, boolean pinned, int pa
         private final C chunk;
         private final WriteBuffer buff;
         private final List<Long> toc = new ArrayList<>();
+        private IdentityHashMap<Page<?,?>, ByteBuffer> serializedBodies;
 
         PageSerializationManager(C chunk, WriteBuffer buff) {
             this.chunk = chunk;
             this.buff = buff;
         }
 
+        void addSerializedBodies(SerializedLeaves serializedLeaves) {
+            if (serializedBodies == null) {
+                serializedBodies = new IdentityHashMap<>();
+            }
+            ByteBuffer byteBuffer = serializedLeaves.buff.getBuffer();
+            int start = 0;
+            for (int i = 0, count = serializedLeaves.pages.size(); i < count; i++) {
+                int end = serializedLeaves.ends[i];
+                ByteBuffer body = byteBuffer.duplicate();
+                body.limit(end).position(start);
+                serializedBodies.put(serializedLeaves.pages.get(i), body.slice());
+                start = end;
+            }
+        }
+
+        /**
+         * Get the body of the page, which has been serialized in advance.
+         *
+         * @param page to get serialized body for
+         * @return the serialized body, or null if page needs to be serialized
+         */
+        ByteBuffer removeSerializedBody(Page<?,?> page) {
+            return serializedBodies == null ? null : serializedBodies.remove(page);
+        }
+
+        void clearSerializedBodies() {
+            serializedBodies = null;
+        }
+
         public WriteBuffer getBuffer() {
             return buff;
         }
@@ -2147,6 +2804,40 @@ public void onPageSerialized(Page<?,?> page, boolean isDeleted, int diskSpaceUse
             }
         }
 
+        /**
+         * Check whether new pages end with a checksum.
+         *
+         * @return whether new pages end with a checksum
+         */
+        boolean isPageChecksum() {
+            return pageChecksum;
+        }
+
+        /**
+         * Calculate and write the checksum of a page, which has been written
+         * completely, including its length.
+         *
+         * @param pagePos the position of the page
+         */
+        void writeChecksum(long pagePos) {
+            int offset = DataUtils.getPageOffset(pagePos);
+            ByteBuffer byteBuffer = buff.getBuffer();
+            int end = offset + byteBuffer.getInt(offset) - 4;
+            byteBuffer.putInt(end, DataUtils.getPageChecksum(byteBuffer, offset, end));
+        }
+
+        /**
+         * Account for a page, which was copied as it is into the chunk.
+         *
+         * @param pagePos the new position of the page
+         * @param pageLength the length of the page
+         */
+        void onPageCopied(long pagePos, int pageLength) {
+            int pageLengthDecoded = DataUtils.getPageMaxLength(pagePos);
+            chunk.accountForWrittenPage(pageLengthDecoded != DataUtils.PAGE_LARGE ? pageLengthDecoded : pageLength,
+                    false);
+        }
+
         public void serializeToC() {
             long[] tocArray = new long[toc.size()];
             int index = 0;
@@ -2160,6 +2851,22 @@ public void serializeToC() {
     }
 
 
+    /**
+     * Bodies of leaf pages serialized by one worker into its own buffer.
+     */
+    private static final class SerializedLeaves {
+        final List<Page<?,?>> pages;
+        final int[] ends;
+        final WriteBuffer buff;
+
+        SerializedLeaves(List<Page<?,?>> pages, int[] ends, WriteBuffer buff) {
+            this.pages = pages;
+            this.ends = ends;
+            this.buff = buff;
+        }
+    }
+
+
     private static final class RemovedPageInfo implements Comparable<RemovedPageInfo> {
         final long version;
         final long removedPageInfo;
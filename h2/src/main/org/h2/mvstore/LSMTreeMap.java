@@ -0,0 +1,939 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.h2.mvstore.type.BasicDataType;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.h2.util.Bits;
+
+/**
+ * A log structured merge tree. All changes are applied to a small in-memory
+ * component (the memtable), so writes don't have to search or modify a large
+ * tree, even for random keys. When the memtable is full, it is frozen into an
+ * immutable run, and a new memtable is started. Runs are merged in the
+ * background: when a level contains a number of runs, they are merged into a
+ * single run of the next level. Removed entries are kept as tombstones until
+ * they are merged into the oldest run.
+ * <p>
+ * Each component is a regular map of the same store, named
+ * "lsm.&lt;level&gt;.&lt;sequence&gt;.&lt;name of this map&gt;". A bloom filter
+ * over the hash codes of the keys is kept for each component (and persisted in
+ * the map "lsm.info.&lt;name of this map&gt;"), so that a point lookup only
+ * searches the components that may contain the key. The root page of this
+ * map itself is always empty; a consistent snapshot of all components is
+ * available with {@link #getSnapshotRoot()}, its root page is a synthetic node
+ * with the root pages of the components (newest first) as children.
+ * <p>
+ * Operations on the key index ({@link #getKey(long)},
+ * {@link #getKeyIndex(Object)}) need to iterate over the entries. As with
+ * sharded maps, the hash code of the keys must not depend on the JVM instance.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LSMTreeMap<K, V> extends MVMap<K, V> {
+
+    /**
+     * The map type.
+     */
+    static final String TYPE = "lsm";
+
+    /**
+     * The value of a removed entry in the memtable and in the runs.
+     */
+    static final Object TOMBSTONE = new Object();
+
+    /**
+     * The number of runs of a level that are merged into a run of the next
+     * level by the background thread. Writers merge runs themselves if
+     * there are twice as many runs.
+     */
+    static final int FANOUT = 4;
+
+    /**
+     * The default number of entries in the memtable.
+     */
+    static final int DEFAULT_MEMTABLE_SIZE = 16 * 1024;
+
+    private static final String PREFIX = "lsm.";
+
+    /**
+     * The bloom filters and the entry count deltas of the runs.
+     */
+    private MVMap<Long, byte[]> info;
+
+    private volatile State<K> state;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * The number of entries, which is the sum of the count deltas of all
+     * components.
+     */
+    private final AtomicLong liveCount = new AtomicLong();
+
+    /**
+     * The number of write operations that were started. Together with
+     * {@link #completedWrites} it allows to build a snapshot without locking:
+     * if both are equal before and no write was started after the components
+     * were read, no write was in progress.
+     */
+    private final AtomicLong startedWrites = new AtomicLong();
+
+    /**
+     * The number of write operations that were completed.
+     */
+    private final AtomicLong completedWrites = new AtomicLong();
+
+    /**
+     * Write operations use the read lock, the components are replaced with
+     * the write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    private volatile int memtableSize = DEFAULT_MEMTABLE_SIZE;
+
+    /**
+     * The last snapshot, reused while none of the components is changed.
+     */
+    private volatile RootReference<K, V> snapshotRoot;
+
+    /**
+     * Create a new LSM tree map.
+     *
+     * @param config the map configuration
+     * @param keyType the key type
+     * @param valueType the value type
+     */
+    protected LSMTreeMap(Map<String, Object> config, DataType<K> keyType, DataType<V> valueType) {
+        super(config, keyType, valueType);
+    }
+
+    /**
+     * Get the name of a component.
+     *
+     * @param mapName the name of the LSM tree map
+     * @param level the level
+     * @param sequence the sequence number
+     * @return the name of the component
+     */
+    public static String getRunName(String mapName, int level, long sequence) {
+        return PREFIX + level + '.' + sequence + '.' + mapName;
+    }
+
+    @Override
+    void setRootPos(long rootPos, long version) {
+        super.setRootPos(rootPos, version);
+        if (state == null) {
+            // the map is registered in the store by now, so its name is known
+            open(getName());
+        }
+    }
+
+    private void open(String name) {
+        info = store.openMap(PREFIX + "info." + name,
+                new MVMap.Builder<Long, byte[]>().keyType(new ObjectDataType()).valueType(new ObjectDataType()));
+        info.setVolatile(isVolatile());
+        ArrayList<Run<K>> list = new ArrayList<>();
+        String suffix = '.' + name;
+        String start = DataUtils.META_NAME + PREFIX;
+        for (Iterator<String> it = store.getMetaMap().keyIterator(start); it.hasNext();) {
+            String key = it.next();
+            if (!key.startsWith(start)) {
+                break;
+            }
+            if (!key.endsWith(suffix)) {
+                continue;
+            }
+            String[] parts = key.substring(start.length(), key.length() - suffix.length()).split("\\.");
+            if (parts.length != 2) {
+                continue;
+            }
+            int level;
+            long sequence;
+            try {
+                level = Integer.parseInt(parts[0]);
+                sequence = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            list.add(openRun(level, sequence));
+        }
+        // newest first
+        list.sort((a, b) -> a.level != b.level ? Integer.compare(a.level, b.level)
+                : Long.compare(b.sequence, a.sequence));
+        long maxSequence = -1;
+        for (Run<K> run : list) {
+            maxSequence = Math.max(maxSequence, run.sequence);
+        }
+        nextSequence.set(maxSequence + 1);
+        Run<K> memtable;
+        if (!list.isEmpty() && list.get(0).level == 0) {
+            memtable = list.remove(0);
+        } else {
+            memtable = openRun(0, nextSequence.getAndIncrement());
+        }
+        // the store may have been closed while runs were merged
+        ArrayList<Run<K>> obsolete = new ArrayList<>();
+        for (Run<K> run : list) {
+            byte[] data = info.get(run.sequence);
+            if (data != null) {
+                run.countDelta.set((long) Bits.LONG_VH_BE.get(data, 0));
+                run.filter = BloomFilter.fromBytes(Arrays.copyOfRange(data, 16, data.length));
+                long mergedSequence = (long) Bits.LONG_VH_BE.get(data, 8);
+                for (Run<K> r : list) {
+                    if (r.level == run.level - 1 && r.sequence <= mergedSequence) {
+                        // an input of a completed merge
+                        obsolete.add(r);
+                    }
+                }
+            } else if (run.level > 0) {
+                // the output of an incomplete merge
+                obsolete.add(run);
+            }
+        }
+        list.removeAll(obsolete);
+        @SuppressWarnings("unchecked")
+        Run<K>[] runs = list.toArray((Run<K>[]) new Run<?>[0]);
+        long count = 0;
+        for (int i = runs.length - 1; i >= 0; i--) {
+            Run<K> run = runs[i];
+            if (run.filter == null) {
+                // a frozen memtable that was not registered
+                load(run, Arrays.copyOfRange(runs, i + 1, runs.length));
+            }
+            count += run.countDelta.get();
+        }
+        load(memtable, runs);
+        count += memtable.countDelta.get();
+        liveCount.set(count);
+        state = new State<>(memtable, runs);
+        if (!store.isReadOnly()) {
+            for (Run<K> run : obsolete) {
+                info.remove(run.sequence);
+                store.removeMap(run);
+            }
+        }
+    }
+
+    /**
+     * Build the bloom filter of a component, and calculate its entry count
+     * delta.
+     *
+     * @param run the component
+     * @param older the older runs
+     */
+    private void load(Run<K> run, Run<K>[] older) {
+        BloomFilter filter = new BloomFilter(Math.max(run.sizeAsLong(), memtableSize));
+        long delta = 0;
+        for (Cursor<K, Object> c = run.cursor(null); c.hasNext();) {
+            K key = c.next();
+            filter.add(key.hashCode());
+            Object old = getFromRuns(older, key);
+            delta += (c.getValue() == TOMBSTONE ? 0 : 1) - (old == null || old == TOMBSTONE ? 0 : 1);
+        }
+        run.countDelta.set(delta);
+        run.filter = filter;
+    }
+
+    private Run<K> openRun(int level, long sequence) {
+        Run<K> run = store.openMap(getRunName(getName(), level, sequence),
+                new RunBuilder<>(getKeyType(), new RunValueType<>(getValueType())));
+        run.level = level;
+        run.sequence = sequence;
+        run.setVolatile(isVolatile());
+        return run;
+    }
+
+    /**
+     * Register a run: persist its entry count delta, the highest sequence
+     * number of the runs merged into it (or -1 for a frozen memtable), and its
+     * bloom filter.
+     *
+     * @param run the run
+     * @param mergedSequence the highest sequence number of the merged runs
+     */
+    private void saveInfo(Run<K> run, long mergedSequence) {
+        byte[] filter = run.filter.toBytes();
+        byte[] data = new byte[16 + filter.length];
+        Bits.LONG_VH_BE.set(data, 0, run.countDelta.get());
+        Bits.LONG_VH_BE.set(data, 8, mergedSequence);
+        System.arraycopy(filter, 0, data, 16, filter.length);
+        info.put(run.sequence, data);
+    }
+
+    /**
+     * Set the number of entries of the memtable, after which it is frozen.
+     *
+     * @param memtableSize the number of entries
+     */
+    public void setMemtableSize(int memtableSize) {
+        DataUtils.checkArgument(memtableSize > 0, "Memtable size {0}", memtableSize);
+        this.memtableSize = memtableSize;
+    }
+
+    @Override
+    List<MVMap<?, ?>> getInternalMaps() {
+        State<K> s = state;
+        ArrayList<MVMap<?, ?>> list = new ArrayList<>(s.runs.length + 2);
+        list.add(info);
+        list.add(s.memtable);
+        list.addAll(Arrays.asList(s.runs));
+        return list;
+    }
+
+    @Override
+    boolean isCompositeRoot(Page<K, V> p) {
+        return !p.isLeaf();
+    }
+
+    /**
+     * Get the value of the key in the runs.
+     *
+     * @param <K> the key type
+     * @param runs the runs, newest first
+     * @param key the key
+     * @return the value, TOMBSTONE, or null if not found
+     */
+    static <K> Object getFromRuns(Run<K>[] runs, K key) {
+        int hash = key.hashCode();
+        for (Run<K> run : runs) {
+            if (run.filter.mayContain(hash)) {
+                Object v = Page.get(run.getRoot().root, key);
+                if (v != null) {
+                    return v;
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Page<K, V> p, K key) {
+        Object v;
+        if (p.isLeaf()) {
+            // the current state
+            while (true) {
+                State<K> s = state;
+                v = s.memtable.filter.mayContain(key.hashCode()) ? Page.get(s.memtable.getRoot().root, key) : null;
+                if (v == null) {
+                    v = getFromRuns(s.runs, key);
+                }
+                if (v != null || s == state) {
+                    // merged runs are removed only after a new state is set
+                    break;
+                }
+            }
+        } else {
+            v = null;
+            int hash = key.hashCode();
+            for (int i = 0, l = p.getRawChildPageCount(); i < l && v == null; i++) {
+                Page<K, Object> c = (Page<K, Object>) (Page<K, ?>) p.getChildPage(i);
+                if (((Run<K>) c.map).filter.mayContain(hash)) {
+                    v = Page.get(c, key);
+                }
+            }
+        }
+        return v == TOMBSTONE ? null : (V) v;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getForLongKey(Page<K, V> p, long key) {
+        return get(p, (K) Long.valueOf(key));
+    }
+
+    @Override
+    public V operate(K key, V value, DecisionMaker<? super V> decisionMaker) {
+        beforeWrite();
+        LSMDecisionMaker<K, V> dm = new LSMDecisionMaker<>(key, decisionMaker);
+        State<K> s;
+        lock.readLock().lock();
+        startedWrites.incrementAndGet();
+        try {
+            s = state;
+            dm.runs = s.runs;
+            // added before the entry, as concurrent readers don't lock
+            s.memtable.filter.add(key.hashCode());
+            s.memtable.operate(key, value, dm);
+            long delta = dm.getCountDelta();
+            if (delta != 0) {
+                s.memtable.countDelta.addAndGet(delta);
+                liveCount.addAndGet(delta);
+            }
+        } finally {
+            completedWrites.incrementAndGet();
+            lock.readLock().unlock();
+        }
+        if (s.memtable.sizeAsLong() >= memtableSize) {
+            freeze(s);
+            // apply back pressure if the background thread doesn't keep up
+            while (merge(2 * FANOUT, false)) {
+                // continue
+            }
+        }
+        return dm.current;
+    }
+
+    private void freeze(State<K> s) {
+        // maps are opened and removed without holding the lock
+        Run<K> memtable = openRun(0, nextSequence.getAndIncrement());
+        memtable.filter = new BloomFilter(memtableSize);
+        boolean frozen = false;
+        lock.writeLock().lock();
+        try {
+            if (state == s) {
+                Run<K>[] runs = Arrays.copyOf(s.runs, s.runs.length + 1);
+                System.arraycopy(runs, 0, runs, 1, s.runs.length);
+                runs[0] = s.memtable;
+                state = new State<>(memtable, runs);
+                frozen = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (frozen) {
+            saveInfo(s.memtable, -1);
+        } else {
+            store.removeMap(memtable);
+        }
+    }
+
+    /**
+     * Merge the runs of the first level that has enough runs, if there is
+     * such a level.
+     *
+     * @param background whether the method is called by the background
+     *            thread of the store, in which case it does not wait if
+     *            another thread is merging
+     * @return whether runs were merged
+     */
+    boolean merge(boolean background) {
+        return merge(FANOUT, background);
+    }
+
+    private boolean merge(int threshold, boolean background) {
+        if (background) {
+            if (!mergeLock.tryLock()) {
+                return false;
+            }
+        } else {
+            mergeLock.lock();
+        }
+        try {
+            if (isClosed() || store.isClosed()) {
+                return false;
+            }
+            Run<K>[] runs = state.runs;
+            for (int i = 0, j; i < runs.length; i = j) {
+                int level = runs[i].level;
+                for (j = i + 1; j < runs.length && runs[j].level == level;) {
+                    j++;
+                }
+                if (j - i >= threshold) {
+                    merge(Arrays.copyOfRange(runs, i, j), level + 1, j == runs.length);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    private void merge(Run<K>[] inputs, int level, boolean last) {
+        long size = 0;
+        long delta = 0;
+        @SuppressWarnings("unchecked")
+        Cursor<K, Object>[] cursors = (Cursor<K, Object>[]) new Cursor<?, ?>[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            size += inputs[i].sizeAsLong();
+            delta += inputs[i].countDelta.get();
+            cursors[i] = inputs[i].cursor(null);
+        }
+        Run<K> output = openRun(level, nextSequence.getAndIncrement());
+        BloomFilter filter = new BloomFilter(size);
+        while (true) {
+            // the first (newest) of the cursors with the smallest key
+            Cursor<K, Object> best = null;
+            for (Cursor<K, Object> c : cursors) {
+                if (c.hasNext()) {
+                    int comp = best == null ? -1 : compare(c.getKey(), best.getKey());
+                    if (comp == 0) {
+                        c.next();
+                    } else if (comp < 0) {
+                        best = c;
+                    }
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            K key = best.next();
+            Object value = best.getValue();
+            if (value != TOMBSTONE || !last) {
+                output.put(key, value);
+                filter.add(key.hashCode());
+            }
+        }
+        output.countDelta.set(delta);
+        output.filter = filter;
+        // inputs are sorted newest first
+        saveInfo(output, inputs[0].sequence);
+        lock.writeLock().lock();
+        try {
+            Run<K>[] runs = state.runs;
+            int start = 0;
+            while (runs[start] != inputs[0]) {
+                start++;
+            }
+            @SuppressWarnings("unchecked")
+            Run<K>[] newRuns = (Run<K>[]) new Run<?>[runs.length - inputs.length + 1];
+            System.arraycopy(runs, 0, newRuns, 0, start);
+            newRuns[start] = output;
+            System.arraycopy(runs, start + inputs.length, newRuns, start + 1, runs.length - start - inputs.length);
+            state = new State<>(state.memtable, newRuns);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Run<K> run : inputs) {
+            info.remove(run.sequence);
+            store.removeMap(run);
+        }
+    }
+
+    @Override
+    public RootReference<K, V> getSnapshotRoot() {
+        RootReference<K, V> snapshot = snapshotRoot;
+        if (snapshot != null && isCurrent(snapshot.root, state)) {
+            return snapshot;
+        }
+        while (true) {
+            long completed = completedWrites.get();
+            if (startedWrites.get() == completed) {
+                State<K> s = state;
+                int count = s.runs.length + 1;
+                Page.PageReference<K, V>[] children = Page.createRefStorage(count);
+                for (int i = 0; i < count; i++) {
+                    children[i] = new Page.PageReference<>(getRootPage(s, i));
+                }
+                long size = liveCount.get();
+                long version = getRoot().version;
+                // retry if a write was started, or runs were frozen or merged
+                if (startedWrites.get() == completed && state == s) {
+                    // all children are searched, newest first
+                    snapshot = new RootReference<>(Page.createCompositeNode(this, children, size), version);
+                    snapshotRoot = snapshot;
+                    return snapshot;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Page<K, V> getRootPage(State<K> s, int index) {
+        Run<K> run = index == 0 ? s.memtable : s.runs[index - 1];
+        return (Page<K, V>) (Page<K, ?>) run.flushAndGetRoot().root;
+    }
+
+    private static <K, V> boolean isCurrent(Page<K, V> p, State<K> s) {
+        int count = s.runs.length + 1;
+        if (p.getRawChildPageCount() != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (p.getChildPage(i) != getRootPage(s, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Page<K, V> getSnapshotPage(RootReference<K, V> rootReference) {
+        Page<K, V> p = rootReference.root;
+        return p.isLeaf() ? getSnapshotRoot().root : p;
+    }
+
+    @Override
+    RootReference<K, V> clearIt() {
+        mergeLock.lock();
+        try {
+            Run<K>[] runs;
+            lock.writeLock().lock();
+            startedWrites.incrementAndGet();
+            try {
+                State<K> s = state;
+                runs = s.runs;
+                s.memtable.clearIt();
+                s.memtable.countDelta.set(0);
+                s.memtable.filter = new BloomFilter(memtableSize);
+                @SuppressWarnings("unchecked")
+                Run<K>[] empty = (Run<K>[]) new Run<?>[0];
+                state = new State<>(s.memtable, empty);
+                liveCount.set(0);
+            } finally {
+                completedWrites.incrementAndGet();
+                lock.writeLock().unlock();
+            }
+            for (Run<K> run : runs) {
+                info.remove(run.sequence);
+                store.removeMap(run);
+            }
+        } finally {
+            mergeLock.unlock();
+        }
+        return super.clearIt();
+    }
+
+    @Override
+    public Cursor<K, V> cursor(RootReference<K, V> rootReference, K from, K to, boolean reverse) {
+        Page<K, V> p = getSnapshotPage(rootReference);
+        return super.cursor(p == rootReference.root ? rootReference : new RootReference<>(p, rootReference.version),
+                from, to, reverse);
+    }
+
+    @Override
+    public long sizeAsLong() {
+        return liveCount.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sizeAsLong() == 0;
+    }
+
+    @Override
+    public K firstKey() {
+        return getFirstLast(false);
+    }
+
+    @Override
+    public K lastKey() {
+        return getFirstLast(true);
+    }
+
+    private K getFirstLast(boolean reverse) {
+        Cursor<K, V> cursor = cursor(getSnapshotRoot(), null, null, reverse);
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+    @Override
+    K getMinMax(RootReference<K, V> rootRef, K key, boolean min, boolean excluding) {
+        // min: the largest key below the given key
+        for (Cursor<K, V> cursor = cursor(rootRef, key, null, min); cursor.hasNext();) {
+            K k = cursor.next();
+            if (!excluding || compare(k, key) != 0) {
+                return k;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long getKeyIndex(K key) {
+        long index = 0;
+        for (Cursor<K, V> cursor = cursor(getSnapshotRoot(), null, key, false); cursor.hasNext();) {
+            if (compare(cursor.next(), key) == 0) {
+                return index;
+            }
+            index++;
+        }
+        return -index - 1;
+    }
+
+    @Override
+    public K getKey(long index) {
+        if (index < 0) {
+            return null;
+        }
+        Cursor<K, V> cursor = cursor(getSnapshotRoot(), null, null, false);
+        cursor.skip(index);
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+    @Override
+    public void setVolatile(boolean isVolatile) {
+        super.setVolatile(isVolatile);
+        State<K> s = state;
+        if (s != null) {
+            info.setVolatile(isVolatile);
+            s.memtable.setVolatile(isVolatile);
+            for (Run<K> run : s.runs) {
+                run.setVolatile(isVolatile);
+            }
+        }
+    }
+
+    @Override
+    public MVMap<K, V> openVersion(long version) {
+        throw DataUtils.newUnsupportedOperationException("Opening old versions of an LSM tree map");
+    }
+
+    @Override
+    public long getDiskSpaceUsed(boolean approximate) {
+        State<K> s = state;
+        long result = s.memtable.getDiskSpaceUsed(approximate);
+        for (Run<K> run : s.runs) {
+            result += run.getDiskSpaceUsed(approximate);
+        }
+        return result;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    /**
+     * The memtable and the runs.
+     *
+     * @param <K> the key type
+     */
+    private static final class State<K> {
+
+        /**
+         * The component that receives all changes.
+         */
+        final Run<K> memtable;
+
+        /**
+         * The immutable runs, newest first.
+         */
+        final Run<K>[] runs;
+
+        State(Run<K> memtable, Run<K>[] runs) {
+            this.memtable = memtable;
+            this.runs = runs;
+        }
+
+    }
+
+    /**
+     * A component of an LSM tree map. The values are the values of the LSM
+     * tree map, or TOMBSTONE for removed entries.
+     *
+     * @param <K> the key type
+     */
+    static final class Run<K> extends MVMap<K, Object> {
+
+        /**
+         * The level, 0 for the memtable and frozen memtables.
+         */
+        int level;
+
+        /**
+         * The sequence number, newer runs of a level have higher numbers.
+         */
+        long sequence;
+
+        /**
+         * The bloom filter over the hash codes of the keys.
+         */
+        volatile BloomFilter filter;
+
+        /**
+         * The change of the number of entries of the LSM tree map caused by
+         * the entries of this component.
+         */
+        final AtomicLong countDelta;
+
+        Run(Map<String, Object> config, DataType<K> keyType, DataType<Object> valueType) {
+            super(config, keyType, valueType);
+            countDelta = new AtomicLong();
+        }
+
+        private Run(Run<K> source) {
+            super(source);
+            level = source.level;
+            sequence = source.sequence;
+            filter = source.filter;
+            countDelta = source.countDelta;
+        }
+
+        @Override
+        protected MVMap<K, Object> cloneIt() {
+            return new Run<>(this);
+        }
+
+    }
+
+    /**
+     * A builder for components.
+     *
+     * @param <K> the key type
+     */
+    private static final class RunBuilder<K> extends MVMap.BasicBuilder<Run<K>, K, Object> {
+
+        RunBuilder(DataType<K> keyType, DataType<Object> valueType) {
+            setKeyType(keyType);
+            setValueType(valueType);
+        }
+
+        @Override
+        protected Run<K> create(Map<String, Object> config) {
+            return new Run<>(config, getKeyType(), getValueType());
+        }
+
+    }
+
+    /**
+     * The value type of the components: a flag byte, followed by the value
+     * unless it is a tombstone.
+     *
+     * @param <V> the value type of the LSM tree map
+     */
+    static final class RunValueType<V> extends BasicDataType<Object> {
+
+        private final DataType<V> valueType;
+
+        RunValueType(DataType<V> valueType) {
+            this.valueType = valueType;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public int getMemory(Object obj) {
+            return obj == TOMBSTONE ? 0 : valueType.getMemory((V) obj);
+        }
+
+        @Override
+        public boolean isMemoryEstimationAllowed() {
+            return valueType.isMemoryEstimationAllowed();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void write(WriteBuffer buff, Object obj) {
+            if (obj == TOMBSTONE) {
+                buff.put((byte) 0);
+            } else {
+                buff.put((byte) 1);
+                valueType.write(buff, (V) obj);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            return buff.get() == 0 ? TOMBSTONE : valueType.read(buff);
+        }
+
+        @Override
+        public Object[] createStorage(int size) {
+            return new Object[size];
+        }
+
+    }
+
+    /**
+     * Applies the decision maker of an operation to the current value of the
+     * key in the LSM tree map, and translates its decision to a change of the
+     * memtable.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static final class LSMDecisionMaker<K, V> extends DecisionMaker<Object> {
+
+        private final K key;
+
+        private final DecisionMaker<? super V> decisionMaker;
+
+        /**
+         * The runs of the state the operation is applied to.
+         */
+        Run<K>[] runs;
+
+        /**
+         * The current value of the key in the LSM tree map.
+         */
+        V current;
+
+        private Decision decision;
+
+        private boolean tombstone;
+
+        LSMDecisionMaker(K key, DecisionMaker<? super V> decisionMaker) {
+            this.key = key;
+            this.decisionMaker = decisionMaker;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Decision decide(Object existingValue, Object providedValue, CursorPos<?, ?> tip) {
+            Object inRuns = existingValue == null ? getFromRuns(runs, key) : null;
+            Object v = existingValue != null ? existingValue : inRuns;
+            current = v == TOMBSTONE ? null : (V) v;
+            tombstone = false;
+            Decision d = decisionMaker.decide(current, (V) providedValue, tip);
+            if (d == Decision.REMOVE) {
+                if (current == null) {
+                    d = Decision.ABORT;
+                } else {
+                    if (existingValue != null) {
+                        inRuns = getFromRuns(runs, key);
+                    }
+                    if (inRuns != null && inRuns != TOMBSTONE) {
+                        // the old value has to be hidden
+                        tombstone = true;
+                        d = Decision.PUT;
+                    }
+                }
+            }
+            decision = d;
+            return d;
+        }
+
+        @Override
+        public Decision decide(Object existingValue, Object providedValue) {
+            return decide(existingValue, providedValue, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T selectValue(T existingValue, T providedValue) {
+            if (tombstone) {
+                return (T) TOMBSTONE;
+            }
+            return (T) ((DecisionMaker<V>) decisionMaker).selectValue(current, (V) providedValue);
+        }
+
+        @Override
+        public void reset() {
+            decisionMaker.reset();
+        }
+
+        /**
+         * Get the change of the number of entries caused by the operation.
+         *
+         * @return the change
+         */
+        long getCountDelta() {
+            if (decision == Decision.PUT) {
+                return tombstone ? -1 : current == null ? 1 : 0;
+            } else if (decision == Decision.REMOVE) {
+                return -1;
+            }
+            return 0;
+        }
+
+    }
+
+}
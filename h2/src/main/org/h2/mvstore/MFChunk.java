@@ -21,7 +21,8 @@ final class MFChunk extends Chunk<MFChunk>
     private static final String ATTR_VOLUME = "vol";
 
     /**
-     * The index of the file (0-based), containing this chunk.
+     * The id of the segment file containing this chunk, starting with 1, or 0
+     * if the chunk was not allocated yet.
      */
     public volatile int volumeId;
 
@@ -30,11 +31,15 @@ final class MFChunk extends Chunk<MFChunk>
     }
 
     MFChunk(String line) {
-        super(line);
+        this(DataUtils.parseMap(line), true);
     }
 
     MFChunk(Map<String, String> map) {
-        super(map, false);
+        this(map, false);
+    }
+
+    private MFChunk(Map<String, String> map, boolean full) {
+        super(map, full);
         volumeId = DataUtils.readHexInt(map, ATTR_VOLUME, 0);
     }
 
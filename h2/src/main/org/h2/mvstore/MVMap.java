@@ -11,6 +11,7 @@
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -61,8 +62,15 @@
      * closed map in multithreaded mode.
      */
     private volatile  boolean closed;
+
+    /**
+     * Whether the store tracks the changes of this map, see
+     * {@link MVStore#setChangeTracking(java.util.function.Predicate)}.
+     */
+    private volatile boolean changesTracked;
     private boolean readOnly;
     private boolean isVolatile;
+    private boolean cached = true;
     private final AtomicLong avgKeySize;
     private final AtomicLong avgValSize;
 
@@ -154,7 +162,7 @@ public V put(K key, V value) {
      *
      * @return the first key, or null
      */
-    public final K firstKey() {
+    public K firstKey() {
         return getFirstLast(true);
     }
 
@@ -163,7 +171,7 @@ public final K firstKey() {
      *
      * @return the last key, or null
      */
-    public final K lastKey() {
+    public K lastKey() {
         return getFirstLast(false);
     }
 
@@ -175,7 +183,7 @@ public final K lastKey() {
      * @param index the index
      * @return the key
      */
-    public final K getKey(long index) {
+    public K getKey(long index) {
         if (index < 0 || index >= sizeAsLong()) {
             return null;
         }
@@ -246,7 +254,7 @@ public int indexOf(Object key) {
      * @param key the key
      * @return the index
      */
-    public final long getKeyIndex(K key) {
+    public long getKeyIndex(K key) {
         Page<K,V> p = getRootPage();
         if (p.getTotalCount() == 0) {
             return -1;
@@ -368,14 +376,34 @@ public final K lowerKey(RootReference<K, V> rootRef, K key) {
      * @return the key, or null if no such key exists
      */
     private K getMinMax(K key, boolean min, boolean excluding) {
-        return getMinMax(flushAndGetRoot(), key, min, excluding);
+        return getMinMax(getSnapshotRoot(), key, min, excluding);
     }
 
-    private K getMinMax(RootReference<K,V> rootRef, K key, boolean min, boolean excluding) {
+    /**
+     * Get the smallest or largest key using the given bounds, for the given
+     * root reference.
+     *
+     * @param rootRef the root reference of the map
+     * @param key the key
+     * @param min whether to retrieve the smallest key
+     * @param excluding if the given upper/lower bound is exclusive
+     * @return the key, or null if no such key exists
+     */
+    K getMinMax(RootReference<K,V> rootRef, K key, boolean min, boolean excluding) {
         return getMinMax(rootRef.root, key, min, excluding);
     }
 
-    private K getMinMax(Page<K,V> p, K key, boolean min, boolean excluding) {
+    /**
+     * Get the smallest or largest key using the given bounds, in the tree
+     * rooted at the given page.
+     *
+     * @param p the root page
+     * @param key the key
+     * @param min whether to retrieve the smallest key
+     * @param excluding if the given upper/lower bound is exclusive
+     * @return the key, or null if no such key exists
+     */
+    final K getMinMax(Page<K,V> p, K key, boolean min, boolean excluding) {
         int x = p.binarySearch(key);
         if (p.isLeaf()) {
             if (x < 0) {
@@ -429,6 +457,30 @@ public V get(Page<K,V> p, K key) {
         return Page.get(p, key);
     }
 
+    /**
+     * Get the value for the given key of a map with Long keys, or null if not
+     * found. For maps with {@link org.h2.mvstore.type.LongDataType} keys the
+     * key is not boxed.
+     *
+     * @param key the key
+     * @return the value, or null if not found
+     */
+    public final V getForLongKey(long key) {
+        return getForLongKey(getRootPage(), key);
+    }
+
+    /**
+     * Get the value for the given key of a map with Long keys from a
+     * snapshot, or null if not found.
+     *
+     * @param p the root of a snapshot
+     * @param key the key
+     * @return the value, or null if not found
+     */
+    public V getForLongKey(Page<K,V> p, long key) {
+        return Page.getForLongKey(p, key);
+    }
+
     @Override
     public final boolean containsKey(Object key) {
         return get(key) != null;
@@ -638,7 +690,7 @@ final Page<K,V> readPage(long pos) {
      * @param version to set for this map
      *
      */
-    final void setRootPos(long rootPos, long version) {
+    void setRootPos(long rootPos, long version) {
         Page<K,V> root = readOrCreateRootPage(rootPos);
         if (root.map != this) {
             // this can only happen on concurrent opening of existing map,
@@ -844,6 +896,18 @@ public RootReference<K,V> flushAndGetRoot() {
         return rootReference;
     }
 
+    /**
+     * Get the root reference to be used as a consistent read-only snapshot of
+     * all entries of this map, flushing any current append buffer. Such
+     * snapshot can be used with {@link #get(Page, Object)} and
+     * {@link #cursor(RootReference, Object, Object, boolean)}.
+     *
+     * @return the root reference of the snapshot
+     */
+    public RootReference<K,V> getSnapshotRoot() {
+        return flushAndGetRoot();
+    }
+
     /**
      * Set the initial root.
      *
@@ -863,7 +927,23 @@ final void setInitialRoot(Page<K,V> rootPage, long version) {
      */
     final boolean compareAndSetRoot(RootReference<K,V> expectedRootReference,
                                     RootReference<K,V> updatedRootReference) {
-        return root.compareAndSet(expectedRootReference, updatedRootReference);
+        if (!root.compareAndSet(expectedRootReference, updatedRootReference)) {
+            return false;
+        }
+        if (changesTracked && (updatedRootReference.root != expectedRootReference.root
+                || updatedRootReference.getAppendCounter() != expectedRootReference.getAppendCounter())) {
+            store.trackChange(updatedRootReference.version);
+        }
+        return true;
+    }
+
+    /**
+     * Set whether the store tracks the changes of this map.
+     *
+     * @param changesTracked whether the changes are tracked
+     */
+    final void setChangesTracked(boolean changesTracked) {
+        this.changesTracked = changesTracked;
     }
 
     /**
@@ -918,7 +998,7 @@ public final boolean isReadOnly() {
      *
      * @param isVolatile the volatile flag
      */
-    public final void setVolatile(boolean isVolatile) {
+    public void setVolatile(boolean isVolatile) {
         this.isVolatile = isVolatile;
     }
 
@@ -933,6 +1013,27 @@ public final boolean isVolatile() {
         return isVolatile;
     }
 
+    /**
+     * Set whether the pages of this map are kept in the page cache of the
+     * store once they are written or read. Pages of a map that is not cached
+     * are read from the file each time they are needed, so that a large map
+     * that is only read sequentially doesn't evict the pages of other maps.
+     *
+     * @param cached the cached flag
+     */
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * Whether the pages of this map are kept in the page cache.
+     *
+     * @return whether this map is cached
+     */
+    public final boolean isCached() {
+        return cached;
+    }
+
     /**
      * This method is called before writing to the map. The default
      * implementation checks whether writing is allowed, and tries
@@ -984,7 +1085,7 @@ public final int size() {
      *
      * @return the number of entries
      */
-    public final long sizeAsLong() {
+    public long sizeAsLong() {
         return getRoot().getTotalCount();
     }
 
@@ -1006,7 +1107,7 @@ final long getCreateVersion() {
      * @param version the version
      * @return the map
      */
-    public final MVMap<K, V> openVersion(long version) {
+    public MVMap<K, V> openVersion(long version) {
         if (readOnly) {
             throw DataUtils.newUnsupportedOperationException(
                     "This map is read-only; need to call " +
@@ -1068,6 +1169,38 @@ final boolean hasChangesSince(long version) {
         return getRoot().hasChangesSince(version, isPersistent());
     }
 
+    /**
+     * Get the amount of disk space used by this map.
+     *
+     * @param approximate
+     *            {@code true} to return quick approximation
+     * @return amount of used disk space in persistent case
+     */
+    public long getDiskSpaceUsed(boolean approximate) {
+        return getRootPage().getDiskSpaceUsed(approximate);
+    }
+
+    /**
+     * Whether the given page is the root of a snapshot composed of the root
+     * pages of other maps (see {@link #getSnapshotRoot()}).
+     *
+     * @param p the root page
+     * @return true if the children of the page are roots of other maps
+     */
+    boolean isCompositeRoot(Page<K,V> p) {
+        return false;
+    }
+
+    /**
+     * Get the maps of the same store this map keeps its entries in, which
+     * have to be removed together with this map.
+     *
+     * @return the internal maps
+     */
+    List<MVMap<?, ?>> getInternalMaps() {
+        return Collections.emptyList();
+    }
+
     /**
      * Get the child page count for this page. This is to allow another map
      * implementation to override the default, in case the last child is not to
@@ -1548,6 +1681,8 @@ public M create(MVStore store, Map<String, Object> config) {
      */
     public static class Builder<K, V> extends BasicBuilder<MVMap<K, V>, K, V> {
         private boolean singleWriter;
+        private int shards;
+        private boolean lsmTree;
 
         public Builder() {}
 
@@ -1574,8 +1709,88 @@ public Builder<K,V> singleWriter() {
             return this;
         }
 
+        /**
+         * Set up this Builder to produce a map split into the given number of
+         * shards, to reduce contention between concurrent writers. This
+         * setting only affects new maps, existing maps keep their layout.
+         *
+         * @param shards the number of shards, 1 for a regular map
+         * @return this Builder for chained execution
+         * @see ShardedMVMap
+         */
+        public Builder<K,V> shards(int shards) {
+            DataUtils.checkArgument(shards >= 1 && shards <= ShardedMVMap.MAX_SHARDS,
+                    "Unsupported number of shards {0}", shards);
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Set up this Builder to produce a log structured merge tree, which
+         * is optimized for inserts and point lookups. This setting only
+         * affects new maps, existing maps keep their layout.
+         *
+         * @return this Builder for chained execution
+         * @see LSMTreeMap
+         */
+        public Builder<K,V> lsmTree() {
+            lsmTree = true;
+            return this;
+        }
+
+        /**
+         * Use the same layout options (number of shards, LSM tree) for new
+         * maps as the given builder.
+         *
+         * @param builder the builder to copy the options from
+         * @return this Builder for chained execution
+         */
+        public Builder<K,V> layout(Builder<?, ?> builder) {
+            shards = builder.shards;
+            lsmTree = builder.lsmTree;
+            return this;
+        }
+
+        /**
+         * Whether the map to create or to open is a log structured merge tree.
+         *
+         * @param config the map configuration
+         * @return true for an LSM tree map
+         */
+        protected final boolean isLSMTree(Map<String, Object> config) {
+            Object type = config.get("type");
+            if (LSMTreeMap.TYPE.equals(type)) {
+                return true;
+            }
+            return type == null && lsmTree && !config.containsKey("name");
+        }
+
+        /**
+         * Get the number of shards of the map to create or to open.
+         *
+         * @param config the map configuration
+         * @return the number of shards, or 0 if the map is not sharded
+         */
+        protected final int getShardCount(Map<String, Object> config) {
+            Object type = config.get("type");
+            if (ShardedMVMap.TYPE.equals(type)) {
+                return DataUtils.readHexInt(config, "shards", 0);
+            }
+            // new maps don't have a name in their configuration yet
+            return type == null && shards > 1 && !config.containsKey("name") ? shards : 0;
+        }
+
         @Override
         protected MVMap<K, V> create(Map<String, Object> config) {
+            int shardCount = getShardCount(config);
+            if (shardCount > 0) {
+                DataUtils.checkArgument(!singleWriter, "A sharded map can not be used by a single writer");
+                return new ShardedMVMap<>(config, getKeyType(), getValueType(), shardCount);
+            }
+            if (isLSMTree(config)) {
+                DataUtils.checkArgument(!singleWriter, "An LSM tree map can not be used by a single writer");
+                return new LSMTreeMap<>(config, getKeyType(), getValueType());
+            }
             config.put("singleWriter", singleWriter);
             Object type = config.get("type");
             if(type == null || type.equals("rtree")) {
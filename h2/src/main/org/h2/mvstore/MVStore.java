@@ -31,6 +31,8 @@
 import java.util.function.LongConsumer;
 import java.util.function.Predicate;
 import org.h2.compress.CompressDeflate;
+import org.h2.compress.CompressLZ4;
+import org.h2.compress.CompressLZ4Huffman;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.engine.Constants;
@@ -76,7 +78,6 @@
     use a transaction log where only the deltas are stored
 - serialization for lists, sets, sets, sorted sets, maps, sorted maps
 - maybe rename 'rollback' to 'revert' to distinguish from transactions
-- support other compression algorithms (deflate, LZ4,...)
 - remove features that are not really needed; simplify the code
     possibly using a separate layer or tools
     (retainVersion?)
@@ -90,9 +91,6 @@ requires that everything is a page (including headers)
 - storage that splits database into multiple files,
     to speed up compact and allow using trim
     (by truncating / deleting empty files)
-- add new feature to the file system API to avoid copying data
-    (reads that returns a ByteBuffer instead of writing into one)
-    for memory mapped files and off-heap storage
 - support log structured merge style operations (blind writes)
     using one map per level plus bloom filter
 - have a strict call order MVStore -> MVMap -> Page -> FileStore
@@ -100,9 +98,6 @@ requires that everything is a page (including headers)
     the background thread should wait at least 90% of the
     configured write delay to store changes
 - compact* should also store uncommitted changes (if there are any)
-- write a LSM-tree (log structured merge tree) utility on top of the MVStore
-    with blind writes and/or a bloom filter that
-    internally uses regular maps and merge sort
 - chunk metadata: maybe split into static and variable,
     or use a small page size for metadata
 - data type "string": maybe use prefix compression for keys
@@ -113,7 +108,6 @@ requires that everything is a page (including headers)
     (also children & counts). Maybe remove some other
     fields (childrenCount for example)
 - Support SortedMap for MVMap
-- compact: copy whole pages (without having to open all maps)
 - maybe change the length code to have lower gaps
 - test with very low limits (such as: short chunks, small pages)
 - maybe allow to read beyond the retention time:
@@ -153,6 +147,11 @@ public final class MVStore implements AutoCloseable {
      */
     static final long INITIAL_VERSION = -1;
 
+    /**
+     * The highest supported compression level.
+     */
+    static final int MAX_COMPRESSION_LEVEL = 4;
+
 
     /**
      * Lock which governs access to major store operations: store(), close(), ...
@@ -161,6 +160,12 @@ public final class MVStore implements AutoCloseable {
      */
     private final ReentrantLock storeLock = new ReentrantLock(true);
 
+    /**
+     * Lock held while a map is opened. Compaction changes the root position
+     * of a map that is not open only while holding this lock.
+     */
+    private final ReentrantLock mapOpenLock = new ReentrantLock();
+
     /**
      * Flag to refine the state under storeLock.
      * It indicates that store() operation is running, and we have to prevent possible re-entrance.
@@ -192,13 +197,15 @@ public final class MVStore implements AutoCloseable {
 
     /**
      * The compression level for new pages (0 for disabled, 1 for fast, 2 for
-     * high). Even if disabled, the store may contain (old) compressed pages.
+     * high, 3 for LZ4, 4 for LZ4 with Huffman coding). Even if disabled, the
+     * store may contain (old) compressed pages.
      */
     private final int compressionLevel;
 
-    private Compressor compressorFast;
-
-    private Compressor compressorHigh;
+    /**
+     * Shared compressors, by compression level (lazily created).
+     */
+    private final Compressor[] compressors = new Compressor[MAX_COMPRESSION_LEVEL + 1];
 
     public final UncaughtExceptionHandler backgroundExceptionHandler;
 
@@ -231,6 +238,15 @@ public final class MVStore implements AutoCloseable {
 
     private volatile boolean metaChanged;
 
+    /**
+     * The filter of maps whose changes are tracked, or {@code null}.
+     */
+    private volatile Predicate<MVMap<?, ?>> trackedMaps;
+
+    /**
+     * The newest version with changes of tracked maps.
+     */
+    private final AtomicLong trackedChangeVersion = new AtomicLong(-1);
 
     private volatile MVStoreException panicException;
 
@@ -244,6 +260,11 @@ public final class MVStore implements AutoCloseable {
      */
     private volatile LongConsumer oldestVersionTracker;
 
+    /**
+     * Callback for maintenance by the background thread, before it commits
+     */
+    private volatile Runnable backgroundTask;
+
 
     /**
      * Create and open the store.
@@ -255,6 +276,9 @@ public final class MVStore implements AutoCloseable {
      */
     MVStore(Map<String, Object> config) {
         compressionLevel = DataUtils.getConfigParam(config, "compress", 0);
+        if (compressionLevel < 0 || compressionLevel > MAX_COMPRESSION_LEVEL) {
+            throw DataUtils.newIllegalArgumentException("Unsupported compression level {0}", compressionLevel);
+        }
         String fileName = (String) config.get("fileName");
         FileStore<?> fileStore = (FileStore<?>) config.get("fileStore");
         boolean fileStoreShallBeOpen = false;
@@ -566,6 +590,7 @@ public <M extends MVMap<K, V>, K, V> M openMap(String name, MVMap.MapBuilder<M,
             long curVersion = currentVersion;
             c.put("createVersion", curVersion);
             M map = builder.create(this, c);
+            setChangesTracked(map);
             String x = Integer.toHexString(id);
             meta.put(MVMap.getMapKey(id), map.asString(name));
             String existing = meta.putIfAbsent(DataUtils.META_NAME + name, x);
@@ -597,23 +622,48 @@ public <M extends MVMap<K, V>, K, V> M openMap(String name, MVMap.MapBuilder<M,
      */
     @SuppressWarnings("unchecked")
     public <M extends MVMap<K, V>, K, V> M openMap(int id, MVMap.MapBuilder<M, K, V> builder) {
-        M map;
-        while ((map = (M)getMap(id)) == null) {
-            String configAsString = meta.get(MVMap.getMapKey(id));
-            DataUtils.checkArgument(configAsString != null, "Missing map with id {0}", id);
-            HashMap<String, Object> config = new HashMap<>(DataUtils.parseMap(configAsString));
-            config.put("id", id);
-            map = builder.create(this, config);
-            long root = getRootPos(id);
-            map.setRootPos(root, currentVersion);
-            if (maps.putIfAbsent(id, map) == null) {
-                break;
+        M map = (M) getMap(id);
+        if (map == null) {
+            mapOpenLock.lock();
+            try {
+                while ((map = (M) getMap(id)) == null) {
+                    String configAsString = meta.get(MVMap.getMapKey(id));
+                    DataUtils.checkArgument(configAsString != null, "Missing map with id {0}", id);
+                    HashMap<String, Object> config = new HashMap<>(DataUtils.parseMap(configAsString));
+                    config.put("id", id);
+                    map = builder.create(this, config);
+                    setChangesTracked(map);
+                    long root = getRootPos(id);
+                    map.setRootPos(root, currentVersion);
+                    if (maps.putIfAbsent(id, map) == null) {
+                        break;
+                    }
+                    // looks like map has been concurrently created already, re-start
+                }
+            } finally {
+                mapOpenLock.unlock();
             }
-            // looks like map has been concurrently created already, re-start
         }
         return map;
     }
 
+    /**
+     * Try to prevent maps from being opened, so that the root positions of
+     * maps that are not open can be changed.
+     *
+     * @return whether the lock was acquired
+     */
+    boolean tryLockMapOpen() {
+        return mapOpenLock.tryLock();
+    }
+
+    /**
+     * Allow maps to be opened again.
+     */
+    void unlockMapOpen() {
+        mapOpenLock.unlock();
+    }
+
     /**
      * Get map by id.
      *
@@ -717,7 +767,12 @@ void markMetaChanged() {
         metaChanged = true;
     }
 
-    int getLastMapId() {
+    /**
+     * Get the id of the most recently created map.
+     *
+     * @return the map id
+     */
+    public int getLastMapId() {
         return lastMapId.get();
     }
 
@@ -782,6 +837,7 @@ private void closeStore(boolean normalShutdown, int allowedCompactionTime) {
         while (!isClosed()) {
             setAutoCommitDelay(normalShutdown ? -1 : 0);    // stop background thread (with/without waiting)
             setOldestVersionTracker(null);
+            setBackgroundTask(null);
             storeLock.lock();
             try {
                 if (state == STATE_OPEN) {
@@ -870,6 +926,21 @@ private long tryCommit(Predicate<MVStore> check) {
         return INITIAL_VERSION;
     }
 
+    /**
+     * Merge the runs of LSM tree maps, where needed. This method is called by
+     * the background thread.
+     */
+    void mergeLSMTrees() {
+        for (MVMap<?, ?> map : maps.values()) {
+            if (map instanceof LSMTreeMap) {
+                LSMTreeMap<?, ?> lsmTree = (LSMTreeMap<?, ?>) map;
+                while (isOpen() && lsmTree.merge(true)) {
+                    // continue
+                }
+            }
+        }
+    }
+
     /**
      * Commit the changes.
      * <p>
@@ -1035,6 +1106,53 @@ public boolean hasUnsavedChanges() {
         return fileStore != null && fileStore.hasChangesSince(lastStoredVersion);
     }
 
+    /**
+     * Track the changes of the open maps and of maps opened later that are
+     * accepted by the filter, so that {@link #hasUnsavedTrackedChanges()}
+     * doesn't need to check all maps.
+     *
+     * @param filter the filter of maps, or {@code null} to stop tracking
+     */
+    public void setChangeTracking(Predicate<MVMap<?, ?>> filter) {
+        trackedMaps = filter;
+        long lastStoredVersion = currentVersion - 1;
+        for (MVMap<?, ?> m : maps.values()) {
+            setChangesTracked(m);
+            if (filter != null && !m.isClosed() && filter.test(m) && m.hasChangesSince(lastStoredVersion)) {
+                trackChange(currentVersion);
+            }
+        }
+    }
+
+    private void setChangesTracked(MVMap<?, ?> map) {
+        Predicate<MVMap<?, ?>> filter = trackedMaps;
+        map.setChangesTracked(filter != null && filter.test(map));
+    }
+
+    /**
+     * Record a change of a map whose changes are tracked.
+     *
+     * @param version the version of the changed root
+     */
+    void trackChange(long version) {
+        for (long v; (v = trackedChangeVersion.get()) < version;) {
+            if (trackedChangeVersion.compareAndSet(v, version)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Check whether any of the maps whose changes are tracked has changes that
+     * are not stored yet.
+     *
+     * @return whether there are unsaved changes in these maps
+     * @see #setChangeTracking(Predicate)
+     */
+    public boolean hasUnsavedTrackedChanges() {
+        return trackedChangeVersion.get() > currentVersion - 1;
+    }
+
     public void executeFilestoreOperation(Runnable operation) {
         storeLock.lock();
         try {
@@ -1050,6 +1168,16 @@ public void executeFilestoreOperation(Runnable operation) {
         }
     }
 
+    /**
+     * Check whether other threads are waiting for the store lock, for example
+     * to commit. Background operations use this to yield to them.
+     *
+     * @return whether other threads are waiting
+     */
+    boolean hasWaitingStoreOperations() {
+        return storeLock.hasQueuedThreads();
+    }
+
     <R> R tryExecuteUnderStoreLock(Callable<R> operation) throws InterruptedException {
         R result = null;
         if (storeLock.tryLock(10, TimeUnit.MILLISECONDS)) {
@@ -1152,22 +1280,94 @@ void accountForRemovedPage(long pos, long version, boolean pinned, int pageNo) {
         fileStore.accountForRemovedPage(pos, version, pinned, pageNo);
     }
 
-    Compressor getCompressorFast() {
-        if (compressorFast == null) {
-            compressorFast = new CompressLZF();
+    /**
+     * Get the shared compressor for the given compression level.
+     *
+     * @param level the compression level (1 to 4)
+     * @return the compressor
+     */
+    Compressor getCompressor(int level) {
+        Compressor compressor = compressors[level];
+        if (compressor == null) {
+            compressors[level] = compressor = createCompressor(level);
         }
-        return compressorFast;
+        return compressor;
     }
 
-    Compressor getCompressorHigh() {
-        if (compressorHigh == null) {
-            compressorHigh = new CompressDeflate();
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Create a new compressor for the configured compression level. Unlike
+     * shared compressors, returned instance may be used by a thread other than
+     * the serialization one.
+     *
+     * @return the new compressor, or null if compression is disabled
+     */
+    Compressor createCompressor() {
+        return compressionLevel <= 0 ? null : createCompressor(compressionLevel);
+    }
+
+    /**
+     * Create a new compressor for the given compression level.
+     *
+     * @param level the compression level (1 to 4)
+     * @return the new compressor
+     */
+    static Compressor createCompressor(int level) {
+        switch (level) {
+        case 1:
+            return new CompressLZF();
+        case 2:
+            return new CompressDeflate();
+        case 3:
+            return new CompressLZ4();
+        case 4:
+            return new CompressLZ4Huffman();
+        default:
+            throw DataUtils.newIllegalArgumentException("Unsupported compression level {0}", level);
         }
-        return compressorHigh;
     }
 
-    int getCompressionLevel() {
-        return compressionLevel;
+    /**
+     * Get the compression level of a page with the given type.
+     *
+     * @param type the page type
+     * @return the compression level, or 0 if the page is not compressed
+     */
+    static int getCompressionLevel(int type) {
+        switch (type & DataUtils.PAGE_COMPRESSED_LZ4_HUFFMAN) {
+        case DataUtils.PAGE_COMPRESSED:
+            return 1;
+        case DataUtils.PAGE_COMPRESSED_HIGH:
+            return 2;
+        case DataUtils.PAGE_COMPRESSED_LZ4:
+            return 3;
+        case DataUtils.PAGE_COMPRESSED_LZ4_HUFFMAN:
+            return 4;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Get the page type bits for the given compression level.
+     *
+     * @param level the compression level (1 to 4)
+     * @return the page type bits
+     */
+    static int getCompressedPageType(int level) {
+        switch (level) {
+        case 1:
+            return DataUtils.PAGE_COMPRESSED;
+        case 2:
+            return DataUtils.PAGE_COMPRESSED_HIGH;
+        case 3:
+            return DataUtils.PAGE_COMPRESSED_LZ4;
+        default:
+            return DataUtils.PAGE_COMPRESSED_LZ4_HUFFMAN;
+        }
     }
 
     public int getKeysPerPage() {
@@ -1326,6 +1526,28 @@ public void setOldestVersionTracker(LongConsumer callback) {
         oldestVersionTracker = callback;
     }
 
+    /**
+     * Set a task that is run by the background thread each time before it
+     * commits, so that the pages changed by the task are written together
+     * with the other changes. The task should do a limited amount of work.
+     *
+     * @param task the task, or null
+     */
+    public void setBackgroundTask(Runnable task) {
+        backgroundTask = task;
+    }
+
+    /**
+     * Run the background task, if there is one. This method is called by the
+     * background thread.
+     */
+    void runBackgroundTask() {
+        Runnable task = backgroundTask;
+        if (task != null) {
+            task.run();
+        }
+    }
+
     /**
      * Check whether all data can be read from this version. This requires that
      * all chunks referenced by this version are still available (not
@@ -1602,6 +1824,9 @@ public void removeMap(MVMap<?,?> map) {
             if (!isVersioningRequired()) {
                 maps.remove(id);
             }
+            for (MVMap<?, ?> internalMap : map.getInternalMaps()) {
+                removeMap(internalMap);
+            }
         } finally {
             storeLock.unlock();
         }
@@ -1993,6 +2218,21 @@ public Builder autoCompactFillRate(int percent) {
             return set("autoCompactFillRate", percent);
         }
 
+        /**
+         * Set the maximum rate at which background compaction rewrites and
+         * moves live data. Compaction then runs continuously in small steps,
+         * and stops a step early if a commit is waiting for the store lock.
+         * <p>
+         * The default value is 0, which means there is no limit.
+         * </p>
+         *
+         * @param mbPerSecond the maximum number of megabytes per second
+         * @return this
+         */
+        public Builder autoCompactRate(int mbPerSecond) {
+            return set("autoCompactRate", mbPerSecond);
+        }
+
         /**
          * Use the following file name. If the file does not exist, it is
          * automatically created. The parent directory already must exist.
@@ -2064,6 +2304,20 @@ public Builder cacheSize(int mb) {
             return set("cacheSize", mb);
         }
 
+        /**
+         * Set the number of pages to read in advance for sequential scans. When
+         * a cursor moves from one leaf page to the next, the following sibling
+         * pages are read into the cache by a background thread. The default
+         * is 0, meaning read-ahead is disabled. It is also disabled if there
+         * is no cache.
+         *
+         * @param pages the number of pages
+         * @return this
+         */
+        public Builder readAhead(int pages) {
+            return set("readAhead", pages);
+        }
+
         /**
          * Set the read cache concurrency. The default is 16, meaning 16
          * segments are used.
@@ -2090,6 +2344,34 @@ public Builder compress() {
             return set("compress", 1);
         }
 
+        /**
+         * Append a checksum (CRC-32C) to each page written, so that corruption
+         * within a page is detected when it is read. Checksums are verified
+         * whenever a page is read from the file, irrespective of this setting.
+         * Older versions can not read pages with checksums.
+         *
+         * @return this
+         */
+        public Builder pageChecksum() {
+            return set("pageChecksum", 1);
+        }
+
+        /**
+         * Enable the background scrubber, which verifies the live pages of all
+         * chunks in turn, reading at most the given number of megabytes per
+         * second. The results are available from the file store. It requires
+         * the background thread.
+         * <p>
+         * The default value is 0, which means the scrubber is disabled.
+         * </p>
+         *
+         * @param mbPerSecond the maximum number of megabytes per second
+         * @return this
+         */
+        public Builder scrubRate(int mbPerSecond) {
+            return set("scrubRate", mbPerSecond);
+        }
+
         /**
          * Compress data before writing using the Deflate algorithm. This will
          * save more disk space, but will slow down read and write operations
@@ -2105,6 +2387,49 @@ public Builder compressHigh() {
             return set("compress", 2);
         }
 
+        /**
+         * Compress data before writing using the LZ4 algorithm. This saves
+         * a bit less disk space than LZF, but pages are expanded considerably
+         * faster, which helps read-heavy workloads.
+         * <p>
+         * Pages compressed with this algorithm can not be read by older
+         * versions of the MVStore.
+         *
+         * @return this
+         */
+        public Builder compressLZ4() {
+            return set("compress", 3);
+        }
+
+        /**
+         * Compress data before writing using the LZ4 algorithm, followed by
+         * Huffman coding. This saves more disk space than LZF, but less than
+         * Deflate.
+         * <p>
+         * Pages compressed with this algorithm can not be read by older
+         * versions of the MVStore.
+         *
+         * @return this
+         */
+        public Builder compressLZ4Huffman() {
+            return set("compress", 4);
+        }
+
+        /**
+         * Set the number of threads used to serialize changed pages, when
+         * changes are saved. With the default value of 1 all pages of a
+         * chunk are serialized by a single background thread. With a larger
+         * value leaf pages are serialized and compressed concurrently by a pool
+         * of worker threads, and then put together into one chunk by that
+         * thread. The file format is the same in both cases.
+         *
+         * @param threadCount the number of serialization threads
+         * @return this
+         */
+        public Builder serializationThreads(int threadCount) {
+            return set("serializationThreads", threadCount);
+        }
+
         /**
          * Set the amount of memory a page should contain at most, in bytes,
          * before it is split. The default is 16 KB for persistent stores and 4
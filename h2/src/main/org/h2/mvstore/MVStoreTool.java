@@ -17,8 +17,6 @@
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
-import org.h2.compress.CompressDeflate;
-import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.engine.Constants;
 import org.h2.mvstore.type.BasicDataType;
@@ -238,10 +236,12 @@ public static void dump(String fileName, Writer writer, boolean details) {
                     if (mapId == 0 && details) {
                         ByteBuffer data;
                         if (compressed) {
-                            boolean fast = (type & DataUtils.PAGE_COMPRESSED_HIGH) != DataUtils.PAGE_COMPRESSED_HIGH;
-                            Compressor compressor = getCompressor(fast);
+                            Compressor compressor = MVStore.createCompressor(MVStore.getCompressionLevel(type));
                             int lenAdd = DataUtils.readVarInt(chunk);
                             int compLen = pageSize + start - chunk.position();
+                            if ((type & DataUtils.PAGE_HAS_CHECKSUM) != 0) {
+                                compLen -= 4;
+                            }
                             byte[] comp = Utils.newBytes(compLen);
                             chunk.get(comp);
                             int l = compLen + lenAdd;
@@ -334,10 +334,6 @@ public static void dump(String fileName, Writer writer, boolean details) {
         pw.flush();
     }
 
-    private static Compressor getCompressor(boolean fast) {
-        return fast ? new CompressLZF() : new CompressDeflate();
-    }
-
     /**
      * Read the summary information of the file and write them to system out.
      *
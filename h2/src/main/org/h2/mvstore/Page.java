@@ -11,10 +11,13 @@
 import static org.h2.mvstore.DataUtils.PAGE_TYPE_LEAF;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.FileStore.PageSerializationManager;
+import org.h2.mvstore.type.LongDataType;
 import org.h2.util.Utils;
+import org.h2.value.VersionedValue;
 
 /**
  * A page (a node or a leaf).
@@ -28,7 +31,7 @@
  * page number (0-based sequential number within a chunk): varInt
  * map id: varInt
  * number of keys: varInt
- * type: byte (0: leaf, 1: node; +2: compressed)
+ * type: byte (0: leaf, 1: node; +2: compressed; +4, +8: compression algorithm)
  * children of the non-leaf node (1 more than keys)
  * compressed: bytes saved (varInt)
  * keys
@@ -78,9 +81,11 @@
     private int diskSpaceUsed;
 
     /**
-     * The keys.
+     * The keys. This is a long[] for maps with {@link LongDataType} keys, so
+     * that keys are neither boxed nor referenced, and an array of the key type
+     * otherwise.
      */
-    private K[] keys;
+    private Object keys;
 
     /**
      * Updater for pos field, which can be updated when page is saved,
@@ -100,7 +105,7 @@
     private static final int PAGE_MEMORY =
             MEMORY_OBJECT +           // this
             2 * MEMORY_POINTER +      // map, keys
-            MEMORY_ARRAY +            // Object[] keys
+            MEMORY_ARRAY +            // keys array
             17;                       // pos, cachedCompare, memory, removedInMemory
     /**
      * The estimated number of bytes used per empty internal page object.
@@ -127,6 +132,8 @@
     @SuppressWarnings("rawtypes")
     private static final PageReference[] SINGLE_EMPTY = { PageReference.EMPTY };
 
+    private static final long[] EMPTY_LONG_KEYS = new long[0];
+
 
     Page(MVMap<K,V> map) {
         this.map = map;
@@ -137,11 +144,44 @@
         memory = source.memory;
     }
 
-    Page(MVMap<K,V> map, K[] keys) {
+    Page(MVMap<K,V> map, Object keys) {
         this.map = map;
         this.keys = keys;
     }
 
+    /**
+     * Whether keys of pages of the given map are kept in a long[].
+     *
+     * @param map the map
+     * @return true if the key type is {@link LongDataType}
+     */
+    static boolean hasLongKeys(MVMap<?,?> map) {
+        return map.getKeyType() == LongDataType.INSTANCE;
+    }
+
+    /**
+     * Convert a key array to the storage used by pages of the given map.
+     *
+     * @param <K> key type
+     * @param map the map
+     * @param keys the keys
+     * @return the keys, or a long[] with the same keys
+     */
+    private static <K> Object toKeyStorage(MVMap<K,?> map, K[] keys) {
+        if (!hasLongKeys(map)) {
+            return keys;
+        }
+        int length = keys.length;
+        if (length == 0) {
+            return EMPTY_LONG_KEYS;
+        }
+        long[] result = new long[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (Long) keys[i];
+        }
+        return result;
+    }
+
     /**
      * Create a new, empty leaf page.
      *
@@ -186,11 +226,32 @@ static <K,V> Page<K,V> createEmptyNode(MVMap<K,V> map) {
     public static <K,V> Page<K,V> createNode(MVMap<K,V> map, K[] keys, PageReference<K,V>[] children,
                                     long totalCount, int memory) {
         assert keys != null;
-        Page<K,V> page = new NonLeaf<>(map, keys, children, totalCount);
+        Page<K,V> page = new NonLeaf<>(map, toKeyStorage(map, keys), children, totalCount);
         page.initMemoryAccount(memory);
         return page;
     }
 
+    /**
+     * Create the root page of a snapshot that is composed of the root pages
+     * of other maps (see {@link MVMap#isCompositeRoot(Page)}). The keys of the
+     * page are not used.
+     *
+     * @param <K> key type
+     * @param <V> value type
+     *
+     * @param map the map
+     * @param children the root pages of the other maps
+     * @param totalCount the number of entries of the snapshot, which may be
+     *            less than the sum of the entries of the children
+     * @return the page
+     */
+    static <K,V> Page<K,V> createCompositeNode(MVMap<K,V> map, PageReference<K,V>[] children, long totalCount) {
+        Page<K,V> page = new CompositeNonLeaf<>(map, map.getKeyType().createStorage(children.length - 1), children,
+                totalCount);
+        page.initMemoryAccount(PAGE_NODE_MEMORY + children.length * PAGE_MEMORY_CHILD);
+        return page;
+    }
+
     /**
      * Create a new leaf page. The arrays are not cloned.
      *
@@ -205,7 +266,7 @@ public static <K,V> Page<K,V> createNode(MVMap<K,V> map, K[] keys, PageReference
      */
     static <K,V> Page<K,V> createLeaf(MVMap<K,V> map, K[] keys, V[] values, int memory) {
         assert keys != null;
-        Page<K,V> page = new Leaf<>(map, keys, values);
+        Page<K,V> page = new Leaf<>(map, toKeyStorage(map, keys), values);
         page.initMemoryAccount(memory);
         return page;
     }
@@ -244,6 +305,30 @@ static <K,V> V get(Page<K,V> p, K key) {
         }
     }
 
+    /**
+     * Get the value for the given key of a map with Long keys, or null if not
+     * found. The key is not boxed if the keys of the pages are kept in a
+     * long[].
+     *
+     * @param <K> key type
+     * @param <V> value type
+     *
+     * @param key the key
+     * @param p the root page
+     * @return the value, or null if not found
+     */
+    static <K,V> V getForLongKey(Page<K,V> p, long key) {
+        while (true) {
+            int index = p.binarySearch(key);
+            if (p.isLeaf()) {
+                return index >= 0 ? p.getValue(index) : null;
+            } else if (index++ < 0) {
+                index = -index;
+            }
+            p = p.getChildPage(index);
+        }
+    }
+
     /**
      * Read a page.
      *
@@ -290,8 +375,36 @@ public final int getMapId() {
      * @param index the index
      * @return the key
      */
+    @SuppressWarnings("unchecked")
     public K getKey(int index) {
-        return keys[index];
+        Object k = keys;
+        return k instanceof long[] ? (K) Long.valueOf(((long[]) k)[index]) : ((K[]) k)[index];
+    }
+
+    /**
+     * Get the key at the given index of a page of a map with Long keys. The
+     * key is not boxed if the keys of this page are kept in a long[].
+     *
+     * @param index the index
+     * @return the key
+     */
+    public final long getLongKey(int index) {
+        Object k = keys;
+        return k instanceof long[] ? ((long[]) k)[index] : (Long) ((Object[]) k)[index];
+    }
+
+    /**
+     * Compare the key at the given index with the given key.
+     *
+     * @param index the index
+     * @param key the key to compare with
+     * @return the result of the comparison
+     */
+    @SuppressWarnings("unchecked")
+    final int compareKey(int index, K key) {
+        Object k = keys;
+        return k instanceof long[] ? Long.compare(((long[]) k)[index], (Long) key)
+                : map.getKeyType().compare(((K[]) k)[index], key);
     }
 
     /**
@@ -318,13 +431,28 @@ public K getKey(int index) {
      */
     public abstract V getValue(int index);
 
+    /**
+     * Check whether all values of this leaf page are committed, that is, none
+     * of them is a {@link VersionedValue} of a transaction whose entries are
+     * not resolved yet. Readers of such a page may use the values without
+     * checking the state of transactions. The writer keeps this marker when
+     * it changes the page, where possible, otherwise it is computed again
+     * when needed.
+     *
+     * @return true if this is a leaf page with committed values only
+     */
+    public boolean hasOnlyCommittedValues() {
+        return false;
+    }
+
     /**
      * Get the number of keys in this page.
      *
      * @return the number of keys
      */
     public final int getKeyCount() {
-        return keys.length;
+        Object k = keys;
+        return k instanceof long[] ? ((long[]) k).length : ((Object[]) k).length;
     }
 
     /**
@@ -408,7 +536,29 @@ protected final Page<K,V> clone() {
      * @return the value or null
      */
     int binarySearch(K key) {
-        int res = map.getKeyType().binarySearch(key, keys, getKeyCount(), cachedCompare);
+        Object k = keys;
+        int res = k instanceof long[]
+                ? LongDataType.binarySearch((Long) key, (long[]) k, cachedCompare)
+                : map.getKeyType().binarySearch(key, k, getKeyCount(), cachedCompare);
+        cachedCompare = res < 0 ? ~res : res + 1;
+        return res;
+    }
+
+    /**
+     * Search the key of a map with Long keys in this page, see
+     * {@link #binarySearch(Object)}. The key is not boxed if the keys of this
+     * page are kept in a long[].
+     *
+     * @param key the key
+     * @return the index of the key, or the complement of the insertion point
+     */
+    @SuppressWarnings("unchecked")
+    final int binarySearch(long key) {
+        Object k = keys;
+        if (!(k instanceof long[])) {
+            return binarySearch((K) Long.valueOf(key));
+        }
+        int res = LongDataType.binarySearch(key, (long[]) k, cachedCompare);
         cachedCompare = res < 0 ? ~res : res + 1;
         return res;
     }
@@ -428,10 +578,10 @@ int binarySearch(K key) {
      * @param bCount size of the second array/
      * @return the second array.
      */
-    final K[] splitKeys(int aCount, int bCount) {
+    final Object splitKeys(int aCount, int bCount) {
         assert aCount + bCount <= getKeyCount();
-        K[] aKeys = createKeyStorage(aCount);
-        K[] bKeys = createKeyStorage(bCount);
+        Object aKeys = createKeyArray(aCount);
+        Object bKeys = createKeyArray(bCount);
         System.arraycopy(keys, 0, aKeys, 0, aCount);
         System.arraycopy(keys, getKeyCount() - bCount, bKeys, 0, bCount);
         keys = aKeys;
@@ -456,9 +606,16 @@ final K[] splitKeys(int aCount, int bCount) {
      */
     final void expandKeys(int extraKeyCount, K[] extraKeys) {
         int keyCount = getKeyCount();
-        K[] newKeys = createKeyStorage(keyCount + extraKeyCount);
+        Object newKeys = createKeyArray(keyCount + extraKeyCount);
         System.arraycopy(keys, 0, newKeys, 0, keyCount);
-        System.arraycopy(extraKeys, 0, newKeys, keyCount, extraKeyCount);
+        if (newKeys instanceof long[]) {
+            long[] k = (long[]) newKeys;
+            for (int i = 0; i < extraKeyCount; i++) {
+                k[keyCount + i] = (Long) extraKeys[i];
+            }
+        } else {
+            System.arraycopy(extraKeys, 0, newKeys, keyCount, extraKeyCount);
+        }
         keys = newKeys;
     }
 
@@ -491,10 +648,17 @@ final void expandKeys(int extraKeyCount, K[] extraKeys) {
      * @param index the index
      * @param key the new key
      */
+    @SuppressWarnings("unchecked")
     public final void setKey(int index, K key) {
-        keys = keys.clone();
+        if (keys instanceof long[]) {
+            long[] k = ((long[]) keys).clone();
+            k[index] = (Long) key;
+            keys = k;
+            return;
+        }
+        K[] k = ((K[]) keys).clone();
         if(isPersistent()) {
-            K old = keys[index];
+            K old = k[index];
             if (!map.isMemoryEstimationAllowed() || old == null) {
                 int mem = map.evaluateMemoryForKey(key);
                 if (old != null) {
@@ -503,7 +667,8 @@ public final void setKey(int index, K key) {
                 addMemory(mem);
             }
         }
-        keys[index] = key;
+        k[index] = key;
+        keys = k;
     }
 
     /**
@@ -539,17 +704,24 @@ public final void setKey(int index, K key) {
      * @param index index to insert at
      * @param key the key value
      */
+    @SuppressWarnings("unchecked")
     final void insertKey(int index, K key) {
         int keyCount = getKeyCount();
         assert index <= keyCount : index + " > " + keyCount;
-        K[] newKeys = createKeyStorage(keyCount + 1);
+        Object newKeys = createKeyArray(keyCount + 1);
         DataUtils.copyWithGap(keys, newKeys, keyCount, index);
+        int mem;
+        if (newKeys instanceof long[]) {
+            ((long[]) newKeys)[index] = (Long) key;
+            mem = 8;
+        } else {
+            ((K[]) newKeys)[index] = key;
+            mem = isPersistent() ? MEMORY_POINTER + map.evaluateMemoryForKey(key) : 0;
+        }
         keys = newKeys;
 
-        keys[index] = key;
-
         if (isPersistent()) {
-            addMemory(MEMORY_POINTER + map.evaluateMemoryForKey(key));
+            addMemory(mem);
         }
     }
 
@@ -565,11 +737,10 @@ public void remove(int index) {
         }
         if(isPersistent()) {
             if (!map.isMemoryEstimationAllowed()) {
-                K old = getKey(index);
-                addMemory(-MEMORY_POINTER - map.evaluateMemoryForKey(old));
+                addMemory(keys instanceof long[] ? -8 : -MEMORY_POINTER - map.evaluateMemoryForKey(getKey(index)));
             }
         }
-        K[] newKeys = createKeyStorage(keyCount - 1);
+        Object newKeys = createKeyArray(keyCount - 1);
         DataUtils.copyExcept(keys, newKeys, keyCount, index);
         keys = newKeys;
     }
@@ -614,7 +785,7 @@ private void read(ByteBuffer buff) {
         }
 
         int keyCount = DataUtils.readVarInt(buff);
-        keys = createKeyStorage(keyCount);
+        keys = createKeyArray(keyCount);
         int type = buff.get();
         if(isLeaf() != ((type & 1) == PAGE_TYPE_LEAF)) {
             throw DataUtils.newMVStoreException(
@@ -623,21 +794,20 @@ private void read(ByteBuffer buff) {
                     chunkId, isLeaf() ? "0" : "1" , type);
         }
 
+        int end = start + pageLength;
+        if ((type & DataUtils.PAGE_HAS_CHECKSUM) != 0) {
+            end -= 4;
+            checkChecksum(buff, start, end, chunkId);
+        }
         // to restrain hacky GenericDataType, which grabs the whole remainder of the buffer
-        buff.limit(start + pageLength);
+        buff.limit(end);
 
         if (!isLeaf()) {
             readPayLoad(buff);
         }
-        boolean compressed = (type & DataUtils.PAGE_COMPRESSED) != 0;
-        if (compressed) {
-            Compressor compressor;
-            if ((type & DataUtils.PAGE_COMPRESSED_HIGH) ==
-                    DataUtils.PAGE_COMPRESSED_HIGH) {
-                compressor = map.getStore().getCompressorHigh();
-            } else {
-                compressor = map.getStore().getCompressorFast();
-            }
+        int compressionLevel = MVStore.getCompressionLevel(type);
+        if (compressionLevel != 0) {
+            Compressor compressor = map.getStore().getCompressor(compressionLevel);
             int lenAdd = DataUtils.readVarInt(buff);
             int compLen = buff.remaining();
             byte[] comp;
@@ -654,7 +824,11 @@ private void read(ByteBuffer buff) {
             compressor.expand(comp, pos, compLen, buff.array(),
                     buff.arrayOffset(), l);
         }
-        map.getKeyType().read(buff, keys, keyCount);
+        if (keys instanceof long[]) {
+            LongDataType.read(buff, (long[]) keys);
+        } else {
+            map.getKeyType().read(buff, keys, keyCount);
+        }
         if (isLeaf()) {
             readPayLoad(buff);
         }
@@ -662,6 +836,59 @@ private void read(ByteBuffer buff) {
         recalculateMemory();
     }
 
+    /**
+     * Verify the checksum of a page.
+     *
+     * @param buff the buffer
+     * @param start the position of the page
+     * @param end the position of the checksum
+     * @param chunkId the id of the chunk (for the error message)
+     * @throws MVStoreException if the checksum does not match
+     */
+    static void checkChecksum(ByteBuffer buff, int start, int end, int chunkId) {
+        int checksum = DataUtils.getPageChecksum(buff, start, end);
+        int expected = buff.getInt(end);
+        if (checksum != expected) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                    "File corrupted in chunk {0}, expected page checksum {1}, got {2}", chunkId,
+                    Integer.toHexString(expected), Integer.toHexString(checksum));
+        }
+    }
+
+    /**
+     * Verify the check value and, if present, the checksum of a serialized
+     * page, without reading its keys and values.
+     *
+     * @param buff the buffer, positioned at the start of the page
+     * @param pos the position of the page
+     * @throws MVStoreException if the page is corrupt
+     */
+    static void verify(ByteBuffer buff, long pos) {
+        int chunkId = DataUtils.getPageChunkId(pos);
+        int start = buff.position();
+        int pageLength = buff.getInt(start);
+        if (pageLength > buff.limit() - start || pageLength < 8) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                    "File corrupted in chunk {0}, got page length {1}", chunkId, pageLength);
+        }
+        short check = buff.getShort(start + 4);
+        int checkTest = DataUtils.getCheckValue(chunkId)
+                ^ DataUtils.getCheckValue(DataUtils.getPageOffset(pos))
+                ^ DataUtils.getCheckValue(pageLength);
+        if (check != (short) checkTest) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                    "File corrupted in chunk {0}, expected check value {1}, got {2}", chunkId, checkTest, check);
+        }
+        ByteBuffer b = buff.duplicate();
+        b.position(start + 6);
+        DataUtils.readVarInt(b);
+        DataUtils.readVarInt(b);
+        DataUtils.readVarInt(b);
+        if ((b.get() & DataUtils.PAGE_HAS_CHECKSUM) != 0) {
+            checkChecksum(buff, start, start + pageLength - 4, chunkId);
+        }
+    }
+
     /**
      * Read the page payload from the buffer.
      *
@@ -710,57 +937,30 @@ private boolean markAsRemoved() {
      */
     protected final int write(FileStore<?>.PageSerializationManager pageSerializationManager) {
         pageNo = pageSerializationManager.getPageNo();
-        int keyCount = getKeyCount();
         WriteBuffer buff = pageSerializationManager.getBuffer();
         int start = buff.position();
         buff.putInt(0)          // placeholder for pageLength
             .putShort((byte)0) // placeholder for check
-            .putVarInt(pageNo)
-            .putVarInt(map.getId())
-            .putVarInt(keyCount);
-        int typePos = buff.position();
+            .putVarInt(pageNo);
+        int typePos = buff.position() + DataUtils.getVarIntLen(getMapId()) + DataUtils.getVarIntLen(getKeyCount());
         int type = isLeaf() ? PAGE_TYPE_LEAF : DataUtils.PAGE_TYPE_NODE;
-        buff.put((byte)type);
-        int childrenPos = buff.position();
-        writeChildren(buff, true);
-        int compressStart = buff.position();
-        map.getKeyType().write(buff, keys, keyCount);
-        writeValues(buff);
-        MVStore store = map.getStore();
-        int expLen = buff.position() - compressStart;
-        if (expLen > 16) {
+        int childrenPos;
+        ByteBuffer body = pageSerializationManager.removeSerializedBody(this);
+        if (body != null) {
+            buff.put(body);
+            childrenPos = buff.position();
+        } else {
+            MVStore store = map.getStore();
             int compressionLevel = store.getCompressionLevel();
-            if (compressionLevel > 0) {
-                Compressor compressor;
-                int compressType;
-                if (compressionLevel == 1) {
-                    compressor = store.getCompressorFast();
-                    compressType = DataUtils.PAGE_COMPRESSED;
-                } else {
-                    compressor = store.getCompressorHigh();
-                    compressType = DataUtils.PAGE_COMPRESSED_HIGH;
-                }
-                byte[] comp = new byte[expLen * 2];
-                ByteBuffer byteBuffer = buff.getBuffer();
-                int pos = 0;
-                byte[] exp;
-                if (byteBuffer.hasArray()) {
-                    exp = byteBuffer.array();
-                    pos = byteBuffer.arrayOffset()  + compressStart;
-                } else {
-                    exp = Utils.newBytes(expLen);
-                    buff.position(compressStart).get(exp);
-                }
-                int compLen = compressor.compress(exp, pos, expLen, comp, 0);
-                int plus = DataUtils.getVarIntLen(expLen - compLen);
-                if (compLen + plus < expLen) {
-                    buff.position(typePos)
-                        .put((byte) (type | compressType));
-                    buff.position(compressStart)
-                        .putVarInt(expLen - compLen)
-                        .put(comp, 0, compLen);
-                }
-            }
+            Compressor compressor = compressionLevel <= 0 ? null : store.getCompressor(compressionLevel);
+            childrenPos = writeBody(buff, compressor, compressionLevel);
+        }
+        boolean checksum = pageSerializationManager.isPageChecksum();
+        if (checksum) {
+            ByteBuffer byteBuffer = buff.getBuffer();
+            byteBuffer.put(typePos, (byte) (byteBuffer.get(typePos) | DataUtils.PAGE_HAS_CHECKSUM));
+            // placeholder for the checksum, which is written once the children are known
+            buff.putInt(0);
         }
         int pageLength = buff.position() - start;
         long pagePos = pageSerializationManager.getPagePosition(getMapId(), start, pageLength, type);
@@ -777,6 +977,64 @@ protected final int write(FileStore<?>.PageSerializationManager pageSerializatio
         boolean singleWriter = map.isSingleWriter();
 
         pageSerializationManager.onPageSerialized(this, isDeleted, pageLengthDecoded, singleWriter);
+        if (checksum && isLeaf()) {
+            pageSerializationManager.writeChecksum(pagePos);
+        }
+        return childrenPos;
+    }
+
+    /**
+     * Serializes the part of the page image, which does not depend on page
+     * position within a chunk: map id, key count, type, children (if any),
+     * keys and values. Keys and values are compressed, if compressor is
+     * provided and it is worth it.
+     *
+     * @param buff the target buffer
+     * @param compressor to use, or null if compression is disabled
+     * @param compressionLevel 1 for fast, 2 for high compression, 3 for LZ4,
+     *            4 for LZ4 with Huffman coding
+     * @return the position of the buffer, where serialized child page references (if any) begin
+     */
+    final int writeBody(WriteBuffer buff, Compressor compressor, int compressionLevel) {
+        int keyCount = getKeyCount();
+        buff.putVarInt(map.getId())
+            .putVarInt(keyCount);
+        int typePos = buff.position();
+        int type = isLeaf() ? PAGE_TYPE_LEAF : DataUtils.PAGE_TYPE_NODE;
+        buff.put((byte)type);
+        int childrenPos = buff.position();
+        writeChildren(buff, true);
+        int compressStart = buff.position();
+        if (keys instanceof long[]) {
+            LongDataType.write(buff, (long[]) keys);
+        } else {
+            map.getKeyType().write(buff, keys, keyCount);
+        }
+        writeValues(buff);
+        int expLen = buff.position() - compressStart;
+        if (expLen > 16 && compressor != null) {
+            int compressType = MVStore.getCompressedPageType(compressionLevel);
+            byte[] comp = new byte[expLen * 2];
+            ByteBuffer byteBuffer = buff.getBuffer();
+            int pos = 0;
+            byte[] exp;
+            if (byteBuffer.hasArray()) {
+                exp = byteBuffer.array();
+                pos = byteBuffer.arrayOffset()  + compressStart;
+            } else {
+                exp = Utils.newBytes(expLen);
+                buff.position(compressStart).get(exp);
+            }
+            int compLen = compressor.compress(exp, pos, expLen, comp, 0);
+            int plus = DataUtils.getVarIntLen(expLen - compLen);
+            if (compLen + plus < expLen) {
+                buff.position(typePos)
+                    .put((byte) (type | compressType));
+                buff.position(compressStart)
+                    .putVarInt(expLen - compLen)
+                    .put(comp, 0, compLen);
+            }
+        }
         return childrenPos;
     }
 
@@ -805,6 +1063,14 @@ protected final int write(FileStore<?>.PageSerializationManager pageSerializatio
      */
     abstract void writeUnsavedRecursive(PageSerializationManager pageSerializationManager);
 
+    /**
+     * Collect all leaf pages, which would be stored by
+     * {@link #writeUnsavedRecursive(PageSerializationManager)}, in the same order.
+     *
+     * @param target the list to add pages to
+     */
+    abstract void collectUnsavedLeaves(List<Page<?,?>> target);
+
     /**
      * Unlink the children recursively after all data is written.
      */
@@ -910,9 +1176,15 @@ final void recalculateMemory() {
      *
      * @return memory in bytes
      */
+    @SuppressWarnings("unchecked")
     protected int calculateMemory() {
+        Object k = keys;
+        if (k instanceof long[]) {
+            // no references and no boxed objects
+            return ((long[]) k).length * 8;
+        }
 //*
-        return map.evaluateMemoryForKeys(keys, getKeyCount());
+        return map.evaluateMemoryForKeys((K[]) k, getKeyCount());
 /*/
         int keyCount = getKeyCount();
         int mem = keyCount * MEMORY_POINTER;
@@ -988,6 +1260,20 @@ public final K[] createKeyStorage(int size) {
         return map.getKeyType().createStorage(size);
     }
 
+    /**
+     * Create an array for the keys of this page, a long[] for maps with
+     * {@link LongDataType} keys.
+     *
+     * @param size number of entries
+     * @return keys array
+     */
+    private Object createKeyArray(int size) {
+        if (hasLongKeys(map)) {
+            return size == 0 ? EMPTY_LONG_KEYS : new long[size];
+        }
+        return createKeyStorage(size);
+    }
+
     /**
      * Create array for values storage.
      *
@@ -1132,7 +1418,7 @@ public String toString() {
             this.totalCount = totalCount;
         }
 
-        NonLeaf(MVMap<K,V> map, K[] keys, PageReference<K,V>[] children, long totalCount) {
+        NonLeaf(MVMap<K,V> map, Object keys, PageReference<K,V>[] children, long totalCount) {
             super(map, keys);
             this.children = children;
             this.totalCount = totalCount;
@@ -1176,7 +1462,7 @@ public V getValue(int index) {
         public Page<K,V> split(int at) {
             assert !isSaved();
             int b = getKeyCount() - at;
-            K[] bKeys = splitKeys(at, b - 1);
+            Object bKeys = splitKeys(at, b - 1);
             PageReference<K,V>[] aChildren = createRefStorage(at + 1);
             PageReference<K,V>[] bChildren = createRefStorage(b);
             System.arraycopy(children, 0, aChildren, 0, at + 1);
@@ -1192,7 +1478,8 @@ public Page<K,V> split(int at) {
             for (PageReference<K,V> x : bChildren) {
                 t += x.count;
             }
-            Page<K,V> newPage = createNode(map, bKeys, bChildren, t, 0);
+            Page<K,V> newPage = new NonLeaf<>(map, bKeys, bChildren, t);
+            newPage.initMemoryAccount(0);
             if(isPersistent()) {
                 recalculateMemory();
             }
@@ -1366,6 +1653,26 @@ void writeUnsavedRecursive(PageSerializationManager pageSerializationManager) {
                 buff.position(patch);
                 writeChildren(buff, false);
                 buff.position(old);
+                if (pageSerializationManager.isPageChecksum()) {
+                    pageSerializationManager.writeChecksum(getPos());
+                }
+            }
+        }
+
+        @Override
+        void collectUnsavedLeaves(List<Page<?,?>> target) {
+            if (!isSaved()) {
+                collectChildrenUnsavedLeaves(target);
+            }
+        }
+
+        void collectChildrenUnsavedLeaves(List<Page<?,?>> target) {
+            int len = getRawChildPageCount();
+            for (int i = 0; i < len; i++) {
+                Page<K,V> p = children[i].getPage();
+                if (p != null) {
+                    p.collectUnsavedLeaves(target);
+                }
             }
         }
 
@@ -1417,6 +1724,21 @@ public void dump(StringBuilder buff) {
     }
 
 
+    private static final class CompositeNonLeaf<K,V> extends NonLeaf<K,V> {
+
+        private final long compositeCount;
+
+        CompositeNonLeaf(MVMap<K,V> map, Object keys, PageReference<K,V>[] children, long totalCount) {
+            super(map, keys, children, totalCount);
+            compositeCount = totalCount;
+        }
+
+        @Override
+        public long getTotalCount() {
+            return compositeCount;
+        }
+    }
+
     private static class IncompleteNonLeaf<K,V> extends NonLeaf<K,V> {
 
         private boolean complete;
@@ -1441,6 +1763,15 @@ void writeUnsavedRecursive(PageSerializationManager pageSerializationManager) {
             }
         }
 
+        @Override
+        void collectUnsavedLeaves(List<Page<?,?>> target) {
+            if (complete) {
+                super.collectUnsavedLeaves(target);
+            } else if (!isSaved()) {
+                collectChildrenUnsavedLeaves(target);
+            }
+        }
+
         @Override
         public boolean isComplete() {
             return complete;
@@ -1463,11 +1794,21 @@ public void dump(StringBuilder buff) {
 
 
     private static class Leaf<K,V> extends Page<K,V> {
+
+        private static final byte COMMITTED_UNKNOWN = 0, COMMITTED_ALL = 1, COMMITTED_NOT_ALL = 2;
+
         /**
          * The storage for values.
          */
         private V[] values;
 
+        /**
+         * Whether all values are committed, see
+         * {@link #hasOnlyCommittedValues()}. A published page is not changed,
+         * so a reader may set this field concurrently to the same value.
+         */
+        private byte committed;
+
         Leaf(MVMap<K,V> map) {
             super(map);
         }
@@ -1475,9 +1816,10 @@ public void dump(StringBuilder buff) {
         private Leaf(MVMap<K,V> map, Leaf<K,V> source) {
             super(map, source);
             this.values = source.values;
+            this.committed = source.committed;
         }
 
-        Leaf(MVMap<K,V> map, K[] keys, V[] values) {
+        Leaf(MVMap<K,V> map, Object keys, V[] values) {
             super(map, keys);
             this.values = values;
         }
@@ -1507,11 +1849,48 @@ public V getValue(int index) {
             return values == null ? null : values[index];
         }
 
+        @Override
+        public boolean hasOnlyCommittedValues() {
+            byte c = committed;
+            if (c == COMMITTED_UNKNOWN) {
+                c = COMMITTED_ALL;
+                V[] v = values;
+                if (v != null) {
+                    for (int i = 0, keyCount = getKeyCount(); i < keyCount; i++) {
+                        if (!isCommitted(v[i])) {
+                            c = COMMITTED_NOT_ALL;
+                            break;
+                        }
+                    }
+                }
+                committed = c;
+            }
+            return c == COMMITTED_ALL;
+        }
+
+        private static boolean isCommitted(Object value) {
+            return !(value instanceof VersionedValue) || ((VersionedValue<?>) value).getOperationId() == 0L;
+        }
+
+        /**
+         * Update the marker for a value that replaces another one.
+         *
+         * @param value the new value
+         */
+        private void valueReplaced(V value) {
+            if (!isCommitted(value)) {
+                committed = COMMITTED_NOT_ALL;
+            } else if (committed == COMMITTED_NOT_ALL) {
+                // the new value may replace the last uncommitted one
+                committed = COMMITTED_UNKNOWN;
+            }
+        }
+
         @Override
         public Page<K,V> split(int at) {
             assert !isSaved();
             int b = getKeyCount() - at;
-            K[] bKeys = splitKeys(at, b);
+            Object bKeys = splitKeys(at, b);
             V[] bValues = createValueStorage(b);
             if(values != null) {
                 V[] aValues = createValueStorage(at);
@@ -1519,7 +1898,13 @@ public Page<K,V> split(int at) {
                 System.arraycopy(values, at, bValues, 0, b);
                 values = aValues;
             }
-            Page<K,V> newPage = createLeaf(map, bKeys, bValues, 0);
+            Leaf<K,V> leaf = new Leaf<>(map, bKeys, bValues);
+            if (committed != COMMITTED_ALL) {
+                committed = COMMITTED_UNKNOWN;
+            }
+            leaf.committed = committed;
+            Page<K,V> newPage = leaf;
+            newPage.initMemoryAccount(0);
             if(isPersistent()) {
                 recalculateMemory();
             }
@@ -1535,6 +1920,7 @@ public void expand(int extraKeyCount, K[] extraKeys, V[] extraValues) {
                 System.arraycopy(values, 0, newValues, 0, keyCount);
                 System.arraycopy(extraValues, 0, newValues, keyCount, extraKeyCount);
                 values = newValues;
+                committed = COMMITTED_UNKNOWN;
             }
             if(isPersistent()) {
                 recalculateMemory();
@@ -1560,6 +1946,7 @@ public void setChild(int index, Page<K,V> c) {
         public V setValue(int index, V value) {
             values = values.clone();
             V old = setValueInternal(index, value);
+            valueReplaced(value);
             if(isPersistent()) {
                 if (!map.isMemoryEstimationAllowed()) {
                     addMemory(map.evaluateMemoryForValue(value) -
@@ -1585,6 +1972,9 @@ public void insertLeaf(int index, K key, V value) {
                 DataUtils.copyWithGap(values, newValues, keyCount, index);
                 values = newValues;
                 setValueInternal(index, value);
+                if (!isCommitted(value)) {
+                    committed = COMMITTED_NOT_ALL;
+                }
                 if (isPersistent()) {
                     addMemory(MEMORY_POINTER + map.evaluateMemoryForValue(value));
                 }
@@ -1612,6 +2002,9 @@ public void remove(int index) {
                 V[] newValues = createValueStorage(keyCount - 1);
                 DataUtils.copyExcept(values, newValues, keyCount, index);
                 values = newValues;
+                if (committed == COMMITTED_NOT_ALL) {
+                    committed = COMMITTED_UNKNOWN;
+                }
             }
         }
 
@@ -1653,6 +2046,13 @@ void writeUnsavedRecursive(PageSerializationManager pageSerializationManager) {
             }
         }
 
+        @Override
+        void collectUnsavedLeaves(List<Page<?,?>> target) {
+            if (!isSaved()) {
+                target.add(this);
+            }
+        }
+
         @Override
         void releaseSavedPages() {}
 
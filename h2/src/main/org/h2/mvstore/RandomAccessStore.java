@@ -5,6 +5,7 @@
  */
 package org.h2.mvstore;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -13,9 +14,11 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import org.h2.util.MathUtils;
 
 /**
  * Class RandomAccessStore.
@@ -27,6 +30,22 @@
  */
 public abstract class RandomAccessStore extends FileStore<SFChunk>
 {
+    /**
+     * The store header key for the first block of the chunk table.
+     */
+    private static final String HDR_CHUNK_TABLE = "chunkTable";
+
+    /**
+     * The store header key for the length of the chunk table, in bytes.
+     */
+    private static final String HDR_CHUNK_TABLE_LENGTH = "chunkTableLength";
+
+    /**
+     * The minimum number of chunks for which a chunk table is written on
+     * close. For smaller stores, reading the layout map is fast enough.
+     */
+    private static final int CHUNK_TABLE_MIN_CHUNKS = 256;
+
     /**
      * The free spaces between the chunks. The first block to use is block 2
      * (the first two blocks are the store header).
@@ -251,9 +270,13 @@ protected void readStoreHeader(boolean recoveryMode) {
             Queue<SFChunk> chunksToVerify = new PriorityQueue<>(20, Collections.reverseOrder(chunkComparator));
             try {
                 setLastChunk(newest);
-                // load the chunk metadata: although meta's root page resides in the lastChunk,
-                // traversing meta map might recursively load another chunk(s)
-                for (SFChunk c : getChunksFromLayoutMap()) {
+                Iterable<SFChunk> chunkList = readChunkTable(newest);
+                if (chunkList == null) {
+                    // load the chunk metadata: although meta's root page resides in the lastChunk,
+                    // traversing meta map might recursively load another chunk(s)
+                    chunkList = getChunksFromLayoutMap();
+                }
+                for (SFChunk c : chunkList) {
                     // might be there already, due to meta traversal
                     // see readPage() ... getChunkIfFound()
                     chunksToVerify.offer(c);
@@ -413,12 +436,92 @@ private boolean shouldWriteStoreHeader(SFChunk c, boolean storeAtEndOfFile) {
     @Override
     protected final void writeCleanShutdownMark() {
         shrinkStoreIfPossible(0);
+        writeChunkTable();
         storeHeader.put(HDR_CLEAN, 1);
         writeStoreHeader();
     }
 
+    /**
+     * Write the metadata of all chunks in binary form after the end of the
+     * used space, so that the next open does not need to read and parse the
+     * layout map. The table is only valid as long as the store header is
+     * marked clean, and the space it occupies is considered free.
+     */
+    private void writeChunkTable() {
+        storeHeader.remove(HDR_CHUNK_TABLE);
+        storeHeader.remove(HDR_CHUNK_TABLE_LENGTH);
+        Collection<SFChunk> chunks = getChunks().values();
+        if (chunks.size() < CHUNK_TABLE_MIN_CHUNKS || !isLayoutSaved()) {
+            return;
+        }
+        SFChunk last = lastChunk;
+        WriteBuffer buff = new WriteBuffer(chunks.size() * 48);
+        buff.putVarLong(last.version).putVarInt(last.id).putVarInt(chunks.size());
+        for (SFChunk c : chunks) {
+            c.writeBinary(buff);
+        }
+        if ((buff.position() & 1) != 0) {
+            buff.put((byte) 0);
+        }
+        int length = buff.position();
+        buff.putInt(DataUtils.getFletcher32(buff.getBuffer().array(), 0, length));
+        length += 4;
+        buff.limit(MathUtils.roundUpInt(length, BLOCK_SIZE));
+        long filePos = getFileLengthInUse();
+        buff.position(0);
+        writeFully(null, filePos, buff.getBuffer());
+        storeHeader.put(HDR_CHUNK_TABLE, filePos / BLOCK_SIZE);
+        storeHeader.put(HDR_CHUNK_TABLE_LENGTH, length);
+    }
+
+    /**
+     * Read the chunk table written on the last clean shutdown, and register
+     * its chunks. The table is removed from the store header, as it gets
+     * outdated with the next write operation.
+     *
+     * @param newest the newest chunk, according to the store header
+     * @return the chunks, or null if there is no valid chunk table
+     */
+    private List<SFChunk> readChunkTable(SFChunk newest) {
+        long block = DataUtils.readHexLong(storeHeader, HDR_CHUNK_TABLE, 0);
+        int length = DataUtils.readHexInt(storeHeader, HDR_CHUNK_TABLE_LENGTH, 0);
+        storeHeader.remove(HDR_CHUNK_TABLE);
+        storeHeader.remove(HDR_CHUNK_TABLE_LENGTH);
+        long filePos = block * BLOCK_SIZE;
+        if (block < 2 || length <= 4 || filePos + length > size()) {
+            return null;
+        }
+        try {
+            ByteBuffer buff = readFully((SFChunk) null, filePos, length);
+            byte[] bytes = new byte[length];
+            buff.get(bytes);
+            int checksum = DataUtils.getFletcher32(bytes, 0, length - 4);
+            buff = ByteBuffer.wrap(bytes);
+            if (checksum != buff.getInt(length - 4)
+                    || DataUtils.readVarLong(buff) != newest.version || DataUtils.readVarInt(buff) != newest.id) {
+                return null;
+            }
+            int count = DataUtils.readVarInt(buff);
+            ArrayList<SFChunk> list = new ArrayList<>(count);
+            Map<Integer, SFChunk> chunks = getChunks();
+            for (int i = 0; i < count; i++) {
+                SFChunk c = new SFChunk(buff);
+                // the newest chunk is there already, then take existing one
+                SFChunk existing = chunks.putIfAbsent(c.id, c);
+                list.add(existing == null ? c : existing);
+            }
+            return list;
+        } catch (MVStoreException | BufferUnderflowException e) {
+            // the table was overwritten, fall back to the layout map
+            setLastChunk(newest);
+            return null;
+        }
+    }
+
     @Override
     protected final void adjustStoreToLastChunk() {
+        storeHeader.remove(HDR_CHUNK_TABLE);
+        storeHeader.remove(HDR_CHUNK_TABLE_LENGTH);
         storeHeader.put(HDR_CLEAN, 1);
         writeStoreHeader();
         readStoreHeader(false);
@@ -478,6 +581,11 @@ private void compactMoveChunks(long moveSize) {
         long start = getFirstFree() / FileStore.BLOCK_SIZE;
         Iterable<SFChunk> chunksToMove = findChunksToMove(start, moveSize);
         if (chunksToMove != null) {
+            long movedBytes = 0;
+            for (SFChunk chunk : chunksToMove) {
+                movedBytes += chunk.len * FileStore.BLOCK_SIZE;
+            }
+            consumeCompactionBudget(movedBytes);
             compactMoveChunks(chunksToMove);
         }
     }
@@ -589,7 +697,8 @@ private void compactMoveChunks(Iterable<SFChunk> move) {
         }
     }
 
-    private void writeStoreHeader() {
+    @Override
+    protected final void writeStoreHeader() {
         StringBuilder buff = new StringBuilder(112);
         if (hasPersistentData()) {
             storeHeader.put(HDR_BLOCK, lastChunk.block);
@@ -711,14 +820,17 @@ protected void doHousekeeping(MVStore mvStore) throws InterruptedException {
         int fileFillRate = getFillRate();
         long chunksTotalSize = size() * fileFillRate / 100;
         if (isFragmented() && fileFillRate < getAutoCompactFillRate()) {
-            mvStore.tryExecuteUnderStoreLock(() -> {
-                int moveSize = 2 * autoCommitMemory;
-                if (idle) {
-                    moveSize *= 4;
-                }
-                compactMoveChunks(101, moveSize, mvStore);
-                return true;
-            });
+            int moveSize = 2 * autoCommitMemory;
+            if (idle) {
+                moveSize *= 4;
+            }
+            int budget = Math.min(moveSize, getCompactionBudget(moveSize));
+            if (budget >= FileStore.BLOCK_SIZE) {
+                mvStore.tryExecuteUnderStoreLock(() -> {
+                    compactMoveChunks(101, budget, mvStore);
+                    return true;
+                });
+            }
         }
 
         int chunksFillRate = getChunksFillRate();
@@ -726,16 +838,19 @@ protected void doHousekeeping(MVStore mvStore) throws InterruptedException {
         int fillRateToCompare = idle ? rewritableChunksFillRate : adjustedUpFillRate;
         if (fillRateToCompare < getTargetFillRate(idle)) {
             int targetFillRate = idle ? adjustedUpFillRate : rewritableChunksFillRate;
-            mvStore.tryExecuteUnderStoreLock(() -> {
-                int writeLimit = autoCommitMemory;
-                if (!idle) {
-                    writeLimit /= 4;
-                }
-                if (rewriteChunks(writeLimit, targetFillRate)) {
-                    dropUnusedChunks();
-                }
-                return true;
-            });
+            int writeLimit = autoCommitMemory;
+            if (!idle) {
+                writeLimit /= 4;
+            }
+            int budget = Math.min(writeLimit, getCompactionBudget(writeLimit));
+            if (budget > 0) {
+                mvStore.tryExecuteUnderStoreLock(() -> {
+                    if (rewriteChunks(budget, targetFillRate, true)) {
+                        dropUnusedChunks();
+                    }
+                    return true;
+                });
+            }
         }
         stopIdleHousekeeping = false;
         if (idle) {
@@ -30,6 +30,10 @@ public final class SFChunk extends Chunk<SFChunk>
         super(map, false);
     }
 
+    SFChunk(ByteBuffer buff) {
+        super(buff);
+    }
+
     @Override
     protected ByteBuffer readFully(FileStore<SFChunk> fileStore, long filePos, int length) {
         return fileStore.readFully(this, filePos, length);
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.h2.mvstore.type.DataType;
+
+/**
+ * A map that is split into a number of shards by the hash code of the key.
+ * Each shard is a regular map of the same store, with its own root, so
+ * concurrent writers of different keys (for example, of sequential keys) don't
+ * contend on a single root reference.
+ * <p>
+ * The shards are named "shard.&lt;index&gt;.&lt;name of this map&gt;". The
+ * root page of this map itself is always empty. Operations on a single key are
+ * routed to the shard of this key, while ordered operations (cursors, first and
+ * last key, getKeyIndex, getKey) merge the shards. A consistent snapshot of all
+ * shards is available with {@link #getSnapshotRoot()}; its root page is a
+ * synthetic node with the root pages of the shards as children.
+ * <p>
+ * The hash code of the keys must not depend on the JVM instance (as it is the
+ * case for Long, Integer, and String keys), because it is persisted
+ * indirectly.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ShardedMVMap<K, V> extends MVMap<K, V> {
+
+    /**
+     * The map type.
+     */
+    static final String TYPE = "sharded";
+
+    /**
+     * The maximum number of shards.
+     */
+    static final int MAX_SHARDS = 1024;
+
+    private final int shardCount;
+
+    /**
+     * The shards, opened together with this map.
+     */
+    private MVMap<K, V>[] shards;
+
+    /**
+     * The last snapshot, reused while none of the shards is changed.
+     */
+    private volatile RootReference<K, V> snapshotRoot;
+
+    /**
+     * Create a new sharded map.
+     *
+     * @param config the map configuration
+     * @param keyType the key type
+     * @param valueType the value type
+     * @param shardCount the number of shards
+     */
+    protected ShardedMVMap(Map<String, Object> config, DataType<K> keyType, DataType<V> valueType,
+            int shardCount) {
+        super(config, keyType, valueType);
+        DataUtils.checkArgument(shardCount > 1 && shardCount <= MAX_SHARDS,
+                "Unsupported number of shards {0}", shardCount);
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Constructor for cloneIt().
+     *
+     * @param source the source map
+     */
+    protected ShardedMVMap(ShardedMVMap<K, V> source) {
+        super(source);
+        shardCount = source.shardCount;
+        shards = source.shards;
+    }
+
+    @Override
+    protected MVMap<K, V> cloneIt() {
+        return new ShardedMVMap<>(this);
+    }
+
+    /**
+     * Get the name of a shard.
+     *
+     * @param mapName the name of the sharded map
+     * @param index the index of the shard
+     * @return the name of the shard
+     */
+    public static String getShardName(String mapName, int index) {
+        return "shard." + index + '.' + mapName;
+    }
+
+    @Override
+    void setRootPos(long rootPos, long version) {
+        super.setRootPos(rootPos, version);
+        if (shards == null) {
+            // the map is registered in the store by now, so its name is known
+            String name = getName();
+            @SuppressWarnings("unchecked")
+            MVMap<K, V>[] s = (MVMap<K, V>[]) new MVMap<?, ?>[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                s[i] = store.openMap(getShardName(name, i),
+                        new MVMap.Builder<K, V>().keyType(getKeyType()).valueType(getValueType()));
+                s[i].setVolatile(isVolatile());
+            }
+            shards = s;
+        }
+    }
+
+    /**
+     * Get the shards of this map.
+     *
+     * @return the shards
+     */
+    final MVMap<K, V>[] getShards() {
+        return shards;
+    }
+
+    /**
+     * Get the number of shards.
+     *
+     * @return the number of shards
+     */
+    public final int getShardCount() {
+        return shardCount;
+    }
+
+    @Override
+    List<MVMap<?, ?>> getInternalMaps() {
+        return Arrays.asList(shards);
+    }
+
+    @Override
+    boolean isCompositeRoot(Page<K, V> p) {
+        return !p.isLeaf();
+    }
+
+    private int getShardIndex(Object key) {
+        return getShardIndexForHash(key.hashCode());
+    }
+
+    private int getShardIndexForHash(int h) {
+        // sequential integer keys are distributed in round-robin fashion
+        return Integer.remainderUnsigned(h ^ h >>> 16, shardCount);
+    }
+
+    private MVMap<K, V> getShard(Object key) {
+        return shards[getShardIndex(key)];
+    }
+
+    /**
+     * Get the synthetic root page of the given snapshot, or of a new snapshot
+     * if the given root reference is the (always empty) root of this map.
+     *
+     * @param rootReference the root reference
+     * @return the root page of the snapshot
+     */
+    private Page<K, V> getSnapshotPage(RootReference<K, V> rootReference) {
+        Page<K, V> p = rootReference.root;
+        return p.isLeaf() ? getSnapshotRoot().root : p;
+    }
+
+    @Override
+    public RootReference<K, V> getSnapshotRoot() {
+        MVMap<K, V>[] s = shards;
+        RootReference<K, V> snapshot = snapshotRoot;
+        if (snapshot != null) {
+            Page<K, V> p = snapshot.root;
+            int i = 0;
+            while (i < shardCount && s[i].flushAndGetRoot().root == p.getChildPage(i)) {
+                i++;
+            }
+            if (i == shardCount) {
+                return snapshot;
+            }
+        }
+        Page.PageReference<K, V>[] children = Page.createRefStorage(shardCount);
+        long totalCount = 0;
+        for (int i = 0; i < shardCount; i++) {
+            Page<K, V> p = s[i].flushAndGetRoot().root;
+            children[i] = new Page.PageReference<>(p);
+            totalCount += p.getTotalCount();
+        }
+        // the child is selected by the hash code
+        Page<K, V> p = Page.createCompositeNode(this, children, totalCount);
+        snapshot = new RootReference<>(p, getRoot().version);
+        snapshotRoot = snapshot;
+        return snapshot;
+    }
+
+    @Override
+    public V get(Page<K, V> p, K key) {
+        int index = getShardIndex(key);
+        return p.isLeaf() ? shards[index].get(key) : shards[index].get(p.getChildPage(index), key);
+    }
+
+    @Override
+    public V getForLongKey(Page<K, V> p, long key) {
+        int index = getShardIndexForHash(Long.hashCode(key));
+        return p.isLeaf() ? shards[index].getForLongKey(key) : shards[index].getForLongKey(p.getChildPage(index), key);
+    }
+
+    @Override
+    public V operate(K key, V value, DecisionMaker<? super V> decisionMaker) {
+        return getShard(key).operate(key, value, decisionMaker);
+    }
+
+    @Override
+    RootReference<K, V> clearIt() {
+        for (MVMap<K, V> shard : shards) {
+            shard.clearIt();
+        }
+        return super.clearIt();
+    }
+
+    @Override
+    public Cursor<K, V> cursor(RootReference<K, V> rootReference, K from, K to, boolean reverse) {
+        Page<K, V> p = getSnapshotPage(rootReference);
+        return super.cursor(p == rootReference.root ? rootReference : new RootReference<>(p, rootReference.version),
+                from, to, reverse);
+    }
+
+    @Override
+    public long sizeAsLong() {
+        long size = 0;
+        for (MVMap<K, V> shard : shards) {
+            size += shard.sizeAsLong();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (MVMap<K, V> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public K firstKey() {
+        return getFirstLast(true);
+    }
+
+    @Override
+    public K lastKey() {
+        return getFirstLast(false);
+    }
+
+    private K getFirstLast(boolean first) {
+        K result = null;
+        for (MVMap<K, V> shard : shards) {
+            K k = first ? shard.firstKey() : shard.lastKey();
+            if (k != null && (result == null || compare(k, result) < 0 == first)) {
+                result = k;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    K getMinMax(RootReference<K, V> rootRef, K key, boolean min, boolean excluding) {
+        Page<K, V> p = getSnapshotPage(rootRef);
+        K result = null;
+        for (int i = 0; i < shardCount; i++) {
+            K k = shards[i].getMinMax(p.getChildPage(i), key, min, excluding);
+            // the largest of the lower keys, or the smallest of the higher keys
+            if (k != null && (result == null || compare(k, result) > 0 == min)) {
+                result = k;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getKeyIndex(K key) {
+        long count = 0;
+        boolean found = false;
+        for (MVMap<K, V> shard : shards) {
+            long index = shard.getKeyIndex(key);
+            if (index >= 0) {
+                found = true;
+                count += index;
+            } else {
+                count += -index - 1;
+            }
+        }
+        return found ? count : -count - 1;
+    }
+
+    @Override
+    public K getKey(long index) {
+        if (index < 0) {
+            return null;
+        }
+        // the key is searched in the remaining ranges [low, high) of all
+        // shards, the largest range is split by its median in each step
+        long[] low = new long[shardCount];
+        long[] high = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            high[i] = shards[i].sizeAsLong();
+        }
+        while (true) {
+            int s = -1;
+            long max = 0;
+            for (int i = 0; i < shardCount; i++) {
+                long length = high[i] - low[i];
+                if (length > max) {
+                    max = length;
+                    s = i;
+                }
+            }
+            if (s < 0) {
+                return null;
+            }
+            long median = (low[s] + high[s]) >>> 1;
+            K key = shards[s].getKey(median);
+            if (key == null) {
+                // concurrently modified
+                return null;
+            }
+            long[] counts = new long[shardCount];
+            long rank = 0;
+            for (int i = 0; i < shardCount; i++) {
+                long c = i == s ? median : shards[i].getKeyIndex(key);
+                if (c < 0) {
+                    c = -c - 1;
+                }
+                counts[i] = c;
+                rank += c;
+            }
+            if (rank == index) {
+                return key;
+            }
+            for (int i = 0; i < shardCount; i++) {
+                if (rank < index) {
+                    low[i] = Math.max(low[i], i == s ? median + 1 : counts[i]);
+                } else {
+                    high[i] = Math.min(high[i], counts[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setVolatile(boolean isVolatile) {
+        super.setVolatile(isVolatile);
+        MVMap<K, V>[] s = shards;
+        if (s != null) {
+            for (MVMap<K, V> shard : s) {
+                shard.setVolatile(isVolatile);
+            }
+        }
+    }
+
+    @Override
+    public MVMap<K, V> openVersion(long version) {
+        ShardedMVMap<K, V> m = (ShardedMVMap<K, V>) super.openVersion(version);
+        @SuppressWarnings("unchecked")
+        MVMap<K, V>[] s = (MVMap<K, V>[]) new MVMap<?, ?>[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            s[i] = shards[i].openVersion(version);
+        }
+        m.shards = s;
+        return m;
+    }
+
+    @Override
+    public long getDiskSpaceUsed(boolean approximate) {
+        long result = 0;
+        for (MVMap<K, V> shard : shards) {
+            result += shard.getDiskSpaceUsed(approximate);
+        }
+        return result;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    protected String asString(String name) {
+        StringBuilder buff = new StringBuilder(super.asString(name));
+        DataUtils.appendMap(buff, "shards", shardCount);
+        return buff.toString();
+    }
+
+}
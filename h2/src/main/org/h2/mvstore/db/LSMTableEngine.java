@@ -0,0 +1,33 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import org.h2.api.TableEngine;
+import org.h2.command.ddl.CreateTableData;
+import org.h2.mvstore.MVMap;
+import org.h2.table.Table;
+
+/**
+ * A table engine that creates tables whose rows are stored in a log structured
+ * merge tree. Such tables are suited for workloads with many inserts and
+ * updates of random keys, and point lookups. Secondary indexes are regular
+ * indexes. Usage:
+ *
+ * <pre>
+ * CREATE TABLE TEST(ID INT PRIMARY KEY, NAME VARCHAR)
+ * ENGINE "org.h2.mvstore.db.LSMTableEngine"
+ * </pre>
+ *
+ * @see org.h2.mvstore.LSMTreeMap
+ */
+public class LSMTableEngine implements TableEngine {
+
+    @Override
+    public Table createTable(CreateTableData data) {
+        return data.session.getDatabase().getStore().createTable(data, new MVMap.Builder<>().lsmTree());
+    }
+
+}
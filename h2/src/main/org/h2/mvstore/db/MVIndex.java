@@ -46,7 +46,7 @@ protected MVIndex(Table newTable, int id, String name, IndexColumn[] newIndexCol
 
     @Override
     public long getDiskSpaceUsed(boolean approximate) {
-        return getMVMap().getRootPage().getDiskSpaceUsed(approximate);
+        return getMVMap().getDiskSpaceUsed(approximate);
     }
 
 }
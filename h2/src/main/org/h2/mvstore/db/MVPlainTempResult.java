@@ -104,10 +104,9 @@ public Value[] next() {
         if (cursor == null) {
             cursor = map.cursor(null);
         }
-        if (!cursor.hasNext()) {
+        if (!cursor.advance()) {
             return null;
         }
-        cursor.next();
         return cursor.getValue().getList();
     }
 
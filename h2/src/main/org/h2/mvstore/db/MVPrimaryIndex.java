@@ -45,13 +45,14 @@ public final class MVPrimaryIndex extends MVIndex<Long, SearchRow> {
     private final AtomicLong lastKey = new AtomicLong();
     private int mainIndexColumn = SearchRow.ROWID_INDEX;
 
-    public MVPrimaryIndex(Database db, MVTable table, int id, IndexColumn[] columns, IndexType indexType) {
+    public MVPrimaryIndex(Database db, MVTable table, int id, IndexColumn[] columns, IndexType indexType,
+            MVMap.Builder<?, ?> layout) {
         super(table, id, table.getName() + "_DATA", columns, 0, indexType);
         this.mvTable = table;
         RowDataType valueType = table.getRowFactory().getRowDataType();
         mapName = "table." + getId();
         Transaction t = mvTable.getTransactionBegin();
-        dataMap = t.openMap(mapName, LongDataType.INSTANCE, valueType);
+        dataMap = t.openMap(mapName, LongDataType.INSTANCE, valueType, layout);
         dataMap.map.setVolatile(!table.isPersistData() || !indexType.isPersistent());
         if (!db.isStarting()) {
             dataMap.clear();
@@ -321,7 +322,7 @@ public Cursor find(SessionLocal session, SearchRow first, SearchRow last, boolea
         }
         TransactionMap<Long,SearchRow> map = getMap(session);
         if (min != null && max != null && min.longValue() == max.longValue()) {
-            return new SingleRowCursor(setRowKey((Row) map.getFromSnapshot(min), min));
+            return new SingleRowCursor(setRowKey((Row) map.getFromSnapshotForLongKey(min), min));
         }
         return new MVStoreCursor(map.entryIterator(min, max, reverse));
     }
@@ -334,7 +335,7 @@ public MVTable getTable() {
     @Override
     public Row getRow(SessionLocal session, long key) {
         TransactionMap<Long,SearchRow> map = getMap(session);
-        Row row = (Row) map.getFromSnapshot(key);
+        Row row = (Row) map.getFromSnapshotForLongKey(key);
         if (row == null) {
             throw DbException.get(ErrorCode.ROW_NOT_FOUND_IN_PRIMARY_INDEX, getTraceSQL(), String.valueOf(key));
         }
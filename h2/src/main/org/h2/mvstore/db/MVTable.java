@@ -30,6 +30,7 @@
 import org.h2.message.Trace;
 import org.h2.mode.DefaultNullOrdering;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.tx.Transaction;
 import org.h2.mvstore.tx.TransactionStore;
@@ -138,7 +139,15 @@ public String getEventText() {
     private final Store store;
     private final TransactionStore transactionStore;
 
-    public MVTable(CreateTableData data, Store store) {
+    /**
+     * Create a table.
+     *
+     * @param data the data to construct the table
+     * @param store the store
+     * @param layout the builder to copy the layout options of a new map of
+     *            the primary index from
+     */
+    public MVTable(CreateTableData data, Store store, MVMap.Builder<?, ?> layout) {
         super(data);
         boolean b = false;
         for (Column col : getColumns()) {
@@ -155,7 +164,7 @@ public MVTable(CreateTableData data, Store store) {
         traceLock = database.getTrace(Trace.LOCK);
 
         primaryIndex = new MVPrimaryIndex(database, this, getId(),
-                IndexColumn.wrap(getColumns()), IndexType.createScan(true));
+                IndexColumn.wrap(getColumns()), IndexType.createScan(true), layout);
         indexes.add(primaryIndex);
     }
 
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.h2.api.ErrorCode;
+import org.h2.command.query.AllColumnsForPlan;
+import org.h2.engine.SessionLocal;
+import org.h2.index.Cursor;
+import org.h2.index.Index;
+import org.h2.message.DbException;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStoreException;
+import org.h2.mvstore.tx.TransactionMap;
+import org.h2.mvstore.tx.TransactionMap.TMIterator;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.TableFilter;
+import org.h2.value.VersionedValue;
+
+/**
+ * A wrapper around the scan index of a table used to read all rows of a large
+ * table with multiple threads.
+ * <p>
+ * The key range of the table is split into chunks, the chunks are read by the
+ * threads of a shared pool. Rows of the chunks are returned in order of keys,
+ * so the order of rows is the same as in the wrapped index. The number of
+ * chunks read at the same time is limited by the parallel scan threads setting
+ * of the session and by the number of available processors. Only the rows are
+ * read in parallel, conditions and aggregates are evaluated by the thread
+ * executing the query.
+ * </p>
+ */
+public final class ParallelScanIndex extends Index {
+
+    /**
+     * The minimum approximate number of rows in a table to read it with
+     * multiple threads.
+     */
+    public static final long MIN_ROWS = 16_384;
+
+    /**
+     * The number of entries of the map in one chunk.
+     */
+    private static final int CHUNK_SIZE = 2_048;
+
+    /**
+     * The wrapped index.
+     */
+    private final MVPrimaryIndex delegate;
+
+    /**
+     * The last cursor, or {@code null}.
+     */
+    private ParallelCursor cursor;
+
+    public ParallelScanIndex(MVPrimaryIndex delegate) {
+        super(delegate.getTable(), 0, null, delegate.getIndexColumns(), delegate.getUniqueColumnCount(),
+                delegate.getIndexType());
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the wrapped index.
+     *
+     * @return the wrapped index
+     */
+    public Index getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close(SessionLocal session) {
+        // nothing to do
+    }
+
+    @Override
+    public void add(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Parallel scan");
+    }
+
+    @Override
+    public void remove(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException("Parallel scan");
+    }
+
+    @Override
+    public void remove(SessionLocal session) {
+        throw DbException.getUnsupportedException("Parallel scan");
+    }
+
+    @Override
+    public void truncate(SessionLocal session) {
+        throw DbException.getUnsupportedException("Parallel scan");
+    }
+
+    @Override
+    public Cursor find(SessionLocal session, SearchRow first, SearchRow last, boolean reverse) {
+        int parallelism = session.getParallelScanThreads();
+        if (first != null || last != null || reverse || parallelism <= 1 || session.isLazyQueryExecution()) {
+            return delegate.find(session, first, last, reverse);
+        }
+        reset();
+        return cursor = new ParallelCursor(session, delegate.getMVMap(), delegate.getMap(session),
+                Math.min(parallelism, Pool.INSTANCE.getParallelism()));
+    }
+
+    /**
+     * Stop reading the chunks of the last cursor that weren't returned yet.
+     * This method is called when the query finishes or is aborted.
+     */
+    public void reset() {
+        ParallelCursor c = cursor;
+        if (c != null) {
+            cursor = null;
+            c.close();
+        }
+    }
+
+    @Override
+    public double getCost(SessionLocal session, int[] masks, TableFilter[] filters, int filter, SortOrder sortOrder,
+            AllColumnsForPlan allColumnsSet, boolean isSelectCommand) {
+        return delegate.getCost(session, masks, filters, filter, sortOrder, allColumnsSet, isSelectCommand);
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return "parallel " + delegate.getPlanSQL();
+    }
+
+    @Override
+    public int getColumnIndex(Column col) {
+        return delegate.getColumnIndex(col);
+    }
+
+    @Override
+    public boolean isFirstColumn(Column column) {
+        return delegate.isFirstColumn(column);
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public void checkRename() {
+        throw DbException.getUnsupportedException("Parallel scan");
+    }
+
+    @Override
+    public long getRowCount(SessionLocal session) {
+        return delegate.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation(SessionLocal session) {
+        return delegate.getRowCountApproximation(session);
+    }
+
+    @Override
+    public boolean isRowIdIndex() {
+        return delegate.isRowIdIndex();
+    }
+
+    /**
+     * The pool of threads used by all parallel scans. The pool is created on
+     * first use.
+     */
+    private static final class Pool {
+
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    }
+
+    /**
+     * A cursor that reads chunks of the table in background threads.
+     */
+    private final class ParallelCursor implements Cursor {
+
+        private final SessionLocal session;
+
+        private final MVMap<Long, VersionedValue<SearchRow>> map;
+
+        private final TransactionMap<Long, SearchRow> transactionMap;
+
+        private final int parallelism;
+
+        /**
+         * The chunks being read, in order of their keys.
+         */
+        private final ArrayDeque<ForkJoinTask<ArrayList<Row>>> chunks;
+
+        /**
+         * The position of the first entry of the next chunk in the map.
+         */
+        private long position;
+
+        /**
+         * The first key of the next chunk, or {@code null} if the next chunk is
+         * the first one.
+         */
+        private Long nextKey;
+
+        /**
+         * Whether all chunks were submitted.
+         */
+        private boolean submitted;
+
+        private ArrayList<Row> rows;
+
+        private int index;
+
+        private Row current;
+
+        /**
+         * Whether the cursor was closed, the chunks that are being read
+         * are abandoned.
+         */
+        private volatile boolean closed;
+
+        ParallelCursor(SessionLocal session, MVMap<Long, VersionedValue<SearchRow>> map,
+                TransactionMap<Long, SearchRow> transactionMap, int parallelism) {
+            this.session = session;
+            this.map = map;
+            this.transactionMap = transactionMap;
+            this.parallelism = parallelism;
+            chunks = new ArrayDeque<>(parallelism);
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            while (rows == null || index >= rows.size()) {
+                submit();
+                ForkJoinTask<ArrayList<Row>> chunk = chunks.poll();
+                if (chunk == null) {
+                    rows = null;
+                    current = null;
+                    return false;
+                }
+                rows = join(chunk);
+                if (rows == null) {
+                    // reading was stopped because the statement was canceled
+                    session.checkCanceled();
+                    throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                index = 0;
+            }
+            current = rows.get(index++);
+            return true;
+        }
+
+        /**
+         * Submit new chunks until the number of chunks being read reaches the
+         * parallelism. Iterators are created by the current thread, because
+         * transaction maps may not be used by multiple threads.
+         */
+        private void submit() {
+            while (!submitted && chunks.size() < parallelism) {
+                Long from = nextKey, to = null;
+                for (;;) {
+                    position += CHUNK_SIZE;
+                    Long split = map.getKey(position);
+                    if (split == null) {
+                        submitted = true;
+                        break;
+                    }
+                    long k = split;
+                    // the map may be modified concurrently
+                    if (from == null ? k != Long.MIN_VALUE : k > from) {
+                        to = k - 1;
+                        nextKey = split;
+                        break;
+                    }
+                }
+                TMIterator<Long, SearchRow, Entry<Long, SearchRow>> it = transactionMap.entryIterator(from, to);
+                chunks.add(Pool.INSTANCE.submit(() -> read(it)));
+            }
+        }
+
+        /**
+         * Read all rows of a chunk, unless the cursor is closed or the
+         * statement is canceled meanwhile.
+         *
+         * @param it the iterator over entries of the chunk
+         * @return the rows, or {@code null} if reading was stopped
+         */
+        ArrayList<Row> read(TMIterator<Long, SearchRow, Entry<Long, SearchRow>> it) {
+            ArrayList<Row> rows = new ArrayList<>(CHUNK_SIZE);
+            for (Entry<Long, SearchRow> entry; (entry = it.fetchNext()) != null;) {
+                if ((rows.size() & 255) == 0 && isStopped()) {
+                    return null;
+                }
+                Row row = (Row) entry.getValue();
+                if (row.getKey() == 0) {
+                    row.setKey(entry.getKey());
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        private boolean isStopped() {
+            if (closed) {
+                return true;
+            }
+            long cancel = session.getCancel();
+            return cancel != 0L && System.nanoTime() - cancel >= 0L;
+        }
+
+        /**
+         * Close the cursor. Chunks that weren't read yet are cancelled, and
+         * chunks that are being read are abandoned.
+         */
+        void close() {
+            closed = true;
+            submitted = true;
+            for (ForkJoinTask<ArrayList<Row>> chunk; (chunk = chunks.poll()) != null;) {
+                chunk.cancel(false);
+            }
+            rows = null;
+            current = null;
+        }
+
+        private ArrayList<Row> join(ForkJoinTask<ArrayList<Row>> chunk) {
+            try {
+                return chunk.get();
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof MVStoreException) {
+                    throw delegate.getTable().convertException((MVStoreException) cause);
+                }
+                throw DbException.convert(cause);
+            }
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.getUnsupportedException("previous");
+        }
+
+    }
+
+}
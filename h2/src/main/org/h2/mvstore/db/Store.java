@@ -20,6 +20,7 @@
 import org.h2.message.DbException;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.MVStoreTool;
@@ -109,6 +110,10 @@ public Store(Database db, byte[] key) {
                 if (autoCompactFillRate <= 100) {
                     builder.autoCompactFillRate(autoCompactFillRate);
                 }
+                int autoCompactRate = db.getSettings().autoCompactRate;
+                if (autoCompactRate > 0) {
+                    builder.autoCompactRate(autoCompactRate);
+                }
             }
             if (key != null) {
                 encrypted = true;
@@ -119,6 +124,12 @@ public Store(Database db, byte[] key) {
                 // use a larger page split size to improve the compression ratio
                 builder.pageSplitSize(64 * 1024);
             }
+            if (db.getSettings().pageChecksum) {
+                builder.pageChecksum();
+            }
+            if (db.getSettings().scrubRate > 0) {
+                builder.scrubRate(db.getSettings().scrubRate);
+            }
             builder.backgroundExceptionHandler((t, e) -> db.setBackgroundException(DbException.convert(e)));
             // always start without background thread first, and if necessary,
             // it will be set up later, after db has been fully started,
@@ -138,6 +149,9 @@ public Store(Database db, byte[] key) {
             this.transactionStore = new TransactionStore(mvStore,
                     new MetaType<>(db, mvStore.backgroundExceptionHandler), new ValueDataType(db, null),
                     db.getLockTimeout());
+            if (fileName != null && key == null && db.getSettings().redoLog && !db.isReadOnly()) {
+                transactionStore.setRedoLog(dbPath + Constants.SUFFIX_REDO_LOG_FILE);
+            }
         } catch (MVStoreException e) {
             throw convertMVStoreException(e);
         }
@@ -212,8 +226,21 @@ public MVTable getTable(String tableName) {
      * @return table created
      */
     public MVTable createTable(CreateTableData data) {
+        return createTable(data,
+                new MVMap.Builder<>().shards(data.session.getDatabase().getSettings().primaryIndexShards));
+    }
+
+    /**
+     * Create a table with the given layout of the primary index.
+     *
+     * @param data CreateTableData
+     * @param layout the builder to copy the layout options of a new map of
+     *            the primary index from
+     * @return table created
+     */
+    public MVTable createTable(CreateTableData data, MVMap.Builder<?, ?> layout) {
         try {
-            MVTable table = new MVTable(data, this);
+            MVTable table = new MVTable(data, this, layout);
             tableMap.put(table.getMapName(), table);
             return table;
         } catch (MVStoreException e) {
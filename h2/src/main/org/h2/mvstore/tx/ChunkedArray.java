@@ -0,0 +1,67 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An array of references that allocates its memory in chunks, when an element
+ * of a chunk is set for the first time. Elements are never moved, so that
+ * concurrent updates are not lost while the array grows.
+ *
+ * @param <T> the element type
+ */
+final class ChunkedArray<T> {
+
+    private static final int CHUNK_SHIFT = 10;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<T>> chunks;
+
+    /**
+     * Create a new array.
+     *
+     * @param capacity the maximum number of elements
+     */
+    ChunkedArray(int capacity) {
+        chunks = new AtomicReferenceArray<>((capacity + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    /**
+     * Get the element at the given index.
+     *
+     * @param index the index
+     * @return the element, or null if not set
+     */
+    T get(int index) {
+        AtomicReferenceArray<T> chunk = chunks.get(index >>> CHUNK_SHIFT);
+        return chunk == null ? null : chunk.get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Set the element at the given index.
+     *
+     * @param index the index
+     * @param value the new value
+     */
+    void set(int index, T value) {
+        int chunkIndex = index >>> CHUNK_SHIFT;
+        AtomicReferenceArray<T> chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            if (value == null) {
+                return;
+            }
+            chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+            if (!chunks.compareAndSet(chunkIndex, null, chunk)) {
+                chunk = chunks.get(chunkIndex);
+            }
+        }
+        chunk.set(index & CHUNK_MASK, value);
+    }
+}
@@ -36,19 +36,57 @@
 
     /**
      * Value of the entry before change.
-     * It is null if entry did not exist before the change (addition).
+     * It is null if entry did not exist before the change (addition),
+     * or if it was a committed value.
      */
-    final VersionedValue<V> oldValue;
+    private final VersionedValue<V> oldValue;
+
+    /**
+     * Whether the value of the entry before the change was a committed one.
+     * Such value is not kept in the record, because it is the committed value
+     * of the changed entry, see {@link #getOldValue(MVMap)}.
+     */
+    private final boolean committed;
 
     Record(int mapId, K key, VersionedValue<V> oldValue) {
         this.mapId = mapId;
         this.key = key;
-        this.oldValue = oldValue;
+        if (oldValue != null && oldValue.getOperationId() == 0) {
+            this.oldValue = null;
+            committed = true;
+        } else {
+            this.oldValue = oldValue;
+            committed = false;
+        }
+    }
+
+    private Record(int mapId, K key) {
+        this.mapId = mapId;
+        this.key = key;
+        oldValue = null;
+        committed = true;
+    }
+
+    /**
+     * Get the value of the entry before the change. This must be called while
+     * the transaction that made the change is not closed.
+     *
+     * @param map the changed map, to read the committed value from the entry
+     *            if needed
+     * @return the value before the change, or null if the entry did not exist
+     */
+    VersionedValue<V> getOldValue(MVMap<K, VersionedValue<V>> map) {
+        if (committed) {
+            VersionedValue<V> entry = map.get(key);
+            V value = entry == null ? null : entry.getCommittedValue();
+            return value == null ? null : VersionedValueCommitted.getInstance(value);
+        }
+        return oldValue;
     }
 
     @Override
     public String toString() {
-        return "mapId=" + mapId + ", key=" + key + ", value=" + oldValue;
+        return "mapId=" + mapId + ", key=" + key + ", value=" + (committed ? "<committed>" : oldValue);
     }
 
     /**
@@ -66,8 +104,10 @@ public int getMemory(Record<K,V> record) {
             int result = Constants.MEMORY_OBJECT + 4 + 3 * Constants.MEMORY_POINTER;
             if (record.mapId >= 0) {
                 MVMap<K,VersionedValue<V>> map = transactionStore.getMap(record.mapId);
-                result += map.getKeyType().getMemory(record.key) +
-                        map.getValueType().getMemory(record.oldValue);
+                result += map.getKeyType().getMemory(record.key);
+                if (record.oldValue != null) {
+                    result += map.getValueType().getMemory(record.oldValue);
+                }
             }
             return result;
         }
@@ -84,7 +124,9 @@ public void write(WriteBuffer buff, Record<K,V> record) {
                 MVMap<K, VersionedValue<V>> map = transactionStore.getMap(record.mapId);
                 map.getKeyType().write(buff, record.key);
                 VersionedValue<V> oldValue = record.oldValue;
-                if (oldValue == null) {
+                if (record.committed) {
+                    buff.put((byte) 2);
+                } else if (oldValue == null) {
                     buff.put((byte) 0);
                 } else {
                     buff.put((byte) 1);
@@ -102,11 +144,14 @@ public Record<K,V> read(ByteBuffer buff) {
             }
             MVMap<K, VersionedValue<V>> map = transactionStore.getMap(mapId);
             K key = map.getKeyType().read(buff);
-            VersionedValue<V> oldValue = null;
-            if (buff.get() == 1) {
-                oldValue = map.getValueType().read(buff);
+            switch (buff.get()) {
+            case 1:
+                return new Record<>(mapId, key, map.getValueType().read(buff));
+            case 2:
+                return new Record<>(mapId, key);
+            default:
+                return new Record<>(mapId, key, null);
             }
-            return new Record<>(mapId, key, oldValue);
         }
 
         @SuppressWarnings("unchecked")
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVStoreException;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.store.fs.FileUtils;
+
+/**
+ * An append-only log of the changes of committed transactions. A record is
+ * appended for each commit, and concurrent commits wait for the same write and
+ * sync of the file (group commit). The log is replayed when the transaction
+ * store is opened, and started anew once the changes are stored in the
+ * MVStore.
+ * <p>
+ * Each record consists of the length of the data (int), the CRC-32C checksum
+ * of the data (int), and the data. A record at the end of the file that is
+ * incomplete or has a wrong checksum was not acknowledged, and is ignored.
+ */
+final class RedoLog {
+
+    /**
+     * The file name suffix of the previous log, while its changes are not
+     * stored yet.
+     */
+    private static final String SUFFIX_OLD = ".old";
+
+    private final String fileName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition writeDone = lock.newCondition();
+
+    private FileChannel file;
+
+    /**
+     * The records that are appended, but not written yet.
+     */
+    private WriteBuffer pending = new WriteBuffer();
+
+    private WriteBuffer spare = new WriteBuffer();
+
+    /**
+     * The end of the appended records.
+     */
+    private long appendPos;
+
+    /**
+     * The end of the records that are written and synced.
+     */
+    private long syncPos;
+
+    /**
+     * Whether a thread writes and syncs the pending records.
+     */
+    private boolean writing;
+
+    /**
+     * The exception of a failed write, after which the log can't be used.
+     */
+    private MVStoreException failure;
+
+    /**
+     * Open a new, empty log. Existing logs must be replayed and deleted
+     * before.
+     *
+     * @param fileName the file name
+     */
+    RedoLog(String fileName) {
+        this.fileName = fileName;
+        file = open(fileName);
+    }
+
+    private static FileChannel open(String fileName) {
+        try {
+            return FileUtils.open(fileName, "rw");
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_WRITING_FAILED,
+                    "Could not open redo log {0}", fileName, e);
+        }
+    }
+
+    /**
+     * Read the records of the existing logs, the older one first.
+     *
+     * @param fileName the file name of the log
+     * @param consumer the consumer of the data of the records
+     * @return whether there was a log
+     */
+    static boolean replay(String fileName, Consumer<ByteBuffer> consumer) {
+        boolean found = false;
+        for (String name : new String[] { fileName + SUFFIX_OLD, fileName }) {
+            if (FileUtils.exists(name)) {
+                found = true;
+                ByteBuffer buff;
+                try (FileChannel f = FileUtils.open(name, "r")) {
+                    long size = f.size();
+                    if (size > Integer.MAX_VALUE) {
+                        throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                                "Redo log {0} is too large", name);
+                    }
+                    buff = ByteBuffer.allocate((int) size);
+                    DataUtils.readFully(f, 0, buff);
+                } catch (IOException e) {
+                    throw DataUtils.newMVStoreException(DataUtils.ERROR_READING_FAILED,
+                            "Could not read redo log {0}", name, e);
+                }
+                while (buff.remaining() >= 8) {
+                    int length = buff.getInt();
+                    int checksum = buff.getInt();
+                    if (length < 0 || length > buff.remaining()) {
+                        break;
+                    }
+                    ByteBuffer data = buff.slice().limit(length);
+                    if (getChecksum(data) != checksum) {
+                        break;
+                    }
+                    consumer.accept(data);
+                    buff.position(buff.position() + length);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Delete the existing logs.
+     *
+     * @param fileName the file name of the log
+     */
+    static void delete(String fileName) {
+        FileUtils.delete(fileName + SUFFIX_OLD);
+        FileUtils.delete(fileName);
+    }
+
+    private static int getChecksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Append a record. It is durable only after {@link #sync(long)}.
+     *
+     * @param data the data of the record
+     * @return the end position of the record
+     */
+    long append(ByteBuffer data) {
+        int checksum = getChecksum(data);
+        int length = data.remaining();
+        lock.lock();
+        try {
+            checkFailure();
+            pending.putInt(length).putInt(checksum).put(data);
+            appendPos += 8 + length;
+            return appendPos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the records up to the given position are written and synced.
+     * The pending records of all threads are written together by one of the
+     * waiting threads.
+     *
+     * @param pos the end position of the last record to wait for
+     */
+    void sync(long pos) {
+        lock.lock();
+        try {
+            while (syncPos < pos) {
+                checkFailure();
+                if (writing) {
+                    writeDone.awaitUninterruptibly();
+                    continue;
+                }
+                writing = true;
+                WriteBuffer buff = pending;
+                pending = spare;
+                long writePos = syncPos;
+                long end = appendPos;
+                lock.unlock();
+                MVStoreException ex = null;
+                try {
+                    DataUtils.writeFully(file, writePos, buff.getBuffer().flip());
+                    file.force(false);
+                } catch (IOException e) {
+                    ex = DataUtils.newMVStoreException(DataUtils.ERROR_WRITING_FAILED,
+                            "Could not write redo log {0}", fileName, e);
+                } catch (MVStoreException e) {
+                    ex = e;
+                } finally {
+                    lock.lock();
+                }
+                buff.clear();
+                spare = buff;
+                writing = false;
+                if (ex != null) {
+                    failure = ex;
+                } else {
+                    syncPos = end;
+                }
+                writeDone.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Get the size of the log.
+     *
+     * @return the size in bytes
+     */
+    long size() {
+        return appendPos;
+    }
+
+    /**
+     * Start a new log, if the previous one is deleted. The records of the
+     * current log are synced, and the log is kept until
+     * {@link #deleteOld()}. There must be no concurrent appends.
+     *
+     * @return whether a new log was started
+     */
+    boolean rotate() {
+        String oldName = fileName + SUFFIX_OLD;
+        if (FileUtils.exists(oldName)) {
+            return false;
+        }
+        sync(appendPos);
+        close();
+        FileUtils.move(fileName, oldName);
+        file = open(fileName);
+        appendPos = syncPos = 0;
+        return true;
+    }
+
+    /**
+     * Delete the previous log, after its changes are stored.
+     */
+    void deleteOld() {
+        FileUtils.delete(fileName + SUFFIX_OLD);
+    }
+
+    /**
+     * Close the file.
+     */
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_WRITING_FAILED,
+                    "Could not close redo log {0}", fileName, e);
+        }
+    }
+
+}
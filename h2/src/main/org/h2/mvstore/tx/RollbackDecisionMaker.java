@@ -37,15 +37,15 @@ public MVMap.Decision decide(Record existingValue, Record providedValue) {
             // where some undo log entry was captured on disk but actual map entry was not
             decision = MVMap.Decision.ABORT;
         } else {
-            VersionedValue<Object> valueToRestore = existingValue.oldValue;
-            long operationId;
-            if (valueToRestore == null ||
-                    (operationId = valueToRestore.getOperationId()) == 0 ||
-                    TransactionStore.getTransactionId(operationId) == transactionId
-                            && TransactionStore.getLogId(operationId) < toLogId) {
-                int mapId = existingValue.mapId;
-                MVMap<Object, VersionedValue<Object>> map = store.openMap(mapId);
-                if (map != null && !map.isClosed()) {
+            int mapId = existingValue.mapId;
+            MVMap<Object, VersionedValue<Object>> map = store.openMap(mapId);
+            if (map != null && !map.isClosed()) {
+                VersionedValue<Object> valueToRestore = existingValue.getOldValue(map);
+                long operationId;
+                if (valueToRestore == null ||
+                        (operationId = valueToRestore.getOperationId()) == 0 ||
+                        TransactionStore.getTransactionId(operationId) == transactionId
+                                && TransactionStore.getLogId(operationId) < toLogId) {
                     Object key = existingValue.key;
                     VersionedValue<Object> previousValue = map.operate(key, valueToRestore,
                             MVMap.DecisionMaker.DEFAULT);
@@ -10,7 +10,11 @@
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.h2.engine.IsolationLevel;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
@@ -103,6 +107,13 @@ public final class Transaction {
      */
     final long sequenceNum;
 
+    /**
+     * The number of users of the transaction id: the open transaction, and
+     * the pending commit while its entries are not resolved. The id can be
+     * re-used when there are none.
+     */
+    final AtomicInteger idUsers = new AtomicInteger(1);
+
     /*
      * Transaction state is an atomic composite field:
      * bit  45      : flag whether transaction had rollback(s)
@@ -156,9 +167,36 @@ public final class Transaction {
     private Object blockingKey;
 
     /**
-     * Whether other transaction(s) are waiting for this to close.
+     * The transactions waiting for this one to close or to roll back to a
+     * savepoint. Only the first transaction in the wait queue of each entry is
+     * woken up.
+     */
+    private final ConcurrentLinkedQueue<Transaction> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The thread that waits for the blocking transaction.
+     */
+    private volatile Thread waitingThread;
+
+    /**
+     * The wait queue of the entry this transaction waits for. The transaction
+     * keeps its place in the queue while the operation is retried, until
+     * {@link #endWait()}.
+     */
+    private volatile ConcurrentLinkedQueue<Transaction> waitQueue;
+
+    /**
+     * The key of the wait queue in the transaction store.
      */
-    private volatile boolean notificationRequested;
+    private WaitKey waitKey;
+
+    /**
+     * Whether this transaction waits only for the owner of the entry and not
+     * for the transactions before it in the wait queue. This is the case if
+     * this transaction already holds locks, as others are likely to wait for
+     * them, or if the queue order would make a cycle in the wait-for graph.
+     */
+    private volatile boolean bypassQueue;
 
     /**
      * RootReferences for undo log snapshots
@@ -341,7 +379,7 @@ public void markStatementStart(HashSet<MVMap<Object,VersionedValue<Object>>> map
                 committingTransactions = store.committingTransactions.get();
                 for (MVMap<Object,VersionedValue<Object>> map : maps) {
                     TransactionMap<?,?> txMap = openMapX(map);
-                    txMap.setStatementSnapshot(new Snapshot(map.flushAndGetRoot(), committingTransactions));
+                    txMap.setStatementSnapshot(new Snapshot(map.getSnapshotRoot(), committingTransactions));
                 }
                 if (isReadCommitted()) {
                     undoLogRootReferences = store.collectUndoLogRootReferences();
@@ -451,7 +489,46 @@ public <K, V> TransactionMap<K, V> openMap(String name) {
     public <K, V> TransactionMap<K, V> openMap(String name,
                                                 DataType<K> keyType,
                                                 DataType<V> valueType) {
-        MVMap<K, VersionedValue<V>> map = store.openVersionedMap(name, keyType, valueType);
+        return openMap(name, keyType, valueType, 1);
+    }
+
+    /**
+     * Open the map to store the data. If the map does not exist yet, it is
+     * created with the given number of shards.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param name the name of the map
+     * @param keyType the key data type
+     * @param valueType the value data type
+     * @param shards the number of shards of a new map, 1 for a regular map
+     * @return the transaction map
+     */
+    public <K, V> TransactionMap<K, V> openMap(String name,
+                                                DataType<K> keyType,
+                                                DataType<V> valueType,
+                                                int shards) {
+        return openMap(name, keyType, valueType, new MVMap.Builder<>().shards(shards));
+    }
+
+    /**
+     * Open the map to store the data. If the map does not exist yet, it is
+     * created with the layout (number of shards, LSM tree) of the given
+     * builder.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param name the name of the map
+     * @param keyType the key data type
+     * @param valueType the value data type
+     * @param layout the builder to copy the layout options from
+     * @return the transaction map
+     */
+    public <K, V> TransactionMap<K, V> openMap(String name,
+                                                DataType<K> keyType,
+                                                DataType<V> valueType,
+                                                MVMap.Builder<?, ?> layout) {
+        MVMap<K, VersionedValue<V>> map = store.openVersionedMap(name, keyType, valueType, layout);
         return openMapX(map);
     }
 
@@ -488,7 +565,7 @@ public void prepare() {
      * Commit the transaction. Afterward, this transaction is closed.
      */
     public void commit() {
-        assert store.openTransactions.get().get(transactionId);
+        assert store.getTransaction(transactionId) == this;
         markTransactionEnd();
         Throwable ex = null;
         boolean hasChanges = false;
@@ -531,12 +608,13 @@ public void rollbackToSavepoint(long savepointId) {
         try {
             store.rollbackTo(this, logId, savepointId);
         } finally {
-            notifyAllWaitingTransactions();
             long expectedState = composeState(STATUS_ROLLING_BACK, logId, hasRollback(lastState));
             long newState = composeState(STATUS_OPEN, savepointId, true);
             do {
                 success = statusAndLogId.compareAndSet(expectedState, newState);
             } while (!success && statusAndLogId.get() == expectedState);
+            // the waiting transactions check the new state
+            notifyAllWaitingTransactions();
         }
         // this is moved outside finally block to avert masking original exception, if any
         if (!success) {
@@ -647,10 +725,16 @@ void closeIt() {
         }
     }
 
+    /**
+     * Wake up the transactions that are first in the wait queues of the
+     * entries of this transaction. The other waiting transactions are woken up
+     * one at a time, when the transaction before them in the queue is done.
+     */
     private void notifyAllWaitingTransactions() {
-        if (notificationRequested) {
-            synchronized (this) {
-                notifyAll();
+        for (Transaction waiter; (waiter = waiters.poll()) != null;) {
+            ConcurrentLinkedQueue<Transaction> queue = waiter.waitQueue;
+            if (queue == null || waiter.bypassQueue || queue.peek() == waiter) {
+                LockSupport.unpark(waiter.waitingThread);
             }
         }
     }
@@ -666,17 +750,76 @@ private void notifyAllWaitingTransactions() {
      * @return true if other transaction was closed and this one can proceed, false if timed out
      */
     public boolean waitFor(Transaction toWaitFor, String mapName, Object key, int timeoutMillis) {
-        blockingTransaction = toWaitFor;
+        waitingThread = Thread.currentThread();
+        ConcurrentLinkedQueue<Transaction> queue = waitQueue;
+        if (queue == null) {
+            WaitKey k = new WaitKey(mapName, key);
+            queue = store.addToWaitQueue(k, this);
+            waitKey = k;
+            waitQueue = queue;
+            bypassQueue = hasChanges();
+        }
         blockingMapName = mapName;
         blockingKey = key;
-        if (isDeadlocked(toWaitFor)) {
-            tryThrowDeadLockException(false);
+        try {
+            return waitForEnd(toWaitFor, queue, timeoutMillis == -1 ? this.timeoutMillis : timeoutMillis);
+        } finally {
+            // also for a deadlock victim, whose edge must not be found by
+            // others until it is rolled back
+            blockingMapName = null;
+            blockingKey = null;
+            blockingTransaction = null;
+        }
+    }
+
+    private Transaction getPredecessor(ConcurrentLinkedQueue<Transaction> queue) {
+        Transaction predecessor = null;
+        for (Transaction tx : queue) {
+            if (tx == this) {
+                return predecessor;
+            }
+            predecessor = tx;
+        }
+        return null;
+    }
+
+    private Transaction getSuccessor(ConcurrentLinkedQueue<Transaction> queue) {
+        boolean found = false;
+        for (Transaction tx : queue) {
+            if (found) {
+                return tx;
+            }
+            found = tx == this;
+        }
+        return null;
+    }
+
+    /**
+     * Leave the wait queue of the entry this transaction waited for, if any,
+     * after the operation succeeded or failed. The next transaction in the
+     * queue is woken up, because it may be the first one now, and it waits
+     * for another transaction now.
+     */
+    void endWait() {
+        ConcurrentLinkedQueue<Transaction> queue = waitQueue;
+        if (queue != null) {
+            waitQueue = null;
+            bypassQueue = false;
+            Transaction next = getSuccessor(queue);
+            queue.remove(this);
+            if (next != null) {
+                // the next transaction does not wait for this one any more,
+                // a stale edge would make up a cycle when this transaction
+                // waits for an entry of the next one
+                if (next.blockingTransaction == this) {
+                    next.blockingTransaction = null;
+                }
+                LockSupport.unpark(next.waitingThread);
+            } else {
+                store.removeWaitQueue(waitKey, queue);
+            }
+            waitKey = null;
         }
-        boolean result = toWaitFor.waitForThisToEnd(timeoutMillis == -1 ? this.timeoutMillis : timeoutMillis, this);
-        blockingMapName = null;
-        blockingKey = null;
-        blockingTransaction = null;
-        return result;
     }
 
     private boolean isDeadlocked(Transaction toWaitFor) {
@@ -699,7 +842,7 @@ private boolean isDeadlocked(Transaction toWaitFor) {
                 Transaction btx = youngest.blockingTransaction;
                 if (btx != null) {
                     youngest.setStatus(STATUS_ROLLING_BACK);
-                    btx.notifyAllWaitingTransactions();
+                    LockSupport.unpark(youngest.waitingThread);
                     return false;
                 }
             }
@@ -726,27 +869,71 @@ private void tryThrowDeadLockException(boolean throwIt) {
         }
     }
 
-    private synchronized boolean waitForThisToEnd(int millis, Transaction waiter) {
-        long time = System.nanoTime();
-        notificationRequested = true;
-        long state;
-        int status;
-        while ((status = getStatus(state = statusAndLogId.get())) != STATUS_CLOSED
-                && status != STATUS_ROLLED_BACK && !hasRollback(state)) {
-            if (waiter.getStatus() != STATUS_OPEN) {
-                waiter.tryThrowDeadLockException(true);
+    /**
+     * Wait until the given transaction is closed or rolled back, and this
+     * transaction is the first one in the wait queue of the entry.
+     *
+     * @param toWaitFor the transaction to wait for
+     * @param queue the wait queue
+     * @param millis the timeout in milliseconds
+     * @return true if this transaction can retry the operation, false if
+     *         timed out or interrupted
+     */
+    private boolean waitForEnd(Transaction toWaitFor, ConcurrentLinkedQueue<Transaction> queue, int millis) {
+        // only this thread adds this transaction, the transaction to wait
+        // for removes it when it notifies the waiters
+        if (!toWaitFor.waiters.contains(this)) {
+            toWaitFor.waiters.add(this);
+        }
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        while (true) {
+            // a transaction behind others in the queue effectively waits for
+            // the one before it, which is the edge in the wait-for graph
+            Transaction predecessor = bypassQueue ? null : getPredecessor(queue);
+            if (predecessor != null && predecessor.isWaitingFor(this)) {
+                // the queue order alone would make a cycle, so this
+                // transaction only waits for the owner of the entry
+                bypassQueue = true;
+                predecessor = null;
+            }
+            if (predecessor == null && toWaitFor.isEndedOrRolledBack()) {
+                return true;
+            }
+            Transaction blocker = predecessor != null ? predecessor : toWaitFor;
+            if (blocker != blockingTransaction) {
+                blockingTransaction = blocker;
+                if (isDeadlocked(blocker)) {
+                    tryThrowDeadLockException(false);
+                }
+            }
+            if (getStatus() != STATUS_OPEN) {
+                tryThrowDeadLockException(true);
             }
-            int remaining = millis - (int) ((System.nanoTime() - time) / 1_000_000L);
+            long remaining = deadline - System.nanoTime();
             if (remaining <= 0) {
                 return false;
             }
-            try {
-                wait(remaining);
-            } catch (InterruptedException ex) {
+            LockSupport.parkNanos(toWaitFor, remaining);
+            if (Thread.interrupted()) {
                 return false;
             }
         }
-        return true;
+    }
+
+    private boolean isWaitingFor(Transaction tx) {
+        int backstop = store.getMaxTransactionId();
+        for (Transaction t = blockingTransaction; t != null && backstop > 0; t = t.blockingTransaction, --backstop) {
+            if (t == tx) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isEndedOrRolledBack() {
+        long state = statusAndLogId.get();
+        int status = getStatus(state);
+        return status == STATUS_CLOSED || status == STATUS_ROLLED_BACK || hasRollback(state);
     }
 
     /**
@@ -803,4 +990,36 @@ private static long composeState(int status, long logId, boolean hasRollback) {
     private static String getStatusName(int status) {
         return status >= 0 && status < STATUS_NAMES.length ? STATUS_NAMES[status] : "UNKNOWN_STATUS_" + status;
     }
+
+    /**
+     * The key of the wait queue of a map entry.
+     */
+    static final class WaitKey {
+
+        private final String mapName;
+
+        private final Object key;
+
+        WaitKey(String mapName, Object key) {
+            this.mapName = mapName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof WaitKey)) {
+                return false;
+            }
+            WaitKey other = (WaitKey) obj;
+            return mapName.equals(other.mapName) && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return mapName.hashCode() * 31 + Objects.hashCode(key);
+        }
+    }
 }
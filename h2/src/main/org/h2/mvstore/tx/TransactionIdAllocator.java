@@ -0,0 +1,230 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Allocates transaction ids. Released ids are kept in a number of free lists,
+ * one per group of threads, so that concurrently beginning and ending
+ * transactions rarely use the same list. The lowest free id of the list of
+ * the current thread is used first, then the lowest free id of another list,
+ * and only then a new id.
+ * <p>
+ * The ids in use are also kept in a bit set, so that they can be iterated
+ * without visiting all ids up to the highest one ever allocated.
+ * </p>
+ */
+final class TransactionIdAllocator {
+
+    private static final int WORDS_SHIFT = 10;
+
+    private static final int WORDS_PER_CHUNK = 1 << WORDS_SHIFT;
+
+    /**
+     * The free ids, per group of threads.
+     */
+    private final FreeList[] freeLists;
+
+    private final int mask;
+
+    /**
+     * The highest id allocated so far.
+     */
+    private final AtomicInteger highestId = new AtomicInteger();
+
+    /**
+     * The bits of the ids in use, in chunks allocated on first use.
+     */
+    private final AtomicReferenceArray<AtomicLongArray> used;
+
+    /**
+     * Create a new allocator.
+     *
+     * @param capacity the highest id that may be allocated
+     */
+    TransactionIdAllocator(int capacity) {
+        used = new AtomicReferenceArray<>((capacity >>> 6 >>> WORDS_SHIFT) + 1);
+        int count = Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        freeLists = new FreeList[count];
+        for (int i = 0; i < count; i++) {
+            freeLists[i] = new FreeList();
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * Allocate a transaction id.
+     *
+     * @param maxId the highest id that may be allocated
+     * @return the id, or 0 if all ids up to the given one are in use
+     */
+    int allocate(int maxId) {
+        int home = getHome();
+        for (int i = 0; i <= mask; i++) {
+            int id = freeLists[(home + i) & mask].poll(maxId);
+            if (id > 0) {
+                setUsed(id, true);
+                return id;
+            }
+        }
+        for (int id; (id = highestId.get()) < maxId;) {
+            if (highestId.compareAndSet(id, id + 1)) {
+                setUsed(id + 1, true);
+                return id + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Release a transaction id, so that it can be re-used.
+     *
+     * @param id the id
+     */
+    void release(int id) {
+        setUsed(id, false);
+        freeLists[getHome()].add(id);
+    }
+
+    /**
+     * Allocate the given id, for a transaction that was open when the store
+     * was closed.
+     *
+     * @param id the id, which is not in use
+     */
+    void reserve(int id) {
+        setUsed(id, true);
+        for (FreeList free : freeLists) {
+            if (free.remove(id)) {
+                return;
+            }
+        }
+        for (int highest; (highest = highestId.get()) < id;) {
+            if (highestId.compareAndSet(highest, id)) {
+                for (int i = highest + 1; i < id; i++) {
+                    freeLists[getHome()].add(i);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the lowest id in use that is not smaller than the given one.
+     *
+     * @param fromId the id to start with
+     * @return the id, or -1 if there is none
+     */
+    int nextUsedId(int fromId) {
+        int max = highestId.get();
+        for (int wordIndex = fromId >>> 6, maxWord = max >>> 6; wordIndex <= maxWord;) {
+            AtomicLongArray chunk = used.get(wordIndex >>> WORDS_SHIFT);
+            if (chunk == null) {
+                wordIndex = (wordIndex >>> WORDS_SHIFT) + 1 << WORDS_SHIFT;
+                continue;
+            }
+            long word = chunk.get(wordIndex & (WORDS_PER_CHUNK - 1));
+            if (wordIndex == fromId >>> 6) {
+                word &= -1L << fromId;
+            }
+            if (word != 0) {
+                int id = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                return id <= max ? id : -1;
+            }
+            wordIndex++;
+        }
+        return -1;
+    }
+
+    private void setUsed(int id, boolean value) {
+        int chunkIndex = (id >>> 6) >>> WORDS_SHIFT;
+        AtomicLongArray chunk = used.get(chunkIndex);
+        if (chunk == null) {
+            chunk = new AtomicLongArray(WORDS_PER_CHUNK);
+            if (!used.compareAndSet(chunkIndex, null, chunk)) {
+                chunk = used.get(chunkIndex);
+            }
+        }
+        int wordIndex = (id >>> 6) & (WORDS_PER_CHUNK - 1);
+        long bit = 1L << id;
+        if (value) {
+            chunk.getAndAccumulate(wordIndex, bit, (w, b) -> w | b);
+        } else {
+            chunk.getAndAccumulate(wordIndex, bit, (w, b) -> w & ~b);
+        }
+    }
+
+    private int getHome() {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+    /**
+     * A list of free ids.
+     */
+    private static final class FreeList {
+
+        private final BitSet ids = new BitSet();
+
+        /**
+         * All free ids are at least this one.
+         */
+        private int lowest = Integer.MAX_VALUE;
+
+        /**
+         * Remove the lowest free id, if it is at most the given one.
+         *
+         * @param maxId the highest id that may be returned
+         * @return the id, or 0 if there is none
+         */
+        synchronized int poll(int maxId) {
+            if (lowest > maxId) {
+                return 0;
+            }
+            int id = ids.nextSetBit(lowest);
+            if (id < 0) {
+                lowest = Integer.MAX_VALUE;
+                return 0;
+            }
+            lowest = id;
+            if (id > maxId) {
+                return 0;
+            }
+            ids.clear(id);
+            lowest = id + 1;
+            return id;
+        }
+
+        /**
+         * Add a free id.
+         *
+         * @param id the id
+         */
+        synchronized void add(int id) {
+            ids.set(id);
+            if (id < lowest) {
+                lowest = id;
+            }
+        }
+
+        /**
+         * Remove the given id, if it is free.
+         *
+         * @param id the id
+         * @return whether the id was free
+         */
+        synchronized boolean remove(int id) {
+            if (!ids.get(id)) {
+                return false;
+            }
+            ids.clear(id);
+            return true;
+        }
+    }
+}
@@ -20,6 +20,7 @@
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStoreException;
+import org.h2.mvstore.Page;
 import org.h2.mvstore.RootReference;
 import org.h2.mvstore.type.DataType;
 import org.h2.value.VersionedValue;
@@ -163,8 +164,7 @@ private long adjustSize(RootReference<Long, Record<?, ?>>[] undoLogRootReference
         if (2 * undoLogsTotalSize > size) {
             // the undo log is larger than half of the map - scan the entries of the map directly
             Cursor<K, VersionedValue<V>> cursor = map.cursor(mapRootReference, null, null, false);
-            while (cursor.hasNext()) {
-                cursor.next();
+            while (cursor.advance()) {
                 VersionedValue<?> currentValue = cursor.getValue();
                 assert currentValue != null;
                 long operationId = currentValue.getOperationId();
@@ -182,7 +182,7 @@ private long adjustSize(RootReference<Long, Record<?, ?>>[] undoLogRootReference
                     Cursor<Long, Record<?, ?>> cursor = undoLogRootReference.root.map.cursor(undoLogRootReference,
                             null, null, false);
                     while (cursor.hasNext()) {
-                        cursor.next();
+                        cursor.nextLong();
                         Record<?,?> op = cursor.getValue();
                         if (op.mapId == map.getId()) {
                             @SuppressWarnings("unchecked")
@@ -196,7 +196,7 @@ private long adjustSize(RootReference<Long, Record<?, ?>>[] undoLogRootReference
                             if (currentValue != null) {
                                 // only the last undo entry for any given map
                                 // key should be considered
-                                long operationId = cursor.getKey();
+                                long operationId = cursor.getLongKey();
                                 assert operationId != 0;
                                 if (currentValue.getOperationId() == operationId &&
                                         isIrrelevant(operationId, currentValue, committingTransactions)) {
@@ -354,37 +354,42 @@ private V set(Object key, TxDecisionMaker<K,V> decisionMaker, int timeoutMillis)
         Transaction blockingTransaction;
         VersionedValue<V> result;
         String mapName = null;
-        do {
-            assert transaction.getBlockerId() == 0;
-            @SuppressWarnings("unchecked")
-            K k = (K) key;
-            // second parameter (value) is not really used,
-            // since TxDecisionMaker has it embedded
-            result = map.operate(k, null, decisionMaker);
-
-            MVMap.Decision decision = decisionMaker.getDecision();
-            assert decision != null;
-            assert decision != MVMap.Decision.REPEAT;
-            blockingTransaction = decisionMaker.getBlockingTransaction();
-            if (decision != MVMap.Decision.ABORT || blockingTransaction == null) {
-                hasChanges |= decision != MVMap.Decision.ABORT;
-                V res = result == null ? null : result.getCurrentValue();
-                return res;
-            }
-            decisionMaker.reset();
-            if (timeoutMillis == -2) {
-                return null;
-            }
-            if (mapName == null) {
-                mapName = map.getName();
-            }
-        } while (timeoutMillis != 0 && transaction.waitFor(blockingTransaction, mapName, key, timeoutMillis));
-
-        throw DataUtils.newMVStoreException(DataUtils.ERROR_TRANSACTION_LOCKED,
-                "Map entry <{0}> with key <{1}> and value {2} is locked by tx {3} and can not be updated by tx {4}"
-                        + " within allocated time interval {5} ms.",
-                mapName, key, result, blockingTransaction.transactionId, transaction.transactionId,
-                timeoutMillis == -1 ? transaction.timeoutMillis : timeoutMillis);
+        try {
+            do {
+                assert transaction.getBlockerId() == 0;
+                @SuppressWarnings("unchecked")
+                K k = (K) key;
+                // second parameter (value) is not really used,
+                // since TxDecisionMaker has it embedded
+                result = map.operate(k, null, decisionMaker);
+
+                MVMap.Decision decision = decisionMaker.getDecision();
+                assert decision != null;
+                assert decision != MVMap.Decision.REPEAT;
+                blockingTransaction = decisionMaker.getBlockingTransaction();
+                if (decision != MVMap.Decision.ABORT || blockingTransaction == null) {
+                    hasChanges |= decision != MVMap.Decision.ABORT;
+                    V res = result == null ? null : result.getCurrentValue();
+                    return res;
+                }
+                decisionMaker.reset();
+                if (timeoutMillis == -2) {
+                    return null;
+                }
+                if (mapName == null) {
+                    mapName = map.getName();
+                }
+            } while (timeoutMillis != 0 && transaction.waitFor(blockingTransaction, mapName, key, timeoutMillis));
+
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_TRANSACTION_LOCKED,
+                    "Map entry <{0}> with key <{1}> and value {2} is locked by tx {3} and can not be updated by tx {4}"
+                            + " within allocated time interval {5} ms.",
+                    mapName, key, result, blockingTransaction.transactionId, transaction.transactionId,
+                    timeoutMillis == -1 ? transaction.timeoutMillis : timeoutMillis);
+        } finally {
+            // the next transaction waiting for this entry may proceed
+            transaction.endWait();
+        }
     }
 
     /**
@@ -458,10 +463,33 @@ public V get(Object key) {
      * @return the value, or null if not found
      */
     public V getFromSnapshot(K key) {
+        return getFromSnapshot(key, 0L);
+    }
+
+    /**
+     * Get the value for the given key of a map with Long keys, see
+     * {@link #getFromSnapshot(Object)}. For maps with
+     * {@link org.h2.mvstore.type.LongDataType} keys the key is not boxed.
+     *
+     * @param key the key
+     * @return the value, or null if not found
+     */
+    public V getFromSnapshotForLongKey(long key) {
+        return getFromSnapshot(null, key);
+    }
+
+    /**
+     * Get the value for the given key from a snapshot.
+     *
+     * @param key the key, or null to use longKey
+     * @param longKey the key of a map with Long keys, used if key is null
+     * @return the value, or null if not found
+     */
+    private V getFromSnapshot(K key, long longKey) {
         switch (transaction.isolationLevel) {
         case READ_UNCOMMITTED: {
             Snapshot<K,VersionedValue<V>> snapshot = getStatementSnapshot();
-            VersionedValue<V> data = map.get(snapshot.root.root, key);
+            VersionedValue<V> data = get(snapshot.root.root, key, longKey);
             if (data != null) {
                 return data.getCurrentValue();
             }
@@ -472,7 +500,7 @@ public V getFromSnapshot(K key) {
         case SERIALIZABLE:
             if (transaction.hasChanges()) {
                 Snapshot<K,VersionedValue<V>> snapshot = getStatementSnapshot();
-                VersionedValue<V> data = map.get(snapshot.root.root, key);
+                VersionedValue<V> data = get(snapshot.root.root, key, longKey);
                 if (data != null) {
                     long id = data.getOperationId();
                     if (id != 0L && transaction.transactionId == TransactionStore.getTransactionId(id)) {
@@ -484,12 +512,19 @@ public V getFromSnapshot(K key) {
         case READ_COMMITTED:
         default:
             Snapshot<K,VersionedValue<V>> snapshot = getSnapshot();
-            return getFromSnapshot(snapshot.root, snapshot.committingTransactions, key);
+            return getFromSnapshot(snapshot.committingTransactions, get(snapshot.root.root, key, longKey));
         }
     }
 
+    private VersionedValue<V> get(Page<K, VersionedValue<V>> root, K key, long longKey) {
+        return key != null ? map.get(root, key) : map.getForLongKey(root, longKey);
+    }
+
     private V getFromSnapshot(RootReference<K, VersionedValue<V>> rootRef, BitSet committingTransactions, K key) {
-        VersionedValue<V> data = map.get(rootRef.root, key);
+        return getFromSnapshot(committingTransactions, map.get(rootRef.root, key));
+    }
+
+    private V getFromSnapshot(BitSet committingTransactions, VersionedValue<V> data) {
         if (data == null) {
             // doesn't exist
             return null;
@@ -565,7 +600,7 @@ <R> R useSnapshot(BiFunction<RootReference<K,VersionedValue<V>>, BitSet, R> snap
         BitSet committingTransactions = holder.get();
         while (true) {
             BitSet prevCommittingTransactions = committingTransactions;
-            RootReference<K,VersionedValue<V>> root = map.getRoot();
+            RootReference<K,VersionedValue<V>> root = map.getSnapshotRoot();
             committingTransactions = holder.get();
             if (committingTransactions == prevCommittingTransactions) {
                 return snapshotConsumer.apply(root, committingTransactions);
@@ -926,13 +961,12 @@ public DataType<K> getKeyType() {
 
         @Override
         public final X fetchNext() {
-            while (cursor.hasNext()) {
-                K key = cursor.next();
+            while (cursor.advance()) {
                 VersionedValue<?> data = cursor.getValue();
                 if (data != null) {
                     Object currentValue = data.getCurrentValue();
                     if (currentValue != null || shouldIgnoreRemoval(data)) {
-                        return toElement(key, currentValue);
+                        return toElement(cursor.getKey(), currentValue);
                     }
                 }
             }
@@ -981,14 +1015,13 @@ boolean shouldIgnoreRemoval(VersionedValue<?> data) {
 
         @Override
         public X fetchNext() {
-            while (cursor.hasNext()) {
-                K key = cursor.next();
+            while (cursor.advance()) {
                 VersionedValue<?> data = cursor.getValue();
                 // If value doesn't exist, or it was deleted by a committed transaction,
                 // or if value is a committed one, just return it.
                 if (data != null) {
-                    long id = data.getOperationId();
-                    if (id != 0) {
+                    long id;
+                    if (!isCommittedPage(cursor) && (id = data.getOperationId()) != 0) {
                         int tx = TransactionStore.getTransactionId(id);
                         if (tx != transactionId && !committingTransactions.get(tx)) {
                             // current value comes from another uncommitted transaction
@@ -997,12 +1030,12 @@ public X fetchNext() {
                             if (committedValue == null) {
                                 continue;
                             }
-                            return toElement(key, committedValue);
+                            return toElement(cursor.getKey(), committedValue);
                         }
                     }
                     Object currentValue = data.getCurrentValue();
                     if (currentValue != null) {
-                        return toElement(key, currentValue);
+                        return toElement(cursor.getKey(), currentValue);
                     }
                 }
             }
@@ -1031,6 +1064,8 @@ public X fetchNext() {
 
         private V uncommittedValue;
 
+        private Page<K, VersionedValue<V>> checkedUncommittedPage;
+
         RepeatableIterator(TransactionMap<K, V> transactionMap, K from, K to, boolean reverse, boolean forEntries) {
             super(transactionMap, from, to, transactionMap.getSnapshot(), reverse, forEntries);
             keyType = transactionMap.map.getKeyType();
@@ -1072,15 +1107,14 @@ public X fetchNext() {
         }
 
         private void fetchSnapshot() {
-            while (cursor.hasNext()) {
-                K key = cursor.next();
+            while (cursor.advance()) {
                 VersionedValue<?> data = cursor.getValue();
                 // If value doesn't exist, or it was deleted by a committed transaction,
                 // or if value is a committed one, just return it.
                 if (data != null) {
                     Object value = data.getCommittedValue();
-                    long id = data.getOperationId();
-                    if (id != 0) {
+                    long id;
+                    if (!isCommittedPage(cursor) && (id = data.getOperationId()) != 0) {
                         int tx = TransactionStore.getTransactionId(id);
                         if (tx == transactionId || committingTransactions.get(tx)) {
                             // value comes from this transaction or another committed transaction
@@ -1089,7 +1123,7 @@ private void fetchSnapshot() {
                         }
                     }
                     if (value != null) {
-                        snapshotKey = key;
+                        snapshotKey = cursor.getKey();
                         snapshotValue = value;
                         return;
                     }
@@ -1098,13 +1132,22 @@ private void fetchSnapshot() {
         }
 
         private void fetchUncommitted() {
-            while (uncommittedCursor.hasNext()) {
-                K key = uncommittedCursor.next();
+            while (uncommittedCursor.advance()) {
+                if (uncommittedCursor.getPage() != checkedUncommittedPage) {
+                    Page<K, VersionedValue<V>> page = uncommittedCursor.getPage();
+                    checkedUncommittedPage = page;
+                    if (page.hasOnlyCommittedValues()) {
+                        // none of the entries of this page is changed by
+                        // this transaction
+                        uncommittedCursor.skipPage();
+                        continue;
+                    }
+                }
                 VersionedValue<V> data = uncommittedCursor.getValue();
                 if (data != null) {
                     long id = data.getOperationId();
                     if (id != 0L && transactionId == TransactionStore.getTransactionId(id)) {
-                        uncommittedKey = key;
+                        uncommittedKey = uncommittedCursor.getKey();
                         uncommittedValue = data.getCurrentValue();
                         return;
                     }
@@ -1122,6 +1165,10 @@ private void fetchUncommitted() {
 
         private final boolean forEntries;
 
+        private Page<?,?> checkedPage;
+
+        private boolean committedPage;
+
         X current;
 
         TMIterator(TransactionMap<K, V> transactionMap, K from, K to, Snapshot<K, VersionedValue<V>> snapshot,
@@ -1133,6 +1180,24 @@ private void fetchUncommitted() {
             this.committingTransactions = snapshot.committingTransactions;
         }
 
+        /**
+         * Check whether all values of the page of the last entry of the given
+         * cursor are committed, so that they are visible without checking
+         * the state of transactions. The result is kept until the cursor
+         * moves to another page.
+         *
+         * @param cursor the cursor
+         * @return whether the values of the page are committed
+         */
+        final boolean isCommittedPage(Cursor<K, VersionedValue<V>> cursor) {
+            Page<K, VersionedValue<V>> page = cursor.getPage();
+            if (page != checkedPage) {
+                checkedPage = page;
+                committedPage = page.hasOnlyCommittedValues();
+            }
+            return committedPage;
+        }
+
         @SuppressWarnings("unchecked")
         final X toElement(K key, Object value) {
             return (X) (forEntries ? new AbstractMap.SimpleImmutableEntry<>(key, value) : key);
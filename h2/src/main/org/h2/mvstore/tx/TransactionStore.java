@@ -5,20 +5,29 @@
  */
 package org.h2.mvstore.tx;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.h2.engine.IsolationLevel;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.RootReference;
+import org.h2.mvstore.LSMTreeMap;
+import org.h2.mvstore.ShardedMVMap;
+import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.rtree.MVRTreeMap;
 import org.h2.mvstore.rtree.SpatialDataType;
 import org.h2.mvstore.type.DataType;
@@ -62,18 +71,21 @@ public class TransactionStore {
      * <p>
      * Key: opId, value: [ mapId, key, oldValue ].
      */
-    @SuppressWarnings("unchecked")
-    final MVMap<Long,Record<?,?>>[] undoLogs = new MVMap[MAX_OPEN_TRANSACTIONS];
+    final ChunkedArray<MVMap<Long,Record<?,?>>> undoLogs = new ChunkedArray<>(MAX_OPEN_TRANSACTIONS + 1);
     private final MVMap.Builder<Long, Record<?,?>> undoLogBuilder;
 
     private final DataType<?> dataType;
 
     /**
-     * This BitSet is used as vacancy indicator for transaction slots in transactions[].
-     * It provides easy way to find first unoccupied slot, and also allows for copy-on-write
-     * non-blocking updates.
+     * The allocator of the ids, that is the slots in transactions. An id is
+     * released when the transaction is closed and its entries are resolved.
      */
-    final AtomicReference<VersionedBitSet> openTransactions = new AtomicReference<>(new VersionedBitSet());
+    private final TransactionIdAllocator transactionIds = new TransactionIdAllocator(MAX_OPEN_TRANSACTIONS);
+
+    /**
+     * The sequence number of the last transaction that was begun.
+     */
+    private final AtomicLong lastSequenceNum = new AtomicLong();
 
     /**
      * This is intended to be the source of ultimate truth about transaction being committed.
@@ -86,6 +98,70 @@ public class TransactionStore {
 
     private boolean init;
 
+    /**
+     * The queues of the transactions waiting for a map entry that is locked
+     * by another transaction.
+     */
+    private final ConcurrentHashMap<Transaction.WaitKey, ConcurrentLinkedQueue<Transaction>> waitQueues =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The committed transactions whose map entries are not resolved yet. Their
+     * bits in committingTransactions stay set, and their transaction ids are
+     * not re-used, until all entries are resolved.
+     */
+    private final ConcurrentLinkedDeque<PendingCommit> pendingCommits = new ConcurrentLinkedDeque<>();
+
+    /**
+     * The number of changes of a transaction, above which its entries are
+     * resolved after the commit, by the background thread or by later
+     * transactions.
+     */
+    private long lazyCommitThreshold = 1_000;
+
+    /**
+     * The maximum number of changes resolved by the background thread at a
+     * time.
+     */
+    private static final int RESOLVE_BATCH_SIZE = 100_000;
+
+    /**
+     * The number of pending commits, after which a committing transaction
+     * first resolves the oldest pending commit.
+     */
+    private static final int MAX_PENDING_COMMITS = 64;
+
+    /**
+     * The file name of the redo log, or null if commits are not logged.
+     */
+    private String redoLogFileName;
+
+    /**
+     * The redo log, or null.
+     */
+    private RedoLog redoLog;
+
+    /**
+     * Committers hold the read lock from appending to the redo log until the
+     * commit is applied to the maps, so that all logged commits are applied
+     * when the write lock is held.
+     */
+    private final ReentrantReadWriteLock redoLogLock = new ReentrantReadWriteLock();
+
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    /**
+     * The maps with an id up to this one are known to be stored, so that
+     * their changes can be replayed.
+     */
+    private volatile int storedMapId;
+
+    /**
+     * The size of the redo log, after which the changes are stored and a new
+     * log is started.
+     */
+    private static final long REDO_LOG_CHECKPOINT_SIZE = 16L << 20;
+
     /**
      * Soft limit on the number of concurrently opened transactions.
      * Not really needed but used by some test.
@@ -95,10 +171,8 @@ public class TransactionStore {
     /**
      * Array holding all open transaction objects.
      * Position in array is "transaction id".
-     * VolatileReferenceArray would do the job here, but there is no such thing in Java yet
      */
-    private final AtomicReferenceArray<Transaction> transactions =
-                                                        new AtomicReferenceArray<>(MAX_OPEN_TRANSACTIONS + 1);
+    private final ChunkedArray<Transaction> transactions = new ChunkedArray<>(MAX_OPEN_TRANSACTIONS + 1);
 
     private static final String TYPE_REGISTRY_NAME = "_";
 
@@ -113,10 +187,10 @@ public class TransactionStore {
     private static final char UNDO_LOG_OPEN = '.';
 
     /**
-     * Hard limit on the number of concurrently opened transactions
+     * Hard limit on the number of concurrently opened transactions, given by
+     * the bits of the transaction id in an operation id.
      */
-    // TODO: introduce constructor parameter instead of a static field, driven by URL parameter
-    private static final int MAX_OPEN_TRANSACTIONS = 65535;
+    private static final int MAX_OPEN_TRANSACTIONS = (1 << (64 - Transaction.LOG_ID_BITS)) - 1;
 
     /**
      * Generate a string used to name undo log map for a specific transaction.
@@ -175,6 +249,20 @@ private static MVMap<String, DataType<?>> openTypeRegistry(MVStore store, MetaTy
         return store.openMap(TYPE_REGISTRY_NAME, typeRegistryBuilder);
     }
 
+    /**
+     * Log the changes of committed transactions to the given file, so that a
+     * commit is durable as soon as it returns, without storing the maps. The
+     * commits of concurrent transactions are synced together. The log is
+     * replayed by {@link #init(RollbackListener)}, which must be called after
+     * this method. Not supported for in-memory and read-only stores.
+     *
+     * @param fileName the file name of the redo log, or null to disable
+     */
+    public void setRedoLog(String fileName) {
+        DataUtils.checkArgument(!init, "The transaction store is already initialized");
+        redoLogFileName = fileName;
+    }
+
     /**
      * Initialize the store without any RollbackListener.
      * @see #init(RollbackListener)
@@ -203,8 +291,7 @@ public void init(RollbackListener listener) {
                         if (store.hasData(mapName)) {
                             int transactionId = StringUtils.parseUInt31(mapName, UNDO_LOG_NAME_PREFIX.length() + 1,
                                     mapName.length());
-                            VersionedBitSet openTxBitSet = openTransactions.get();
-                            if (!openTxBitSet.get(transactionId)) {
+                            if (transactions.get(transactionId) == null) {
                                 Object[] data = preparedTransactions.get(transactionId);
                                 int status;
                                 String name;
@@ -216,7 +303,8 @@ public void init(RollbackListener listener) {
                                     name = (String) data[1];
                                 }
                                 MVMap<Long, Record<?,?>> undoLog = store.openMap(mapName, undoLogBuilder);
-                                undoLogs[transactionId] = undoLog;
+                                undoLog.setCached(false);
+                                undoLogs.set(transactionId, undoLog);
                                 Long lastUndoKey = undoLog.lastKey();
                                 assert lastUndoKey != null;
                                 assert getTransactionId(lastUndoKey) == transactionId;
@@ -246,10 +334,146 @@ public void init(RollbackListener listener) {
                     }
                 }
             }
+            if (redoLogFileName != null && !store.isReadOnly()) {
+                openRedoLog();
+            }
+            store.setBackgroundTask(this::resolvePendingCommits);
             init = true;
         }
     }
 
+    private void openRedoLog() {
+        if (RedoLog.replay(redoLogFileName, this::replayRedoRecord)) {
+            // make the replayed changes durable before the logs are deleted
+            store.commit();
+            store.sync();
+            RedoLog.delete(redoLogFileName);
+        }
+        storedMapId = store.getLastMapId();
+        store.setChangeTracking(TransactionStore::isUnloggedMap);
+        redoLog = new RedoLog(redoLogFileName);
+    }
+
+    private void replayRedoRecord(ByteBuffer buff) {
+        while (buff.hasRemaining()) {
+            int mapId = DataUtils.readVarInt(buff);
+            int length = DataUtils.readVarInt(buff);
+            int end = buff.position() + length;
+            MVMap<Object, VersionedValue<Object>> map = openMap(mapId);
+            // the map is null if it was removed later on
+            if (map != null) {
+                ByteBuffer entry = buff.slice().limit(length);
+                Object key = map.getKeyType().read(entry);
+                // if the entry was changed by a transaction that is not
+                // committed in the store, that change must not be rolled back
+                VersionedValue<?> v = map.get(key);
+                long operationId;
+                while (v != null && (operationId = v.getOperationId()) != 0) {
+                    MVMap<Long,Record<?,?>> undoLog = undoLogs.get(getTransactionId(operationId));
+                    @SuppressWarnings("unchecked")
+                    Record<Object,Object> op = undoLog == null ? null
+                            : (Record<Object,Object>) undoLog.remove(operationId);
+                    v = op == null ? null : op.getOldValue(map);
+                }
+                if (entry.get() == 0) {
+                    map.remove(key);
+                } else {
+                    map.put(key, map.getValueType().read(entry));
+                }
+            }
+            buff.position(end);
+        }
+    }
+
+    /**
+     * Create the redo log record of a transaction, with the current values of
+     * all keys that were changed by the transaction.
+     *
+     * @param undoLog the undo log of the transaction
+     * @return the data of the record
+     */
+    private ByteBuffer createRedoRecord(MVMap<Long,Record<?,?>> undoLog) {
+        WriteBuffer buff = new WriteBuffer();
+        WriteBuffer entry = new WriteBuffer();
+        for (Cursor<Long,Record<?,?>> cursor = undoLog.cursor(null); cursor.hasNext();) {
+            cursor.nextLong();
+            Record<?,?> op = cursor.getValue();
+            int mapId = op.mapId;
+            MVMap<Object, VersionedValue<Object>> map = mapId < 0 ? null : openMap(mapId);
+            if (map != null && !map.isClosed()) {
+                if (mapId > storedMapId) {
+                    // a new map, the changes could not be replayed if the map
+                    // itself is not stored
+                    storeChanges();
+                }
+                VersionedValue<Object> v = map.get(op.key);
+                Object value = v == null ? null : v.getCurrentValue();
+                map.getKeyType().write(entry.clear(), op.key);
+                if (value == null) {
+                    entry.put((byte) 0);
+                } else {
+                    entry.put((byte) 1);
+                    map.getValueType().write(entry, VersionedValueCommitted.getInstance(value));
+                }
+                ByteBuffer data = entry.getBuffer().flip();
+                buff.putVarInt(mapId).putVarInt(data.remaining()).put(data);
+            }
+        }
+        return buff.getBuffer().flip();
+    }
+
+    /**
+     * Store and sync all changes, including the creation of new maps.
+     */
+    private void storeChanges() {
+        int lastMapId = store.getLastMapId();
+        store.commit();
+        store.sync();
+        storedMapId = Math.max(storedMapId, lastMapId);
+    }
+
+    /**
+     * Check whether the specified map is not a transactional map or an undo
+     * log. Changes of such maps, for example, of LOB data, are not written to
+     * the redo log.
+     *
+     * @param map the map
+     * @return whether changes of the map are not logged
+     */
+    private static boolean isUnloggedMap(MVMap<?,?> map) {
+        DataType<?> valueType = map.getValueType();
+        return !(valueType instanceof VersionedValueType) && !(valueType instanceof Record.Type);
+    }
+
+    /**
+     * Store the changes, and start a new redo log, if the current log is
+     * large. Only one thread does this at a time.
+     */
+    private void checkpointRedoLog() {
+        if (redoLog.size() > REDO_LOG_CHECKPOINT_SIZE && checkpointLock.tryLock()) {
+            try {
+                int lastMapId;
+                boolean rotated;
+                redoLogLock.writeLock().lock();
+                try {
+                    lastMapId = store.getLastMapId();
+                    rotated = redoLog.rotate();
+                } finally {
+                    redoLogLock.writeLock().unlock();
+                }
+                // all changes of the previous log are applied to the maps
+                store.commit();
+                store.sync();
+                storedMapId = Math.max(storedMapId, lastMapId);
+                if (rotated) {
+                    redoLog.deleteOld();
+                }
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+    }
+
     private void markUndoLogAsCommitted(int transactionId) {
         addUndoLogRecord(transactionId, LOG_ID_MASK, Record.COMMIT_MARKER);
     }
@@ -274,6 +498,28 @@ int getMaxTransactionId() {
         return maxTransactionId;
     }
 
+    /**
+     * Set the number of changes of a transaction, above which the commit
+     * only marks the transaction as committed, and its changed entries are
+     * resolved later, by the background thread or by later transactions.
+     * Until then, other transactions treat the changed entries as committed.
+     *
+     * @param threshold the number of changes
+     */
+    public void setLazyCommitThreshold(long threshold) {
+        this.lazyCommitThreshold = threshold;
+    }
+
+    /**
+     * Get the number of committed transactions whose changed entries are not
+     * resolved yet.
+     *
+     * @return the number of pending commits
+     */
+    public int getPendingCommitCount() {
+        return pendingCommits.size();
+    }
+
     /**
      * Set the maximum transaction id, after which ids are re-used. If the old
      * transaction is still in use when re-using an old id, the new transaction
@@ -345,9 +591,8 @@ public List<Transaction> getOpenTransactions() {
             init();
         }
         ArrayList<Transaction> list = new ArrayList<>();
-        int transactionId = 0;
-        BitSet bitSet = openTransactions.get();
-        while((transactionId = bitSet.nextSetBit(transactionId + 1)) > 0) {
+        for (int transactionId = transactionIds.nextUsedId(1); transactionId > 0;
+                transactionId = transactionIds.nextUsedId(transactionId + 1)) {
             Transaction transaction = getTransaction(transactionId);
             if(transaction != null) {
                 if(transaction.getStatus() != Transaction.STATUS_CLOSED) {
@@ -362,7 +607,18 @@ public List<Transaction> getOpenTransactions() {
      * Close the transaction store.
      */
     public synchronized void close() {
+        store.setBackgroundTask(null);
+        while (resolvePendingCommit(Long.MAX_VALUE)) {
+            // continue
+        }
         store.commit();
+        if (redoLog != null) {
+            store.sync();
+            redoLog.close();
+            RedoLog.delete(redoLogFileName);
+            redoLog = null;
+            store.setChangeTracking(null);
+        }
     }
 
     /**
@@ -393,28 +649,23 @@ private Transaction registerTransaction(int txId, int status, String name, long
                                             int timeoutMillis, int ownerId,
                                             IsolationLevel isolationLevel, RollbackListener listener) {
         int transactionId;
-        long sequenceNo;
-        boolean success;
-        do {
-            VersionedBitSet original = openTransactions.get();
-            if (txId == 0) {
-                transactionId = original.nextClearBit(1);
-            } else {
-                transactionId = txId;
-                assert !original.get(transactionId);
+        if (txId == 0) {
+            transactionId = transactionIds.allocate(maxTransactionId);
+            // the ids of pending commits become free once resolved
+            while (transactionId == 0 && resolvePendingCommit(Long.MAX_VALUE)) {
+                transactionId = transactionIds.allocate(maxTransactionId);
             }
-            if (transactionId > maxTransactionId) {
+            if (transactionId == 0) {
                 throw DataUtils.newMVStoreException(
                         DataUtils.ERROR_TOO_MANY_OPEN_TRANSACTIONS,
                         "There are {0} open transactions",
-                        transactionId - 1);
+                        maxTransactionId);
             }
-            VersionedBitSet clone = original.clone();
-            clone.set(transactionId);
-            sequenceNo = clone.getVersion() + 1;
-            clone.setVersion(sequenceNo);
-            success = openTransactions.compareAndSet(original, clone);
-        } while(!success);
+        } else {
+            transactionId = txId;
+            transactionIds.reserve(transactionId);
+        }
+        long sequenceNo = lastSequenceNum.incrementAndGet();
 
         Transaction transaction = new Transaction(this, transactionId, sequenceNo, status, name, logId,
                 timeoutMillis, ownerId, isolationLevel, listener);
@@ -422,10 +673,13 @@ private Transaction registerTransaction(int txId, int status, String name, long
         assert transactions.get(transactionId) == null;
         transactions.set(transactionId, transaction);
 
-        if (undoLogs[transactionId] == null) {
+        if (undoLogs.get(transactionId) == null) {
             String undoName = getUndoLogName(transactionId);
             MVMap<Long,Record<?,?>> undoLog = store.openMap(undoName, undoLogBuilder);
-            undoLogs[transactionId] = undoLog;
+            // undo logs are written when they grow large, and read only
+            // once, they should not evict the pages of the data maps
+            undoLog.setCached(false);
+            undoLogs.set(transactionId, undoLog);
         }
         return transaction;
     }
@@ -453,7 +707,7 @@ void storeTransaction(Transaction t) {
      * @return key for the added record
      */
     long addUndoLogRecord(int transactionId, long logId, Record<?,?> record) {
-        MVMap<Long, Record<?,?>> undoLog = undoLogs[transactionId];
+        MVMap<Long, Record<?,?>> undoLog = undoLogs.get(transactionId);
         long undoKey = getOperationId(transactionId, logId);
         if (logId == 0 && !undoLog.isEmpty()) {
             throw DataUtils.newMVStoreException(
@@ -471,7 +725,7 @@ long addUndoLogRecord(int transactionId, long logId, Record<?,?> record) {
      * @param transactionId id of the transaction
      */
     void removeUndoLogRecord(int transactionId) {
-        undoLogs[transactionId].trimLast();
+        undoLogs.get(transactionId).trimLast();
     }
 
     /**
@@ -491,30 +745,127 @@ void removeMap(TransactionMap<?,?> map) {
      */
     void commit(Transaction t, boolean recovery) {
         if (!store.isClosed()) {
-            int transactionId = t.transactionId;
-            // First, mark log as "committed".
-            // It does not change the way this transaction is treated by others,
-            // but preserves fact of commit in case of abrupt termination.
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[transactionId];
-            Cursor<Long,Record<?,?>> cursor;
-            if(recovery) {
-                removeUndoLogRecord(transactionId);
-                cursor = undoLog.cursor(null);
+            MVMap<Long,Record<?,?>> undoLog = undoLogs.get(t.transactionId);
+            RedoLog redoLog = recovery ? null : this.redoLog;
+            if (redoLog != null) {
+                if (store.hasUnsavedTrackedChanges()) {
+                    // the logged rows may refer to these changes, such as
+                    // to LOB data, they must be durable before the commit
+                    storeChanges();
+                }
+                ByteBuffer record = createRedoRecord(undoLog);
+                redoLogLock.readLock().lock();
+                try {
+                    // the commit is durable before it is visible
+                    redoLog.sync(redoLog.append(record));
+                    commit(t, undoLog, false);
+                } finally {
+                    redoLogLock.readLock().unlock();
+                }
+                checkpointRedoLog();
             } else {
-                cursor = undoLog.cursor(null);
-                markUndoLogAsCommitted(transactionId);
+                commit(t, undoLog, recovery);
+            }
+        }
+    }
+
+    private void commit(Transaction t, MVMap<Long,Record<?,?>> undoLog, boolean recovery) {
+        int transactionId = t.transactionId;
+        // First, mark log as "committed".
+        // It does not change the way this transaction is treated by others,
+        // but preserves fact of commit in case of abrupt termination.
+        if(recovery) {
+            removeUndoLogRecord(transactionId);
+        } else {
+            markUndoLogAsCommitted(transactionId);
+        }
+        // the append buffer can only be flushed by this thread,
+        // while the entries may be resolved by another one
+        long changes = undoLog.flushAndGetRoot().getTotalCount();
+
+        // this is an atomic action that causes all changes
+        // made by this transaction, to be considered as "committed"
+        flipCommittingTransactionsBit(transactionId, true);
+
+        PendingCommit pending = new PendingCommit(t, undoLog);
+        if (!recovery && changes > lazyCommitThreshold) {
+            // the entries are resolved later, readers and writers already
+            // treat them as committed, the id is in use until then
+            t.idUsers.incrementAndGet();
+            pending.deferred = true;
+            if (pendingCommits.size() >= MAX_PENDING_COMMITS) {
+                resolvePendingCommit(Long.MAX_VALUE);
             }
+            pendingCommits.add(pending);
+        } else {
+            resolve(pending, Long.MAX_VALUE);
+        }
+    }
 
-            // this is an atomic action that causes all changes
-            // made by this transaction, to be considered as "committed"
-            flipCommittingTransactionsBit(transactionId, true);
+    /**
+     * Resolve the entries of pending commits, as far as the batch size
+     * allows. This method is called by the background thread of the store.
+     */
+    private void resolvePendingCommits() {
+        long budget = RESOLVE_BATCH_SIZE;
+        PendingCommit pending;
+        while (budget > 0 && !store.isClosed() && (pending = pendingCommits.poll()) != null) {
+            long resolved = resolve(pending, budget);
+            budget -= resolved;
+            if (budget <= 0 && !pending.isDone()) {
+                // continue with this one next time
+                pendingCommits.addFirst(pending);
+            }
+        }
+    }
 
+    /**
+     * Resolve the entries of the oldest pending commit.
+     *
+     * @param maxEntries the maximum number of entries to resolve
+     * @return false if there was no pending commit
+     */
+    private boolean resolvePendingCommit(long maxEntries) {
+        PendingCommit pending = pendingCommits.poll();
+        if (pending == null) {
+            return false;
+        }
+        resolve(pending, maxEntries);
+        if (!pending.isDone()) {
+            pendingCommits.addFirst(pending);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the uncommitted entries of a committed transaction with
+     * committed ones. Once all entries are resolved, the undo log is cleared
+     * and the transaction id can be re-used.
+     *
+     * @param pending the pending commit, owned by the current thread
+     * @param maxEntries the maximum number of entries to resolve
+     * @return the number of resolved entries
+     */
+    private long resolve(PendingCommit pending, long maxEntries) {
+        MVMap<Long,Record<?,?>> undoLog = pending.undoLog;
+        long count = 0;
+        boolean done = false;
+        try {
+            Cursor<Long,Record<?,?>> cursor = undoLog.cursor(pending.nextKey);
             CommitDecisionMaker<Object> commitDecisionMaker = new CommitDecisionMaker<>();
-            try {
-                while (cursor.hasNext()) {
-                    Long undoKey = cursor.next();
-                    Record<?,?> op = cursor.getValue();
-                    int mapId = op.mapId;
+            while (true) {
+                if (!cursor.hasNext()) {
+                    done = true;
+                    break;
+                }
+                if (count >= maxEntries) {
+                    pending.nextKey = cursor.nextLong();
+                    break;
+                }
+                long undoKey = cursor.nextLong();
+                Record<?,?> op = cursor.getValue();
+                int mapId = op.mapId;
+                if (mapId >= 0) { // skip the commit marker
                     MVMap<Object, VersionedValue<Object>> map = openMap(mapId);
                     if (map != null && !map.isClosed()) { // might be null if map was removed later
                         Object key = op.key;
@@ -524,14 +875,26 @@ void commit(Transaction t, boolean recovery) {
                         map.operate(key, null, commitDecisionMaker);
                     }
                 }
-            } finally {
+                count++;
+            }
+        } catch (Throwable e) {
+            done = true;
+            throw e;
+        } finally {
+            if (done) {
+                pending.nextKey = null;
+                pending.done = true;
                 try {
                     undoLog.clear();
                 } finally {
-                    flipCommittingTransactionsBit(transactionId, false);
+                    flipCommittingTransactionsBit(pending.transaction.transactionId, false);
+                    if (pending.deferred) {
+                        releaseTransactionId(pending.transaction);
+                    }
                 }
             }
         }
+        return count;
     }
 
     private void flipCommittingTransactionsBit(int transactionId, boolean flag) {
@@ -545,9 +908,10 @@ private void flipCommittingTransactionsBit(int transactionId, boolean flag) {
         } while(!success);
     }
 
-    <K,V> MVMap<K, VersionedValue<V>> openVersionedMap(String name, DataType<K> keyType, DataType<V> valueType) {
+    <K,V> MVMap<K, VersionedValue<V>> openVersionedMap(String name, DataType<K> keyType, DataType<V> valueType,
+            MVMap.Builder<?, ?> layout) {
         VersionedValueType<V,?> vt = valueType == null ? null : new VersionedValueType<>(valueType);
-        return openMap(name, keyType, vt);
+        return openMap(name, keyType, vt, layout);
     }
 
     /**
@@ -561,8 +925,44 @@ <K,V> MVMap<K, VersionedValue<V>> openVersionedMap(String name, DataType<K> keyT
      * @return the map
      */
     public <K,V> MVMap<K, V> openMap(String name, DataType<K> keyType, DataType<V> valueType) {
+        return openMap(name, keyType, valueType, 1);
+    }
+
+    /**
+     * Open the map with the given name. If the map does not exist yet, it is
+     * created with the given number of shards.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param name the map name
+     * @param keyType the key type
+     * @param valueType the value type
+     * @param shards the number of shards of a new map, 1 for a regular map
+     * @return the map
+     * @see org.h2.mvstore.ShardedMVMap
+     */
+    public <K,V> MVMap<K, V> openMap(String name, DataType<K> keyType, DataType<V> valueType, int shards) {
+        return openMap(name, keyType, valueType, new MVMap.Builder<>().shards(shards));
+    }
+
+    /**
+     * Open the map with the given name. If the map does not exist yet, it is
+     * created with the layout (number of shards, LSM tree) of the given
+     * builder.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param name the map name
+     * @param keyType the key type
+     * @param valueType the value type
+     * @param layout the builder to copy the layout options from
+     * @return the map
+     * @see MVMap.Builder#layout(MVMap.Builder)
+     */
+    public <K,V> MVMap<K, V> openMap(String name, DataType<K> keyType, DataType<V> valueType,
+            MVMap.Builder<?, ?> layout) {
         return store.openMap(name, new TxMapBuilder<K, V>(typeRegistry, dataType)
-                                            .keyType(keyType).valueType(valueType));
+                                            .keyType(keyType).valueType(valueType).layout(layout));
     }
 
     /**
@@ -611,16 +1011,9 @@ <K,V> MVMap<K,VersionedValue<V>> getMap(int mapId) {
     void endTransaction(Transaction t, boolean hasChanges) {
         t.closeIt();
         int txId = t.transactionId;
+        assert transactions.get(txId) == t;
         transactions.set(txId, null);
-
-        boolean success;
-        do {
-            VersionedBitSet original = openTransactions.get();
-            assert original.get(txId);
-            VersionedBitSet clone = original.clone();
-            clone.clear(txId);
-            success = openTransactions.compareAndSet(original, clone);
-        } while(!success);
+        releaseTransactionId(t);
 
         if (hasChanges) {
             boolean wasStored = t.wasStored;
@@ -648,6 +1041,18 @@ void endTransaction(Transaction t, boolean hasChanges) {
         }
     }
 
+    /**
+     * Release the id of a transaction, once it is closed and its entries are
+     * resolved.
+     *
+     * @param t the transaction
+     */
+    private void releaseTransactionId(Transaction t) {
+        if (t.idUsers.decrementAndGet() == 0) {
+            transactionIds.release(t.transactionId);
+        }
+    }
+
     /**
      * Get the root references (snapshots) for undo-log maps.
      * Those snapshots can potentially be used to optimize TransactionMap.size().
@@ -655,21 +1060,22 @@ void endTransaction(Transaction t, boolean hasChanges) {
      * @return the array of root references or null if snapshotting is not possible
      */
     RootReference<Long,Record<?,?>>[] collectUndoLogRootReferences() {
-        BitSet opentransactions = openTransactions.get();
-        @SuppressWarnings("unchecked")
-        RootReference<Long,Record<?,?>>[] undoLogRootReferences = new RootReference[opentransactions.length()];
-        for (int i = opentransactions.nextSetBit(0); i >= 0; i = opentransactions.nextSetBit(i+1)) {
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[i];
-            if (undoLog != null) {
+        BitSet committing = committingTransactions.get();
+        ArrayList<RootReference<Long,Record<?,?>>> list = new ArrayList<>();
+        for (int i = transactionIds.nextUsedId(1); i > 0; i = transactionIds.nextUsedId(i + 1)) {
+            MVMap<Long,Record<?,?>> undoLog;
+            if (hasUndoLog(i, committing) && (undoLog = undoLogs.get(i)) != null) {
                 RootReference<Long,Record<?,?>> rootReference = undoLog.getRoot();
                 if (rootReference.needFlush()) {
                     // abort attempt to collect snapshots for all undo logs
                     // because map's append buffer can't be flushed from a non-owning thread
                     return null;
                 }
-                undoLogRootReferences[i] = rootReference;
+                list.add(rootReference);
             }
         }
+        @SuppressWarnings("unchecked")
+        RootReference<Long,Record<?,?>>[] undoLogRootReferences = list.toArray(new RootReference[0]);
         return undoLogRootReferences;
     }
 
@@ -689,17 +1095,66 @@ static long calculateUndoLogsTotalSize(RootReference<Long,Record<?,?>>[] undoLog
         return undoLogsTotalSize;
     }
 
+    /**
+     * Check whether the undo log of the given transaction id is in use, by an
+     * open transaction or by a committed one whose entries are not resolved
+     * yet.
+     *
+     * @param transactionId the transaction id
+     * @param committing the committing transactions
+     * @return whether the undo log is in use
+     */
+    private boolean hasUndoLog(int transactionId, BitSet committing) {
+        return transactions.get(transactionId) != null || committing.get(transactionId);
+    }
+
+    /**
+     * Check whether the undo logs of all open transactions are empty. Undo
+     * logs of committed transactions whose entries are resolved lazily are
+     * ignored, these transactions are closed already.
+     *
+     * @return whether there are no undo log entries of open transactions
+     */
     private boolean isUndoEmpty() {
-        BitSet openTrans = openTransactions.get();
-        for (int i = openTrans.nextSetBit(0); i >= 0; i = openTrans.nextSetBit(i + 1)) {
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[i];
-            if (undoLog != null && !undoLog.isEmpty()) {
+        for (int i = transactionIds.nextUsedId(1); i > 0; i = transactionIds.nextUsedId(i + 1)) {
+            MVMap<Long,Record<?,?>> undoLog;
+            if (transactions.get(i) != null && (undoLog = undoLogs.get(i)) != null && !undoLog.isEmpty()) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Add a transaction to the wait queue of a map entry. The queue is created
+     * if it doesn't exist.
+     *
+     * @param key the key of the queue
+     * @param t the transaction
+     * @return the queue
+     */
+    ConcurrentLinkedQueue<Transaction> addToWaitQueue(Transaction.WaitKey key, Transaction t) {
+        // the transaction is added atomically, an empty queue may be removed
+        // concurrently by removeWaitQueue()
+        return waitQueues.compute(key, (k, q) -> {
+            if (q == null) {
+                q = new ConcurrentLinkedQueue<>();
+            }
+            q.add(t);
+            return q;
+        });
+    }
+
+    /**
+     * Remove the wait queue of a map entry, if it is empty.
+     *
+     * @param key the key of the queue
+     * @param queue the queue
+     */
+    void removeWaitQueue(Transaction.WaitKey key, ConcurrentLinkedQueue<Transaction> queue) {
+        waitQueues.computeIfPresent(key, (k, q) -> q == queue && q.isEmpty() ? null : q);
+    }
+
     /**
      * Get Transaction object for a transaction id.
      *
@@ -719,7 +1174,7 @@ Transaction getTransaction(int transactionId) {
      */
     void rollbackTo(Transaction t, long maxLogId, long toLogId) {
         int transactionId = t.getId();
-        MVMap<Long,Record<?,?>> undoLog = undoLogs[transactionId];
+        MVMap<Long,Record<?,?>> undoLog = undoLogs.get(transactionId);
         RollbackDecisionMaker decisionMaker = new RollbackDecisionMaker(this, transactionId, toLogId, t.listener);
         for (long logId = maxLogId - 1; logId >= toLogId; logId--) {
             Long undoKey = getOperationId(transactionId, logId);
@@ -740,7 +1195,7 @@ void rollbackTo(Transaction t, long maxLogId, long toLogId) {
     Iterator<Change> getChanges(final Transaction t, final long maxLogId,
             final long toLogId) {
 
-        final MVMap<Long,Record<?,?>> undoLog = undoLogs[t.getId()];
+        final MVMap<Long,Record<?,?>> undoLog = undoLogs.get(t.getId());
         return new Iterator<>() {
 
             private long logId = maxLogId - 1;
@@ -749,22 +1204,23 @@ Iterator<Change> getChanges(final Transaction t, final long maxLogId,
             private void fetchNext() {
                 int transactionId = t.getId();
                 while (logId >= toLogId) {
-                    Long undoKey = getOperationId(transactionId, logId);
-                    Record<?,?> op = undoLog.get(undoKey);
+                    long undoKey = getOperationId(transactionId, logId);
+                    @SuppressWarnings("unchecked")
+                    Record<Object,Object> op = (Record<Object,Object>) undoLog.getForLongKey(undoKey);
                     logId--;
                     if (op == null) {
                         // partially rolled back: load previous
-                        undoKey = undoLog.floorKey(undoKey);
-                        if (undoKey == null || getTransactionId(undoKey) != transactionId) {
+                        Long previousKey = undoLog.floorKey(undoKey);
+                        if (previousKey == null || getTransactionId(previousKey) != transactionId) {
                             break;
                         }
-                        logId = getLogId(undoKey);
+                        logId = getLogId(previousKey);
                         continue;
                     }
                     int mapId = op.mapId;
                     MVMap<Object, VersionedValue<Object>> m = openMap(mapId);
                     if (m != null) { // could be null if map was removed later on
-                        VersionedValue<?> oldValue = op.oldValue;
+                        VersionedValue<?> oldValue = op.getOldValue(m);
                         current = new Change(m.getName(), op.key,
                                 oldValue == null ? null : oldValue.getCurrentValue());
                         return;
@@ -821,6 +1277,42 @@ public Change(String mapName, Object key, Object value) {
         }
     }
 
+    /**
+     * A committed transaction whose changed entries are not resolved yet.
+     */
+    private static final class PendingCommit {
+
+        final Transaction transaction;
+
+        final MVMap<Long,Record<?,?>> undoLog;
+
+        /**
+         * The undo log key to continue with, or null to start with the first
+         * one.
+         */
+        Long nextKey;
+
+        /**
+         * Whether all entries are resolved.
+         */
+        boolean done;
+
+        /**
+         * Whether the entries are resolved after the commit, so that the
+         * transaction id is released when done.
+         */
+        boolean deferred;
+
+        PendingCommit(Transaction transaction, MVMap<Long,Record<?,?>> undoLog) {
+            this.transaction = transaction;
+            this.undoLog = undoLog;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+    }
+
     /**
      * This listener can be registered with the transaction to be notified of
      * every compensating change during transaction rollback.
@@ -922,9 +1414,57 @@ protected MVMap<K,V> create(Map<String,Object> config) {
                         getValueType());
                 return map;
             }
+            int shardCount = getShardCount(config);
+            if (shardCount > 0) {
+                return new TShardedMVMap<>(config, getKeyType(), getValueType(), shardCount);
+            }
+            if (isLSMTree(config)) {
+                return new TLSMTreeMap<>(config, getKeyType(), getValueType());
+            }
             return new TMVMap<>(config, getKeyType(), getValueType());
         }
 
+        private static final class TShardedMVMap<K,V> extends ShardedMVMap<K,V> {
+
+            TShardedMVMap(Map<String, Object> config, DataType<K> keyType, DataType<V> valueType, int shardCount) {
+                super(config, keyType, valueType, shardCount);
+            }
+
+            private TShardedMVMap(TShardedMVMap<K, V> source) {
+                super(source);
+            }
+
+            @Override
+            protected MVMap<K, V> cloneIt() {
+                return new TShardedMVMap<>(this);
+            }
+
+            @Override
+            protected String asString(String name) {
+                StringBuilder buff = new StringBuilder();
+                buff.append(super.asString(name));
+                DataUtils.appendMap(buff, "key", getDataTypeRegistrationKey(getKeyType()));
+                DataUtils.appendMap(buff, "val", getDataTypeRegistrationKey(getValueType()));
+                return buff.toString();
+            }
+        }
+
+        private static final class TLSMTreeMap<K,V> extends LSMTreeMap<K,V> {
+
+            TLSMTreeMap(Map<String, Object> config, DataType<K> keyType, DataType<V> valueType) {
+                super(config, keyType, valueType);
+            }
+
+            @Override
+            protected String asString(String name) {
+                StringBuilder buff = new StringBuilder();
+                buff.append(super.asString(name));
+                DataUtils.appendMap(buff, "key", getDataTypeRegistrationKey(getKeyType()));
+                DataUtils.appendMap(buff, "val", getDataTypeRegistrationKey(getValueType()));
+                return buff.toString();
+            }
+        }
+
         private static final class TMVMap<K,V> extends MVMap<K,V> {
             private final String type;
 
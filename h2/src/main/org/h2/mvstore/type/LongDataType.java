@@ -66,6 +66,61 @@ public int binarySearch(Long keyObj, Object storageObj, int size, int initialGue
         return binarySearch(key, storage, low, high, x);
     }
 
+    /**
+     * Search a key in a sorted array of primitive keys, as used by pages of
+     * maps with this key type.
+     *
+     * @param key the key
+     * @param storage the keys
+     * @param initialGuess the index of the first key to compare, plus one
+     * @return the index of the key, if found, or otherwise the complement of
+     *         the insertion point
+     */
+    public static int binarySearch(long key, long[] storage, int initialGuess) {
+        int low = 0;
+        int high = storage.length - 1;
+        int x = initialGuess - 1;
+        if (x < 0 || x > high) {
+            x = high >>> 1;
+        }
+        while (low <= high) {
+            long midVal = storage[x];
+            if (key > midVal) {
+                low = x + 1;
+            } else if (key < midVal) {
+                high = x - 1;
+            } else {
+                return x;
+            }
+            x = (low + high) >>> 1;
+        }
+        return ~low;
+    }
+
+    /**
+     * Read primitive keys. The format is the same as for boxed keys.
+     *
+     * @param buff the source buffer
+     * @param storage the array to fill
+     */
+    public static void read(ByteBuffer buff, long[] storage) {
+        for (int i = 0; i < storage.length; i++) {
+            storage[i] = DataUtils.readVarLong(buff);
+        }
+    }
+
+    /**
+     * Write primitive keys. The format is the same as for boxed keys.
+     *
+     * @param buff the target buffer
+     * @param storage the keys
+     */
+    public static void write(WriteBuffer buff, long[] storage) {
+        for (long key : storage) {
+            buff.putVarLong(key);
+        }
+    }
+
     private static int binarySearch(long key, Long[] storage, int low, int high, int x) {
         while (low <= high) {
             long midVal = storage[x];
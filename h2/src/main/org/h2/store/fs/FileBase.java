@@ -38,6 +38,21 @@ public synchronized int write(ByteBuffer src, long position)
         return len;
     }
 
+    /**
+     * Read a number of bytes without copying them, if this file supports it.
+     * The returned buffer is read-only. It shares the content with the file,
+     * so it should be used only as long as the given range is not changed.
+     *
+     * @param position the position within the file
+     * @param len the number of bytes
+     * @return the buffer, or null if not supported, or not possible at the
+     *         moment
+     * @throws IOException if the range is not within the file
+     */
+    public ByteBuffer readShared(long position, int len) throws IOException {
+        return null;
+    }
+
     @Override
     public void force(boolean metaData) throws IOException {
         // ignore
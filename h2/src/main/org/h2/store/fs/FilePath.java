@@ -53,6 +53,7 @@ public abstract class FilePath {
                 "org.h2.store.fs.split.FilePathSplit",
                 "org.h2.store.fs.niomapped.FilePathNioMapped",
                 "org.h2.store.fs.async.FilePathAsync",
+                "org.h2.store.fs.direct.FilePathDirect",
                 "org.h2.store.fs.zip.FilePathZip",
                 "org.h2.store.fs.retry.FilePathRetryOnInterrupt"
         }) {
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.store.fs.direct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import org.h2.store.fs.FileBaseDefault;
+import org.h2.store.fs.FileUtils;
+
+/**
+ * File which is opened with com.sun.nio.file.ExtendedOpenOption.DIRECT.
+ * Reads and writes are expanded to whole blocks of the file system, unaligned
+ * parts of the first and the last block of a write are read back first.
+ */
+class FileDirect extends FileBaseDefault {
+
+    /**
+     * The largest I/O buffer that is kept for reuse by a thread.
+     */
+    private static final int MAX_CACHED_BUFFER = 1024 * 1024;
+
+    /**
+     * The block size used if the file system does not report one.
+     */
+    private static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+
+    private static final OpenOption DIRECT = getDirectOption();
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<>();
+
+    private final String name;
+    private final FileChannel channel;
+
+    /**
+     * The alignment of reads and writes, or 0 if direct I/O is not used.
+     */
+    private final int blockSize;
+
+    FileDirect(String fileName, String mode) throws IOException {
+        this.name = fileName;
+        Path path = Paths.get(fileName);
+        Set<? extends OpenOption> options = FileUtils.modeToOptions(mode);
+        FileChannel c = null;
+        int align = 0;
+        if (DIRECT != null) {
+            try {
+                HashSet<OpenOption> directOptions = new HashSet<>(options);
+                directOptions.add(DIRECT);
+                c = FileChannel.open(path, directOptions, FileUtils.NO_ATTRIBUTES);
+                align = getBlockSize(path);
+            } catch (IOException | UnsupportedOperationException e) {
+                // the file system does not support direct I/O (for example tmpfs)
+                if (c != null) {
+                    c.close();
+                    c = null;
+                }
+                align = 0;
+            }
+        }
+        if (c == null) {
+            c = FileChannel.open(path, options, FileUtils.NO_ATTRIBUTES);
+        }
+        channel = c;
+        blockSize = align;
+    }
+
+    private static OpenOption getDirectOption() {
+        try {
+            Class<?> clazz = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) clazz.getField("DIRECT").get(null);
+        } catch (Exception | LinkageError e) {
+            // not available on this platform
+            return null;
+        }
+    }
+
+    private static int getBlockSize(Path path) throws IOException {
+        long size;
+        try {
+            size = Files.getFileStore(path).getBlockSize();
+        } catch (UnsupportedOperationException e) {
+            size = DEFAULT_BLOCK_SIZE;
+        }
+        if (size <= 0 || size > MAX_CACHED_BUFFER || Long.bitCount(size) != 1) {
+            throw new UnsupportedOperationException("block size " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Whether direct I/O is used for this file.
+     *
+     * @return true if reads and writes bypass the operating system cache
+     */
+    boolean isDirect() {
+        return blockSize != 0;
+    }
+
+    @Override
+    public void implCloseChannel() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (blockSize == 0) {
+            return channel.read(dst, position);
+        }
+        int len = dst.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        long start = position & -blockSize;
+        long end = (position + len + blockSize - 1) & -blockSize;
+        ByteBuffer buff = getBuffer((int) (end - start));
+        int read = readAligned(buff, start);
+        int offset = (int) (position - start);
+        if (read <= offset) {
+            return -1;
+        }
+        len = Math.min(len, read - offset);
+        buff.limit(offset + len).position(offset);
+        dst.put(buff);
+        return len;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException {
+        if (blockSize == 0) {
+            return channel.write(src, position);
+        }
+        int len = src.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        long start = position & -blockSize;
+        long end = (position + len + blockSize - 1) & -blockSize;
+        ByteBuffer buff = getBuffer((int) (end - start));
+        long fileSize = channel.size();
+        if (start < position) {
+            // keep the existing content of partially overwritten blocks
+            readBlock(buff, 0, start);
+        }
+        if (end > position + len && (start == position || end - blockSize > start)) {
+            readBlock(buff, (int) (end - start) - blockSize, end - blockSize);
+        }
+        buff.clear().position((int) (position - start));
+        buff.put(src);
+        buff.clear();
+        while (buff.hasRemaining()) {
+            channel.write(buff, start + buff.position());
+        }
+        long newSize = Math.max(fileSize, position + len);
+        if (end > newSize) {
+            // remove the padding of the last block
+            channel.truncate(newSize);
+        }
+        return len;
+    }
+
+    /**
+     * Fill the aligned buffer with the content of the file, starting at the
+     * given aligned position.
+     *
+     * @param buff the buffer
+     * @param start the position in the file
+     * @return the number of bytes read, or -1 if the position is after the
+     *         end of the file
+     */
+    private int readAligned(ByteBuffer buff, long start) throws IOException {
+        buff.clear();
+        while (buff.hasRemaining()) {
+            int l = channel.read(buff, start + buff.position());
+            if (l <= 0 || (buff.position() & (blockSize - 1)) != 0) {
+                // the end of the file was reached
+                break;
+            }
+        }
+        int read = buff.position();
+        buff.clear();
+        return read == 0 && start >= channel.size() ? -1 : read;
+    }
+
+    /**
+     * Read one block into the buffer. The part of the block after the end of
+     * the file is filled with zeros.
+     *
+     * @param buff the buffer
+     * @param offset the aligned offset within the buffer
+     * @param position the aligned position in the file
+     */
+    private void readBlock(ByteBuffer buff, int offset, long position) throws IOException {
+        buff.limit(offset + blockSize).position(offset);
+        ByteBuffer block = buff.slice();
+        int read = Math.max(0, readAligned(block, position));
+        for (int i = read; i < blockSize; i++) {
+            block.put(i, (byte) 0);
+        }
+        buff.clear();
+    }
+
+    /**
+     * Get a direct buffer aligned to the block size. Buffers up to
+     * MAX_CACHED_BUFFER bytes are reused by the current thread.
+     *
+     * @param len the length, a multiple of the block size
+     * @return the buffer with capacity len
+     */
+    private ByteBuffer getBuffer(int len) {
+        ByteBuffer buff = BUFFER.get();
+        if (buff == null || buff.capacity() < len || buff.alignmentOffset(0, blockSize) != 0) {
+            int size = Math.max(len, DEFAULT_BLOCK_SIZE);
+            buff = ByteBuffer.allocateDirect(size + blockSize).alignedSlice(blockSize);
+            if (size <= MAX_CACHED_BUFFER) {
+                BUFFER.set(buff);
+            }
+        }
+        buff.clear();
+        return buff.limit(len).slice();
+    }
+
+    @Override
+    protected void implTruncate(long newLength) throws IOException {
+        channel.truncate(newLength);
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    public String toString() {
+        return "direct:" + name;
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.store.fs.direct;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import org.h2.store.fs.FilePathWrapper;
+
+/**
+ * This file system stores files on disk and opens them for direct I/O, so that
+ * the data is not cached by the operating system a second time. All reads and
+ * writes are performed in ranges aligned to the block size of the file system.
+ * If direct I/O is not supported, regular file channels are used.
+ */
+public class FilePathDirect extends FilePathWrapper {
+
+    @Override
+    public FileChannel open(String mode) throws IOException {
+        return new FileDirect(name.substring(getScheme().length() + 1), mode);
+    }
+
+    @Override
+    public String getScheme() {
+        return "direct";
+    }
+
+}
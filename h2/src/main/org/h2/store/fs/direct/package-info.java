@@ -0,0 +1,11 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+
+/**
+ * This file system stores files on disk and bypasses the operating system
+ * page cache using direct I/O where the platform supports it.
+ */
+package org.h2.store.fs.direct;
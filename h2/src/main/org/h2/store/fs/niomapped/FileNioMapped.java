@@ -15,6 +15,7 @@
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import org.h2.engine.SysProperties;
 import org.h2.store.fs.FileBaseDefault;
 import org.h2.store.fs.FileUtils;
@@ -33,6 +34,26 @@ class FileNioMapped extends FileBaseDefault {
     private MappedByteBuffer mapped;
     private long fileLength;
 
+    /**
+     * Whether buffers returned by readShared share the current mapping. Such
+     * a mapping is not released explicitly, but when all these buffers are
+     * garbage collected.
+     */
+    private boolean shared;
+
+    /**
+     * The previous mappings shared by buffers returned by readShared that may
+     * still be in use. While there are any, the file must not be truncated.
+     */
+    private final ArrayList<WeakReference<MappedByteBuffer>> sharedMappings = new ArrayList<>();
+
+    /**
+     * Whether the file is longer than fileLength, because it was not
+     * truncated while buffers returned by readShared could still be in use.
+     * It is truncated once the mappings they share are released.
+     */
+    private boolean truncatePending;
+
     FileNioMapped(String fileName, String mode) throws IOException {
         if ("r".equals(mode)) {
             this.mode = MapMode.READ_ONLY;
@@ -54,6 +75,14 @@ private void unMap() throws IOException {
         // need to dispose old direct buffer, see bug
         // https://bugs.openjdk.java.net/browse/JDK-4724038
 
+        if (shared) {
+            // buffers returned by readShared may still be in use,
+            // the mapping is released when they are garbage collected
+            sharedMappings.add(new WeakReference<>(mapped));
+            shared = false;
+            mapped = null;
+            return;
+        }
         if (SysProperties.NIO_CLEANER_HACK) {
             if (MemoryUnmapper.unmap(mapped)) {
                 mapped = null;
@@ -72,6 +101,28 @@ private void unMap() throws IOException {
         }
     }
 
+    /**
+     * Check whether all previous mappings shared by buffers returned by
+     * readShared were released.
+     *
+     * @return whether there are no such mappings any more
+     */
+    private boolean isSharedMappingsReleased() {
+        sharedMappings.removeIf(ref -> ref.get() == null);
+        return sharedMappings.isEmpty();
+    }
+
+    /**
+     * Truncate the file if the truncation is pending and the mappings that
+     * prevented it were released.
+     */
+    private void truncateIfReleased() throws IOException {
+        if (truncatePending && isSharedMappingsReleased()) {
+            truncatePending = false;
+            resize(fileLength);
+        }
+    }
+
     /**
      * Re-map byte buffer into memory, called when file size has changed or file
      * was created.
@@ -103,9 +154,18 @@ private static void checkFileSizeLimit(long length) throws IOException {
     }
 
     @Override
-    public void implCloseChannel() throws IOException {
+    public synchronized void implCloseChannel() throws IOException {
         if (channel != null) {
             unMap();
+            if (truncatePending) {
+                truncatePending = false;
+                try {
+                    channel.truncate(fileLength);
+                } catch (IOException e) {
+                    // mapped files can not be truncated on some platforms,
+                    // the file remains longer
+                }
+            }
             channel.close();
             channel = null;
         }
@@ -145,6 +205,23 @@ public synchronized int read(ByteBuffer dst, long pos) throws IOException {
         }
     }
 
+    @Override
+    public synchronized ByteBuffer readShared(long pos, int len) throws IOException {
+        if (pos < 0 || len < 0 || pos + len > fileLength) {
+            throw new EOFException("EOF");
+        }
+        truncateIfReleased();
+        if (truncatePending) {
+            // the file should be truncated as soon as possible,
+            // so the mapping is not shared until then
+            return null;
+        }
+        ByteBuffer buff = mapped.duplicate();
+        buff.position((int) pos).limit((int) pos + len);
+        shared = true;
+        return buff.slice().asReadOnlyBuffer();
+    }
+
     @Override
     protected void implTruncate(long newLength) throws IOException {
         // compatibility with JDK FileChannel#truncate
@@ -161,6 +238,38 @@ public synchronized void setFileLength(long newLength) throws IOException {
             throw new NonWritableChannelException();
         }
         checkFileSizeLimit(newLength);
+        if (truncatePending) {
+            if (newLength > fileLength) {
+                // the file was not truncated yet, clear the stale content
+                int end = (int) Math.min(newLength, mapped.capacity());
+                ByteBuffer buff = mapped.duplicate();
+                buff.position((int) fileLength);
+                byte[] zeros = new byte[Math.min(end - buff.position(), 4096)];
+                while (buff.position() < end) {
+                    buff.put(zeros, 0, Math.min(zeros.length, end - buff.position()));
+                }
+            }
+            if (isSharedMappingsReleased() || newLength > mapped.capacity()) {
+                truncatePending = false;
+            } else {
+                fileLength = newLength;
+                return;
+            }
+        } else if (newLength < fileLength && (shared || !isSharedMappingsReleased())) {
+            // a shared buffer must not be used after its range was truncated,
+            // and mapped files can not be truncated on some platforms, so the
+            // file is truncated when the shared buffers are garbage collected
+            if (shared) {
+                reMap();
+            }
+            fileLength = newLength;
+            truncatePending = true;
+            return;
+        }
+        resize(newLength);
+    }
+
+    private void resize(long newLength) throws IOException {
         unMap();
         for (int i = 0;; i++) {
             try {
@@ -190,9 +299,10 @@ public void force(boolean metaData) throws IOException {
     @Override
     public synchronized int write(ByteBuffer src, long position) throws IOException {
         checkFileSizeLimit(position);
+        truncateIfReleased();
         int len = src.remaining();
         // check if need to expand file
-        if (mapped.capacity() < position + len) {
+        if (fileLength < position + len) {
             setFileLength(position + len);
         }
         mapped.position((int)position);
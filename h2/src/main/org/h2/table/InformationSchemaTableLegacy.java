@@ -1037,6 +1037,7 @@ public ArrayList<Row> generateRows(SessionLocal session, SearchRow first, Search
                     add(session, rows, "property." + s, Utils.getProperty(s, ""));
                 }
             }
+            add(session, rows, "PARALLEL_SCAN_THREADS", Integer.toString(session.getParallelScanThreads()));
             add(session, rows, "QUERY_TIMEOUT", Integer.toString(session.getQueryTimeout()));
             add(session, rows, "TIME ZONE", session.currentTimeZone().getId());
             add(session, rows, "TRUNCATE_LARGE_LENGTH", session.isTruncateLargeLength() ? "TRUE" : "FALSE");
@@ -6,6 +6,7 @@
 package org.h2.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -17,13 +18,18 @@
 import org.h2.engine.Database;
 import org.h2.engine.Right;
 import org.h2.engine.SessionLocal;
+import org.h2.expression.BatchExpression;
 import org.h2.expression.Expression;
 import org.h2.expression.condition.Comparison;
 import org.h2.expression.condition.ConditionAndOr;
+import org.h2.index.HashJoinIndex;
 import org.h2.index.Index;
 import org.h2.index.IndexCondition;
 import org.h2.index.IndexCursor;
+import org.h2.index.MergeJoinIndex;
 import org.h2.message.DbException;
+import org.h2.mvstore.db.ParallelScanIndex;
+import org.h2.result.LocalResult;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
@@ -105,6 +111,47 @@ public class TableFilter implements ColumnResolver {
     private Row current;
     private int state;
 
+    /**
+     * The batch form of the condition of the query, or {@code null} if rows
+     * are read one by one.
+     */
+    private BatchExpression batchCondition;
+
+    /**
+     * The rows of the current batch.
+     */
+    private Row[] batchRows;
+
+    private int batchSize, batchIndex;
+
+    /**
+     * Whether the cursor has no more rows for batches.
+     */
+    private boolean batchEnd;
+
+    /**
+     * Whether the condition of the query is known to be true for the current
+     * row.
+     */
+    private boolean batchConditionTrue;
+
+    /**
+     * Whether the rows of this filter may be returned in any order.
+     */
+    private boolean unordered;
+
+    /**
+     * The rows of this table distributed among the partitions of the hash
+     * join of the joined table, or {@code null} if rows are read from the
+     * cursor.
+     */
+    private LocalResult[] probeRows;
+
+    /**
+     * The partition of {@link #probeRows} rows are read from.
+     */
+    private int probePartition;
+
     /**
      * The joined table (if there is one).
      */
@@ -247,6 +294,24 @@ public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filte
             }
         }
         PlanItem item = table.getBestPlanItem(s, masks, filters, filter, sortOrder, allColumnsSet, isSelectCommand);
+        Index bestIndex = item.getIndex();
+        if (masks != null && filter > 0 && nestedJoin == null && s.getDatabase().getSettings().optimizeHashJoin
+                && (bestIndex.getIndexType().isScan()
+                || bestIndex.isFindUsingFullTableScan() || table.isView())) {
+            // An inner table without a usable index for the join condition
+            // is scanned (or a view is evaluated) for each row of the outer
+            // tables, a hash join reads it only once
+            HashJoinIndex hashIndex = HashJoinIndex.create(s, table, indexConditions);
+            if (hashIndex != null) {
+                double cost = hashIndex.getCost(s, masks, filters, filter, sortOrder, allColumnsSet,
+                        isSelectCommand);
+                if (cost < item.cost) {
+                    item = new PlanItem();
+                    item.cost = cost;
+                    item.setIndex(hashIndex);
+                }
+            }
+        }
         item.setMasks(masks);
         // The more index conditions, the earlier the table.
         // This is to ensure joins without indexes run quickly:
@@ -408,6 +473,11 @@ public void prepare() {
     public void startQuery(SessionLocal s) {
         this.session = s;
         scanCount = 0;
+        if (index instanceof HashJoinIndex) {
+            ((HashJoinIndex) index).reset();
+        } else if (index instanceof MergeJoinIndex) {
+            ((MergeJoinIndex) index).reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -416,6 +486,27 @@ public void startQuery(SessionLocal s) {
         }
     }
 
+    /**
+     * End the query. This will release the rows read by hash joins and the
+     * temporary results used by them, and stop parallel scans.
+     */
+    public void endQuery() {
+        closeProbeRows();
+        if (index instanceof HashJoinIndex) {
+            ((HashJoinIndex) index).reset();
+        } else if (index instanceof MergeJoinIndex) {
+            ((MergeJoinIndex) index).reset();
+        } else if (index instanceof ParallelScanIndex) {
+            ((ParallelScanIndex) index).reset();
+        }
+        if (nestedJoin != null) {
+            nestedJoin.endQuery();
+        }
+        if (join != null) {
+            join.endQuery();
+        }
+    }
+
     /**
      * Reset to the current position.
      */
@@ -426,6 +517,7 @@ public void reset() {
         if (join != null) {
             join.reset();
         }
+        closeProbeRows();
         state = BEFORE_FIRST;
         foundOne = false;
     }
@@ -440,6 +532,8 @@ public boolean next() {
             return false;
         } else if (state == BEFORE_FIRST) {
             cursor.find(session, indexConditions);
+            batchSize = batchIndex = 0;
+            batchEnd = false;
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
@@ -470,12 +564,10 @@ public boolean next() {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
-                    currentSearchRow = cursor.getSearchRow();
-                    current = null;
-                    state = FOUND;
-                } else {
-                    state = AFTER_LAST;
+                state = (probeRows != null ? nextProbeRow() : nextRow()) ? FOUND : AFTER_LAST;
+                if (state == FOUND && probeRows == null && isHashJoinPartitioned()) {
+                    partitionProbeRows();
+                    state = nextProbeRow() ? FOUND : AFTER_LAST;
                 }
             }
             if (nestedJoin != null && state == FOUND) {
@@ -542,6 +634,177 @@ private void checkTimeout() {
         session.checkCanceled();
     }
 
+    /**
+     * Move to the next row of the cursor.
+     *
+     * @return {@code false} if there are no more rows
+     */
+    private boolean nextRow() {
+        if (batchCondition != null) {
+            return nextBatchRow();
+        }
+        if (cursor.next()) {
+            currentSearchRow = cursor.getSearchRow();
+            current = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the joined table is read with a hash join whose rows
+     * don't fit into memory, and the rows of this table may be reordered to
+     * read each partition of the hash join only once.
+     *
+     * @return whether the rows of this table should be partitioned
+     */
+    private boolean isHashJoinPartitioned() {
+        return unordered && nestedJoin == null && join != null && join.index instanceof HashJoinIndex
+                && ((HashJoinIndex) join.index).isPartitioned(session);
+    }
+
+    /**
+     * Distribute the current and all remaining rows of the cursor among the
+     * partitions of the hash join of the joined table. The rows are then
+     * returned one partition after another.
+     */
+    private void partitionProbeRows() {
+        HashJoinIndex hashIndex = (HashJoinIndex) join.index;
+        int count = hashIndex.getPartitionCount();
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows() / count;
+        LocalResult[] partitions = new LocalResult[count];
+        probeRows = partitions;
+        for (int i = 0; i < count; i++) {
+            LocalResult partition = LocalResult.forTable(session, table);
+            partition.setMaxMemoryRows(maxMemoryRows);
+            partitions[i] = partition;
+        }
+        do {
+            if ((++scanCount & 4095) == 0) {
+                checkTimeout();
+            }
+            partitions[hashIndex.getProbePartition(session, join)].addRowForTable(get());
+        } while (nextRow());
+        for (LocalResult partition : partitions) {
+            partition.done();
+            partition.reset();
+        }
+        probePartition = 0;
+    }
+
+    /**
+     * Move to the next row of the partitioned rows.
+     *
+     * @return {@code false} if there are no more rows
+     */
+    private boolean nextProbeRow() {
+        LocalResult[] partitions = probeRows;
+        for (int count = partitions.length; probePartition < count; probePartition++) {
+            LocalResult partition = partitions[probePartition];
+            if (partition.next()) {
+                current = partition.currentRowForTable();
+                currentSearchRow = current;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeProbeRows() {
+        LocalResult[] partitions = probeRows;
+        if (partitions != null) {
+            probeRows = null;
+            for (LocalResult partition : partitions) {
+                partition.close();
+            }
+        }
+    }
+
+    /**
+     * Sets whether the rows of this filter may be returned in any order. If
+     * they may, and the joined table is read with a hash join whose rows don't
+     * fit into memory, the rows of this table are distributed among the same
+     * partitions and returned one partition after another.
+     *
+     * @param unordered whether the rows may be returned in any order
+     */
+    public void setUnordered(boolean unordered) {
+        this.unordered = unordered;
+    }
+
+    /**
+     * Move to the next row of the current batch for which the condition of
+     * the query may be true, reading the next batch if needed.
+     *
+     * @return {@code false} if there are no more rows
+     */
+    private boolean nextBatchRow() {
+        BatchExpression condition = batchCondition;
+        byte[] states = condition.states;
+        for (;;) {
+            while (batchIndex < batchSize) {
+                int i = batchIndex++;
+                byte s = states[i];
+                if (s == BatchExpression.TRUE || s == BatchExpression.UNKNOWN) {
+                    current = batchRows[i];
+                    currentSearchRow = current;
+                    batchConditionTrue = s == BatchExpression.TRUE;
+                    return true;
+                }
+            }
+            batchConditionTrue = false;
+            Row[] rows = batchRows;
+            if (batchEnd) {
+                if (rows != null) {
+                    Arrays.fill(rows, null);
+                }
+                return false;
+            }
+            if (rows == null) {
+                batchRows = rows = new Row[BatchExpression.BATCH_SIZE];
+            }
+            checkTimeout();
+            int size = 0;
+            while (size < BatchExpression.BATCH_SIZE) {
+                if (!cursor.next()) {
+                    batchEnd = true;
+                    break;
+                }
+                rows[size++] = cursor.get();
+            }
+            if (size > 0) {
+                condition.evaluate(rows, size);
+            }
+            batchSize = size;
+            batchIndex = 0;
+        }
+    }
+
+    /**
+     * Sets the batch form of the condition of the query. If it is set, rows
+     * of this filter are read in batches and rows for which the condition is
+     * false or unknown are skipped. The batch condition may only be set for a
+     * filter without joins whose index returns complete rows.
+     *
+     * @param batchCondition the batch form of the condition, or {@code null}
+     */
+    public void setBatchCondition(BatchExpression batchCondition) {
+        this.batchCondition = batchCondition;
+        batchRows = null;
+        batchSize = batchIndex = 0;
+        batchConditionTrue = false;
+    }
+
+    /**
+     * Returns whether the condition of the query is known to be true for the
+     * current row, and its regular evaluation may be skipped.
+     *
+     * @return whether the condition of the query is true for the current row
+     */
+    public boolean isBatchConditionTrue() {
+        return batchConditionTrue;
+    }
+
     /**
      * Whether the current value of the condition is true, or there is no
      * condition.
@@ -573,6 +836,7 @@ public Row get() {
     public void set(Row current) {
         this.current = current;
         this.currentSearchRow = current;
+        batchConditionTrue = false;
     }
 
     /**
@@ -598,6 +862,15 @@ public void addIndexCondition(IndexCondition condition) {
         indexConditions.add(condition);
     }
 
+    /**
+     * Get the index conditions.
+     *
+     * @return the index conditions
+     */
+    public ArrayList<IndexCondition> getIndexConditions() {
+        return indexConditions;
+    }
+
     /**
      * Add a filter condition.
      *
@@ -887,6 +1160,15 @@ public void setIndex(Index index, boolean reverse) {
         cursor.setIndex(index, reverse);
     }
 
+    /**
+     * Check whether the index is read in descending order.
+     *
+     * @return whether the index is read in descending order
+     */
+    public boolean isReverse() {
+        return cursor.isReverse();
+    }
+
     public void setUsed(boolean used) {
         this.used = used;
     }
@@ -22,6 +22,8 @@
 
 import org.h2.api.ErrorCode;
 import org.h2.compress.CompressDeflate;
+import org.h2.compress.CompressLZ4;
+import org.h2.compress.CompressLZ4Huffman;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.CompressNo;
 import org.h2.compress.Compressor;
@@ -187,7 +189,7 @@ public static CompressTool getInstance() {
      * @param in
      *            the byte array with the original data
      * @param algorithm
-     *            the algorithm (LZF, DEFLATE)
+     *            the algorithm (LZF, DEFLATE, LZ4, LZ4HUFFMAN)
      * @return the compressed data
      */
     public byte[] compress(byte[] in, String algorithm) {
@@ -379,6 +381,10 @@ private static int getCompressAlgorithm(String algorithm) {
             return Compressor.LZF;
         } else if ("DEFLATE".equals(algorithm)) {
             return Compressor.DEFLATE;
+        } else if ("LZ4".equals(algorithm)) {
+            return Compressor.LZ4;
+        } else if ("LZ4HUFFMAN".equals(algorithm)) {
+            return Compressor.LZ4_HUFFMAN;
         } else {
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, algorithm);
         }
@@ -392,6 +398,10 @@ private static Compressor getCompressor(int algorithm) {
             return new CompressLZF();
         case Compressor.DEFLATE:
             return new CompressDeflate();
+        case Compressor.LZ4:
+            return new CompressLZ4();
+        case Compressor.LZ4_HUFFMAN:
+            return new CompressLZ4Huffman();
         default:
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, Integer.toString(algorithm));
         }
@@ -24,6 +24,7 @@
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -764,6 +765,18 @@ public static ThreadPoolExecutor createSingleThreadExecutor(String threadName, B
                                         });
     }
 
+    public static ThreadPoolExecutor createFixedThreadExecutor(String threadName, int threadCount) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                                        new LinkedBlockingQueue<>(),
+                                        r -> {
+                                            Thread thread = new Thread(r,
+                                                    threadName + '-' + threadNumber.incrementAndGet());
+                                            thread.setDaemon(true);
+                                            return thread;
+                                        });
+    }
+
     /**
      * Makes sure that all currently submitted tasks are processed before this method returns.
      * It is assumed that there will be no new submissions to this executor, once this method has started.
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.test.bench;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This test measures full scans of a table with simple conditions on numeric
+ * columns. In H2 such conditions are evaluated for batches of rows, unless
+ * OPTIMIZE_BATCH_CONDITIONS=FALSE is appended to the database URL.
+ */
+public class BenchBatchConditions implements Bench {
+
+    private static final String[] CONDITIONS = {
+            "A < 100",
+            "A + B * 2 > 150000 AND C IS NOT NULL",
+            "B BETWEEN 10 AND 20 OR C = 5",
+            "D * 2.5 < 100",
+            "B < 5 OR E LIKE 'x1%'",
+    };
+
+    private Database database;
+    private int records;
+
+    @Override
+    public void init(Database db, int size) throws SQLException {
+        this.database = db;
+        this.records = size * 20;
+
+        db.start(this, "Init");
+        db.openConnection();
+        db.dropTable("TEST");
+        db.setAutoCommit(false);
+        db.update("CREATE TABLE TEST(ID INT NOT NULL PRIMARY KEY, A INT, B SMALLINT, C BIGINT, D DOUBLE,"
+                + " E VARCHAR(10))");
+        db.commit();
+        PreparedStatement prep = db.prepare("INSERT INTO TEST VALUES(?, ?, ?, ?, ?, ?)");
+        for (int i = 1; i <= records; i++) {
+            prep.setInt(1, i);
+            prep.setInt(2, i * 7 % 100_000);
+            prep.setInt(3, i % 1_000);
+            if (i % 10 > 0) {
+                prep.setLong(4, i % 13);
+            } else {
+                prep.setNull(4, Types.BIGINT);
+            }
+            prep.setDouble(5, i / 1000.0);
+            prep.setString(6, "x" + i);
+            db.update(prep, "insertTest");
+            if (i % 1000 == 0) {
+                db.commit();
+            }
+        }
+        db.commit();
+        db.closeConnection();
+        db.end();
+    }
+
+    @Override
+    public void runTest() throws SQLException {
+        Database db = database;
+        db.openConnection();
+        for (int i = 0; i < CONDITIONS.length; i++) {
+            PreparedStatement prep = db.prepare("SELECT COUNT(*), SUM(ID) FROM TEST WHERE " + CONDITIONS[i]);
+            db.start(this, "Scan (condition " + (i + 1) + ')');
+            for (int j = 0; j < 10; j++) {
+                db.queryReadResult(prep);
+            }
+            db.end();
+        }
+        db.closeConnection();
+    }
+
+    @Override
+    public String getName() {
+        return "BenchBatchConditions";
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.test.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This test measures the throughput under heavy update contention. Multiple
+ * threads (one thread per connection) update a few hot rows. Each transaction
+ * updates two of these rows in random order, so that transactions wait for
+ * each other, and some of them are chosen as deadlock victims. Failed
+ * transactions are rolled back and counted, but not retried.
+ */
+public class BenchHotRows implements Bench, Runnable {
+
+    private static final int HOT_ROWS = 8;
+
+    private int threadCount = 16;
+
+    // master data
+    private Database database;
+    private int transactionPerClient;
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // client data
+    private BenchHotRows master;
+    private Connection conn;
+    private PreparedStatement update;
+    private Random random;
+
+    public BenchHotRows() {
+        // nothing to do
+    }
+
+    private BenchHotRows(BenchHotRows master, int seed) throws SQLException {
+        this.master = master;
+        random = new Random(seed);
+        conn = master.database.openNewConnection();
+        conn.setAutoCommit(false);
+        update = conn.prepareStatement(
+                "UPDATE COUNTERS SET COUNTER=COUNTER+1 WHERE ID=?");
+    }
+
+    @Override
+    public void init(Database db, int size) throws SQLException {
+        this.database = db;
+        this.transactionPerClient = size / 4;
+
+        db.start(this, "Init");
+        db.openConnection();
+        db.dropTable("COUNTERS");
+        db.update("CREATE TABLE COUNTERS(ID INT NOT NULL PRIMARY KEY, COUNTER INT)");
+        db.setAutoCommit(false);
+        PreparedStatement prep = db.prepare("INSERT INTO COUNTERS VALUES(?, 0)");
+        for (int i = 0; i < HOT_ROWS; i++) {
+            prep.setInt(1, i);
+            db.update(prep, "insertCounters");
+        }
+        db.commit();
+        db.closeConnection();
+        db.end();
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < master.transactionPerClient; i++) {
+            int first = random.nextInt(HOT_ROWS);
+            int second = (first + 1 + random.nextInt(HOT_ROWS - 1)) % HOT_ROWS;
+            try {
+                update.setInt(1, first);
+                master.database.update(update, "updateCounters");
+                update.setInt(1, second);
+                master.database.update(update, "updateCounters");
+                conn.commit();
+            } catch (SQLException ignore) {
+                // lock timeout or deadlock
+                master.failed.incrementAndGet();
+                try {
+                    conn.rollback();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        try {
+            conn.setAutoCommit(true);
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void runTest() throws Exception {
+        Database db = database;
+        db.openConnection();
+        failed.set(0);
+        db.start(this, "Transactions");
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new BenchHotRows(this, i), "BenchHotRows-" + i);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        db.end();
+        db.log(getName() + ": Failed transactions", "tx", failed.get());
+        db.closeConnection();
+    }
+
+    @Override
+    public String getName() {
+        return "BenchHotRows";
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2004-2025 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.test.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * This test measures the throughput of short transactions while many sessions
+ * have an open transaction. Each session updates its own row, so that there
+ * are no lock conflicts. A few threads take turns on the sessions: each
+ * commits the previous transaction of a session and begins the next one, so
+ * that the transactions of all sessions are open almost all the time.
+ */
+public class BenchSessions implements Bench, Runnable {
+
+    private int sessionCount = 10_000;
+
+    private int threadCount = 16;
+
+    // master data
+    private Database database;
+    private int transactionPerThread;
+    private Connection[] connections;
+    private PreparedStatement[] updates;
+
+    // client data
+    private BenchSessions master;
+    private int firstSession;
+    private int lastSession;
+
+    public BenchSessions() {
+        // nothing to do
+    }
+
+    private BenchSessions(BenchSessions master, int firstSession, int lastSession) {
+        this.master = master;
+        this.firstSession = firstSession;
+        this.lastSession = lastSession;
+    }
+
+    @Override
+    public void init(Database db, int size) throws SQLException {
+        this.database = db;
+        this.transactionPerThread = size * 20 / threadCount;
+
+        db.start(this, "Init");
+        db.openConnection();
+        db.dropTable("SESSIONS");
+        db.update("CREATE TABLE SESSIONS(ID INT NOT NULL PRIMARY KEY, COUNTER INT)");
+        db.setAutoCommit(false);
+        PreparedStatement prep = db.prepare("INSERT INTO SESSIONS VALUES(?, 0)");
+        for (int i = 0; i < sessionCount; i++) {
+            prep.setInt(1, i);
+            db.update(prep, "insertSessions");
+        }
+        db.commit();
+        db.closeConnection();
+        db.end();
+    }
+
+    @Override
+    public void run() {
+        int session = firstSession;
+        try {
+            for (int i = 0; i < master.transactionPerThread; i++) {
+                Connection conn = master.connections[session];
+                conn.commit();
+                PreparedStatement update = master.updates[session];
+                update.setInt(1, session);
+                master.database.update(update, "updateSessions");
+                if (++session == lastSession) {
+                    session = firstSession;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void runTest() throws Exception {
+        Database db = database;
+        db.openConnection();
+        connections = new Connection[sessionCount];
+        updates = new PreparedStatement[sessionCount];
+        db.start(this, "Open sessions");
+        for (int i = 0; i < sessionCount; i++) {
+            Connection conn = db.openNewConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement update = conn.prepareStatement(
+                    "UPDATE SESSIONS SET COUNTER=COUNTER+1 WHERE ID=?");
+            update.setInt(1, i);
+            db.update(update, "updateSessions");
+            connections[i] = conn;
+            updates[i] = update;
+        }
+        db.end();
+
+        db.start(this, "Transactions");
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new BenchSessions(this,
+                    sessionCount * i / threadCount, sessionCount * (i + 1) / threadCount),
+                    "BenchSessions-" + i);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        db.end();
+
+        for (Connection conn : connections) {
+            conn.commit();
+            conn.close();
+        }
+        connections = null;
+        updates = null;
+        db.closeConnection();
+    }
+
+    @Override
+    public String getName() {
+        return "BenchSessions";
+    }
+
+    public void setSessionCount(int sessionCount) {
+        this.sessionCount = sessionCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+}
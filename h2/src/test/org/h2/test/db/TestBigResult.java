@@ -53,6 +53,7 @@ public void test() throws SQLException {
         testLargeUpdateDelete();
         testCloseConnectionDelete();
         testOrderGroup();
+        testGroupPartitions();
         testLimitBufferedResult();
         deleteDb("bigResult");
     }
@@ -424,6 +425,31 @@ private void testLimitBufferedResult() throws SQLException {
         conn.close();
     }
 
+    private void testGroupPartitions() throws SQLException {
+        deleteDb("bigResult");
+        Connection conn = getConnection("bigResult");
+        Statement stat = conn.createStatement();
+        int groups = getSize(1_000, 20_000);
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, G INT) AS SELECT X, MOD(X, " + groups
+                + ") FROM SYSTEM_RANGE(1, " + 3 * groups + ')');
+        // partitions have more groups than the limit, they are partitioned
+        // again
+        stat.execute("SET MAX_MEMORY_ROWS 4");
+        ResultSet rs = stat.executeQuery("SELECT G, COUNT(*), SUM(ID) FROM TEST GROUP BY G");
+        boolean[] found = new boolean[groups];
+        for (int i = 0; i < groups; i++) {
+            assertTrue(rs.next());
+            int g = rs.getInt(1);
+            assertFalse(found[g]);
+            found[g] = true;
+            assertEquals(3, rs.getInt(2));
+            int first = g == 0 ? groups : g;
+            assertEquals(3L * first + 3L * groups, rs.getLong(3));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+
     private void testOrderGroup() throws SQLException {
         deleteDb("bigResult");
         Connection conn = getConnection("bigResult");
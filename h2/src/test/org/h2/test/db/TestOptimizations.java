@@ -87,6 +87,9 @@ public void test() throws Exception {
         testIndexUseDespiteNullsFirst();
         testConvertOrToIn();
         testConditionAndOrDistributiveLaw();
+        testBatchConditions();
+        testHashJoinSpill();
+        testParallelScan();
         deleteDb("optimizations");
     }
 
@@ -1160,7 +1163,7 @@ private void testUseCoveringIndex() throws SQLException {
                 "FROM table_b b JOIN table_a a ON b.table_a_id = a.id GROUP BY b.table_a_id " +
                 "HAVING A.ACTIVE = TRUE");
         rs.next();
-        assertContains(rs.getString(1), "/* PUBLIC.TABLE_B_IDX: TABLE_A_ID = A.ID */");
+        assertContains(rs.getString(1), "/* merge join PUBLIC.TABLE_B_IDX: TABLE_A_ID = A.ID */");
 
         rs = stat.executeQuery("EXPLAIN ANALYZE SELECT MAX(id) FROM table_b GROUP BY table_a_id");
         rs.next();
@@ -1326,6 +1329,137 @@ private void testConditionAndOrDistributiveLaw() throws SQLException {
         conn.close();
     }
 
+    private void testBatchConditions() throws SQLException {
+        deleteDb("optimizations");
+        deleteDb("optimizations2");
+        String[] conditions = {
+                "A < 100",
+                "A + B * 2 > 150000 AND C IS NOT NULL",
+                "B BETWEEN 10 AND 20 OR C = 5",
+                "C IS DISTINCT FROM 1 AND D * 2.5 < 100",
+                "A * 3000000000 > 0",
+                "A - C NOT BETWEEN SYMMETRIC 100 AND 10",
+                "B < 5 OR E LIKE 'x1%'",
+        };
+        int rowCount = 100_000;
+        Connection conn = getConnection("optimizations");
+        Connection conn2 = getConnection("optimizations2;OPTIMIZE_BATCH_CONDITIONS=FALSE");
+        for (Connection c : new Connection[] { conn, conn2 }) {
+            Statement stat = c.createStatement();
+            stat.execute("SET OPTIMIZE_REUSE_RESULTS 0");
+            stat.execute("CREATE TABLE TEST(ID BIGINT PRIMARY KEY, A INTEGER, B SMALLINT, C BIGINT, D DOUBLE,"
+                    + " E VARCHAR(10))");
+            stat.execute("INSERT INTO TEST SELECT X, MOD(X * 7, 100000), MOD(X, 1000),"
+                    + " CASE WHEN MOD(X, 10) > 0 THEN MOD(X, 13) END, X / 1000.0, 'x' || X"
+                    + " FROM SYSTEM_RANGE(1, " + rowCount + ')');
+        }
+        for (String condition : conditions) {
+            String sql = "SELECT COUNT(*), SUM(ID) FROM TEST WHERE " + condition;
+            for (int i = 0; i < 3; i++) {
+                ResultSet rs = conn.createStatement().executeQuery(sql);
+                ResultSet rs2 = conn2.createStatement().executeQuery(sql);
+                assertTrue(rs.next());
+                assertTrue(rs2.next());
+                assertEquals(rs2.getLong(1), rs.getLong(1));
+                assertEquals(rs2.getLong(2), rs.getLong(2));
+            }
+        }
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, conn.createStatement(),
+                "SELECT COUNT(*) FROM TEST WHERE A * 3000000000000000 > 0");
+        conn.close();
+        conn2.close();
+        deleteDb("optimizations2");
+    }
+
+    private void testHashJoinSpill() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations;MAX_MEMORY_ROWS=10000");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T1(ID BIGINT PRIMARY KEY, V INTEGER)");
+        stat.execute("INSERT INTO T1 SELECT X, MOD(X, 50000) FROM SYSTEM_RANGE(1, 200000)");
+        stat.execute("CREATE TABLE T2(ID BIGINT PRIMARY KEY, V INTEGER)");
+        stat.execute("INSERT INTO T2 SELECT X, X * 10 FROM SYSTEM_RANGE(1, 5000)");
+        String sql = "SELECT COUNT(*), COUNT(T1.ID), SUM(T1.ID), SUM(T2.ID) FROM T2 LEFT JOIN T1 ON T1.V = T2.V";
+        ResultSet rs = stat.executeQuery("EXPLAIN " + sql);
+        rs.next();
+        assertContains(rs.getString(1), "hash join");
+        long count = 0, count1 = 0, sum1 = 0, sum2 = 0;
+        for (long id2 = 1; id2 <= 5000; id2++) {
+            long v = id2 * 10;
+            if (v < 50000) {
+                for (long id1 = v; id1 <= 200000; id1 += 50000) {
+                    count++;
+                    count1++;
+                    sum1 += id1;
+                    sum2 += id2;
+                }
+            } else {
+                count++;
+                sum2 += id2;
+            }
+        }
+        rs = stat.executeQuery(sql);
+        rs.next();
+        assertEquals(count, rs.getLong(1));
+        assertEquals(count1, rs.getLong(2));
+        assertEquals(sum1, rs.getLong(3));
+        assertEquals(sum2, rs.getLong(4));
+        rs = stat.executeQuery("SELECT T2.ID, T1.ID FROM T2 LEFT JOIN T1 ON T1.V = T2.V"
+                + " WHERE T2.ID BETWEEN 4999 AND 5000 ORDER BY T2.ID, T1.ID");
+        for (long id1 = 49990; id1 <= 200000; id1 += 50000) {
+            assertTrue(rs.next());
+            assertEquals(4999, rs.getLong(1));
+            assertEquals(id1, rs.getLong(2));
+        }
+        assertTrue(rs.next());
+        assertEquals(5000, rs.getLong(1));
+        rs.getLong(2);
+        assertTrue(rs.wasNull());
+        assertFalse(rs.next());
+        conn.close();
+        conn = getConnection("optimizations;OPTIMIZE_HASH_JOIN=FALSE");
+        rs = conn.createStatement().executeQuery("EXPLAIN " + sql);
+        rs.next();
+        assertFalse(rs.getString(1).contains("hash join"));
+        conn.close();
+    }
+
+    private void testParallelScan() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations;PARALLEL_SCAN_THREADS=4");
+        Statement stat = conn.createStatement();
+        int rowCount = 200_000;
+        stat.execute("CREATE TABLE TEST(ID BIGINT PRIMARY KEY, V INTEGER)");
+        stat.execute("INSERT INTO TEST SELECT X, MOD(X, 7) FROM SYSTEM_RANGE(1, " + rowCount + ')');
+        String sql = "SELECT ID, V FROM TEST WHERE V < 7";
+        ResultSet rs = stat.executeQuery("EXPLAIN " + sql);
+        rs.next();
+        assertContains(rs.getString(1), "parallel");
+        // rows of all chunks are returned in the order of keys
+        rs = stat.executeQuery(sql);
+        for (int i = 1; i <= rowCount; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getLong(1));
+            assertEquals(i % 7, rs.getInt(2));
+        }
+        assertFalse(rs.next());
+        // the chunks that aren't needed any more are abandoned
+        for (int i = 0; i < 100; i++) {
+            rs = stat.executeQuery(sql + " FETCH FIRST 3 ROWS ONLY");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getLong(1));
+        }
+        rs = stat.executeQuery("SELECT COUNT(*), SUM(V) FROM TEST WHERE V < 7");
+        rs.next();
+        assertEquals(rowCount, rs.getLong(1));
+        assertEquals(599_997, rs.getLong(2));
+        stat.execute("SET QUERY_TIMEOUT 1");
+        assertThrows(ErrorCode.STATEMENT_WAS_CANCELED, stat,
+                "SELECT COUNT(*) FROM TEST A JOIN TEST B ON A.V = B.ID");
+        stat.execute("SET QUERY_TIMEOUT 0");
+        conn.close();
+    }
+
     private void testConditionsStackOverflow() throws SQLException {
         deleteDb("optimizations");
         Connection conn = getConnection("optimizations");
@@ -56,6 +56,7 @@ public void test() throws SQLException {
         }
         url += ";FILE_LOCK=NO;TRACE_LEVEL_FILE=0";
         testLobCrash();
+        testRedoLogLobCrash();
         testSummaryCrash();
         testCrash();
         testShutdown();
@@ -95,6 +96,37 @@ private void testLobCrash() throws SQLException {
         }
     }
 
+    private void testRedoLogLobCrash() throws SQLException {
+        if (config.networked) {
+            return;
+        }
+        String name = DB_NAME + "Redo";
+        deleteDb(dir, name);
+        String redoUrl = url.replace(DB_NAME, name) + ";REDO_LOG=TRUE";
+        Connection conn = getConnection(redoUrl);
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, DATA CLOB)");
+        stat.execute("CHECKPOINT");
+        stat.execute("SET WRITE_DELAY 1000000");
+        // committed after the last store commit, only in the redo log
+        for (int i = 0; i < 10; i++) {
+            stat.execute("INSERT INTO TEST VALUES(" + i + ", REPEAT('" + i + "', 20000))");
+        }
+        stat.execute("SHUTDOWN IMMEDIATELY");
+        JdbcUtils.closeSilently(conn);
+        conn = getConnection(redoUrl);
+        stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT ID, DATA FROM TEST ORDER BY ID");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+            assertEquals(new String(new char[20000]).replace('\0', (char) ('0' + i)), rs.getString(2));
+        }
+        assertFalse(rs.next());
+        conn.close();
+        deleteDb(dir, name);
+    }
+
     private void testSummaryCrash() throws SQLException {
         if (config.networked) {
             return;
@@ -1244,7 +1244,7 @@ CREATE TABLE TEST(C INT PRIMARY KEY);
 > ok
 
 EXPLAIN SELECT * FROM TEST A JOIN TEST B USING(C) ORDER BY A.C ASC FETCH FIRST 10 ROWS ONLY;
->> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.PRIMARY_KEY_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* PUBLIC.PRIMARY_KEY_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 FETCH FIRST 10 ROWS ONLY /* index sorted */
+>> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.PRIMARY_KEY_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* merge join PUBLIC.PRIMARY_KEY_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 FETCH FIRST 10 ROWS ONLY /* index sorted */
 
 EXPLAIN SELECT * FROM TEST A JOIN TEST B USING(C) ORDER BY A.C DESC FETCH FIRST 10 ROWS ONLY;
 >> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.PRIMARY_KEY_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* PUBLIC.PRIMARY_KEY_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 DESC FETCH FIRST 10 ROWS ONLY /* index sorted */
@@ -1256,7 +1256,7 @@ CREATE TABLE TEST(C INT UNIQUE);
 > ok
 
 EXPLAIN SELECT * FROM TEST A JOIN TEST B USING(C) ORDER BY A.C ASC FETCH FIRST 10 ROWS ONLY;
->> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.CONSTRAINT_INDEX_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* PUBLIC.CONSTRAINT_INDEX_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 FETCH FIRST 10 ROWS ONLY /* index sorted */
+>> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.CONSTRAINT_INDEX_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* merge join PUBLIC.CONSTRAINT_INDEX_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 FETCH FIRST 10 ROWS ONLY /* index sorted */
 
 EXPLAIN SELECT * FROM TEST A JOIN TEST B USING(C) ORDER BY A.C DESC FETCH FIRST 10 ROWS ONLY;
 >> SELECT "A"."C" FROM "PUBLIC"."TEST" "A" /* PUBLIC.CONSTRAINT_INDEX_2 */ INNER JOIN "PUBLIC"."TEST" "B" /* PUBLIC.CONSTRAINT_INDEX_2: C = A.C */ ON 1=1 WHERE "A"."C" = "B"."C" ORDER BY 1 DESC FETCH FIRST 10 ROWS ONLY /* index sorted */
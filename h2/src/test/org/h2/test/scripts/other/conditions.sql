@@ -166,3 +166,48 @@ EXPLAIN SELECT A = B OR A = C OR A = D C1, B = A OR A = C OR A = D C2, A = B OR
 
 DROP TABLE TEST;
 > ok
+
+CREATE TABLE TEST(ID BIGINT PRIMARY KEY, A INTEGER, B TINYINT, C DOUBLE, D BOOLEAN) AS
+    SELECT X, CASE WHEN MOD(X, 7) > 0 THEN X END, MOD(X, 100), CASE MOD(X, 5) WHEN 0 THEN NULL
+    WHEN 1 THEN CAST('NaN' AS DOUBLE) WHEN 2 THEN -0.0E0 ELSE X / 2.0E0 END, MOD(X, 3) = 0
+    FROM SYSTEM_RANGE(1, 3000);
+> ok
+
+SELECT COUNT(*) FROM TEST WHERE A < 2000;
+>> 1714
+
+SELECT COUNT(*) FROM TEST WHERE A IS NULL OR B - 100 < -95;
+>> 558
+
+SELECT COUNT(*) FROM TEST WHERE A IS NULL OR B * B * B > 900000;
+> exception NUMERIC_VALUE_OUT_OF_RANGE_1
+
+SELECT COUNT(*) FROM TEST WHERE B * 2 NOT BETWEEN SYMMETRIC 150 AND 50;
+>> 1470
+
+SELECT COUNT(*) FROM TEST WHERE A IS DISTINCT FROM B + 1 AND D;
+>> 1000
+
+SELECT COUNT(*) FROM TEST WHERE C > 1000;
+>> 1000
+
+SELECT COUNT(*) FROM TEST WHERE C = 0;
+>> 600
+
+SELECT COUNT(*) FROM TEST WHERE C IS NULL OR C = 'NaN';
+>> 1200
+
+SELECT COUNT(*) FROM TEST WHERE A * 1000000 > 0;
+> exception NUMERIC_VALUE_OUT_OF_RANGE_1
+
+SELECT COUNT(*) FROM TEST WHERE B < 0 AND A * 1000000 > 0;
+>> 0
+
+SELECT COUNT(*) FROM TEST WHERE A * 1000000 > 0 OR B < 100;
+>> 3000
+
+SELECT COUNT(*) FROM TEST WHERE B = 5 AND A / 0 > 0;
+> exception DIVISION_BY_ZERO_1
+
+DROP TABLE TEST;
+> ok
@@ -243,5 +243,50 @@ SET DEFAULT_NULL_ORDERING LOW;
 DROP TABLE TEST;
 > ok
 
+SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE SETTING_NAME = 'PARALLEL_SCAN_THREADS';
+>> 1
+
+CREATE TABLE TEST(ID BIGINT PRIMARY KEY, V INT) AS SELECT X, MOD(X, 10) FROM SYSTEM_RANGE(1, 20000);
+> ok
+
+EXPLAIN SELECT SUM(V) FROM TEST WHERE V > 5;
+>> SELECT SUM("V") FROM "PUBLIC"."TEST" /* PUBLIC.TEST.tableScan */ WHERE "V" > 5
+
+SET PARALLEL_SCAN_THREADS 0;
+> exception INVALID_VALUE_2
+
+SET PARALLEL_SCAN_THREADS 4;
+> ok
+
+SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE SETTING_NAME = 'PARALLEL_SCAN_THREADS';
+>> 4
+
+EXPLAIN SELECT SUM(V) FROM TEST WHERE V > 5;
+>> SELECT SUM("V") FROM "PUBLIC"."TEST" /* parallel PUBLIC.TEST.tableScan */ WHERE "V" > 5
+
+SELECT SUM(V), COUNT(*) FROM TEST WHERE V > 5;
+> SUM(V) COUNT(*)
+> ------ --------
+> 60000  8000
+> rows: 1
+
+SELECT COUNT(*), SUM(CASE WHEN ID = RN THEN 1 ELSE 0 END) FROM (SELECT ID, ROWNUM() RN FROM TEST);
+> COUNT(*) SUM(CASE WHEN ID = RN THEN 1 ELSE 0 END)
+> -------- ----------------------------------------
+> 20000    20000
+> rows: 1
+
+EXPLAIN SELECT * FROM TEST WHERE _ROWID_ > 10000;
+>> SELECT "PUBLIC"."TEST"."ID", "PUBLIC"."TEST"."V" FROM "PUBLIC"."TEST" /* PUBLIC.TEST.tableScan: _ROWID_ > CAST(10000 AS BIGINT) */ WHERE _ROWID_ > CAST(10000 AS BIGINT)
+
+EXPLAIN SELECT * FROM TEST FOR UPDATE;
+>> SELECT "PUBLIC"."TEST"."ID", "PUBLIC"."TEST"."V" FROM "PUBLIC"."TEST" /* PUBLIC.TEST.tableScan */ FOR UPDATE
+
+SET PARALLEL_SCAN_THREADS 1;
+> ok
+
+DROP TABLE TEST;
+> ok
+
 SET 1;
 > exception SYNTAX_ERROR_2
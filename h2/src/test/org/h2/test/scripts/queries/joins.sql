@@ -40,10 +40,10 @@ create table test(a int, b int) as select x, x from system_range(1, 100);
 
 -- the table t1 should be processed first
 explain select * from test t2, test t1 where t1.a=1 and t1.b = t2.b;
->> SELECT "T2"."A", "T2"."B", "T1"."A", "T1"."B" FROM "PUBLIC"."TEST" "T1" /* PUBLIC.TEST.tableScan */ /* WHERE T1.A = 1 */ INNER JOIN "PUBLIC"."TEST" "T2" /* PUBLIC.TEST.tableScan */ ON 1=1 WHERE ("T1"."A" = 1) AND ("T1"."B" = "T2"."B")
+>> SELECT "T2"."A", "T2"."B", "T1"."A", "T1"."B" FROM "PUBLIC"."TEST" "T1" /* PUBLIC.TEST.tableScan */ /* WHERE T1.A = 1 */ INNER JOIN "PUBLIC"."TEST" "T2" /* hash join PUBLIC.TEST.tableScan: B = T1.B */ ON 1=1 WHERE ("T1"."A" = 1) AND ("T1"."B" = "T2"."B")
 
 explain select * from test t1, test t2 where t1.a=1 and t1.b = t2.b;
->> SELECT "T1"."A", "T1"."B", "T2"."A", "T2"."B" FROM "PUBLIC"."TEST" "T1" /* PUBLIC.TEST.tableScan */ /* WHERE T1.A = 1 */ INNER JOIN "PUBLIC"."TEST" "T2" /* PUBLIC.TEST.tableScan */ ON 1=1 WHERE ("T1"."A" = 1) AND ("T1"."B" = "T2"."B")
+>> SELECT "T1"."A", "T1"."B", "T2"."A", "T2"."B" FROM "PUBLIC"."TEST" "T1" /* PUBLIC.TEST.tableScan */ /* WHERE T1.A = 1 */ INNER JOIN "PUBLIC"."TEST" "T2" /* hash join PUBLIC.TEST.tableScan: B = T1.B */ ON 1=1 WHERE ("T1"."A" = 1) AND ("T1"."B" = "T2"."B")
 
 drop table test;
 > ok
@@ -204,7 +204,7 @@ is null or three.val>=DATE'2006-07-01';
 explain select * from one natural join two left join two three on
 one.id=three.id left join one four on two.id=four.id where three.val
 is null or three.val>=DATE'2006-07-01';
->> SELECT "PUBLIC"."ONE"."ID", "PUBLIC"."TWO"."VAL", "THREE"."ID", "THREE"."VAL", "FOUR"."ID" FROM "PUBLIC"."ONE" /* PUBLIC.ONE.tableScan */ INNER JOIN "PUBLIC"."TWO" /* PUBLIC.PRIMARY_KEY_14: ID = PUBLIC.ONE.ID */ ON 1=1 /* WHERE PUBLIC.ONE.ID = PUBLIC.TWO.ID */ LEFT OUTER JOIN "PUBLIC"."TWO" "THREE" /* PUBLIC.PRIMARY_KEY_14: ID = ONE.ID */ ON "ONE"."ID" = "THREE"."ID" LEFT OUTER JOIN "PUBLIC"."ONE" "FOUR" /* PUBLIC.PRIMARY_KEY_1: ID = TWO.ID */ ON "TWO"."ID" = "FOUR"."ID" WHERE ("PUBLIC"."ONE"."ID" = "PUBLIC"."TWO"."ID") AND (("THREE"."VAL" IS NULL) OR ("THREE"."VAL" >= DATE '2006-07-01'))
+>> SELECT "PUBLIC"."ONE"."ID", "PUBLIC"."TWO"."VAL", "THREE"."ID", "THREE"."VAL", "FOUR"."ID" FROM "PUBLIC"."ONE" /* PUBLIC.ONE.tableScan */ INNER JOIN "PUBLIC"."TWO" /* merge join PUBLIC.PRIMARY_KEY_14: ID = PUBLIC.ONE.ID */ ON 1=1 /* WHERE PUBLIC.ONE.ID = PUBLIC.TWO.ID */ LEFT OUTER JOIN "PUBLIC"."TWO" "THREE" /* merge join PUBLIC.PRIMARY_KEY_14: ID = ONE.ID */ ON "ONE"."ID" = "THREE"."ID" LEFT OUTER JOIN "PUBLIC"."ONE" "FOUR" /* PUBLIC.PRIMARY_KEY_1: ID = TWO.ID */ ON "TWO"."ID" = "FOUR"."ID" WHERE ("PUBLIC"."ONE"."ID" = "PUBLIC"."TWO"."ID") AND (("THREE"."VAL" IS NULL) OR ("THREE"."VAL" >= DATE '2006-07-01'))
 
 -- Query #4: same as #3, but the joins have been manually re-ordered
 -- Correct result set, same as expected for #3.
@@ -253,7 +253,7 @@ explain select * from test1
 inner join test2 on test1.id=test2.id left
 outer join test3 on test2.id=test3.id
 where test3.id is null;
->> SELECT "PUBLIC"."TEST1"."ID", "PUBLIC"."TEST2"."ID", "PUBLIC"."TEST3"."ID" FROM "PUBLIC"."TEST1" /* PUBLIC.TEST1.tableScan */ INNER JOIN "PUBLIC"."TEST2" /* PUBLIC.PRIMARY_KEY_4C: ID = TEST1.ID */ ON 1=1 /* WHERE TEST1.ID = TEST2.ID */ LEFT OUTER JOIN "PUBLIC"."TEST3" /* PUBLIC.PRIMARY_KEY_4C0: ID = TEST2.ID */ ON "TEST2"."ID" = "TEST3"."ID" WHERE ("TEST3"."ID" IS NULL) AND ("TEST1"."ID" = "TEST2"."ID")
+>> SELECT "PUBLIC"."TEST1"."ID", "PUBLIC"."TEST2"."ID", "PUBLIC"."TEST3"."ID" FROM "PUBLIC"."TEST1" /* PUBLIC.TEST1.tableScan */ INNER JOIN "PUBLIC"."TEST2" /* merge join PUBLIC.PRIMARY_KEY_4C: ID = TEST1.ID */ ON 1=1 /* WHERE TEST1.ID = TEST2.ID */ LEFT OUTER JOIN "PUBLIC"."TEST3" /* PUBLIC.PRIMARY_KEY_4C0: ID = TEST2.ID */ ON "TEST2"."ID" = "TEST3"."ID" WHERE ("TEST3"."ID" IS NULL) AND ("TEST1"."ID" = "TEST2"."ID")
 
 insert into test1 select x from system_range(2, 1000);
 > update count: 999
@@ -270,7 +270,7 @@ explain select * from test1
 inner join test2 on test1.id=test2.id
 left outer join test3 on test2.id=test3.id
 where test3.id is null;
->> SELECT "PUBLIC"."TEST1"."ID", "PUBLIC"."TEST2"."ID", "PUBLIC"."TEST3"."ID" FROM "PUBLIC"."TEST2" /* PUBLIC.TEST2.tableScan */ LEFT OUTER JOIN "PUBLIC"."TEST3" /* PUBLIC.PRIMARY_KEY_4C0: ID = TEST2.ID */ ON "TEST2"."ID" = "TEST3"."ID" INNER JOIN "PUBLIC"."TEST1" /* PUBLIC.PRIMARY_KEY_4: ID = TEST2.ID */ ON 1=1 WHERE ("TEST3"."ID" IS NULL) AND ("TEST1"."ID" = "TEST2"."ID")
+>> SELECT "PUBLIC"."TEST1"."ID", "PUBLIC"."TEST2"."ID", "PUBLIC"."TEST3"."ID" FROM "PUBLIC"."TEST2" /* PUBLIC.TEST2.tableScan */ LEFT OUTER JOIN "PUBLIC"."TEST3" /* merge join PUBLIC.PRIMARY_KEY_4C0: ID = TEST2.ID */ ON "TEST2"."ID" = "TEST3"."ID" INNER JOIN "PUBLIC"."TEST1" /* merge join PUBLIC.PRIMARY_KEY_4: ID = TEST2.ID */ ON 1=1 WHERE ("TEST3"."ID" IS NULL) AND ("TEST1"."ID" = "TEST2"."ID")
 
 SELECT TEST1.ID, TEST2.ID, TEST3.ID
 FROM TEST2
@@ -567,7 +567,7 @@ select * from t1 natural join t2;
 > rows: 0
 
 explain select * from t1 natural join t2;
->> SELECT "PUBLIC"."T1"."ID", "PUBLIC"."T1"."NAME" FROM "PUBLIC"."T1" /* PUBLIC.T1.tableScan */ INNER JOIN "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ ON 1=1 WHERE ("PUBLIC"."T1"."ID" = "PUBLIC"."T2"."ID") AND ("PUBLIC"."T1"."NAME" = "PUBLIC"."T2"."NAME")
+>> SELECT "PUBLIC"."T1"."ID", "PUBLIC"."T1"."NAME" FROM "PUBLIC"."T1" /* PUBLIC.T1.tableScan */ INNER JOIN "PUBLIC"."T2" /* hash join PUBLIC.T2.tableScan: ID = PUBLIC.T1.ID AND NAME = PUBLIC.T1.NAME */ ON 1=1 WHERE ("PUBLIC"."T1"."ID" = "PUBLIC"."T2"."ID") AND ("PUBLIC"."T1"."NAME" = "PUBLIC"."T2"."NAME")
 
 drop table t1;
 > ok
@@ -601,7 +601,7 @@ select * from customer c natural join invoice i natural join INVOICE_LINE l;
 > rows: 2
 
 explain select * from customer c natural join invoice i natural join INVOICE_LINE l;
->> SELECT "C"."CUSTOMERID", "C"."CUSTOMER_NAME", "I"."INVOICEID", "I"."INVOICE_TEXT", "L"."LINE_ID", "L"."LINE_TEXT" FROM "PUBLIC"."INVOICE" "I" /* PUBLIC.INVOICE.tableScan */ INNER JOIN "PUBLIC"."INVOICE_LINE" "L" /* PUBLIC.INVOICE_LINE.tableScan */ ON 1=1 /* WHERE (I.CUSTOMERID = L.CUSTOMERID) AND (I.INVOICEID = L.INVOICEID) */ INNER JOIN "PUBLIC"."CUSTOMER" "C" /* PUBLIC.CUSTOMER.tableScan */ ON 1=1 WHERE ("C"."CUSTOMERID" = "I"."CUSTOMERID") AND ("I"."CUSTOMERID" = "L"."CUSTOMERID") AND ("I"."INVOICEID" = "L"."INVOICEID")
+>> SELECT "C"."CUSTOMERID", "C"."CUSTOMER_NAME", "I"."INVOICEID", "I"."INVOICE_TEXT", "L"."LINE_ID", "L"."LINE_TEXT" FROM "PUBLIC"."INVOICE" "I" /* PUBLIC.INVOICE.tableScan */ INNER JOIN "PUBLIC"."INVOICE_LINE" "L" /* hash join PUBLIC.INVOICE_LINE.tableScan: CUSTOMERID = I.CUSTOMERID AND INVOICEID = I.INVOICEID */ ON 1=1 /* WHERE (I.CUSTOMERID = L.CUSTOMERID) AND (I.INVOICEID = L.INVOICEID) */ INNER JOIN "PUBLIC"."CUSTOMER" "C" /* hash join PUBLIC.CUSTOMER.tableScan: CUSTOMERID = I.CUSTOMERID */ ON 1=1 WHERE ("C"."CUSTOMERID" = "I"."CUSTOMERID") AND ("I"."CUSTOMERID" = "L"."CUSTOMERID") AND ("I"."INVOICEID" = "L"."INVOICEID")
 
 select c.*, i.*, l.* from customer c natural join invoice i natural join INVOICE_LINE l;
 > CUSTOMERID CUSTOMER_NAME CUSTOMERID INVOICEID INVOICE_TEXT LINE_ID INVOICEID CUSTOMERID LINE_TEXT
@@ -611,7 +611,7 @@ select c.*, i.*, l.* from customer c natural join invoice i natural join INVOICE
 > rows: 2
 
 explain select c.*, i.*, l.* from customer c natural join invoice i natural join INVOICE_LINE l;
->> SELECT "C"."CUSTOMERID", "C"."CUSTOMER_NAME", "I"."CUSTOMERID", "I"."INVOICEID", "I"."INVOICE_TEXT", "L"."LINE_ID", "L"."INVOICEID", "L"."CUSTOMERID", "L"."LINE_TEXT" FROM "PUBLIC"."INVOICE" "I" /* PUBLIC.INVOICE.tableScan */ INNER JOIN "PUBLIC"."INVOICE_LINE" "L" /* PUBLIC.INVOICE_LINE.tableScan */ ON 1=1 /* WHERE (I.CUSTOMERID = L.CUSTOMERID) AND (I.INVOICEID = L.INVOICEID) */ INNER JOIN "PUBLIC"."CUSTOMER" "C" /* PUBLIC.CUSTOMER.tableScan */ ON 1=1 WHERE ("C"."CUSTOMERID" = "I"."CUSTOMERID") AND ("I"."CUSTOMERID" = "L"."CUSTOMERID") AND ("I"."INVOICEID" = "L"."INVOICEID")
+>> SELECT "C"."CUSTOMERID", "C"."CUSTOMER_NAME", "I"."CUSTOMERID", "I"."INVOICEID", "I"."INVOICE_TEXT", "L"."LINE_ID", "L"."INVOICEID", "L"."CUSTOMERID", "L"."LINE_TEXT" FROM "PUBLIC"."INVOICE" "I" /* PUBLIC.INVOICE.tableScan */ INNER JOIN "PUBLIC"."INVOICE_LINE" "L" /* hash join PUBLIC.INVOICE_LINE.tableScan: CUSTOMERID = I.CUSTOMERID AND INVOICEID = I.INVOICEID */ ON 1=1 /* WHERE (I.CUSTOMERID = L.CUSTOMERID) AND (I.INVOICEID = L.INVOICEID) */ INNER JOIN "PUBLIC"."CUSTOMER" "C" /* hash join PUBLIC.CUSTOMER.tableScan: CUSTOMERID = I.CUSTOMERID */ ON 1=1 WHERE ("C"."CUSTOMERID" = "I"."CUSTOMERID") AND ("I"."CUSTOMERID" = "L"."CUSTOMERID") AND ("I"."INVOICEID" = "L"."INVOICEID")
 
 drop table customer;
 > ok
@@ -957,7 +957,7 @@ SELECT * FROM T1 RIGHT JOIN T2 USING (A);
 > rows: 2
 
 EXPLAIN SELECT * FROM T1 RIGHT JOIN T2 USING (A);
->> SELECT "PUBLIC"."T2"."A", "PUBLIC"."T1"."B", "PUBLIC"."T2"."C" FROM "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ LEFT OUTER JOIN "PUBLIC"."T1" /* PUBLIC.PRIMARY_KEY_A: A = PUBLIC.T2.A */ ON "PUBLIC"."T1"."A" = "PUBLIC"."T2"."A"
+>> SELECT "PUBLIC"."T2"."A", "PUBLIC"."T1"."B", "PUBLIC"."T2"."C" FROM "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ LEFT OUTER JOIN "PUBLIC"."T1" /* merge join PUBLIC.PRIMARY_KEY_A: A = PUBLIC.T2.A */ ON "PUBLIC"."T1"."A" = "PUBLIC"."T2"."A"
 
 SELECT * EXCEPT (T1.A) FROM T1 RIGHT JOIN T2 USING (A);
 > B    C
@@ -1020,7 +1020,7 @@ SELECT * FROM T1 JOIN T2 LEFT JOIN T3 ON T2.C2 = T3.C3 ON T1.C1 = T2.C2;
 > rows: 2
 
 EXPLAIN SELECT * FROM T1 JOIN T2 LEFT JOIN T3 ON T2.C2 = T3.C3 ON T1.C1 = T2.C2;
->> SELECT "PUBLIC"."T1"."C1", "PUBLIC"."T2"."C2", "PUBLIC"."T3"."C3" FROM ( "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ LEFT OUTER JOIN "PUBLIC"."T3" /* PUBLIC.T3.tableScan */ ON "T2"."C2" = "T3"."C3" ) INNER JOIN "PUBLIC"."T1" /* PUBLIC.T1.tableScan */ ON 1=1 WHERE "T1"."C1" = "T2"."C2"
+>> SELECT "PUBLIC"."T1"."C1", "PUBLIC"."T2"."C2", "PUBLIC"."T3"."C3" FROM "PUBLIC"."T1" /* PUBLIC.T1.tableScan */ INNER JOIN ( "PUBLIC"."T2" /* hash join PUBLIC.T2.tableScan: C2 = T1.C1 */ LEFT OUTER JOIN "PUBLIC"."T3" /* hash join PUBLIC.T3.tableScan: C3 = T2.C2 */ ON "T2"."C2" = "T3"."C3" ) ON 1=1 WHERE "T1"."C1" = "T2"."C2"
 
 SELECT * FROM T1 RIGHT JOIN T2 LEFT JOIN T3 ON T2.C2 = T3.C3 ON T1.C1 = T2.C2;
 > C1   C2 C3
@@ -1031,7 +1031,7 @@ SELECT * FROM T1 RIGHT JOIN T2 LEFT JOIN T3 ON T2.C2 = T3.C3 ON T1.C1 = T2.C2;
 > rows: 3
 
 EXPLAIN SELECT * FROM T1 RIGHT JOIN T2 LEFT JOIN T3 ON T2.C2 = T3.C3 ON T1.C1 = T2.C2;
->> SELECT "PUBLIC"."T1"."C1", "PUBLIC"."T2"."C2", "PUBLIC"."T3"."C3" FROM "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ LEFT OUTER JOIN "PUBLIC"."T3" /* PUBLIC.T3.tableScan */ ON "T2"."C2" = "T3"."C3" LEFT OUTER JOIN "PUBLIC"."T1" /* PUBLIC.T1.tableScan */ ON "T1"."C1" = "T2"."C2"
+>> SELECT "PUBLIC"."T1"."C1", "PUBLIC"."T2"."C2", "PUBLIC"."T3"."C3" FROM "PUBLIC"."T2" /* PUBLIC.T2.tableScan */ LEFT OUTER JOIN "PUBLIC"."T3" /* hash join PUBLIC.T3.tableScan: C3 = T2.C2 */ ON "T2"."C2" = "T3"."C3" LEFT OUTER JOIN "PUBLIC"."T1" /* hash join PUBLIC.T1.tableScan: C1 = T2.C2 */ ON "T1"."C1" = "T2"."C2"
 
 DROP TABLE T1, T2, T3;
 > ok
@@ -1096,3 +1096,104 @@ FROM A;
 > - ------------------------------------------------------------------------
 > 1 1
 > rows: 1
+
+CREATE TABLE A(ID INT PRIMARY KEY, X INT) AS SELECT X, MOD(X, 10) FROM SYSTEM_RANGE(1, 100);
+> ok
+
+CREATE TABLE B(Y INT, V VARCHAR) AS SELECT MOD(X, 20), 'v' || X FROM SYSTEM_RANGE(1, 60);
+> ok
+
+INSERT INTO B VALUES (NULL, 'n');
+> update count: 1
+
+EXPLAIN SELECT COUNT(*) FROM A JOIN B ON A.X = B.Y;
+>> SELECT COUNT(*) FROM "PUBLIC"."A" /* PUBLIC.A.tableScan */ INNER JOIN "PUBLIC"."B" /* hash join PUBLIC.B.tableScan: Y = A.X */ ON 1=1 WHERE "A"."X" = "B"."Y"
+
+SELECT COUNT(*) FROM A JOIN B ON A.X = B.Y;
+>> 300
+
+SELECT COUNT(*), COUNT(B.V) FROM A LEFT JOIN B ON A.X + 5 = B.Y AND B.V > 'v5';
+> COUNT(*) COUNT(B.V)
+> -------- ----------
+> 100      90
+> rows: 1
+
+EXPLAIN SELECT COUNT(*) FROM A JOIN (SELECT Y, COUNT(*) C FROM B GROUP BY Y) T ON T.Y = A.X;
+>> SELECT COUNT(*) FROM ( SELECT "Y", COUNT(*) AS "C" FROM "PUBLIC"."B" GROUP BY "Y" ) "T" /* SELECT Y, COUNT(*) AS C FROM PUBLIC.B /* PUBLIC.B.tableScan */ GROUP BY Y */ INNER JOIN "PUBLIC"."A" /* hash join PUBLIC.A.tableScan: X = T.Y */ ON 1=1 WHERE "T"."Y" = "A"."X"
+
+SELECT SUM(C) FROM A JOIN (SELECT Y, COUNT(*) C FROM B GROUP BY Y) T ON T.Y = A.X;
+>> 300
+
+SELECT COUNT(*) FROM A JOIN (VALUES (1, 'a'), (2, 'b'), (NULL, 'c')) T(K, N) ON A.X = T.K;
+>> 20
+
+CREATE TABLE M1(ID INT PRIMARY KEY) AS SELECT X FROM SYSTEM_RANGE(1, 50);
+> ok
+
+CREATE TABLE M2(ID INT PRIMARY KEY, K INT) AS SELECT X, MOD(X * 7, 60) FROM SYSTEM_RANGE(1, 200);
+> ok
+
+CREATE INDEX M2_K ON M2(K);
+> ok
+
+INSERT INTO M2 VALUES (0, NULL);
+> update count: 1
+
+EXPLAIN SELECT COUNT(*) FROM M1 JOIN M2 ON M1.ID = M2.K;
+>> SELECT COUNT(*) FROM "PUBLIC"."M1" /* PUBLIC.M1.tableScan */ INNER JOIN "PUBLIC"."M2" /* merge join PUBLIC.M2_K: K = M1.ID */ ON 1=1 WHERE "M1"."ID" = "M2"."K"
+
+SELECT COUNT(*), SUM(M2.ID) FROM M1 JOIN M2 ON M1.ID = M2.K;
+> COUNT(*) SUM(M2.ID)
+> -------- ----------
+> 167      16684
+> rows: 1
+
+SELECT COUNT(*), SUM(M2.ID) FROM M1 JOIN M2 ON M1.ID = M2.K WHERE M1.ID IN (40, 3, 17);
+> COUNT(*) SUM(M2.ID)
+> -------- ----------
+> 11       1100
+> rows: 1
+
+SELECT COUNT(*), COUNT(M2.ID) FROM M1 LEFT JOIN M2 ON M1.ID = M2.K;
+> COUNT(*) COUNT(M2.ID)
+> -------- ------------
+> 167      167
+> rows: 1
+
+DROP TABLE M1, M2;
+> ok
+
+CREATE TABLE C1(S CHAR(5)) AS SELECT CAST('a' AS CHAR(5)) FROM SYSTEM_RANGE(1, 30);
+> ok
+
+CREATE TABLE C2(S VARCHAR(5));
+> ok
+
+INSERT INTO C2 VALUES 'a', 'a  ', 'b';
+> update count: 3
+
+SELECT COUNT(*) FROM C1 JOIN C2 ON C1.S = C2.S;
+>> 60
+
+SELECT COUNT(*) FROM C2 JOIN C1 ON C1.S = C2.S;
+>> 60
+
+DROP TABLE C1, C2;
+> ok
+
+-- The next tests should be at the end of this file
+
+SET MAX_MEMORY_ROWS = 10;
+> ok
+
+SELECT COUNT(*) FROM A JOIN B ON A.X = B.Y;
+>> 300
+
+SELECT COUNT(*), COUNT(B.V) FROM A LEFT JOIN B ON A.X + 5 = B.Y AND B.V > 'v5';
+> COUNT(*) COUNT(B.V)
+> -------- ----------
+> 100      90
+> rows: 1
+
+DROP TABLE A, B;
+> ok
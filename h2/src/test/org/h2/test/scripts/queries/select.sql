@@ -1289,3 +1289,28 @@ SELECT * FROM TEST WHERE A >= 2 ORDER BY A DESC;
 
 DROP TABLE TEST;
 > ok
+
+CREATE TABLE TEST(ID INT PRIMARY KEY, G INT, V VARCHAR) AS SELECT X, MOD(X, 7), 'v' || MOD(X, 3) FROM SYSTEM_RANGE(1, 50);
+> ok
+
+CREATE TABLE TEST2(G INT, W INT) AS VALUES (1, 10), (1, 20), (3, 30);
+> ok
+
+SELECT TEST.G, COUNT(*) C, COUNT(DISTINCT V) D, SUM(W) S, LISTAGG(DISTINCT V) WITHIN GROUP (ORDER BY V) L
+    FROM TEST LEFT JOIN TEST2 ON TEST.G = TEST2.G GROUP BY TEST.G ORDER BY TEST.G;
+> G C  D S    L
+> - -- - ---- --------
+> 0 7  3 null v0,v1,v2
+> 1 16 3 240  v0,v1,v2
+> 2 7  3 null v0,v1,v2
+> 3 7  3 210  v0,v1,v2
+> 4 7  3 null v0,v1,v2
+> 5 7  3 null v0,v1,v2
+> 6 7  3 null v0,v1,v2
+> rows (ordered): 7
+
+SELECT COUNT(*) FROM (SELECT G FROM TEST GROUP BY G OFFSET 2 ROWS);
+>> 5
+
+DROP TABLE TEST, TEST2;
+> ok
@@ -8,6 +8,7 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -17,21 +18,28 @@
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import org.h2.mvstore.AppendOnlyMultiFileStore;
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.Chunk;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.LSMTreeMap;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.OffHeapStore;
+import org.h2.mvstore.Page;
 import org.h2.mvstore.RandomAccessStore;
+import org.h2.mvstore.RootReference;
+import org.h2.mvstore.ShardedMVMap;
 import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.LongDataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.mvstore.type.StringDataType;
 import org.h2.store.fs.FilePath;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
+import org.h2.util.Task;
 import org.h2.util.Utils;
 
 /**
@@ -41,6 +49,8 @@ public class TestMVStore extends TestBase {
 
     private static final int CURRENT_FORMAT = 3;
 
+    private static final int NEWEST_FORMAT = 4;
+
     /**
      * Run just this test.
      *
@@ -61,6 +71,17 @@ public void test() throws Exception {
         testEntrySet();
         testCompressEmptyPage();
         testCompressed();
+        testParallelSerialization();
+        testMemoryMappedFile();
+        testShardedMap();
+        testLSMTreeMap();
+        testRateLimitedCompaction();
+        testCompactMapsNotOpen();
+        testPageChecksum();
+        testLongKeyPages();
+        testMultiFileStore();
+        testReadAhead();
+        testChunkTable();
         testFileFormatExample();
         testMaxChunkLength();
         testCacheInfo();
@@ -235,24 +256,35 @@ private void testCompressed() {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
         String data = new String(new char[1000]).replace((char) 0, 'x');
-        long lastSize = 0;
-        for (int level = 0; level <= 2; level++) {
+        long lastSize = 0, uncompressedSize = 0;
+        for (int level = 0; level <= 4; level++) {
             FileUtils.delete(fileName);
             MVStore.Builder builder = new MVStore.Builder().fileName(fileName);
             if (level == 1) {
                 builder.compress();
             } else if (level == 2) {
                 builder.compressHigh();
+            } else if (level == 3) {
+                builder.compressLZ4();
+            } else if (level == 4) {
+                builder.compressLZ4Huffman();
             }
             try (MVStore s = builder.open()) {
+                // older versions can't read pages compressed with LZ4
+                assertEquals(Integer.toString(level >= 3 ? NEWEST_FORMAT : CURRENT_FORMAT),
+                        s.getStoreHeader().get("format").toString());
                 MVMap<String, String> map = s.openMap("data");
                 for (int i = 0; i < 400; i++) {
                     map.put(data + i, data);
                 }
             }
             long size = FileUtils.size(fileName);
-            if (level > 0) {
+            if (level == 0) {
+                uncompressedSize = size;
+            } else if (level <= 2) {
                 assertTrue(size < lastSize);
+            } else {
+                assertTrue(size < uncompressedSize);
             }
             lastSize = size;
             try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
@@ -262,6 +294,554 @@ private void testCompressed() {
                 }
             }
         }
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            s.openMap("data").put(1, data);
+        }
+        // the format of an existing store is changed when it is opened
+        try (MVStore s = new MVStore.Builder().fileName(fileName).compressLZ4().open()) {
+            s.openMap("data").put(2, data);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).readOnly().open()) {
+            assertEquals(Integer.toString(NEWEST_FORMAT), s.getStoreHeader().get("format").toString());
+            assertEquals(data, s.openMap("data").get(2));
+        }
+    }
+
+    private void testParallelSerialization() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        for (int level = 0; level <= 1; level++) {
+            FileUtils.delete(fileName);
+            MVStore.Builder builder = new MVStore.Builder().fileName(fileName).serializationThreads(4);
+            if (level == 1) {
+                builder.compress();
+            }
+            try (MVStore s = builder.open()) {
+                for (int m = 0; m < 3; m++) {
+                    MVMap<Integer, String> map = s.openMap("data" + m);
+                    for (int i = 0; i < 10_000; i++) {
+                        map.put(i, "Hello " + m + "/" + i);
+                    }
+                }
+                s.commit();
+                MVMap<Integer, String> map = s.openMap("data0");
+                for (int i = 0; i < 10_000; i += 3) {
+                    map.put(i, "Hi " + i);
+                }
+            }
+            try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+                for (int m = 0; m < 3; m++) {
+                    MVMap<Integer, String> map = s.openMap("data" + m);
+                    assertEquals(10_000, map.size());
+                    for (int i = 0; i < 10_000; i++) {
+                        String expected = m == 0 && i % 3 == 0 ? "Hi " + i : "Hello " + m + "/" + i;
+                        assertEquals(expected, map.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    private void testMemoryMappedFile() {
+        String fileName = "nioMapped:" + getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).cacheSize(0).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, "Hello " + i);
+            }
+            s.commit();
+            // pages are read while the file grows (and is re-mapped)
+            for (int i = 0; i < 10_000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+                map.put(i + 10_000, "Hi " + i);
+                if (i % 1000 == 0) {
+                    s.commit();
+                }
+            }
+            s.compactFile(1000);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(20_000, map.size());
+            for (int i = 0; i < 10_000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+                assertEquals("Hi " + i, map.get(i + 10_000));
+            }
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testShardedMap() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Long, String> map = s.openMap("data", new MVMap.Builder<Long, String>().shards(4));
+            assertEquals("sharded", map.getType());
+            assertNull(map.firstKey());
+            assertEquals(-1, map.getKeyIndex(1L));
+            AtomicInteger next = new AtomicInteger();
+            Task[] tasks = new Task[4];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() {
+                        for (int x; (x = next.incrementAndGet()) <= 10_000;) {
+                            map.put(2L * x, "Hello " + x);
+                        }
+                    }
+                };
+                tasks[i].execute();
+            }
+            for (Task t : tasks) {
+                t.get();
+            }
+            assertEquals(10_000, map.size());
+            assertEquals(2L, map.firstKey().longValue());
+            assertEquals(20_000L, map.lastKey().longValue());
+            assertEquals(4L, map.higherKey(2L).longValue());
+            assertEquals(4L, map.ceilingKey(3L).longValue());
+            assertEquals(2L, map.floorKey(3L).longValue());
+            assertEquals(2L, map.lowerKey(4L).longValue());
+            assertNull(map.lowerKey(2L));
+            assertEquals(9, map.getKeyIndex(20L));
+            assertEquals(-11, map.getKeyIndex(21L));
+            for (int i = 0; i < 10_000; i += 999) {
+                assertEquals(2L * (i + 1), map.getKey(i).longValue());
+            }
+            assertNull(map.getKey(10_000));
+            long expected = 2;
+            for (Cursor<Long, String> c = map.cursor(null); c.hasNext(); expected += 2) {
+                assertEquals(expected, c.next().longValue());
+                assertEquals("Hello " + expected / 2, c.getValue());
+            }
+            assertEquals(20_002, expected);
+            Cursor<Long, String> c = map.cursor(101L, 10L, true);
+            for (expected = 100; c.hasNext(); expected -= 2) {
+                assertEquals(expected, c.next().longValue());
+            }
+            assertEquals(8, expected);
+            c = map.cursor(10L);
+            c.skip(100);
+            assertEquals(210L, c.next().longValue());
+            s.commit();
+            for (long i = 2; i <= 20_000; i += 4) {
+                map.remove(i);
+            }
+            s.commit();
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            assertTrue(s.hasMap(ShardedMVMap.getShardName("data", 3)));
+            // the number of shards of existing maps is persisted
+            MVMap<Long, String> map = s.openMap("data");
+            assertEquals("sharded", map.getType());
+            assertEquals(5_000, map.size());
+            assertEquals(4L, map.firstKey().longValue());
+            assertEquals(20_000L, map.lastKey().longValue());
+            assertEquals(4_999, map.getKeyIndex(20_000L));
+            assertEquals("Hello 10", map.get(20L));
+            assertNull(map.get(18L));
+            s.removeMap(map);
+            assertFalse(s.hasMap(ShardedMVMap.getShardName("data", 0)));
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testRateLimitedCompaction() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitBufferSize(64)
+                .autoCompactRate(1).open()) {
+            s.setRetentionTime(0);
+            s.setVersionsToKeep(0);
+            FileStore<?> fileStore = s.getFileStore();
+            assertEquals(1024 * 1024, fileStore.getAutoCompactRate());
+            MVMap<Integer, String> map = s.openMap("data");
+            String value = new String(new char[100]).replace((char) 0, 'x');
+            for (int i = 0; i < 40_000; i++) {
+                map.put(i, value);
+                if (i % 1_000 == 0) {
+                    s.commit();
+                }
+            }
+            s.commit();
+            // keep every tenth entry, so that most chunks have a low fill rate
+            for (int i = 0; i < 40_000; i++) {
+                if (i % 10 != 0) {
+                    map.remove(i);
+                }
+            }
+            s.commit();
+            long start = System.nanoTime();
+            long written;
+            do {
+                sleep(10);
+                written = fileStore.getCompactWriteBytes();
+            } while (written == 0 && System.nanoTime() - start < 10_000_000_000L);
+            long elapsed = System.nanoTime() - start;
+            assertTrue(written > 0);
+            // the budget of one second, plus the rate since then
+            assertTrue(written + " > " + elapsed, written <= (1 + elapsed / 1_000_000_000L) * 1024 * 1024);
+            HashMap<String, String> info = new HashMap<>();
+            s.populateInfo(info::put);
+            assertTrue(Long.parseLong(info.get("info.COMPACT_WRITE_BYTES")) >= written);
+            assertNotNull(info.get("info.COMPACT_BACKLOG_BYTES"));
+            for (int i = 0; i < 40_000; i += 10) {
+                assertEquals(value, map.get(i));
+            }
+        }
+    }
+
+    private void testCompactMapsNotOpen() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> a = s.openMap("a");
+            for (int j = 0; j < 10; j++) {
+                MVMap<Integer, String> b = s.openMap("b" + j);
+                for (int i = 0; i < 1000; i++) {
+                    a.put(i, "a" + j + '-' + i);
+                    b.put(i, "b" + j + '-' + i);
+                }
+                s.commit();
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open()) {
+            s.setRetentionTime(0);
+            s.setVersionsToKeep(0);
+            MVMap<Integer, String> a = s.openMap("a");
+            for (int i = 0; i < 1000; i++) {
+                a.put(i, "a" + i);
+            }
+            s.commit();
+            FileStore<?> fileStore = s.getFileStore();
+            int fillRate = fileStore.getChunksFillRate();
+            assertTrue(fillRate < 80);
+            // the other maps are not opened, their pages are copied as they are
+            assertTrue(fileStore.compact(100, 16 * 1024 * 1024));
+            s.commit();
+            s.commit();
+            assertTrue(fileStore.getChunksFillRate() + " " + fillRate, fileStore.getChunksFillRate() > fillRate);
+            for (int j = 0; j < 10; j++) {
+                int id = DataUtils.parseHexInt(s.getMetaMap().get(DataUtils.META_NAME + "b" + j));
+                assertNull(s.getMap(id));
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> a = s.openMap("a");
+            for (int j = 0; j < 10; j++) {
+                MVMap<Integer, String> b = s.openMap("b" + j);
+                assertEquals(1000, b.size());
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals("a" + i, a.get(i));
+                    assertEquals("b" + j + '-' + i, b.get(i));
+                }
+            }
+        }
+    }
+
+    private void testPageChecksum() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        long filePos;
+        try (MVStore s = new MVStore.Builder().fileName(fileName).pageChecksum().open()) {
+            // older versions can't read pages with checksums
+            assertEquals(Integer.toString(NEWEST_FORMAT), s.getStoreHeader().get("format").toString());
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, "Hello " + i);
+            }
+            s.commit();
+            Page<Integer, String> p = map.getRootPage();
+            while (!p.isLeaf()) {
+                p = p.getChildPage(0);
+            }
+            long pos = p.getPos();
+            s.openMap("other").put(1, "x");
+            s.commit();
+            Map<String, String> chunk = DataUtils.parseMap(
+                    s.getLayoutMap().get(DataUtils.LAYOUT_CHUNK + Integer.toHexString(DataUtils.getPageChunkId(pos))));
+            filePos = DataUtils.parseHexLong(chunk.get("block")) * 4096
+                    + DataUtils.getPageOffset(pos);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        // corrupt a key of the first leaf page
+        try (FileChannel fc = FilePath.get(fileName).open("rw")) {
+            ByteBuffer buff = ByteBuffer.allocate(1);
+            fc.read(buff, filePos + 20);
+            buff.put(0, (byte) (buff.get(0) ^ 1)).rewind();
+            fc.write(buff, filePos + 20);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).scrubRate(100).open()) {
+            s.setAutoCommitDelay(10);
+            FileStore<?> fileStore = s.getFileStore();
+            long start = System.nanoTime();
+            while (fileStore.getScrubErrorCount() == 0 && System.nanoTime() - start < 10_000_000_000L) {
+                sleep(10);
+            }
+            assertEquals(1, fileStore.getScrubErrorCount());
+            assertTrue(fileStore.getScrubbedPageCount() > 0);
+            assertContains(fileStore.getScrubLastError(), "checksum");
+            MVMap<Integer, String> map = s.openMap("data");
+            try {
+                map.get(0);
+                fail();
+            } catch (MVStoreException e) {
+                assertEquals(DataUtils.ERROR_FILE_CORRUPT, e.getErrorCode());
+            }
+            assertEquals("Hello 999", map.get(999));
+        }
+    }
+
+    private void testLongKeyPages() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        TreeMap<Long, String> expected = new TreeMap<>();
+        Random r = new Random(1);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Long, String> map = s.openMap("data",
+                    new MVMap.Builder<Long, String>().keyType(LongDataType.INSTANCE));
+            MVMap<Long, String> boxed = s.openMap("boxed");
+            for (int i = 0; i < 10_000; i++) {
+                long key = r.nextInt(5_000) - 1_000;
+                if (r.nextInt(4) == 0) {
+                    assertEquals(expected.remove(key), map.remove(key));
+                } else {
+                    String value = "v" + i;
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                }
+                if ((i & 1023) == 0) {
+                    s.commit();
+                }
+            }
+            for (long key = 0; key < 1000; key++) {
+                boxed.put(key, "v");
+            }
+            s.commit();
+            // the same keys need less memory in a long-key page
+            map = s.openMap("long", new MVMap.Builder<Long, String>().keyType(LongDataType.INSTANCE));
+            for (long key = 0; key < 1000; key++) {
+                map.put(key, "v");
+            }
+            Page<Long, String> p = map.getRootPage(), b = boxed.getRootPage();
+            while (!p.isLeaf()) {
+                p = p.getChildPage(0);
+                b = b.getChildPage(0);
+            }
+            assertEquals(b.getKeyCount(), p.getKeyCount());
+            assertTrue(p.getMemory() < b.getMemory());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Long, String> map = s.openMap("data",
+                    new MVMap.Builder<Long, String>().keyType(LongDataType.INSTANCE));
+            assertEquals(expected.size(), map.size());
+            Iterator<Long> it = expected.keySet().iterator();
+            for (Cursor<Long, String> c = map.cursor(null); c.hasNext();) {
+                Long key = c.next();
+                assertEquals(it.next(), key);
+                assertEquals(expected.get(key), c.getValue());
+            }
+            assertEquals(expected.firstKey(), map.firstKey());
+            assertEquals(expected.ceilingKey(100L), map.ceilingKey(100L));
+            assertEquals(expected.lastKey(), map.lastKey());
+            for (long key = -1_001; key < 4_001; key++) {
+                assertEquals(expected.get(key), map.getForLongKey(key));
+            }
+            it = expected.descendingKeySet().tailSet(2_000L).iterator();
+            for (Cursor<Long, String> c = map.cursor(2_000L, 1_000L, true); c.hasNext();) {
+                long key = c.nextLong();
+                assertEquals(it.next().longValue(), key);
+                assertEquals(key, c.getLongKey());
+                assertEquals(key, c.getKey().longValue());
+                assertEquals(expected.get(key), c.getValue());
+            }
+            assertTrue(it.next() < 1_000L);
+            MVMap<Long, String> append = s.openMap("append",
+                    new MVMap.Builder<Long, String>().keyType(LongDataType.INSTANCE).singleWriter());
+            for (long key = 0; key < 1000; key++) {
+                append.append(key, "a" + key);
+            }
+            assertEquals(1000, append.size());
+            assertEquals("a500", append.get(500L));
+        }
+    }
+
+    private void testLSMTreeMap() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random r = new Random(1);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            LSMTreeMap<Integer, String> map = (LSMTreeMap<Integer, String>) s.openMap("data",
+                    new MVMap.Builder<Integer, String>().lsmTree());
+            assertEquals("lsm", map.getType());
+            map.setMemtableSize(100);
+            assertNull(map.firstKey());
+            for (int i = 0; i < 20_000; i++) {
+                int key = r.nextInt(2_000);
+                if (r.nextInt(4) == 0) {
+                    assertEquals(expected.remove(key), map.remove(key));
+                } else {
+                    String value = "Hello " + i;
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                }
+                if (i % 5_000 == 0) {
+                    s.commit();
+                }
+            }
+            boolean merged = false;
+            for (String name : s.getMapNames()) {
+                merged |= name.matches("lsm\\.[1-9]\\..*");
+            }
+            assertTrue(merged);
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.firstKey(), map.firstKey());
+            assertEquals(expected.lastKey(), map.lastKey());
+            assertEquals(expected.higherKey(1_000), map.higherKey(1_000));
+            assertEquals(expected.lowerKey(1_000), map.lowerKey(1_000));
+            assertEquals(expected.floorKey(1_001), map.floorKey(1_001));
+            assertEquals(expected.ceilingKey(999), map.ceilingKey(999));
+            int index = expected.headMap(1_000).size();
+            assertEquals(expected.ceilingKey(1_000), map.getKey(index));
+            assertEquals(index, map.getKeyIndex(expected.ceilingKey(1_000)));
+            Iterator<Map.Entry<Integer, String>> it = expected.entrySet().iterator();
+            for (Cursor<Integer, String> c = map.cursor(null); c.hasNext();) {
+                Map.Entry<Integer, String> e = it.next();
+                assertEquals(e.getKey(), c.next());
+                assertEquals(e.getValue(), c.getValue());
+            }
+            assertFalse(it.hasNext());
+            it = expected.descendingMap().entrySet().iterator();
+            for (Cursor<Integer, String> c = map.cursor(null, null, true); c.hasNext();) {
+                assertEquals(it.next().getKey(), c.next());
+            }
+            assertFalse(it.hasNext());
+            for (int key = 0; key < 2_000; key++) {
+                assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.get(7), map.putIfAbsent(7, "x"));
+            expected.putIfAbsent(7, "x");
+            // snapshots taken while another thread writes are consistent
+            Task task = new Task() {
+                @Override
+                public void call() {
+                    for (int key = 2_000; key < 12_000; key++) {
+                        map.put(key, "Hello");
+                    }
+                }
+            };
+            task.execute();
+            do {
+                RootReference<Integer, String> snapshot = map.getSnapshotRoot();
+                long count = 0;
+                for (Cursor<Integer, String> c = map.cursor(snapshot, null, null, false); c.hasNext(); c.next()) {
+                    count++;
+                }
+                assertEquals(snapshot.root.getTotalCount(), count);
+            } while (!task.isFinished());
+            task.get();
+            for (int key = 2_000; key < 12_000; key++) {
+                expected.put(key, "Hello");
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals("lsm", map.getType());
+            assertEquals(expected.size(), map.size());
+            for (int key = 0; key < 2_000; key++) {
+                assertEquals(expected.get(key), map.get(key));
+            }
+            map.clear();
+            assertEquals(0, map.size());
+            assertNull(map.get(7));
+            map.put(1, "Hello");
+            s.removeMap(map);
+            for (String name : s.getMapNames()) {
+                assertFalse(name, name.startsWith("lsm."));
+            }
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testMultiFileStore() {
+        String dir = getBaseDir() + "/" + getTestName();
+        String coldDir = dir + "/cold";
+        FileUtils.deleteRecursive(dir, false);
+        FileUtils.createDirectories(coldDir);
+        String fileName = dir + "/test.mv.db";
+        HashMap<String, Object> config = new HashMap<>();
+        config.put("segmentSize", 64);
+        config.put("coldDirectory", coldDir);
+        config.put("hotSegmentCount", 2);
+        String value = new String(new char[100]);
+
+        AppendOnlyMultiFileStore fileStore = new AppendOnlyMultiFileStore(config);
+        fileStore.open(fileName, false, null);
+        try (MVStore s = new MVStore.Builder().adoptFileStore(fileStore).autoCommitDisabled().open()) {
+            s.setRetentionTime(0);
+            s.setVersionsToKeep(0);
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 2000; i++) {
+                map.put(i, i + value);
+                if (i % 100 == 0) {
+                    s.commit();
+                }
+            }
+            s.commit();
+            int segmentCount = fileStore.getSegmentCount();
+            assertTrue(segmentCount > 3);
+            for (int i = 0; i < 2000; i++) {
+                if (i % 4 != 0) {
+                    map.remove(i);
+                }
+                if (i % 100 == 0) {
+                    s.commit();
+                }
+            }
+            s.commit();
+            // sparse segments are emptied and deleted
+            s.compactFile(10_000);
+            assertTrue(fileStore.getSegmentCount() < segmentCount);
+            assertTrue(fileStore.getFillRate() > 50);
+            long version = s.getCurrentVersion();
+            map.put(-1, "x");
+            s.commit();
+            s.rollbackTo(version);
+            assertNull(map.get(-1));
+        }
+
+        fileStore = new AppendOnlyMultiFileStore(config);
+        fileStore.open(fileName, false, null);
+        try (MVStore s = new MVStore.Builder().adoptFileStore(fileStore).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(500, map.size());
+            for (int i = 0; i < 2000; i++) {
+                map.put(i, i + value);
+                if (i % 100 == 0) {
+                    s.commit();
+                }
+            }
+            // old segments are moved to the cold directory
+            s.compactFile(10_000);
+            assertFalse(FileUtils.newDirectoryStream(coldDir).isEmpty());
+        }
+
+        fileStore = new AppendOnlyMultiFileStore(config);
+        fileStore.open(fileName, true, null);
+        try (MVStore s = new MVStore.Builder().adoptFileStore(fileStore).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(2000, map.size());
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(i + value, map.get(i));
+            }
+        }
+        FileUtils.deleteRecursive(dir, false);
     }
 
     private void testFileFormatExample() {
@@ -297,6 +877,155 @@ private void testMaxChunkLength() {
         }
     }
 
+    private void testReadAhead() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).pageSplitSize(1024).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 20000; i++) {
+                map.put(i, "value " + i);
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).readAhead(4).open()) {
+            FileStore<?> fileStore = s.getFileStore();
+            MVMap<Integer, String> map = s.openMap("data");
+            Page<Integer, String> parent = map.getRootPage();
+            while (!parent.getChildPage(0).isLeaf()) {
+                parent = parent.getChildPage(0);
+            }
+            assertTrue(parent.getRawChildPageCount() >= 7);
+            // child j of a node has the keys from key j - 1 (inclusive) to
+            // key j (exclusive)
+            Cursor<Integer, String> c = map.cursor(null);
+            int i = 0;
+            while (i < parent.getKey(1)) {
+                assertEquals(i++, c.next().intValue());
+            }
+            // moving to the third leaf reads it and requests the 4 following
+            // leaves in the background
+            long readCount = fileStore.getReadCount();
+            assertEquals(i++, c.next().intValue());
+            long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (fileStore.getReadCount() < readCount + 5) {
+                if (System.nanoTime() - timeout > 0) {
+                    fail("pages read: " + (fileStore.getReadCount() - readCount));
+                }
+                Thread.yield();
+            }
+            // the next leaf was read in advance, it is in the cache
+            readCount = fileStore.getReadCount();
+            while (i < parent.getKey(3)) {
+                assertEquals(i++, c.next().intValue());
+            }
+            assertEquals(readCount, fileStore.getReadCount());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).readAhead(8).open()) {
+            assertEquals(8, s.getFileStore().getReadAheadPages());
+            MVMap<Integer, String> map = s.openMap("data");
+            int i = 0;
+            for (Cursor<Integer, String> c = map.cursor(null); c.hasNext(); i++) {
+                assertEquals(i, c.next().intValue());
+                assertEquals("value " + i, c.getValue());
+            }
+            assertEquals(20000, i);
+            i = 15000;
+            for (Cursor<Integer, String> c = map.cursor(15000, 5000, true); c.hasNext(); i--) {
+                assertEquals(i, c.next().intValue());
+            }
+            assertEquals(4999, i);
+            map.put(1, "changed");
+            Cursor<Integer, String> c = map.cursor(0);
+            c.skip(10000);
+            assertEquals(10000, c.next().intValue());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).cacheSize(0).readAhead(8).open()) {
+            assertEquals(0, s.getFileStore().getReadAheadPages());
+            MVMap<Integer, String> map = s.openMap("data");
+            int i = 2;
+            for (Cursor<Integer, String> c = map.cursor(2); c.hasNext(); i++) {
+                assertEquals(i, c.next().intValue());
+                assertEquals("value " + i, c.getValue());
+            }
+            assertEquals(20000, i);
+        }
+    }
+
+    private void testChunkTable() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().autoCompactFillRate(0)
+                .open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 40_000; i++) {
+                map.put(i, "value " + i);
+            }
+            s.commit();
+            // each chunk keeps one live leaf page
+            for (int i = 0; i < 1000; i++) {
+                map.put(i * 40, "new " + i);
+                s.commit();
+            }
+        }
+        long tableBlock = DataUtils.parseHexLong(readStoreHeader(fileName).get("chunkTable"));
+        assertTrue(tableBlock > 2);
+        int chunksFillRate, fillRate;
+        long readCount;
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            FileStore<?> fileStore = s.getFileStore();
+            readCount = fileStore.getReadCount();
+            chunksFillRate = fileStore.getChunksFillRate();
+            fillRate = fileStore.getFillRate();
+            assertFalse(s.getStoreHeader().containsKey("chunkTable"));
+            checkChunkTableData(s);
+        }
+        // a corrupt chunk table is ignored
+        try (FileChannel fc = FilePath.get(fileName).open("rw")) {
+            fc.write(ByteBuffer.allocate(16), tableBlock * 4096 + 100);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            FileStore<?> fileStore = s.getFileStore();
+            assertTrue(fileStore.getReadCount() > readCount);
+            assertEquals(chunksFillRate, fileStore.getChunksFillRate());
+            assertEquals(fillRate, fileStore.getFillRate());
+            checkChunkTableData(s);
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 100; i++) {
+                map.put(i * 40 + 1, "changed " + i);
+                s.commit();
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).readOnly().open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 100; i++) {
+                assertEquals("changed " + i, map.get(i * 40 + 1));
+            }
+            checkChunkTableData(s);
+        }
+        // no chunk table for small stores
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            s.openMap("data").put(1, "Hello");
+        }
+        assertFalse(readStoreHeader(fileName).containsKey("chunkTable"));
+    }
+
+    private void checkChunkTableData(MVStore s) {
+        MVMap<Integer, String> map = s.openMap("data");
+        assertEquals(40_000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("new " + i, map.get(i * 40));
+        }
+    }
+
+    private static Map<String, String> readStoreHeader(String fileName) throws Exception {
+        try (FileChannel fc = FilePath.get(fileName).open("r")) {
+            ByteBuffer buff = ByteBuffer.allocate(4096);
+            DataUtils.readFully(fc, 0, buff);
+            String header = new String(buff.array(), StandardCharsets.ISO_8859_1);
+            return DataUtils.parseMap(header.substring(0, header.indexOf('\n')));
+        }
+    }
+
     private void testCacheInfo() {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -430,7 +1159,7 @@ private void testNewerWriteVersion() {
         Map<String, Object> header = s.getStoreHeader();
         assertEquals(Integer.toString(CURRENT_FORMAT), header.get("format").toString());
         header.put("formatRead", Integer.toString(CURRENT_FORMAT));
-        header.put("format", Integer.toString(CURRENT_FORMAT + 1));
+        header.put("format", Integer.toString(NEWEST_FORMAT + 1));
         forceWriteStoreHeader(s);
         MVMap<Integer, String> m = s.openMap("data");
         forceWriteStoreHeader(s);
@@ -730,7 +1459,7 @@ private void testFileFormatChange() {
             Map<String, Object> header = s.getStoreHeader();
             int format = Integer.parseInt(header.get("format").toString());
             assertEquals(CURRENT_FORMAT, format);
-            header.put("format", Integer.toString(format + 1));
+            header.put("format", Integer.toString(NEWEST_FORMAT + 1));
             forceWriteStoreHeader(s);
         }
         assertThrows(DataUtils.ERROR_UNSUPPORTED_FORMAT, () -> openStore(fileName).close());
@@ -5,6 +5,10 @@
  */
 package org.h2.test.store;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,7 +17,10 @@
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
+import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
 
 /**
@@ -51,6 +58,89 @@ public boolean isEnabled() {
     public void test() throws Exception {
         testPerformanceComparison();
         testMemoryUsageComparison();
+        testSerializationPipelineComparison();
+        testStartupTimeComparison();
+    }
+
+    private void testStartupTimeComparison() throws IOException {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        int chunkCount = 100_000;
+        try (MVStore store = new MVStore.Builder().fileName(fileName).autoCommitDisabled()
+                .autoCompactFillRate(0).open()) {
+            Map<Integer, String> map = store.openMap("data");
+            for (int i = 0; i < chunkCount * 40; i++) {
+                map.put(i, "value " + i);
+            }
+            store.commit();
+            // each chunk keeps one live leaf page
+            for (int i = 0; i < chunkCount; i++) {
+                map.put(i * 40, "new " + i);
+                store.commit();
+            }
+        }
+        long chunkTable = 0, layoutMap = 0;
+        for (int i = 0; i < 5; i++) {
+            chunkTable = testStartupTime(fileName);
+            // overwrite the chunk table, so that the layout map is read
+            long tableBlock;
+            try (FileChannel fc = FilePath.get(fileName).open("rw")) {
+                ByteBuffer buff = ByteBuffer.allocate(4096);
+                DataUtils.readFully(fc, 0, buff);
+                String header = new String(buff.array(), StandardCharsets.ISO_8859_1);
+                tableBlock = DataUtils.parseHexLong(
+                        DataUtils.parseMap(header.substring(0, header.indexOf('\n'))).get("chunkTable"));
+                fc.write(ByteBuffer.allocate(16), tableBlock * 4096 + 16);
+            }
+            layoutMap = testStartupTime(fileName);
+        }
+        trace("open " + chunkCount + " chunks, chunk table: " + TimeUnit.NANOSECONDS.toMillis(chunkTable) +
+                " ms, layout map: " + TimeUnit.NANOSECONDS.toMillis(layoutMap) + " ms");
+        FileUtils.delete(fileName);
+    }
+
+    private static long testStartupTime(String fileName) {
+        long time = System.nanoTime();
+        MVStore store = new MVStore.Builder().fileName(fileName).open();
+        time = System.nanoTime() - time;
+        store.close();
+        return time;
+    }
+
+    private void testSerializationPipelineComparison() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long single = 0, parallel = 0;
+        for (int i = 0; i < 3; i++) {
+            single = testSerializationPipeline(1);
+            parallel = testSerializationPipeline(threads);
+        }
+        trace("serialization threads 1: " + TimeUnit.NANOSECONDS.toMillis(single) + " ms, " +
+                threads + ": " + TimeUnit.NANOSECONDS.toMillis(parallel) + " ms");
+    }
+
+    private long testSerializationPipeline(int serializationThreads) {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        String data = new String(new char[100]).replace((char) 0, 'x');
+        long time = System.nanoTime();
+        try (MVStore store = new MVStore.Builder().fileName(fileName).compress()
+                .serializationThreads(serializationThreads).open()) {
+            List<Map<Integer, String>> maps = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                maps.add(store.openMap("data" + i));
+            }
+            for (int round = 0; round < 10; round++) {
+                for (Map<Integer, String> map : maps) {
+                    for (int i = 0; i < 20_000; i++) {
+                        map.put(round * 20_000 + i, data);
+                    }
+                }
+                store.commit();
+            }
+        }
+        time = System.nanoTime() - time;
+        FileUtils.delete(fileName);
+        return time;
     }
 
     private void testMemoryUsageComparison() {
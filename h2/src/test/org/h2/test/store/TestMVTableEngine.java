@@ -98,6 +98,8 @@ public void test() throws Exception {
         testReuseDiskSpace();
 */
         testDataTypes();
+        testShardedPrimaryIndex();
+        testLSMTableEngine();
 //        testSimple();
 //        if (!config.travis) {
 //            testReverseDeletePerformance();
@@ -541,6 +543,68 @@ private void testCount() throws Exception {
 
     }
 
+    private void testShardedPrimaryIndex() throws Exception {
+        deleteDb(getTestName());
+        String url = getURL(getTestName() + ";PRIMARY_INDEX_SHARDS=4", true);
+        try (Connection conn = getConnection(url)) {
+            Statement stat = conn.createStatement();
+            stat.execute("create table test(id bigint generated by default as identity primary key, name varchar)");
+            stat.execute("insert into test(name) select 'Hello ' || x from system_range(1, 1000)");
+            stat.execute("delete from test where id between 100 and 199");
+            ResultSet rs = stat.executeQuery("select count(*), min(id), max(id) from test");
+            rs.next();
+            assertEquals(900, rs.getInt(1));
+            assertEquals(1, rs.getInt(2));
+            assertEquals(1000, rs.getInt(3));
+        }
+        try (Connection conn = getConnection(getURL(getTestName(), true))) {
+            Statement stat = conn.createStatement();
+            stat.execute("insert into test(name) values 'Hi'");
+            ResultSet rs = stat.executeQuery("select id, name from test where id > 998 order by id");
+            assertTrue(rs.next());
+            assertEquals(999, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(1000, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(1001, rs.getInt(1));
+            assertEquals("Hi", rs.getString(2));
+            assertFalse(rs.next());
+            rs = stat.executeQuery("select _rowid_ from test order by _rowid_ desc limit 1");
+            rs.next();
+            assertEquals(1001, rs.getInt(1));
+            stat.execute("drop table test");
+        }
+        deleteDb(getTestName());
+    }
+
+    private void testLSMTableEngine() throws Exception {
+        deleteDb(getTestName());
+        try (Connection conn = getConnection(getURL(getTestName(), true))) {
+            Statement stat = conn.createStatement();
+            stat.execute("create table test(id int primary key, name varchar) "
+                    + "engine \"org.h2.mvstore.db.LSMTableEngine\"");
+            stat.execute("insert into test select mod(x * 7919, 5000), 'Hello ' || x from system_range(1, 5000)");
+            stat.execute("update test set name = 'Hi' where id between 1000 and 1999");
+            stat.execute("delete from test where id between 2000 and 2999");
+            ResultSet rs = stat.executeQuery("select count(*), min(id), max(id) from test");
+            rs.next();
+            assertEquals(4000, rs.getInt(1));
+            assertEquals(0, rs.getInt(2));
+            assertEquals(4999, rs.getInt(3));
+        }
+        try (Connection conn = getConnection(getURL(getTestName(), true))) {
+            Statement stat = conn.createStatement();
+            ResultSet rs = stat.executeQuery("select name from test where id = 1500");
+            assertTrue(rs.next());
+            assertEquals("Hi", rs.getString(1));
+            rs = stat.executeQuery("select count(*) from test where id between 1990 and 3009");
+            rs.next();
+            assertEquals(20, rs.getInt(1));
+            stat.execute("drop table test");
+        }
+        deleteDb(getTestName());
+    }
+
     private void testMinMaxWithNull() throws Exception {
         Statement stat;
         Statement stat2;
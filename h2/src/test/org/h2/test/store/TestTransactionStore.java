@@ -12,13 +12,17 @@
 import java.sql.Statement;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.engine.IsolationLevel;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.LSMTreeMap;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.tx.Transaction;
@@ -57,6 +61,7 @@ public void test() throws Exception {
         testConcurrentUpdate();
         testRepeatedChange();
         testTransactionAge();
+        testManyOpenTransactions();
         testGetModifiedMaps();
         testKeyIterator();
         testTwoPhaseCommit();
@@ -67,6 +72,14 @@ public void test() throws Exception {
         testStoreMultiThreadedReads();
         testCommitAfterMapRemoval();
         testDeadLock();
+        testShardedMap();
+        testLSMTreeMap();
+        testRedoLog();
+        testLazyCommit();
+        testLazyCommitStoresChanges();
+        testCompactUndoLog();
+        testWaitQueue();
+        testCommittedPages();
     }
 
     private void testHCLFKey() {
@@ -351,6 +364,40 @@ private void testTransactionAge() {
         s.close();
     }
 
+    private void testManyOpenTransactions() {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            ArrayList<Transaction> list = new ArrayList<>();
+            for (int i = 1; i <= 70_000; i++) {
+                Transaction t = ts.begin();
+                assertEquals(i, t.getId());
+                list.add(t);
+            }
+            Transaction last = list.get(list.size() - 1);
+            last.openMap("data").put(1, "x");
+            assertEquals(70_000, ts.getOpenTransactions().size());
+            for (int i = 0; i < list.size(); i += 2) {
+                list.get(i).commit();
+            }
+            // the lowest free ids are re-used first
+            assertEquals(1, ts.begin().getId());
+            assertEquals(3, ts.begin().getId());
+            last.commit();
+            Transaction t = ts.begin();
+            assertEquals("x", t.openMap("data").get(1));
+            for (int i = 1; i < list.size() - 1; i += 2) {
+                list.get(i).commit();
+            }
+            // only the ids in use are visited
+            List<Transaction> open = ts.getOpenTransactions();
+            assertEquals(3, open.size());
+            assertEquals(1, open.get(0).getId());
+            assertEquals(3, open.get(1).getId());
+            assertEquals(t.getId(), open.get(2).getId());
+        }
+    }
+
     private void testGetModifiedMaps() {
         try (MVStore s = MVStore.open(null)) {
             TransactionStore ts = new TransactionStore(s);
@@ -997,4 +1044,429 @@ public void call() throws Exception {
             assertEquals(" "+stepCount, (stepCount+1) * (threadCount - failureCount), count);
         }
     }
+    private void testShardedMap() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            LongDataType keyType = LongDataType.INSTANCE;
+            Transaction t = ts.begin();
+            TransactionMap<Long, Long> map = t.openMap("test", keyType, keyType, 8);
+            AtomicInteger next = new AtomicInteger();
+            Task[] tasks = new Task[4];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() {
+                        Transaction tx = ts.begin();
+                        TransactionMap<Long, Long> m = tx.openMap("test", keyType, keyType);
+                        for (long x; (x = next.incrementAndGet()) <= 1_000;) {
+                            m.put(x, x * 10);
+                        }
+                        tx.commit();
+                    }
+                };
+                tasks[i].execute();
+            }
+            for (Task task : tasks) {
+                task.get();
+            }
+            t.commit();
+            t = ts.begin();
+            map = t.openMap("test", keyType, keyType);
+            assertEquals(1_000, map.sizeAsLong());
+            assertEquals(1L, map.firstKey().longValue());
+            assertEquals(1_000L, map.lastKey().longValue());
+            assertEquals(51L, map.higherKey(50L).longValue());
+            map.remove(500L);
+            map.put(1_001L, 10_010L);
+            Transaction t2 = ts.begin();
+            TransactionMap<Long, Long> map2 = t2.openMap("test", keyType, keyType);
+            assertEquals(5_000L, map2.get(500L).longValue());
+            assertNull(map2.get(1_001L));
+            assertEquals(1_000, map2.sizeAsLong());
+            long expected = 1;
+            for (Iterator<Long> it = map.keyIterator(null); it.hasNext(); expected++) {
+                if (expected == 500) {
+                    expected++;
+                }
+                assertEquals(expected, it.next().longValue());
+            }
+            assertEquals(1_002, expected);
+            t.rollback();
+            assertEquals(5_000L, map2.get(500L).longValue());
+            assertEquals(1_000, map2.sizeAsLong());
+            t2.commit();
+        }
+    }
+
+    private void testLSMTreeMap() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            LongDataType keyType = LongDataType.INSTANCE;
+            Transaction t = ts.begin();
+            TransactionMap<Long, Long> map = t.openMap("test", keyType, keyType,
+                    new MVMap.Builder<>().lsmTree());
+            assertEquals("lsm", map.map.getType());
+            ((LSMTreeMap<?, ?>) map.map).setMemtableSize(50);
+            t.commit();
+            AtomicInteger next = new AtomicInteger();
+            Task[] tasks = new Task[4];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() {
+                        Transaction tx = ts.begin();
+                        TransactionMap<Long, Long> m = tx.openMap("test", keyType, keyType);
+                        for (long x; (x = next.incrementAndGet()) <= 1_000;) {
+                            // random order of keys
+                            m.put(x * 7_919 % 1_000, x);
+                        }
+                        tx.commit();
+                    }
+                };
+                tasks[i].execute();
+            }
+            for (Task task : tasks) {
+                task.get();
+            }
+            t = ts.begin();
+            map = t.openMap("test", keyType, keyType);
+            assertEquals(1_000, map.sizeAsLong());
+            assertEquals(0L, map.firstKey().longValue());
+            assertEquals(999L, map.lastKey().longValue());
+            map.remove(500L);
+            map.put(1_000L, 1L);
+            Transaction t2 = ts.begin();
+            TransactionMap<Long, Long> map2 = t2.openMap("test", keyType, keyType);
+            assertNotNull(map2.get(500L));
+            assertNull(map2.get(1_000L));
+            assertEquals(1_000, map2.sizeAsLong());
+            long expected = 0;
+            for (Iterator<Long> it = map.keyIterator(null); it.hasNext(); expected++) {
+                if (expected == 500) {
+                    expected++;
+                }
+                assertEquals(expected, it.next().longValue());
+            }
+            assertEquals(1_001, expected);
+            t.commit();
+            // read committed
+            assertNull(map2.get(500L));
+            t2.commit();
+            t = ts.begin();
+            map = t.openMap("test", keyType, keyType);
+            assertNull(map.get(500L));
+            assertEquals(1L, map.get(1_000L).longValue());
+            assertEquals(1_000, map.sizeAsLong());
+            t.commit();
+        }
+    }
+
+    private void testRedoLog() {
+        String fileName = getBaseDir() + "/testRedoLog.h3";
+        String redoLogName = fileName + ".redo";
+        FileUtils.delete(fileName);
+        FileUtils.delete(redoLogName);
+        MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open();
+        TransactionStore ts = new TransactionStore(s);
+        ts.setRedoLog(redoLogName);
+        ts.init();
+        Transaction t = ts.begin();
+        TransactionMap<String, String> m = t.openMap("test");
+        m.put("1", "Hello");
+        m.put("2", "World");
+        t.commit();
+        // the changes are stored, the undo log of an open transaction too
+        s.commit();
+        Transaction open = ts.begin();
+        open.openMap("test").put("3", "Open");
+        t = ts.begin();
+        m = t.openMap("test");
+        m.remove("1");
+        m.put("2", "Hi");
+        m.put("4", "New");
+        t.commit();
+        t = ts.begin();
+        TransactionMap<Long, String> m2 = t.openMap("second", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        m2.put(1L, "x");
+        t.commit();
+        s.commit();
+        // committed after the last store commit, only in the redo log
+        t = ts.begin();
+        t.openMap("test").put("5", "Logged");
+        t.commit();
+        assertTrue(FileUtils.size(redoLogName) > 0);
+        s.closeImmediately();
+
+        s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open();
+        ts = new TransactionStore(s);
+        ts.setRedoLog(redoLogName);
+        ts.init();
+        ts.endLeftoverTransactions();
+        t = ts.begin();
+        m = t.openMap("test");
+        assertNull(m.get("1"));
+        assertEquals("Hi", m.get("2"));
+        assertNull(m.get("3"));
+        assertEquals("New", m.get("4"));
+        assertEquals("Logged", m.get("5"));
+        m2 = t.openMap("second", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        assertEquals("x", m2.get(1L));
+        t.commit();
+        ts.close();
+        s.close();
+        assertFalse(FileUtils.exists(redoLogName));
+        FileUtils.delete(fileName);
+    }
+
+    private void testLazyCommit() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            ts.setLazyCommitThreshold(10);
+            Transaction t = ts.begin();
+            TransactionMap<Long, String> m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 100; i++) {
+                m.put(i, "a" + i);
+            }
+            t.commit();
+            assertEquals(1, ts.getPendingCommitCount());
+            // a small transaction is resolved at once
+            t = ts.begin();
+            m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            m.put(1_000L, "small");
+            t.commit();
+            assertEquals(1, ts.getPendingCommitCount());
+
+            t = ts.begin();
+            m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals(101, m.sizeAsLong());
+            assertEquals("a5", m.get(5L));
+            for (long i = 0; i < 50; i++) {
+                m.remove(i);
+            }
+            Transaction t2 = ts.begin();
+            TransactionMap<Long, String> m2 = t2.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals("a5", m2.get(5L));
+            assertEquals(101, m2.sizeAsLong());
+            t.commit();
+            assertEquals(2, ts.getPendingCommitCount());
+            assertNull(m2.get(5L));
+            assertEquals(51, m2.sizeAsLong());
+            m2.put(60L, "b60");
+            t2.commit();
+
+            // the ids of pending commits are re-used only once resolved
+            ts.setMaxTransactionId(2);
+            t = ts.begin();
+            assertEquals(1, t.getId());
+            assertEquals(1, ts.getPendingCommitCount());
+            t2 = ts.begin();
+            assertEquals(2, t2.getId());
+            assertEquals(0, ts.getPendingCommitCount());
+            m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals(51, m.sizeAsLong());
+            assertEquals("b60", m.get(60L));
+            assertNull(m.get(5L));
+            t.commit();
+            t2.commit();
+            ts.setMaxTransactionId(65_535);
+            for (Long k : m.map.keySet()) {
+                assertEquals(0L, m.map.get(k).getOperationId());
+            }
+
+            // pending commits are resolved on close
+            t = ts.begin();
+            m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 100; i++) {
+                m.put(i, "c" + i);
+            }
+            t.commit();
+            assertEquals(1, ts.getPendingCommitCount());
+            ts.close();
+            assertEquals(0, ts.getPendingCommitCount());
+            for (Long k : m.map.keySet()) {
+                assertEquals(0L, m.map.get(k).getOperationId());
+            }
+        }
+    }
+
+    private void testLazyCommitStoresChanges() {
+        String fileName = getBaseDir() + "/testLazyCommitStoresChanges.h3";
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitBufferSize(64).open()) {
+            s.setAutoCommitDelay(1_000_000);
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            ts.setLazyCommitThreshold(10);
+            Transaction t = ts.begin();
+            TransactionMap<Long, String> m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            int max = s.getAutoCommitMemory();
+            for (long i = 0; s.getUnsavedMemory() * 5 < max * 4; i++) {
+                m.put(i, "a" + i);
+            }
+            long version = s.getCurrentVersion();
+            t.commit();
+            assertEquals(1, ts.getPendingCommitCount());
+            // the undo log of the pending commit doesn't prevent storing
+            // the changes when the transaction ends
+            assertTrue(s.getCurrentVersion() > version);
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testCompactUndoLog() {
+        String fileName = getBaseDir() + "/testCompactUndoLog.h3";
+        FileUtils.delete(fileName);
+        String wide = new String(new char[10_000]).replace('\0', 'x');
+        MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open();
+        TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        Transaction t = ts.begin();
+        TransactionMap<Long, String> m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        for (long i = 0; i < 100; i++) {
+            m.put(i, wide + i);
+        }
+        t.commit();
+        s.commit();
+
+        t = ts.begin();
+        m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        m.put(1L, "a");
+        long sp = t.setSavepoint();
+        m.put(1L, "b");
+        m.remove(2L);
+        Iterator<Change> it = t.getChanges(0);
+        assertEquals(wide + 2, it.next().value);
+        assertEquals("a", it.next().value);
+        assertEquals(wide + 1, it.next().value);
+        assertFalse(it.hasNext());
+        t.rollbackToSavepoint(sp);
+        assertEquals("a", m.get(1L));
+        assertEquals(wide + 2, m.get(2L));
+        t.rollback();
+        t = ts.begin();
+        m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        assertEquals(wide + 1, m.get(1L));
+
+        // the old values of committed entries are not copied to the undo log
+        for (long i = 0; i < 100; i++) {
+            m.put(i, "y");
+        }
+        MVMap<?, ?> undoLog = s.openMap(TransactionStore.UNDO_LOG_NAME_PREFIX + '.' + t.getId());
+        assertFalse(undoLog.isCached());
+        s.commit();
+        assertTrue(undoLog.getDiskSpaceUsed(false) < 100 * wide.length());
+        s.closeImmediately();
+
+        // the changes are rolled back on recovery
+        s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open();
+        ts = new TransactionStore(s);
+        ts.init();
+        ts.endLeftoverTransactions();
+        t = ts.begin();
+        m = t.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+        for (long i = 0; i < 100; i++) {
+            assertEquals(wide + i, m.get(i));
+        }
+        t.commit();
+        ts.close();
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testWaitQueue() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            TransactionStore.RollbackListener listener = (map, key, existingValue, restoredValue) -> {};
+            Transaction t0 = ts.begin(listener, 10_000, 10, IsolationLevel.READ_COMMITTED);
+            t0.openMap("test").put("1", "x");
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            Transaction[] waiters = new Transaction[3];
+            Task[] tasks = new Task[waiters.length];
+            for (int i = 0; i < waiters.length; i++) {
+                int index = i;
+                Transaction t = ts.begin(listener, 10_000, i + 1, IsolationLevel.READ_COMMITTED);
+                waiters[i] = t;
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() {
+                        t.openMap("test").put("1", "v" + index);
+                        order.add(index);
+                        t.commit();
+                    }
+                };
+                tasks[i].execute();
+                while (t.getBlockerId() == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            // the transactions wait in a queue, each one for the one before
+            assertEquals(10, waiters[0].getBlockerId());
+            assertEquals(1, waiters[1].getBlockerId());
+            assertEquals(2, waiters[2].getBlockerId());
+            t0.commit();
+            for (Task task : tasks) {
+                task.get();
+            }
+            assertEquals("[0, 1, 2]", order.toString());
+            Transaction t = ts.begin();
+            assertEquals("v2", t.openMap("test").get("1"));
+            t.commit();
+        }
+    }
+
+    private void testCommittedPages() {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            TransactionStore.RollbackListener listener = (map, key, existingValue, restoredValue) -> {};
+            Transaction t = ts.begin();
+            TransactionMap<Integer, String> m = t.openMap("test");
+            for (int i = 0; i < 5000; i++) {
+                m.put(i, "v" + i);
+            }
+            t.commit();
+            for (IsolationLevel level : new IsolationLevel[] { IsolationLevel.READ_COMMITTED,
+                    IsolationLevel.REPEATABLE_READ, IsolationLevel.SNAPSHOT }) {
+                Transaction reader = ts.begin(listener, 0, 0, level);
+                TransactionMap<Integer, String> rm = reader.openMap("test");
+                assertEquals(5000, count(rm.entryIterator(null, null)));
+                Transaction other = ts.begin();
+                TransactionMap<Integer, String> om = other.openMap("test");
+                om.put(10, "x");
+                om.remove(20);
+                om.put(9000, "new");
+                rm.put(4000, "own");
+                rm.put(6000, "own");
+                rm.remove(30);
+                int count = 0;
+                for (Iterator<Entry<Integer, String>> it = rm.entryIterator(null, null); it.hasNext();) {
+                    Entry<Integer, String> e = it.next();
+                    int key = e.getKey();
+                    assertTrue(key != 30 && key != 9000);
+                    if (key == 10 || key == 20) {
+                        assertEquals("v" + key, e.getValue());
+                    } else if (key == 4000 || key == 6000) {
+                        assertEquals("own", e.getValue());
+                    }
+                    count++;
+                }
+                assertEquals(5000, count);
+                other.rollback();
+                reader.rollback();
+            }
+        }
+    }
+
+    private static int count(Iterator<?> it) {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
 }
@@ -28,6 +28,7 @@
 import org.h2.message.DbException;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.cache.FilePathCache;
+import org.h2.store.fs.FileBase;
 import org.h2.store.fs.FilePath;
 import org.h2.store.fs.FileUtils;
 import org.h2.store.fs.encrypt.FilePathEncrypt;
@@ -74,6 +75,7 @@ public void test() throws Exception {
         FilePathDebug.register().setTrace(true);
         FilePathEncrypt.register();
         testSimpleExpandTruncateSize();
+        testReadShared();
         testSplitDatabaseInZip();
         testDatabaseInMemFileSys();
         testDatabaseInJar();
@@ -82,6 +84,7 @@ public void test() throws Exception {
         FileUtils.toRealPath(f);
         testFileSystem(getBaseDir() + "/fs");
         testFileSystem("async:" + getBaseDir() + "/fs");
+        testFileSystem("direct:" + getBaseDir() + "/fs");
         testFileSystem("memFS:");
         testFileSystem("memLZF:");
         testFileSystem("nioMemFS:");
@@ -245,6 +248,53 @@ private void testSimpleExpandTruncateSize() throws Exception {
         FileUtils.deleteRecursive("memFS:", false);
     }
 
+    private void testReadShared() throws Exception {
+        String f = "nioMapped:" + getBaseDir() + "/fs/shared.data";
+        FileUtils.createDirectories(getBaseDir() + "/fs");
+        FileBase c = (FileBase) FileUtils.open(f, "rw");
+        c.write(ByteBuffer.wrap(new byte[8192]), 0);
+        ByteBuffer buff = c.readShared(4096, 4096);
+        assertTrue(buff.isReadOnly());
+        assertTrue(buff.isDirect());
+        assertEquals(4096, buff.remaining());
+        // the buffer is not a copy, so later writes are visible
+        c.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 4096);
+        assertEquals(1, buff.get(0));
+        assertEquals(3, buff.get(2));
+        // growing the file re-maps it, the buffer stays valid
+        c.write(ByteBuffer.wrap(new byte[1]), 16383);
+        assertEquals(16384, c.size());
+        assertEquals(2, buff.get(1));
+        // truncating doesn't wait until the shared buffers are released,
+        // the file is truncated later, and they stay valid until then
+        c.truncate(4096);
+        assertEquals(4096, c.size());
+        assertEquals(2, buff.get(1));
+        assertNull(c.readShared(0, 4096));
+        String path = getBaseDir() + "/fs/shared.data";
+        assertEquals(16384, FileUtils.size(path));
+        // the content of the range that is not truncated yet is cleared
+        c.write(ByteBuffer.wrap(new byte[1]), 8191);
+        assertEquals(8192, c.size());
+        ByteBuffer dst = ByteBuffer.allocate(3);
+        c.read(dst, 4096);
+        assertEquals(new byte[3], dst.array());
+        buff = null;
+        for (int i = 0; i < 100 && buff == null; i++) {
+            System.gc();
+            buff = c.readShared(0, 4096);
+        }
+        assertEquals(4096, buff.remaining());
+        assertEquals(8192, FileUtils.size(path));
+        c.truncate(4096);
+        assertEquals(4096, c.size());
+        buff = null;
+        c.close();
+        assertEquals(4096, FileUtils.size(path));
+        FileUtils.delete(f);
+        assertFalse(FileUtils.exists(f));
+    }
+
     private void testSplitDatabaseInZip() throws SQLException {
         String dir = getBaseDir() + "/fs";
         FileUtils.deleteRecursive(dir, false);
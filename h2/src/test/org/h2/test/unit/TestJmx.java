@@ -72,13 +72,18 @@ public void test() throws Exception {
                 getAttribute(name, "Mode").toString());
         assertEquals("false", mbeanServer.
                 getAttribute(name, "ReadOnly").toString());
+        assertEquals("0", mbeanServer.
+                getAttribute(name, "ScrubbedPageCount").toString());
+        assertEquals("0", mbeanServer.
+                getAttribute(name, "ScrubErrorCount").toString());
+        assertNull(mbeanServer.getAttribute(name, "ScrubLastError"));
         assertEquals("1", mbeanServer.
                 getAttribute(name, "TraceLevel").toString());
         mbeanServer.setAttribute(name, new Attribute("TraceLevel", 0));
         assertEquals("0", mbeanServer.
                 getAttribute(name, "TraceLevel").toString());
         assertEquals(Constants.FULL_VERSION, mbeanServer.getAttribute(name, "Version").toString());
-        assertEquals(10, info.getAttributes().length);
+        assertEquals(13, info.getAttributes().length);
         result = mbeanServer.invoke(name, "listSettings", null, null).toString();
         assertContains(result, "ANALYZE_AUTO");
 